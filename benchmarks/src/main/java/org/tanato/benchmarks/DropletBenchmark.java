@@ -0,0 +1,164 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.benchmarks;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.concurrent.TimeUnit;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.processing.sql.DropletFollower;
+import org.tanato.processing.sql.DropletPath;
+import org.tanato.processing.sql.DropletPathCache;
+
+/**
+ * Throughput of the droplet tracing on synthetic TINs.
+ *
+ * The score of singlePath is a number of paths per second, and the score of
+ * batch is a number of paths per second when the paths are computed in a row.
+ * The secondary "steps" result gives the number of triangles, edges and
+ * points crossed per second. The allocation rate is given by the gc profiler :
+ *
+ * java -jar target/benchmarks.jar DropletBenchmark -prof gc
+ * @author alexis
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DropletBenchmark {
+
+        private static final long TIN_SEED = 42;
+        private static final long START_SEED = 7;
+        private static final int START_POINT_COUNT = 10000;
+        private static final int BATCH_SIZE = 1000;
+
+        /**
+         * The TIN and the start points, shared by all the threads.
+         */
+        @State(Scope.Benchmark)
+        public static class TIN {
+
+                @Param({"10000", "100000", "1000000", "5000000"})
+                public int triangles;
+                DropletFollower model;
+                Geometry[] startPoints;
+
+                @Setup(Level.Trial)
+                public void setUp() throws Exception {
+                        SyntheticTIN tin = new SyntheticTIN(triangles, TIN_SEED);
+                        DataSet starts = tin.createStartPoints(1, START_SEED);
+                        model = new DropletFollower(null,
+                                new DataSet[]{tin.getPoints(), tin.getEdges(), tin.getTriangles(), starts},
+                                new Value[]{}, new NullProgressMonitor());
+                        startPoints = tin.getStartPoints(START_POINT_COUNT, START_SEED);
+                }
+        }
+
+        /**
+         * The follower of a thread. The cache of the paths is emptied before
+         * each iteration, so that all the iterations measure the same thing.
+         */
+        @State(Scope.Thread)
+        public static class Follower {
+
+                @Param({"true", "false"})
+                public boolean cache;
+                DropletFollower follower;
+                int next = 0;
+
+                @Setup(Level.Trial)
+                public void setUp(TIN tin) {
+                        follower = new DropletFollower(tin.model);
+                }
+
+                @Setup(Level.Iteration)
+                public void resetCache() {
+                        follower.setPathCache(cache ? new DropletPathCache(DropletPathCache.DEFAULT_CAPACITY) : null);
+                }
+        }
+
+        /**
+         * Number of steps done by the droplets, reported as a rate.
+         */
+        @State(Scope.Thread)
+        @AuxCounters(AuxCounters.Type.OPERATIONS)
+        public static class Steps {
+
+                public long steps;
+
+                @Setup(Level.Iteration)
+                public void reset() {
+                        steps = 0;
+                }
+        }
+
+        @Benchmark
+        public int singlePath(TIN tin, Follower follower, Steps counter) throws Exception {
+                Geometry start = tin.startPoints[follower.next];
+                follower.next = (follower.next + 1) % tin.startPoints.length;
+                return follow(follower.follower, start, counter);
+        }
+
+        @Benchmark
+        @OperationsPerInvocation(BATCH_SIZE)
+        public int batch(TIN tin, Follower follower, Steps counter) throws Exception {
+                int points = 0;
+                for (int k = 0; k < BATCH_SIZE; k++) {
+                        points += follow(follower.follower, tin.startPoints[follower.next], counter);
+                        follower.next = (follower.next + 1) % tin.startPoints.length;
+                }
+                return points;
+        }
+
+        private static int follow(DropletFollower follower, Geometry start, Steps counter) throws Exception {
+                long before = follower.getStepCount();
+                DropletPath path = follower.getPath(start);
+                counter.steps += follower.getStepCount() - before;
+                return path.size();
+        }
+}
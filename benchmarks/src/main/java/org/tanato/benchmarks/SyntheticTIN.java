@@ -0,0 +1,247 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.benchmarks;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.Random;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DriverException;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.tanato.model.TINSchema;
+
+/**
+ * A regular TIN, built in memory with the fields read by the droplet functions.
+ *
+ * The TIN covers a grid of square cells, each of them being split in two
+ * triangles along its diagonal. The altitude of the points comes from a smooth
+ * terrain plus a small random jitter, so that the TIN is the same for a given
+ * seed.
+ *
+ * Only the fields used by TINTopology are written : the edge and triangle
+ * tables don't contain any geometry, to keep the largest TINs in memory.
+ * @author alexis
+ */
+public final class SyntheticTIN {
+
+        // Size of a cell, in meters
+        public static final double CELL_SIZE = 10;
+        private static final GeometryFactory GF = new GeometryFactory();
+        private final int cols;
+        private final int rows;
+        private final MemoryDataSetDriver points;
+        private final MemoryDataSetDriver edges;
+        private final MemoryDataSetDriver triangles;
+
+        /**
+         * Build a TIN that contains at least triangleCount triangles.
+         * @param triangleCount
+         * @param seed
+         * @throws DriverException
+         */
+        public SyntheticTIN(int triangleCount, long seed) throws DriverException {
+                cols = Math.max(1, (int) Math.ceil(Math.sqrt(triangleCount / 2.0)));
+                rows = cols;
+                Random random = new Random(seed);
+                points = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID}));
+                for (int j = 0; j <= rows; j++) {
+                        for (int i = 0; i <= cols; i++) {
+                                double x = i * CELL_SIZE;
+                                double y = j * CELL_SIZE;
+                                double z = getTerrainZ(x, y) + (random.nextDouble() - 0.5) * 0.1;
+                                points.addValues(new Value[]{
+                                                ValueFactory.createValue(GF.createPoint(new Coordinate(x, y, z))),
+                                                ValueFactory.createValue(getPointGID(i, j))});
+                        }
+                }
+
+                edges = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.STARTPOINT_NODE_FIELD, TINSchema.ENDPOINT_NODE_FIELD,
+                                TINSchema.LEFT_TRIANGLE_FIELD, TINSchema.RIGHT_TRIANGLE_FIELD}));
+                // Horizontal edges, from (i, j) to (i + 1, j)
+                for (int j = 0; j <= rows; j++) {
+                        for (int i = 0; i < cols; i++) {
+                                addEdge(getHorizontalEdgeGID(i, j), getPointGID(i, j), getPointGID(i + 1, j),
+                                        j < rows ? getLowerTriangleGID(i, j) : -1,
+                                        j > 0 ? getUpperTriangleGID(i, j - 1) : -1);
+                        }
+                }
+                // Vertical edges, from (i, j) to (i, j + 1)
+                for (int j = 0; j < rows; j++) {
+                        for (int i = 0; i <= cols; i++) {
+                                addEdge(getVerticalEdgeGID(i, j), getPointGID(i, j), getPointGID(i, j + 1),
+                                        i > 0 ? getLowerTriangleGID(i - 1, j) : -1,
+                                        i < cols ? getUpperTriangleGID(i, j) : -1);
+                        }
+                }
+                // Diagonals, from (i, j) to (i + 1, j + 1)
+                for (int j = 0; j < rows; j++) {
+                        for (int i = 0; i < cols; i++) {
+                                addEdge(getDiagonalEdgeGID(i, j), getPointGID(i, j), getPointGID(i + 1, j + 1),
+                                        getUpperTriangleGID(i, j), getLowerTriangleGID(i, j));
+                        }
+                }
+
+                triangles = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD,
+                                TINSchema.EDGE_2_GID_FIELD}));
+                for (int j = 0; j < rows; j++) {
+                        for (int i = 0; i < cols; i++) {
+                                addTriangle(getLowerTriangleGID(i, j), getHorizontalEdgeGID(i, j),
+                                        getVerticalEdgeGID(i + 1, j), getDiagonalEdgeGID(i, j));
+                                addTriangle(getUpperTriangleGID(i, j), getDiagonalEdgeGID(i, j),
+                                        getHorizontalEdgeGID(i, j + 1), getVerticalEdgeGID(i, j));
+                        }
+                }
+        }
+
+        /**
+         * Create a table of count start points, randomly spread over the TIN.
+         * @param count
+         * @param seed
+         * @return
+         * @throws DriverException
+         */
+        public MemoryDataSetDriver createStartPoints(int count, long seed) throws DriverException {
+                MemoryDataSetDriver result = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY)},
+                        new String[]{TINSchema.GEOM_FIELD}));
+                Geometry[] geoms = getStartPoints(count, seed);
+                for (int k = 0; k < count; k++) {
+                        result.addValues(new Value[]{ValueFactory.createValue(geoms[k])});
+                }
+                return result;
+        }
+
+        /**
+         * Get count start points, randomly spread over the TIN. The points are
+         * kept away from the border of the TIN.
+         * @param count
+         * @param seed
+         * @return
+         */
+        public Geometry[] getStartPoints(int count, long seed) {
+                Random random = new Random(seed);
+                double width = cols * CELL_SIZE;
+                double height = rows * CELL_SIZE;
+                Geometry[] result = new Geometry[count];
+                for (int k = 0; k < count; k++) {
+                        double x = width * (0.01 + 0.98 * random.nextDouble());
+                        double y = height * (0.01 + 0.98 * random.nextDouble());
+                        result[k] = GF.createPoint(new Coordinate(x, y));
+                }
+                return result;
+        }
+
+        public MemoryDataSetDriver getPoints() {
+                return points;
+        }
+
+        public MemoryDataSetDriver getEdges() {
+                return edges;
+        }
+
+        public MemoryDataSetDriver getTriangles() {
+                return triangles;
+        }
+
+        public int getTriangleCount() {
+                return 2 * cols * rows;
+        }
+
+        /**
+         * The terrain goes down to the origin, with some hills and valleys
+         * so that the droplets meet edges and points.
+         */
+        private static double getTerrainZ(double x, double y) {
+                return 0.01 * (x + y) + 2 * Math.sin(x / 230) * Math.cos(y / 170);
+        }
+
+        private void addEdge(int gid, int start, int end, int left, int right) throws DriverException {
+                edges.addValues(new Value[]{ValueFactory.createValue(gid), ValueFactory.createValue(start),
+                                ValueFactory.createValue(end), ValueFactory.createValue(left),
+                                ValueFactory.createValue(right)});
+        }
+
+        private void addTriangle(int gid, int e0, int e1, int e2) throws DriverException {
+                triangles.addValues(new Value[]{ValueFactory.createValue(gid), ValueFactory.createValue(e0),
+                                ValueFactory.createValue(e1), ValueFactory.createValue(e2)});
+        }
+
+        private int getPointGID(int i, int j) {
+                return 1 + j * (cols + 1) + i;
+        }
+
+        private int getHorizontalEdgeGID(int i, int j) {
+                return 1 + j * cols + i;
+        }
+
+        private int getVerticalEdgeGID(int i, int j) {
+                return 1 + cols * (rows + 1) + j * (cols + 1) + i;
+        }
+
+        private int getDiagonalEdgeGID(int i, int j) {
+                return 1 + cols * (rows + 1) + (cols + 1) * rows + j * cols + i;
+        }
+
+        /**
+         * The triangle (i, j), (i + 1, j), (i + 1, j + 1)
+         */
+        private int getLowerTriangleGID(int i, int j) {
+                return 1 + 2 * (j * cols + i);
+        }
+
+        /**
+         * The triangle (i, j), (i + 1, j + 1), (i, j + 1)
+         */
+        private int getUpperTriangleGID(int i, int j) {
+                return 2 + 2 * (j * cols + i);
+        }
+}
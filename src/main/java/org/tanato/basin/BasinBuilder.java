@@ -39,29 +39,18 @@ package org.tanato.basin;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.LinearRing;
-import com.vividsolutions.jts.geom.MultiLineString;
-import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.Polygonal;
-import com.vividsolutions.jts.operation.union.UnaryUnionOp;
-import com.vividsolutions.jts.precision.EnhancedPrecisionOp;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.gdms.data.SQLDataSourceFactory;
-import org.gdms.data.NoSuchTableException;
-import org.gdms.data.indexes.DefaultAlphaQuery;
-import org.gdms.data.indexes.IndexException;
-import org.gdms.data.values.Value;
-import org.gdms.data.values.ValueFactory;
-import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.jdelaunay.delaunay.error.DelaunayError;
 import org.jdelaunay.delaunay.geometries.DEdge;
@@ -69,152 +58,217 @@ import org.jdelaunay.delaunay.geometries.DPoint;
 import org.jdelaunay.delaunay.geometries.DTriangle;
 import org.jdelaunay.delaunay.tools.Tools;
 import org.jhydrocell.hydronetwork.HydroProperties;
-import org.orbisgis.progress.NullProgressMonitor;
-import org.tanato.factory.TINFeatureFactory;
-import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
 
 /**
  * This class is used to build basin graphs from a given TIN, and a given TIn feature
  * used as a start for our processing.
+ *
+ * The TIN is read through a TINTopology, that is never modified. Several
+ * builders can then share the same TINTopology and compute their basins
+ * concurrently, each builder keeping its own processing state.
  * @author alexis
  */
 public class BasinBuilder {
 
 	private int firstGID;
 	private int startType;
-        private final DataSet sdsEdges;
-        private final DataSet sdsTriangles;
-        private final DataSet sdsPoints;
+        private final TINTopology topology;
         private GeometryFactory gf = new GeometryFactory();
         //Used to set the dimension of the TIN feature we use to start our processing.
         public static final int TIN_POINT = 0;
         public static final int TIN_EDGE = 1;
         public static final int TIN_TRIANGLE = 2;
-        private final SQLDataSourceFactory dsf;
 	private EdgePartManager remainingEP;
-	private LinkedList<PointPart> remainingPoints;
-	private Geometry basin;
-	private MultiLineString lines;
-	private int geomTriIndex;
-	private int gidTriE0Index;
-	private int gidTriE1Index;
-	private int gidTriE2Index;
-	private int gidEdgeLeft;
-	private int gidEdgeRight;
-	private int gidEdgeStart;
-	private int gidEdgeEnd;
-	private int geomPointIndex;
-	private int geomEdgeIndex;
-	private int edgeProperty;
+	private PriorityQueue<PointPart> remainingPoints;
+	//The polygons and the lines of the basin graph.
+	private BasinUnion union;
+	//What has already been processed, tracked with the GIDs of the TIN.
+	private BasinCoverage coverage;
+	//The outlets of the upstream basins, where the processing stops, that
+	//are only read, and the ones that have actually been reached.
+	private BitSet upstreamPoints;
+	private BitSet upstreamEdges;
+	private BitSet reachedPoints;
+	private BitSet reachedEdges;
+	//If not null, the parts of the basin are given to it instead of being merged.
+	private BasinPartWriter partWriter;
+	private DriverException writeError;
+        //Used to process the lowest points first.
+        private static final Comparator<PointPart> BY_ELEVATION = new Comparator<PointPart>() {
+
+                @Override
+                public int compare(PointPart o1, PointPart o2) {
+                        return Double.compare(o1.getPt().z, o2.getPt().z);
+                }
+        };
 
 	/**
 	 * Build a basin, using the couple gid-type to determine which object to use as a start.
-	 * @param dsf
-	 * @param sdsPoints
-	 * @param sdsEdges
-	 * @param sdsTriangles
+	 * @param topology
+	 *	The TIN. It is only read, so it can be shared with other builders.
 	 * @param gid
 	 *	The GID of the object in the table where it is.
 	 * @param type
 	 *	The type of the object, used to choose the table where to pick the object up.
 	 */
-	public BasinBuilder(SQLDataSourceFactory dsf , DataSet sdsPoints,
-                DataSet sdsEdges, DataSet sdsTriangles, int gid, int type){
+	public BasinBuilder(TINTopology topology, int gid, int type){
 		firstGID = gid;
 		startType = type;
-                this.sdsTriangles = sdsTriangles;
-                this.sdsEdges = sdsEdges;
-                this.sdsPoints = sdsPoints;
-                this.dsf=dsf;
+                this.topology = topology;
 		remainingEP = new EdgePartManager();
-		remainingPoints = new LinkedList<PointPart>();
-		lines = new MultiLineString(new LineString[0], gf);
-		basin = gf.createPolygon(gf.createLinearRing(new Coordinate[0]), new LinearRing[0]);
-		try {
-			geomTriIndex = sdsTriangles.getMetadata().getFieldIndex(TINSchema.GEOM_FIELD);
-			gidTriE0Index = sdsTriangles.getMetadata().getFieldIndex(TINSchema.EDGE_0_GID_FIELD);
-			gidTriE1Index = sdsTriangles.getMetadata().getFieldIndex(TINSchema.EDGE_1_GID_FIELD);
-			gidTriE2Index = sdsTriangles.getMetadata().getFieldIndex(TINSchema.EDGE_2_GID_FIELD);
-			gidEdgeLeft = sdsEdges.getMetadata().getFieldIndex(TINSchema.LEFT_TRIANGLE_FIELD);
-			gidEdgeRight = sdsEdges.getMetadata().getFieldIndex(TINSchema.RIGHT_TRIANGLE_FIELD);
-			gidEdgeStart = sdsEdges.getMetadata().getFieldIndex(TINSchema.STARTPOINT_NODE_FIELD);
-			gidEdgeEnd = sdsEdges.getMetadata().getFieldIndex(TINSchema.ENDPOINT_NODE_FIELD);
-			geomPointIndex = sdsPoints.getMetadata().getFieldIndex(TINSchema.GEOM_FIELD);
-			geomEdgeIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.GEOM_FIELD);
-			edgeProperty = sdsEdges.getMetadata().getFieldIndex(TINSchema.PROPERTY_FIELD);
+		remainingPoints = new PriorityQueue<PointPart>(16, BY_ELEVATION);
+		union = new BasinUnion(gf);
+		coverage = new BasinCoverage();
+		upstreamPoints = new BitSet();
+		upstreamEdges = new BitSet();
+		reachedPoints = new BitSet();
+		reachedEdges = new BitSet();
+	}
 
-		} catch (DriverException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
+	/**
+	 * Give the parts of the basin to writer as soon as they are found, instead
+	 * of merging them. getBasin then returns an empty basin.
+	 * @param writer
+	 */
+	public final void setPartWriter(BasinPartWriter writer){
+		partWriter = writer;
+	}
+
+	/**
+	 * Set the GIDs of the points and of the edges that are the outlets of
+	 * upstream basins. When the processing reaches one of them, it is
+	 * recorded, and the area that pours into it is not processed : the basin
+	 * of the upstream outlet can then be merged with the one computed here,
+	 * instead of being computed again. An edge is only reached when the whole
+	 * edge is in the basin. The element the basin starts from is ignored.
+	 * The sets are only read, so they can be shared by several builders.
+	 * @param points
+	 * @param edges
+	 */
+	public final void setUpstreamOutlets(BitSet points, BitSet edges){
+		upstreamPoints = points;
+		upstreamEdges = edges;
+	}
+
+	/**
+	 * Check if the element is the outlet of an upstream basin.
+	 * @param gid
+	 * @param type
+	 * @return
+	 */
+	private boolean isUpstreamOutlet(int gid, int type){
+		if(gid == firstGID && type == startType){
+			return false;
 		}
+		return type == TIN_POINT ? upstreamPoints.get(gid) : upstreamEdges.get(gid);
+	}
 
+	/**
+	 * Get the GIDs of the upstream outlets of the given type that have been
+	 * reached while computing the basin.
+	 * @param type
+	 *	TIN_POINT or TIN_EDGE
+	 * @return
+	 */
+	public final List<Integer> getReachedOutlets(int type){
+		BitSet reached = type == TIN_POINT ? reachedPoints : reachedEdges;
+		List<Integer> ret = new ArrayList<Integer>(reached.cardinality());
+		for(int gid = reached.nextSetBit(0); gid >= 0; gid = reached.nextSetBit(gid+1)){
+			ret.add(gid);
+		}
+		return ret;
 	}
 
+        /**
+         * Get the maximum number of times this builder tries to process an
+         * EdgePart whose length is inferior to Tools.EPSILON.
+         * @return 
+         */
+        public final int getMaxIterNumber(){
+                return remainingEP.getMaxIterNumber();
+        }
+
+        /**
+         * Set the maximum number of times this builder tries to process an
+         * EdgePart whose length is inferior to Tools.EPSILON. It does not
+         * change the other builders.
+         * @param max 
+         */
+        public final void setMaxIterNumber(int max){
+                remainingEP.setMaxIterNumber(max);
+        }
+
+        /**
+         * Get the number of times an EdgePart too small to be processed has been
+         * put back in the queue.
+         * @return 
+         */
+        public final long getRequeueCount(){
+                return remainingEP.getRequeueCount();
+        }
+
+        /**
+         * Get the number of EdgeParts that have been dropped because they were
+         * still too small to be processed after getMaxIterNumber() tries.
+         * @return 
+         */
+        public final long getDroppedCount(){
+                return remainingEP.getDroppedCount();
+        }
+
 	/**
 	 * This method actually computes the basin from the informations given to build the BasinBuilder.
 	 * @throws DriverException
-         *      If we encounter a problem while handling a datasource.
+         *      If we encounter a problem while handling a datasource, or if the
+         *      part writer has failed.
 	 */
 	public final void computeBasin() throws DriverException {
-		try {
-                        //We start by building the indexes we'll need for each data structure. Note that
-                        //if they already exist, we acn use tem directly.
-			if (!dsf.getIndexManager().isIndexed(sdsTriangles, TINSchema.GEOM_FIELD)) {
-				dsf.getIndexManager().buildIndex(sdsTriangles, TINSchema.GEOM_FIELD, new NullProgressMonitor());
-			}
-			if (!dsf.getIndexManager().isIndexed(sdsEdges, TINSchema.GEOM_FIELD)) {
-				dsf.getIndexManager().buildIndex(sdsEdges, TINSchema.GEOM_FIELD, new NullProgressMonitor());
-			}
-			if (!dsf.getIndexManager().isIndexed(sdsPoints, TINSchema.GEOM_FIELD)) {
-				dsf.getIndexManager().buildIndex(sdsPoints, TINSchema.GEOM_FIELD, new NullProgressMonitor());
-			}
-			if (!dsf.getIndexManager().isIndexed(sdsTriangles, TINSchema.GID)) {
-				dsf.getIndexManager().buildIndex(sdsTriangles, TINSchema.GID, new NullProgressMonitor());
-			}
-			if (!dsf.getIndexManager().isIndexed(sdsEdges, TINSchema.GID)){
-				dsf.getIndexManager().buildIndex(sdsEdges, TINSchema.GID, new NullProgressMonitor());
+		//we define the type of input that has been given.
+		if(startType==TIN_POINT){
+			if(!topology.hasPoint(firstGID)){
+				throw new DriverException("There is no point with the GID "+firstGID+" in the TIN.");
 			}
-			if(!dsf.getIndexManager().isIndexed(sdsEdges, TINSchema.ENDPOINT_NODE_FIELD)){
-				dsf.getIndexManager().buildIndex(sdsEdges, TINSchema.ENDPOINT_NODE_FIELD, new NullProgressMonitor());
+			processMeshPoint(firstGID);
+		} else if(startType == TIN_EDGE) {
+			if(!topology.hasEdge(firstGID)){
+				throw new DriverException("There is no edge with the GID "+firstGID+" in the TIN.");
 			}
-			if(!dsf.getIndexManager().isIndexed(sdsPoints, TINSchema.GID)){
-				dsf.getIndexManager().buildIndex(sdsPoints, TINSchema.GID, new NullProgressMonitor());
-			}
-                        //we define the type of input that has been given.
-			if(startType==TIN_POINT){
-				processMeshPoint(firstGID);
-			} else if(startType == TIN_EDGE) {
-				Value[] edLine = retrieveLine(firstGID, sdsEdges);
+			try {
 				DEdge ed = retrieveEdge(firstGID);
 				if(ed.getGradient() != DEdge.FLATSLOPE){
 					ed.forceTopographicOrientation();
 				}
 				EdgePart ep = buildEdgePart(ed, ed.getStartPoint(), ed.getEndPoint(),
-					firstGID, edLine[gidEdgeLeft].getAsInt(),
-						edLine[gidEdgeRight].getAsInt(),
-						edLine[gidEdgeStart].getAsInt(),
-						edLine[gidEdgeEnd].getAsInt());
+					firstGID, topology.getEdgeLeft(firstGID),
+						topology.getEdgeRight(firstGID),
+						topology.getEdgeStart(firstGID),
+						topology.getEdgeEnd(firstGID));
+				coverage.addEdgeInterval(firstGID, ep.getStart(), ep.getEnd());
 				processEdgePart(ep);
-			} else if (startType ==TIN_TRIANGLE){
-				throw new IllegalArgumentException("Triangles are not supported as an input currently");
+			} catch (DelaunayError d) {
+				Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, d);
 			}
-                        //This loop is the one that actually build the geometry we'll return
-                        //as an output. We'll always process edges before points,
-                        //as they give more often a polygon as a result.
-			while(!remainingEP.isEmpty()||!remainingPoints.isEmpty()){
-				if(!remainingEP.isEmpty()){
-					List<EdgePart> ep =remainingEP.getEdgeParts();
-					processEdgeParts(ep);
-				} else {
-					PointPart pp = remainingPoints.getFirst();
-					remainingPoints.removeFirst();
-					processPoint(pp);
-				}
+		} else if (startType ==TIN_TRIANGLE){
+			throw new IllegalArgumentException("Triangles are not supported as an input currently");
+		}
+                //This loop is the one that actually build the geometry we'll return
+                //as an output. Edges and points are processed from the lowest
+                //to the highest, so that an edge receives all the parts coming
+                //from below before being processed. For the same elevation, we'll
+                //process edges before points, as they give more often a polygon
+                //as a result.
+		while(!remainingEP.isEmpty()||!remainingPoints.isEmpty()){
+			if(!remainingEP.isEmpty() && (remainingPoints.isEmpty()
+				|| remainingEP.getNextElevation() <= remainingPoints.peek().getPt().z)){
+				List<EdgePart> ep =remainingEP.getEdgeParts();
+				processEdgeParts(ep);
+			} else {
+				processPoint(remainingPoints.poll());
 			}
-			
-		} catch (NoSuchTableException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
-		}catch (IndexException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		if(writeError != null){
+			throw writeError;
 		}
 	}
 
@@ -225,7 +279,7 @@ public class BasinBuilder {
          *      The computed geometry
 	 */
 	public final Geometry getBasin(){
-		return gf.createGeometryCollection(new Geometry[] {basin, lines});
+		return union.getGeometry();
 	}
 
 	/**
@@ -244,10 +298,8 @@ public class BasinBuilder {
 			//We retrieve the GID of the said edge.
 			int edgeGid = pp.getOwnerGID();
 			try{
-				//We retrieve the line of Values in the GDMS file.
-				Value[] edLine = retrieveLine(edgeGid, sdsEdges);
 				//We will analyse the property, to know what to do.
-				int edProp = edLine[edgeProperty].getAsInt();
+				int edProp = topology.getEdgeProperty(edgeGid);
 				//In the following cases, we will analyze a part of an edge in the mesh.
 				//More precisely, we will study what area of the triangles that lies
 				//behind the edge directly comes in the part of the edge that is upper
@@ -274,27 +326,27 @@ public class BasinBuilder {
 					EdgePart ep = buildEdgePart(ed,
 						ed.getStartPoint(), new DPoint(pp.getPt()),
 						edgeGid,
-						edLine[gidEdgeLeft].getAsInt(),
-						edLine[gidEdgeRight].getAsInt(),
-						edLine[gidEdgeStart].getAsInt(),
-						edLine[gidEdgeEnd].getAsInt());
+						topology.getEdgeLeft(edgeGid),
+						topology.getEdgeRight(edgeGid),
+						topology.getEdgeStart(edgeGid),
+						topology.getEdgeEnd(edgeGid));
 					//We've added an element that needs to be analyzed
-					remainingEP.addEdgePart(ep);
+					if(!coverage.coversEdge(edgeGid, ep.getStart(), ep.getEnd())){
+						queueEdgePart(ep);
+					}
 				} else if(HydroProperties.check(edProp, HydroProperties.RIGHTSLOPE)){
 					//We analyze the left triangle
 					//We can have only a line, here.
-					if(!basin.covers(gf.createPoint(pp.getPt()))){
-						analyzeTriangleLine(pp.getPt(),edLine[gidEdgeLeft].getAsInt() );
+					if(!coverage.covers(topology.getEdgeLeft(edgeGid), gf.createPoint(pp.getPt()))){
+						analyzeTriangleLine(pp.getPt(),topology.getEdgeLeft(edgeGid));
 					}
 				} else if(HydroProperties.check(edProp, HydroProperties.LEFTTSLOPE)
-						&& !basin.covers(gf.createPoint(pp.getPt()))){
+						&& !coverage.covers(topology.getEdgeRight(edgeGid), gf.createPoint(pp.getPt()))){
 					//We analyze the right triangle
 					//We can have only a line, here.
-					analyzeTriangleLine(pp.getPt(),edLine[gidEdgeRight].getAsInt() );
+					analyzeTriangleLine(pp.getPt(),topology.getEdgeRight(edgeGid));
 				}
 
-			} catch (DriverException ex) {
-				Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
 			} catch (DelaunayError d) {
 				Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, d);
 			}
@@ -306,19 +358,28 @@ public class BasinBuilder {
 	 * @param ptGID
 	 */
 	private void processMeshPoint(int ptGID){
-		//We retrieve all the edges that end in pp, if any.
-		DefaultAlphaQuery daq = new DefaultAlphaQuery(TINSchema.ENDPOINT_NODE_FIELD, ValueFactory.createValue(ptGID));
-		DefaultAlphaQuery ptquery = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(ptGID));
+		if(!coverage.visitPoint(ptGID)){
+			//The point has already been processed.
+			return;
+		}
+		if(isUpstreamOutlet(ptGID, TIN_POINT)){
+			//The area upstream of this point is another basin.
+			reachedPoints.set(ptGID);
+			return;
+		}
 		try{
-			Iterator<Integer> it = sdsEdges.queryIndex(dsf, daq);
-			Iterator<Integer> ipt = sdsPoints.queryIndex(dsf, ptquery);
-			Value[] ptValue = sdsPoints.getRow(ipt.next());
-
-			while(it.hasNext()){
+			Coordinate coord = getPointCoordinate(ptGID);
+			//We retrieve all the edges that end in pp, if any, from the
+			//star of the point.
+			int starSize = topology.getStarSize(ptGID);
+			for(int i=0; i<starSize; i++){
+				int cur = topology.getStarEdge(ptGID, i);
+				if(topology.getEdgeEnd(cur) != ptGID){
+					continue;
+				}
 				//We can be sure that talwegs, leftwells, rightwells, rivers and ditches lead
 				//the water to the current node.
-				Integer cur = it.next();
-				int edProp = sdsEdges.getInt(cur, TINSchema.PROPERTY_FIELD);
+				int edProp = topology.getEdgeProperty(cur);
 				//Wells, rivers, ditches and talwegs must be processed as EdgeParts.
 				boolean isWell = HydroProperties.check(edProp,  HydroProperties.LEFTWELL) ||
 						HydroProperties.check(edProp, HydroProperties.RIGHTWELL);
@@ -329,7 +390,7 @@ public class BasinBuilder {
 						HydroProperties.check(edProp, HydroProperties.TALWEG);
 				if(isWell || isRiverOrDitch || isTalweg){
 					//These edges will have to be processed as EdgeParts later.
-					DEdge ed = TINFeatureFactory.createDEdge(sdsEdges.getGeometry(cur, geomEdgeIndex));
+					DEdge ed = createDEdge(cur);
 					if(ed.getGradient() != DEdge.FLATSLOPE){
 						ed.forceTopographicOrientation();
 					}
@@ -338,37 +399,31 @@ public class BasinBuilder {
 					EdgePart ep = buildEdgePart(ed,
 						ed.getStartPoint(),
 						ed.getEndPoint(),
-						sdsEdges.getInt(cur, TINSchema.GID),
-						sdsEdges.getInt(cur, TINSchema.LEFT_TRIANGLE_FIELD),
-						sdsEdges.getInt(cur, TINSchema.RIGHT_TRIANGLE_FIELD),
-						sdsEdges.getInt(cur, TINSchema.STARTPOINT_NODE_FIELD),
-						sdsEdges.getInt(cur, TINSchema.ENDPOINT_NODE_FIELD));
-					Coordinate[] cs = new Coordinate[] {ed.getStartPoint().getCoordinate(),ed.getEndPoint().getCoordinate()};
-					LineString ls = gf.createLineString(cs);
-					if(!basin.covers(ls)&& !lines.covers(ls)){
-						remainingEP.addEdgePart(ep);
+						cur,
+						topology.getEdgeLeft(cur),
+						topology.getEdgeRight(cur),
+						topology.getEdgeStart(cur),
+						topology.getEdgeEnd(cur));
+					if(!coverage.coversEdge(cur, ep.getStart(), ep.getEnd())){
+						queueEdgePart(ep);
 					}
 				}
 				//If we have a right or left slope, we must go a little further to know
 				//if the triangle point to the point
 				else if(HydroProperties.check(edProp, HydroProperties.RIGHTSLOPE)){
 					//We must analyze the left triangle.
-					int leftGID = sdsEdges.getInt(cur, TINSchema.LEFT_TRIANGLE_FIELD);
-					Coordinate coord = ptValue[geomPointIndex].getAsGeometry().getCoordinates()[0];
-					if(!basin.covers(gf.createPoint(coord))){
+					int leftGID = topology.getEdgeLeft(cur);
+					if(!coverage.covers(leftGID, gf.createPoint(coord))){
 						analyzeTriangleLine(coord, leftGID);
 					}
 				} else if(HydroProperties.check(edProp, HydroProperties.LEFTTSLOPE)){
 					//We must analyze the right triangle.
-					int rightGID = sdsEdges.getInt(cur, TINSchema.RIGHT_TRIANGLE_FIELD);
-					Coordinate coord = ptValue[geomPointIndex].getAsGeometry().getCoordinates()[0];
-					if(!basin.covers(gf.createPoint(coord))){
+					int rightGID = topology.getEdgeRight(cur);
+					if(!coverage.covers(rightGID, gf.createPoint(coord))){
 						analyzeTriangleLine(coord, rightGID);
 					}
 				}
 			}
-		} catch (DriverException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
 		} catch (DelaunayError d) {
 			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, d);
 		}
@@ -383,15 +438,14 @@ public class BasinBuilder {
 	 * @param triangleGID
 	 */
 	private void analyzeTriangleLine(Coordinate cd, int triangleGID){
+		if(!topology.hasTriangle(triangleGID)){
+			//We are on the border of the TIN.
+			return;
+		}
 		try{
-			//We must know the triangle we need to analyze. To do so, let's retrieve
-			//the good line in the table of triangles.
-			DefaultAlphaQuery triquery = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(triangleGID));
-			Iterator<Integer> itri = sdsTriangles.queryIndex(dsf, triquery);
-			//We actually rtrieve the line that interests us.
-			Value[] triline = sdsTriangles.getRow(itri.next());
-			DTriangle dtr = TINFeatureFactory.createDTriangle(triline[geomTriIndex].getAsGeometry());
-			DPoint pt = TINFeatureFactory.createDPoint(cd);
+			//We must know the triangle we need to analyze.
+			DTriangle dtr = createDTriangle(triangleGID);
+			DPoint pt = new DPoint(cd);
 			//We retrieve the point that will be used to build the line we'll add to the basin graph.
 			DPoint si = dtr.getCounterSteepestIntersection(pt);
 			if(!pt.equals(si) && si!=null){
@@ -399,21 +453,15 @@ public class BasinBuilder {
 				LineString ls = gf.createLineString(new Coordinate[] {cd, si.getCoordinate()});
 				//we process the union between the current line, and the LineString
 				//we've just created.
-				addLineString(ls);
+				addLineString(ls, triangleGID, TINTopology.NO_ELEMENT);
 
 				//We must add the new coordinate to the points that have to be treated.
 				//For that, we retrieve the three edges of the triangle, and search the
 				//one that contains the new PointPart.
-				List<Integer> edgeGids = new LinkedList<Integer>();
-				edgeGids.add(triline[gidTriE0Index].getAsInt());
-				edgeGids.add(triline[gidTriE1Index].getAsInt());
-				edgeGids.add(triline[gidTriE2Index].getAsInt());
-				for(Integer i : edgeGids){
+				for(int rank = 0; rank < 3; rank++){
 					//We know the GID of the edge, we must retrieve its geometry as a DEdge.
-					DefaultAlphaQuery search = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(i));
-					Iterator<Integer> it = sdsEdges.queryIndex(dsf, search);
-					Value[] val = sdsEdges.getRow(it.next());
-					DEdge cur = TINFeatureFactory.createDEdge(val[geomEdgeIndex].getAsGeometry());
+					int i = topology.getTriangleEdge(triangleGID, rank);
+					DEdge cur = createDEdge(i);
 					//We check that the current edge contains si.
 					if(cur.contains(si)){
 						if(cur.getGradient()!=DEdge.FLATSLOPE){
@@ -423,12 +471,12 @@ public class BasinBuilder {
 						//an extremity of the edge, and if it is not, if it is inside.
 						if(cur.getStartPoint().equals(si)){
 							//the new PointPart contains a point of the mesh.
-							PointPart pp = new PointPart(si.getCoordinate(), val[gidEdgeStart].getAsInt(),0);
+							PointPart pp = new PointPart(si.getCoordinate(), topology.getEdgeStart(i),0);
 							remainingPoints.add(pp);
 							break;
 						} else if (cur.getEndPoint().equals(si)){
 							//the new PointPart contains a point of the mesh.
-							PointPart pp = new PointPart(si.getCoordinate(), val[gidEdgeEnd].getAsInt(),0 );
+							PointPart pp = new PointPart(si.getCoordinate(), topology.getEdgeEnd(i),0 );
 							remainingPoints.add(pp);
 							break;
 						} else {
@@ -442,26 +490,42 @@ public class BasinBuilder {
 					}
 				}
 			}
-		} catch (DriverException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
 		} catch (DelaunayError d) {
 			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, d);
 		}
 		
 	}
 
+	/**
+	 * Add a line to the basin graph. The union with the other lines is
+	 * delayed until it is needed.
+	 * @param ls
+	 */
 	private void addLineString(LineString ls){
-		ArrayList<Geometry> un = new ArrayList<Geometry>();
-		un.add(ls);
-		un.add(lines);
-		Geometry res = UnaryUnionOp.union(un);
-		if(res instanceof MultiLineString){
-			lines =  (MultiLineString) res;
-		}else if (res instanceof LineString) {
-			lines = gf.createMultiLineString(new LineString[] {(LineString) res});
+		addLineString(ls, TINTopology.NO_ELEMENT, TINTopology.NO_ELEMENT);
+	}
 
+	/**
+	 * Add a line, found in a triangle or on an edge, to the basin graph.
+	 * @param ls
+	 * @param triangleGID
+	 * @param edgeGID
+	 */
+	private void addLineString(LineString ls, int triangleGID, int edgeGID){
+		if(partWriter != null){
+			try {
+				partWriter.writeLine(ls, triangleGID, edgeGID);
+			} catch (DriverException ex) {
+				//The first error is thrown at the end of computeBasin.
+				if(writeError == null){
+					writeError = ex;
+				}
+			}
+			return;
 		}
+		union.addLine(ls);
 	}
+
         
         private void processEdgeParts(List<EdgePart> list){
                 for(EdgePart e : list){
@@ -476,39 +540,33 @@ public class BasinBuilder {
 	 */
 	private void processEdgePart(EdgePart ep){
 		int epGID = ep.getGid();
-		DefaultAlphaQuery daq = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(epGID));
-		try {
-			Iterator<Integer> it = sdsEdges.queryIndex(dsf, daq);
-			long edgeIndex = it.next();
-			int epProp = sdsEdges.getInt(edgeIndex, TINSchema.PROPERTY_FIELD);
-			//If the edge is a ridge, we just add it.
-			if(HydroProperties.check(epProp, HydroProperties.RIDGE)){
-				//We process the union.
-				ArrayList<Geometry> geom = new ArrayList<Geometry>();
-				geom.add(lines);
-				geom.add((LineString) sdsEdges.getGeometry(edgeIndex, geomEdgeIndex));
-				Geometry res = UnaryUnionOp.union(geom);
-				if(res instanceof MultiLineString){
-					lines =  (MultiLineString) res;
-				}else if (res instanceof LineString) {
-					lines = gf.createMultiLineString(new LineString[] {(LineString) res});
-
-				}
-			//When processing a talweg, we must analyze the two neigbour triangles.
-			} else if(HydroProperties.check(epProp, HydroProperties.TALWEG)) {
-				analyzeTriangle(ep, edgeIndex, sdsEdges.getInt(edgeIndex, TINSchema.LEFT_TRIANGLE_FIELD));
-				analyzeTriangle(ep, edgeIndex, sdsEdges.getInt(edgeIndex, TINSchema.RIGHT_TRIANGLE_FIELD));
-			//For rightslopes and rightwells, we just analyse the left triangle.
-			} else if(HydroProperties.check(epProp, HydroProperties.RIGHTSLOPE)||
-					HydroProperties.check(epProp, HydroProperties.RIGHTWELL)){
-				analyzeTriangle(ep, edgeIndex, sdsEdges.getInt(edgeIndex, TINSchema.LEFT_TRIANGLE_FIELD));
-			//For leftslopes and leftwells, we just analyze the right triangle.
-			} else if (HydroProperties.check(epProp, HydroProperties.LEFTTSLOPE)||
-					HydroProperties.check(epProp, HydroProperties.LEFTWELL)) {
-				analyzeTriangle(ep, edgeIndex, sdsEdges.getInt(edgeIndex, TINSchema.RIGHT_TRIANGLE_FIELD));
-			}
-		} catch (DriverException ex) {
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, ex);
+		if(isUpstreamOutlet(epGID, TIN_EDGE) && coverage.coversEdge(epGID, 0, 1)){
+			//The area upstream of this edge is another basin. A part of
+			//the edge is processed as usual, the basin of the outlet
+			//would cover more than this part.
+			reachedEdges.set(epGID);
+			return;
+		}
+		int epProp = topology.getEdgeProperty(epGID);
+		//If the edge is a ridge, we just add it.
+		if(HydroProperties.check(epProp, HydroProperties.RIDGE)){
+			//We process the union.
+			addLineString(gf.createLineString(new Coordinate[] {
+				getPointCoordinate(topology.getEdgeStart(epGID)),
+				getPointCoordinate(topology.getEdgeEnd(epGID))}),
+				TINTopology.NO_ELEMENT, epGID);
+		//When processing a talweg, we must analyze the two neigbour triangles.
+		} else if(HydroProperties.check(epProp, HydroProperties.TALWEG)) {
+			analyzeTriangle(ep, epGID, topology.getEdgeLeft(epGID));
+			analyzeTriangle(ep, epGID, topology.getEdgeRight(epGID));
+		//For rightslopes and rightwells, we just analyse the left triangle.
+		} else if(HydroProperties.check(epProp, HydroProperties.RIGHTSLOPE)||
+				HydroProperties.check(epProp, HydroProperties.RIGHTWELL)){
+			analyzeTriangle(ep, epGID, topology.getEdgeLeft(epGID));
+		//For leftslopes and leftwells, we just analyze the right triangle.
+		} else if (HydroProperties.check(epProp, HydroProperties.LEFTTSLOPE)||
+				HydroProperties.check(epProp, HydroProperties.LEFTWELL)) {
+			analyzeTriangle(ep, epGID, topology.getEdgeRight(epGID));
 		}
 	}
 
@@ -517,20 +575,16 @@ public class BasinBuilder {
 	 * that are associated to it, to know which part of the triangle's area
 	 * pour into the EdgePart.
 	 * @param ep
-	 * @param edgeIndex
+	 * @param edgeGID
 	 * @param triangleGID
 	 */
-	private void analyzeTriangle(EdgePart ep, long edgeIndex, int triangleGID){
-		DefaultAlphaQuery daq = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(triangleGID));
+	private void analyzeTriangle(EdgePart ep, int edgeGID, int triangleGID){
 		try {
-			Iterator<Integer> it = sdsTriangles.queryIndex(dsf, daq);
-			if(it.hasNext()){
-				//We retrieve the line of values associated to the triangle.
-				Value [] triLine = sdsTriangles.getRow(it.next());
+			if(topology.hasTriangle(triangleGID)){
 				//We build the matching DTriangle.
-				DTriangle left =  TINFeatureFactory.createDTriangle(triLine[geomTriIndex].getAsGeometry());
+				DTriangle left =  createDTriangle(triangleGID);
 				//We build the DEdge.
-				DEdge current = TINFeatureFactory.createDEdge(sdsEdges.getGeometry(edgeIndex,geomEdgeIndex));
+				DEdge current = createDEdge(edgeGID);
 				if(current.getGradient() != DEdge.FLATSLOPE){
 					current.forceTopographicOrientation();
 				}
@@ -547,7 +601,7 @@ public class BasinBuilder {
 				double zend = (1-e)*current.getStartPoint().getZ()+e*current.getEndPoint().getZ();
 				DPoint p2 = new DPoint(xend, yend, zend);
 				//We need the two other DEdge that form this DTriangle.
-				List<DEdge> others = retrieveOtherEdges(current, triLine);
+				List<DEdge> others = retrieveOtherEdges(current, triangleGID);
 				DEdge e1 = others.get(0);
 				DEdge e2 = others.get(1);
 				//The ancestor of p1 in left.
@@ -559,20 +613,18 @@ public class BasinBuilder {
 				DPoint lastPoint = left.getOppositePoint(current);
 				//We retrieve the line associated to e1 in the table of edges, and use it to fill some
 				//useful values.
-				Value[] lineE1 = retrieveLine(e1.getGID(), sdsEdges);
-				int gidE1Left = lineE1[gidEdgeLeft].getAsInt();
-				int gidE1Right = lineE1[gidEdgeRight].getAsInt();
-				int gidE1Start = lineE1[gidEdgeStart].getAsInt();
-				int gidE1End = lineE1[gidEdgeEnd].getAsInt();
+				int gidE1Left = topology.getEdgeLeft(e1.getGID());
+				int gidE1Right = topology.getEdgeRight(e1.getGID());
+				int gidE1Start = topology.getEdgeStart(e1.getGID());
+				int gidE1End = topology.getEdgeEnd(e1.getGID());
 				//We must set the gid of the last point of left.
 				lastPoint.setGID(gidE1End == ep.getGidStart() || gidE1End == ep.getGidEnd() ? gidE1Start : gidE1End);
 				//We retrieve the line associated to e2 in the table of edges, and use it to fill some
 				//useful values.
-				Value[] lineE2 = retrieveLine(e2.getGID(), sdsEdges);
-				int gidE2Left = lineE2[gidEdgeLeft].getAsInt();
-				int gidE2Right = lineE2[gidEdgeRight].getAsInt();
-				int gidE2Start = lineE2[gidEdgeStart].getAsInt();
-				int gidE2End = lineE2[gidEdgeEnd].getAsInt();
+				int gidE2Left = topology.getEdgeLeft(e2.getGID());
+				int gidE2Right = topology.getEdgeRight(e2.getGID());
+				int gidE2Start = topology.getEdgeStart(e2.getGID());
+				int gidE2End = topology.getEdgeEnd(e2.getGID());
 //				List<Geometry> union = new ArrayList<Geometry>();
 //				union.add(basin);
 				//We'll use buildEdgePart to build our EdgeParts,
@@ -590,8 +642,8 @@ public class BasinBuilder {
 									proj1.getCoordinate(),
 									p1.getCoordinate()};
 						Polygon poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
-						if(!isCoveredByBasin(poly)&&!poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e1, 
+						if(!coverage.covers(triangleGID, poly)&&!poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e1, 
 											proj1,
 											proj2,
 											e1.getGID(),
@@ -600,7 +652,7 @@ public class BasinBuilder {
 											gidE1Start,
 											gidE1End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);
+							addPolygonToBasin(triangleGID, poly);
 						}
 					} else {
 						//e2 contains proj2. We must add two edgeparts to the remaining elements.
@@ -617,8 +669,8 @@ public class BasinBuilder {
 									proj1.getCoordinate(),
 									p1.getCoordinate()};
 						Polygon poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
-						if(!isCoveredByBasin(poly) && !poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e1, 
+						if(!coverage.covers(triangleGID, poly) && !poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e1, 
 										proj1,
 										lastPoint,
 										e1.getGID(),
@@ -627,7 +679,7 @@ public class BasinBuilder {
 										gidE1Start,
 										gidE1End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);
+							addPolygonToBasin(triangleGID, poly);
 
 						}
 						//We build the polygon we're about to add, to perform tests on it.
@@ -639,8 +691,8 @@ public class BasinBuilder {
 									p2.getCoordinate()};
 						poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
 						//We check that we're not already in the basin.
-						if(!isCoveredByBasin(poly) && !poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e2, 
+						if(!coverage.covers(triangleGID, poly) && !poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e2, 
 											proj2,
 											lastPoint,
 											e2.getGID(),
@@ -649,7 +701,7 @@ public class BasinBuilder {
 											gidE2Start,
 											gidE2End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);
+							addPolygonToBasin(triangleGID, poly);
 						}
 					}
 				} else if (e2.contains(proj1)){
@@ -660,8 +712,8 @@ public class BasinBuilder {
 						Coordinate[] cs = new Coordinate[] {p1.getCoordinate(),p2.getCoordinate(),
 								proj2.getCoordinate(),proj1.getCoordinate(),p1.getCoordinate()};
 						Polygon poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
-						if(!isCoveredByBasin(poly) && !poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e2, 
+						if(!coverage.covers(triangleGID, poly) && !poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e2, 
 											proj1,
 											proj2,
 											e2.getGID(),
@@ -670,7 +722,7 @@ public class BasinBuilder {
 											gidE2Start,
 											gidE2End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);			}
+							addPolygonToBasin(triangleGID, poly);			}
 					} else {
 						//e1 contains proj2, and e2 contains proj1.
 						//We must add two edgeparts to the remaining elements.
@@ -684,8 +736,8 @@ public class BasinBuilder {
 									p1.getCoordinate()};
 						Polygon poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
 						//We check that we're not already in the basin.
-						if(!isCoveredByBasin(poly) && !poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e2, 
+						if(!coverage.covers(triangleGID, poly) && !poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e2, 
 											proj1,
 											lastPoint,
 											e2.getGID(),
@@ -694,7 +746,7 @@ public class BasinBuilder {
 											gidE2Start,
 											gidE2End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);
+							addPolygonToBasin(triangleGID, poly);
 
 						}
 						//We build the polygon we're about to add, to perform tests on it.
@@ -706,8 +758,8 @@ public class BasinBuilder {
 									p2.getCoordinate()};
 						poly = gf.createPolygon(gf.createLinearRing(cs), new LinearRing[]{});
 						//We check that we're not already in the basin.
-						if(!isCoveredByBasin(poly) && !poly.isEmpty()){
-							remainingEP.addEdgePart(buildEdgePart(e1, 
+						if(!coverage.covers(triangleGID, poly) && !poly.isEmpty()){
+							queueEdgePart(buildEdgePart(e1, 
 											proj2,
 											lastPoint,
 											e1.getGID(),
@@ -716,7 +768,7 @@ public class BasinBuilder {
 											gidE1Start,
 											gidE1End));
 							//We create a new Polygon, and add it to the list we'll use for the union.
-							addPolygonToBasin( poly);
+							addPolygonToBasin(triangleGID, poly);
 						}
 					}
 					
@@ -731,46 +783,83 @@ public class BasinBuilder {
 
 	}
 
-	private void addPolygonToBasin(Polygon poly){
+	/**
+	 * Add a piece of basin, found in the triangle triangleGID. The union with
+	 * the basin is delayed until it is needed, so that many pieces are merged
+	 * with a single cascaded union.
+	 * @param triangleGID
+	 * @param poly
+	 */
+	private void addPolygonToBasin(int triangleGID, Polygon poly){
 		if(!poly.isEmpty()){
-			basin = EnhancedPrecisionOp.union(basin, poly.convexHull());
-			if(basin instanceof GeometryCollection && !(basin instanceof MultiPolygon)){
-				Geometry gn ;
-				Geometry out = gf.createMultiPolygon(new Polygon[]{});
-				for(int i=0; i<basin.getNumGeometries(); i++){
-					gn = basin.getGeometryN(i);
-					if(gn instanceof Polygonal){
-						out = EnhancedPrecisionOp.union(out, gn);
-					} else if(gn instanceof LineString){
-						addLineString((LineString) gn);
-					}
-				}
-				basin = out;
+			Geometry hull = poly.convexHull();
+			coverage.addPiece(triangleGID, hull, getTriangleArea(triangleGID));
+			if(partWriter != null){
+				writePart(hull, triangleGID);
+				return;
 			}
+			union.addPolygon(hull);
 		}
 	}
 
 	/**
-	 * Knowing a DEdge and a a line in the table of triangles, we try to retrieve
+	 * Merge basins computed by builders, for instance a basin and the basins
+	 * of its upstream outlets. Their polygons and their lines are merged with
+	 * the same unions as the pieces of a single basin.
+	 * @param basins
+	 *	Geometries returned by getBasin.
+	 * @return
+	 *	A collection containing the merged polygons and lines, as getBasin.
+	 */
+	public static Geometry mergeBasins(List<Geometry> basins){
+		BasinUnion merged = new BasinUnion(new GeometryFactory());
+		for(Geometry geom : basins){
+			merged.addBasin(geom);
+		}
+		return merged.getGeometry();
+	}
+
+	/**
+	 * Give a piece of basin to the part writer. The convex hull of a thin piece
+	 * is a line, that is written as such.
+	 * @param piece
+	 * @param triangleGID
+	 */
+	private void writePart(Geometry piece, int triangleGID){
+		try {
+			if(piece instanceof Polygonal){
+				partWriter.writePolygon(piece, triangleGID);
+			} else if(piece instanceof LineString){
+				partWriter.writeLine(piece, triangleGID, TINTopology.NO_ELEMENT);
+			}
+		} catch (DriverException ex) {
+			if(writeError == null){
+				writeError = ex;
+			}
+		}
+	}
+
+	/**
+	 * Knowing a DEdge and a triangle of the TIN, we try to retrieve
 	 * the two other edges of the triangles as DEdge instances.
 	 * @param first
-	 * @param triLine
+	 * @param triangleGID
 	 * @return
 	 * @throws DriverException
 	 */
-	private List<DEdge> retrieveOtherEdges( DEdge first, Value[] triLine) throws DriverException{
+	private List<DEdge> retrieveOtherEdges( DEdge first, int triangleGID) throws DriverException, DelaunayError{
 		List<DEdge> ret = new ArrayList<DEdge>();
-		int gid0 = triLine[gidTriE0Index].getAsInt();
+		int gid0 = topology.getTriangleEdge(triangleGID, 0);
 		DEdge e0 = retrieveEdge(gid0);
 		if(!e0.equals(first)){
 			ret.add(e0);
 		}
-		int gid1 = triLine[gidTriE1Index].getAsInt();
+		int gid1 = topology.getTriangleEdge(triangleGID, 1);
 		DEdge e1 = retrieveEdge(gid1);
 		if(!e1.equals(first)){
 			ret.add(e1);
 		}
-		int gid2 = triLine[gidTriE2Index].getAsInt();
+		int gid2 = topology.getTriangleEdge(triangleGID, 2);
 		DEdge e2 = retrieveEdge(gid2);
 		if(!e2.equals(first)){
 			ret.add(e2);
@@ -782,42 +871,79 @@ public class BasinBuilder {
 	}
 
 	/**
-	 * Retrieve the array of values in the table associated to sds, matching the GID gid.
+	 * Retrieve an edge int the edges table. Its gid and its properties are associated to it.
 	 * @param gid
-	 * @param sds
 	 * @return
-	 * @throws DriverException
 	 */
-	private Value[] retrieveLine(int gid, DataSet sds) throws DriverException{
-		DefaultAlphaQuery daq = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(gid));
-		Iterator<Integer> it = sds.queryIndex(dsf, daq);
-		return sds.getRow(it.next());
+	private DEdge retrieveEdge(int gid) throws DelaunayError{
+		DEdge ret = createDEdge(gid);
+		if(ret.getGradient() != DEdge.FLATSLOPE){
+			ret.forceTopographicOrientation();
+		}
+		ret.setGID(gid);
+		ret.setProperty(topology.getEdgeProperty(gid));
+                ret.getStartPoint().setGID(topology.getEdgeStart(gid));
+                ret.getEndPoint().setGID(topology.getEdgeEnd(gid));
+		return ret;
+	}
+
+	/**
+	 * Add ep to the EdgeParts that remain to be processed, and record that
+	 * this part of its edge is now in the basin.
+	 * @param ep
+	 */
+	private void queueEdgePart(EdgePart ep){
+		coverage.addEdgeInterval(ep.getGid(), ep.getStart(), ep.getEnd());
+		remainingEP.addEdgePart(ep);
 	}
 
 	/**
-	 * Retrieve an edge int the edges table. Its gid and its properties are associated to it.
+	 * Get the planar area of the triangle gid.
 	 * @param gid
 	 * @return
 	 */
-	private DEdge retrieveEdge(int gid) throws DriverException{
-		DefaultAlphaQuery daq = new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(gid));
-		try {
-			Iterator<Integer> it = sdsEdges.queryIndex(dsf, daq);
-			long edgeIndex = it.next();
-			int epProp = sdsEdges.getInt(edgeIndex, TINSchema.PROPERTY_FIELD);
-			DEdge ret = TINFeatureFactory.createDEdge(sdsEdges.getGeometry(edgeIndex, geomEdgeIndex));
-			if(ret.getGradient() != DEdge.FLATSLOPE){
-				ret.forceTopographicOrientation();
-			}
-			ret.setGID(gid);
-			ret.setProperty(epProp);
-                        ret.getStartPoint().setGID(sdsEdges.getInt(edgeIndex, TINSchema.STARTPOINT_NODE_FIELD));
-                        ret.getEndPoint().setGID(sdsEdges.getInt(edgeIndex, TINSchema.ENDPOINT_NODE_FIELD));
-			return ret;
-		} catch (DelaunayError d){
-			Logger.getLogger(BasinBuilder.class.getName()).log(Level.SEVERE, null, d);
-		}
-		return null;
+	private double getTriangleArea(int gid){
+		int p0 = topology.getTrianglePoint(gid, 0);
+		int p1 = topology.getTrianglePoint(gid, 1);
+		int p2 = topology.getTrianglePoint(gid, 2);
+		double x0 = topology.getPointX(p0);
+		double y0 = topology.getPointY(p0);
+		return Math.abs((topology.getPointX(p1)-x0)*(topology.getPointY(p2)-y0)
+			-(topology.getPointY(p1)-y0)*(topology.getPointX(p2)-x0))/2;
+	}
+
+	/**
+	 * Build the DEdge that goes from the start point to the end point of the
+	 * edge gid, as it is stored in the edges table.
+	 * @param gid
+	 * @return
+	 * @throws DelaunayError
+	 */
+	private DEdge createDEdge(int gid) throws DelaunayError{
+		return new DEdge(new DPoint(getPointCoordinate(topology.getEdgeStart(gid))),
+			new DPoint(getPointCoordinate(topology.getEdgeEnd(gid))));
+	}
+
+	/**
+	 * Build the DTriangle of the triangle gid.
+	 * @param gid
+	 * @return
+	 * @throws DelaunayError
+	 */
+	private DTriangle createDTriangle(int gid) throws DelaunayError{
+		DPoint p0 = new DPoint(getPointCoordinate(topology.getTrianglePoint(gid, 0)));
+		DPoint p1 = new DPoint(getPointCoordinate(topology.getTrianglePoint(gid, 1)));
+		DPoint p2 = new DPoint(getPointCoordinate(topology.getTrianglePoint(gid, 2)));
+		return new DTriangle(new DEdge(p0, p1), new DEdge(p1, p2), new DEdge(p2, p0));
+	}
+
+	/**
+	 * Get the coordinate of the point gid of the TIN.
+	 * @param gid
+	 * @return
+	 */
+	private Coordinate getPointCoordinate(int gid){
+		return new Coordinate(topology.getPointX(gid), topology.getPointY(gid), topology.getPointZ(gid));
 	}
 
 	/**
@@ -845,13 +971,13 @@ public class BasinBuilder {
 		if(ratiostart<ratioend){
 			if(Math.abs(ratiostart)<Tools.EPSILON){
 				PointPart pp = new PointPart(ptStart.getCoordinate(), gidStart, 0);
-				if(!basin.covers(gf.createPoint(pp.getPt())) && !lines.covers(gf.createPoint(pp.getPt()))){
+				if(!coverage.isPointVisited(pp.getOwnerGID())){
 					remainingPoints.add(pp);
 				}
 			}
 			if(Math.abs(1-ratioend)<Tools.EPSILON){
 				PointPart pp = new PointPart(ptEnd.getCoordinate(), gidEnd, 0);
-				if(!basin.covers(gf.createPoint(pp.getPt())) && !lines.covers(gf.createPoint(pp.getPt()))){
+				if(!coverage.isPointVisited(pp.getOwnerGID())){
 					remainingPoints.add(pp);
 				}
 
@@ -860,29 +986,17 @@ public class BasinBuilder {
 		} else {
 			if(Math.abs(ratioend)<Tools.EPSILON){
 				PointPart pp = new PointPart(ptStart.getCoordinate(), gidStart, 0);
-				if(!basin.covers(gf.createPoint(pp.getPt())) && !lines.covers(gf.createPoint(pp.getPt()))){
+				if(!coverage.isPointVisited(pp.getOwnerGID())){
 					remainingPoints.add(pp);
 				}
 			}
 			if(Math.abs(1-ratiostart)<Tools.EPSILON){
 				PointPart pp = new PointPart(ptEnd.getCoordinate(), gidEnd, 0);
-				if(!basin.covers(gf.createPoint(pp.getPt())) && !lines.covers(gf.createPoint(pp.getPt()))){
+				if(!coverage.isPointVisited(pp.getOwnerGID())){
 					remainingPoints.add(pp);
 				}
 			}
 			return new EdgePart(ed, ratioend, ratiostart, gidLeft, gidRight);
 		}
 	}
-
-	private boolean isCoveredByBasin(Geometry geom){
-		int n = basin.getNumGeometries();
-		Geometry ng ;
-		for(int i=0; i<n; i++){
-			ng = basin.getGeometryN(i);
-			if(ng.covers(geom)){
-				return true;
-			}
-		}
-		return false;
-	}
 }
@@ -0,0 +1,216 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.basin;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jdelaunay.delaunay.tools.Tools;
+
+/**
+ * Keep track of the parts of the TIN that are already in a basin, using the
+ * GIDs of the TIN features instead of the geometry of the basin.
+ *
+ * We record the points of the mesh that have been processed, the parts of the
+ * edges that have been given to the EdgePartManager, and the triangles that
+ * are fully covered by the basin. Geometric tests are only needed for the
+ * triangles that are partially covered, and they are done against the pieces
+ * of basin found in this triangle only.
+ * @author alexis
+ */
+final class BasinCoverage {
+
+        private final BitSet visitedPoints = new BitSet();
+        private final BitSet coveredTriangles = new BitSet();
+        //The pieces of basin of the triangles that are partially covered.
+        private final Map<Integer, List<Geometry>> partialTriangles = new HashMap<Integer, List<Geometry>>();
+        //For each edge, sorted and disjoint intervals [start, end], stored as
+        //{start0, end0, start1, end1...}
+        private final Map<Integer, double[]> edgeIntervals = new HashMap<Integer, double[]>();
+
+        /**
+         * Check if the point of the mesh has already been processed.
+         * @param gid
+         * @return
+         */
+        public boolean isPointVisited(int gid) {
+                return visitedPoints.get(gid);
+        }
+
+        /**
+         * Mark the point of the mesh as processed.
+         * @param gid
+         * @return
+         *      true if the point was not processed before.
+         */
+        public boolean visitPoint(int gid) {
+                if (visitedPoints.get(gid)) {
+                        return false;
+                }
+                visitedPoints.set(gid);
+                return true;
+        }
+
+        /**
+         * Check if the whole triangle is in the basin.
+         * @param gid
+         * @return
+         */
+        public boolean isTriangleCovered(int gid) {
+                return coveredTriangles.get(gid);
+        }
+
+        /**
+         * Check if geom, that lies in the triangle gid, is covered by one of the
+         * pieces of basin that have been found in this triangle. Returns false
+         * if gid is negative, ie if there is no triangle.
+         * @param gid
+         * @param geom
+         * @return
+         */
+        public boolean covers(int gid, Geometry geom) {
+                if (gid < 0) {
+                        return false;
+                }
+                if (coveredTriangles.get(gid)) {
+                        return true;
+                }
+                List<Geometry> pieces = partialTriangles.get(gid);
+                if (pieces != null) {
+                        for (Geometry piece : pieces) {
+                                if (piece.covers(geom)) {
+                                        return true;
+                                }
+                        }
+                }
+                return false;
+        }
+
+        /**
+         * Add a piece of basin found in the triangle gid. If the piece has the
+         * area of the triangle, the triangle becomes fully covered and its
+         * pieces are forgotten.
+         * @param gid
+         * @param piece
+         * @param triangleArea
+         *      The planar area of the triangle.
+         */
+        public void addPiece(int gid, Geometry piece, double triangleArea) {
+                if (coveredTriangles.get(gid)) {
+                        return;
+                }
+                if (triangleArea - piece.getArea() <= Tools.EPSILON * triangleArea) {
+                        coveredTriangles.set(gid);
+                        partialTriangles.remove(gid);
+                } else {
+                        List<Geometry> pieces = partialTriangles.get(gid);
+                        if (pieces == null) {
+                                pieces = new ArrayList<Geometry>();
+                                partialTriangles.put(gid, pieces);
+                        }
+                        pieces.add(piece);
+                }
+        }
+
+        /**
+         * Check if the part [start, end] of the edge gid has already been added.
+         * @param gid
+         * @param start
+         * @param end
+         * @return
+         */
+        public boolean coversEdge(int gid, double start, double end) {
+                double[] intervals = edgeIntervals.get(gid);
+                if (intervals != null) {
+                        for (int i = 0; i < intervals.length; i += 2) {
+                                if (intervals[i] <= start + Tools.EPSILON && end - Tools.EPSILON <= intervals[i + 1]) {
+                                        return true;
+                                }
+                        }
+                }
+                return false;
+        }
+
+        /**
+         * Add the part [start, end] of the edge gid. It is merged with the
+         * parts of the edge it overlaps or touches.
+         * @param gid
+         * @param start
+         * @param end
+         */
+        public void addEdgeInterval(int gid, double start, double end) {
+                double[] intervals = edgeIntervals.get(gid);
+                if (intervals == null) {
+                        edgeIntervals.put(gid, new double[]{start, end});
+                        return;
+                }
+                double[] merged = new double[intervals.length + 2];
+                int size = 0;
+                boolean added = false;
+                for (int i = 0; i < intervals.length; i += 2) {
+                        if (intervals[i + 1] < start - Tools.EPSILON) {
+                                //Strictly before the new interval
+                                merged[size++] = intervals[i];
+                                merged[size++] = intervals[i + 1];
+                        } else if (end + Tools.EPSILON < intervals[i]) {
+                                //Strictly after the new interval
+                                if (!added) {
+                                        merged[size++] = start;
+                                        merged[size++] = end;
+                                        added = true;
+                                }
+                                merged[size++] = intervals[i];
+                                merged[size++] = intervals[i + 1];
+                        } else {
+                                //Overlapping, we expand the new interval.
+                                start = Math.min(start, intervals[i]);
+                                end = Math.max(end, intervals[i + 1]);
+                        }
+                }
+                if (!added) {
+                        merged[size++] = start;
+                        merged[size++] = end;
+                }
+                double[] result = new double[size];
+                System.arraycopy(merged, 0, result, 0, size);
+                edgeIntervals.put(gid, result);
+        }
+}
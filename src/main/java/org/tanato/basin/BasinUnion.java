@@ -0,0 +1,222 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.basin;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import com.vividsolutions.jts.precision.EnhancedPrecisionOp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merge the polygons and the lines of a basin graph. The pieces that are added
+ * are kept in batches : when a batch is full, its pieces are merged with a
+ * single cascaded union, and the result goes to a batch of the next level. The
+ * batch results are merged in the same way, so the pieces are merged in a
+ * tree, and the last union is only done when the result is needed.
+ *
+ * It is used by a BasinBuilder for the pieces of its basin, and to merge the
+ * basins computed by several builders.
+ * @author alexis
+ */
+final class BasinUnion {
+
+        //The number of pieces that triggers the union of a batch.
+        private static final int UNION_BATCH_SIZE = 64;
+        private final GeometryFactory gf;
+        //The batches of pieces of basin and of lines. The batch i contains
+        //the results of the unions of batches i-1.
+        private final List<List<Geometry>> polygonBatches = new ArrayList<List<Geometry>>();
+        private final List<List<Geometry>> lineBatches = new ArrayList<List<Geometry>>();
+
+        BasinUnion(GeometryFactory gf) {
+                this.gf = gf;
+        }
+
+        /**
+         * Add a piece of basin.
+         * @param piece
+         */
+        public void addPolygon(Geometry piece) {
+                if (piece.isEmpty()) {
+                        return;
+                }
+                addToBatch(polygonBatches, 0, piece, true);
+        }
+
+        /**
+         * Add a line of the basin graph.
+         * @param ls
+         */
+        public void addLine(LineString ls) {
+                addToBatch(lineBatches, 0, ls, false);
+        }
+
+        /**
+         * Add the polygons and the lines of a basin returned by
+         * BasinBuilder.getBasin.
+         * @param geom
+         */
+        public void addBasin(Geometry geom) {
+                for (int i = 0; i < geom.getNumGeometries(); i++) {
+                        Geometry part = geom.getGeometryN(i);
+                        if (part instanceof Polygonal) {
+                                addPolygon(part);
+                        } else if (part instanceof LineString) {
+                                addLine((LineString) part);
+                        } else if (part instanceof MultiLineString) {
+                                for (int j = 0; j < part.getNumGeometries(); j++) {
+                                        addLine((LineString) part.getGeometryN(j));
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Get the merged geometry, as a collection containing a MultiPolygon
+         * and a MultiLineString.
+         * @return
+         */
+        public Geometry getGeometry() {
+                //The union of the polygons can give lines, it must be done first.
+                Geometry basin = unionAll(polygonBatches, true);
+                if (basin == null) {
+                        basin = gf.createPolygon(gf.createLinearRing(new Coordinate[0]), new LinearRing[0]);
+                }
+                Geometry res = unionAll(lineBatches, false);
+                MultiLineString lines;
+                if (res instanceof MultiLineString) {
+                        lines = (MultiLineString) res;
+                } else if (res instanceof LineString) {
+                        lines = gf.createMultiLineString(new LineString[]{(LineString) res});
+                } else {
+                        lines = gf.createMultiLineString(new LineString[0]);
+                }
+                return gf.createGeometryCollection(new Geometry[]{basin, lines});
+        }
+
+        /**
+         * Add a geometry in the batch of the given level, and merge the batch in
+         * the next level if it is full.
+         * @param batches
+         * @param level
+         * @param geom
+         * @param polygonal
+         */
+        private void addToBatch(List<List<Geometry>> batches, int level, Geometry geom, boolean polygonal) {
+                if (level == batches.size()) {
+                        batches.add(new ArrayList<Geometry>(UNION_BATCH_SIZE));
+                }
+                List<Geometry> batch = batches.get(level);
+                batch.add(geom);
+                if (batch.size() >= UNION_BATCH_SIZE) {
+                        Geometry merged = polygonal ? unionPolygons(batch) : UnaryUnionOp.union(batch);
+                        batch.clear();
+                        addToBatch(batches, level + 1, merged, polygonal);
+                }
+        }
+
+        /**
+         * Merge all the batches with a single union. The result is kept as the
+         * only piece, so that more pieces can still be added.
+         * @param batches
+         * @param polygonal
+         * @return the union, or null if there is nothing to merge.
+         */
+        private Geometry unionAll(List<List<Geometry>> batches, boolean polygonal) {
+                List<Geometry> all = new ArrayList<Geometry>();
+                for (List<Geometry> batch : batches) {
+                        all.addAll(batch);
+                }
+                batches.clear();
+                if (all.isEmpty()) {
+                        return null;
+                }
+                Geometry merged = all.size() == 1 ? all.get(0)
+                        : polygonal ? unionPolygons(all) : UnaryUnionOp.union(all);
+                List<Geometry> batch = new ArrayList<Geometry>(UNION_BATCH_SIZE);
+                batch.add(merged);
+                batches.add(batch);
+                return merged;
+        }
+
+        /**
+         * Merge pieces of basin. The convex hull of a thin piece can be a line,
+         * such lines go to the lines of the basin graph.
+         * @param pieces
+         * @return
+         */
+        private Geometry unionPolygons(List<Geometry> pieces) {
+                Geometry basin;
+                try {
+                        basin = UnaryUnionOp.union(pieces);
+                } catch (TopologyException ex) {
+                        //The cascaded union is not robust enough, we merge the pieces
+                        //one by one with the enhanced precision union.
+                        Geometry res = pieces.get(0);
+                        for (int i = 1; i < pieces.size(); i++) {
+                                res = EnhancedPrecisionOp.union(res, pieces.get(i));
+                        }
+                        basin = res;
+                }
+                if (basin instanceof GeometryCollection && !(basin instanceof MultiPolygon)) {
+                        Geometry gn;
+                        List<Geometry> out = new ArrayList<Geometry>();
+                        for (int i = 0; i < basin.getNumGeometries(); i++) {
+                                gn = basin.getGeometryN(i);
+                                if (gn instanceof Polygonal) {
+                                        out.add(gn);
+                                } else if (gn instanceof LineString) {
+                                        addLine((LineString) gn);
+                                }
+                        }
+                        basin = out.isEmpty() ? gf.createMultiPolygon(new Polygon[]{}) : UnaryUnionOp.union(out);
+                }
+                return basin;
+        }
+}
@@ -57,7 +57,6 @@ class EdgePart implements Comparable<EdgePart>{
         private int gidLeft;
         private int gidRight;
         private int occuredIter;
-        private static int MAX_ITER = DEFAULT_MAX_ITER;
 
 	/**
 	 * Instanciate a new EdgePart
@@ -206,24 +205,14 @@ class EdgePart implements Comparable<EdgePart>{
         }
 
         /**
-         * Return the maximum number of time we can try to process an EdgePart.
-         * @return 
-         */
-        public static int getMaxIterNumber() {
-                return MAX_ITER;
-        }
-        
-        /**
-         * Set the maximum number of time we can try to process an EdgePart. This is
-         * a configuration at the system level, not at the object level.
-         * @param max 
+         * Check if we have tried to process this EdgePart at least maxIter times.
+         * The maximum is given by the EdgePartManager that handles this EdgePart,
+         * so that basins computed concurrently can use different limits.
+         * @param maxIter
+         * @return
          */
-        public static void setMaxIterNumber(int max){
-                MAX_ITER = max;
-        }
-        
-        public final boolean isMaxIterReached(){
-                return occuredIter>=MAX_ITER;
+        public final boolean isMaxIterReached(int maxIter){
+                return occuredIter>=maxIter;
         }
         
         /**
@@ -246,6 +235,16 @@ class EdgePart implements Comparable<EdgePart>{
                 return false;
         }
 
+        /**
+         * Get the elevation of the lowest extremity of this EdgePart.
+         * @return 
+         */
+        public final double getLowestZ(){
+                double zs = edge.getStartPoint().getZ();
+                double ze = edge.getEndPoint().getZ();
+                return Math.min(zs + start * (ze - zs), zs + end * (ze - zs));
+        }
+
         public final boolean isProcessable(){
                 double length = (end - start)*edge.get2DLength();
                 return length > Tools.EPSILON;
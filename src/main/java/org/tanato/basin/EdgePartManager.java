@@ -37,58 +37,138 @@
  */
 package org.tanato.basin;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * This class is used to handle the EdgePart that are generated while processing
  * the basin graph of a hydrotin.<br/>
  * It uses a queue of edge GIDs, backed with a Map where keys are the GIDs, and 
  * Values are set of EdgeParts. Our goal, with this Map, is to compute the intersections
- * in the triangles as rarely as possible.
+ * in the triangles as rarely as possible.<br/>
+ * The EdgeParts of an edge are kept in an ArrayList, sorted and without overlaps,
+ * so that we can find where to insert a new one with a binary search.<br/>
+ * Edges are given by increasing elevation of the lowest EdgePart that made them
+ * enter the queue, in the order they have been added for the same elevation. As
+ * a basin grows upward, the parts of an edge that come from lower elements have
+ * then been merged when the edge is processed. EdgeParts that are still too small
+ * to be processed are deferred : they are tried again when there is no other edge
+ * left, up to the maximum number of iterations.
  * 
  * 
  * @author alexis
  */
 final class EdgePartManager {
         //The map of GIDs and EdgeParts. EdgeParts willl be merged as often as possible.
-        private Map<Integer, List<EdgePart>> mergingStructure;
-        //The queue of GIDs, saved as a LinkedList
-        private LinkedList<Integer> epQueue;
+        private Map<Integer, PendingEdge> mergingStructure;
+        //The queue of GIDs, sorted by elevation, as {elevation, order, gid}
+        private PriorityQueue<double[]> epQueue;
+        //The number of edges that have entered epQueue, used to sort the edges
+        //that have the same elevation.
+        private long scheduled = 0;
+        //The GIDs of the edges whose EdgeParts were too small to be processed.
+        private IntDeque deferred;
+        //The number of times we can try to process a too small EdgePart.
+        private int maxIter;
+        //The number of times a too small EdgePart has been put back in the queue
+        private long requeueCount = 0;
+        //The number of too small EdgeParts that have been dropped after maxIter tries
+        private long droppedCount = 0;
         
         /**
-         * Create a new EdgePartManager.
+         * Create a new EdgePartManager, that will try to process too small
+         * EdgeParts at most EdgePart.DEFAULT_MAX_ITER times.
          */
         public EdgePartManager(){
-                mergingStructure = new HashMap<Integer, List<EdgePart>>();
-                epQueue = new LinkedList<Integer>();
+                this(EdgePart.DEFAULT_MAX_ITER);
+        }
+        
+        /**
+         * Create a new EdgePartManager.
+         * @param maxIter
+         *      The maximum number of times we try to process an EdgePart whose
+         *      length is inferior to Tools.EPSILON.
+         */
+        public EdgePartManager(int maxIter){
+                mergingStructure = new HashMap<Integer, PendingEdge>();
+                epQueue = new PriorityQueue<double[]>(16, new Comparator<double[]>() {
+
+                        @Override
+                        public int compare(double[] o1, double[] o2) {
+                                int c = Double.compare(o1[0], o2[0]);
+                                return c != 0 ? c : Double.compare(o1[1], o2[1]);
+                        }
+                });
+                deferred = new IntDeque();
+                this.maxIter = maxIter;
+        }
+        
+        /**
+         * Get the maximum number of times we try to process an EdgePart.
+         * @return 
+         */
+        public int getMaxIterNumber() {
+                return maxIter;
+        }
+        
+        /**
+         * Set the maximum number of times we try to process an EdgePart. This is
+         * a configuration of this manager only.
+         * @param max 
+         */
+        public void setMaxIterNumber(int max){
+                maxIter = max;
+        }
+        
+        /**
+         * Get the number of times an EdgePart that could not be processed has been
+         * put back in the queue.
+         * @return 
+         */
+        public long getRequeueCount() {
+                return requeueCount;
+        }
+        
+        /**
+         * Get the number of EdgeParts that have been dropped because they could not
+         * be processed after the maximum number of tries.
+         * @return 
+         */
+        public long getDroppedCount() {
+                return droppedCount;
         }
         
         /**
          * Add an Edgepart to this manager. We'll first check that there is not 
          * already a reference to an EdgePart with the same GID as ep. If it is,
-         * we'll do a merge in the Map. If it is not, we'll add ep at the end of 
-         * queue of EdgeParts.
+         * we'll do a merge in the Map. If it is not, we'll add its GID to the
+         * queue, at the elevation of ep.
          * @param ep 
          */
         public void addEdgePart(EdgePart ep){
                 int gid = ep.getGid();
-                List<EdgePart> list = mergingStructure.get(gid);
-                if(list==null){
-                        list = new LinkedList<EdgePart>();
-                        list.add(ep);
-                        epQueue.addLast(gid);
-                        mergingStructure.put(gid, list);
+                PendingEdge pending = mergingStructure.get(gid);
+                if(pending==null){
+                        pending = new PendingEdge();
+                        pending.parts.add(ep);
+                        mergingStructure.put(gid, pending);
                 } else {
                         //We must insert the EdgePart ep in the existing list.
                         //For that, we may need to merge it with other ones.
                         //We absolutely must take care of the consistence of the list !
                         //We mustn't have EdgeParts that overlap in it after the insertion!
-                        mergeInList(ep, list);
+                        mergeInList(ep, pending.parts);
+                }
+                if(!pending.queued){
+                        //The edge may only be deferred, it must be processed again
+                        //now that it has a new part.
+                        epQueue.add(new double[]{ep.getLowestZ(), scheduled++, gid});
+                        pending.queued = true;
                 }
         }
         
@@ -100,52 +180,86 @@ final class EdgePartManager {
          * @return 
          */
         public List<EdgePart> getEdgeParts(int gid){
-                return mergingStructure.get(gid);
+                PendingEdge pending = mergingStructure.get(gid);
+                return pending == null ? null : pending.parts;
         }
         
         /**
-         * Get the list of <code>EdgePart</code> associated to the first GID of the
-         * queue. This GID, and its corresponding value, are logically removed from
-         * the map.
+         * Get the list of <code>EdgePart</code> associated to the lowest GID of the
+         * queue, or to the first deferred GID if the queue is empty. This GID, and
+         * its corresponding value, are logically removed from the map.
          * @return 
          */
         public List<EdgePart> getEdgeParts(){
-                if(epQueue.isEmpty()){
-                        return new LinkedList<EdgePart>();
+                int key;
+                PendingEdge pending = null;
+                if(!epQueue.isEmpty()){
+                        key = (int) epQueue.poll()[2];
+                        pending = mergingStructure.get(key);
+                        pending.queued = false;
+                } else {
+                        //The edge of a deferred GID may have been processed since.
+                        key = 0;
+                        while(pending == null && !deferred.isEmpty()){
+                                key = deferred.removeFirst();
+                                pending = mergingStructure.get(key);
+                        }
+                        if(pending == null){
+                                return new ArrayList<EdgePart>(0);
+                        }
+                        pending.deferred = false;
                 }
-                int key = epQueue.getFirst();
-                epQueue.removeFirst();
-                List<EdgePart> ret = mergingStructure.get(key);
-                LinkedList<EdgePart> memory = new LinkedList<EdgePart>();
-                for (Iterator<EdgePart> it = ret.iterator(); it.hasNext();) {
-                        EdgePart edgePart = it.next();
-                        if(!edgePart.isProcessable()){
-                                //The edge can't be processed, we will put it back
-                                //at the end of the queue if it can still be processed.
-                                 if(edgePart.getIterNumber()<EdgePart.getMaxIterNumber()){
-                                        edgePart.increaseIterNumber();
-                                        memory.add(edgePart);
-                                 }
-                                //In any cases, we remove it from the list that will be returned
-                                it.remove();
-                        } 
+                ArrayList<EdgePart> ret = pending.parts;
+                ArrayList<EdgePart> memory = null;
+                int kept = 0;
+                for (int i = 0; i < ret.size(); i++) {
+                        EdgePart edgePart = ret.get(i);
+                        if(edgePart.isProcessable()){
+                                ret.set(kept++, edgePart);
+                        } else if(!edgePart.isMaxIterReached(maxIter)){
+                                //The edge can't be processed, we will defer it
+                                //as it can still be processed.
+                                edgePart.increaseIterNumber();
+                                if(memory == null){
+                                        memory = new ArrayList<EdgePart>(2);
+                                }
+                                memory.add(edgePart);
+                                requeueCount++;
+                        } else {
+                                droppedCount++;
+                        }
                 }
-                if(!memory.isEmpty()){
-                        mergingStructure.put(key, memory);
-                        epQueue.addLast(key);
+                //In any cases, the parts that can't be processed are removed from the
+                //list that will be returned
+                ret.subList(kept, ret.size()).clear();
+                if(memory != null){
+                        pending.parts = memory;
+                        if(!pending.deferred){
+                                deferred.addLast(key);
+                                pending.deferred = true;
+                        }
                 } else {
                         mergingStructure.remove(key);
                 }
                 return ret;
         }
         
+        /**
+         * Get the elevation of the next edge of the queue, or Double.POSITIVE_INFINITY
+         * if there are only deferred edges left.
+         * @return 
+         */
+        public double getNextElevation(){
+                return epQueue.isEmpty() ? Double.POSITIVE_INFINITY : epQueue.peek()[0];
+        }
+        
         /**
          * Get the size of the queue, ie the number of edges GID that have EdgePart
          * associated to them, and are currently waiting to be processed.
          * @return 
          */
         public int getQueueSize(){
-                return epQueue.size();
+                return mergingStructure.size();
         }
         
         /**
@@ -153,7 +267,7 @@ final class EdgePartManager {
          * @return 
          */
         public boolean isEmpty() {
-                return epQueue.isEmpty();
+                return mergingStructure.isEmpty();
         }
         
         /**
@@ -167,7 +281,7 @@ final class EdgePartManager {
          * @param ep
          * @param list 
          */
-        private void mergeInList(EdgePart ep, List<EdgePart> list){
+        private void mergeInList(EdgePart ep, ArrayList<EdgePart> list){
                 if(list.isEmpty()){
                         //Here the task is easy.
                         list.add(ep);
@@ -191,7 +305,7 @@ final class EdgePartManager {
          * @param list
          * @param startIndex 
          */
-        private void mergingOperation(EdgePart ep, List<EdgePart> list, int startIndex){
+        private void mergingOperation(EdgePart ep, ArrayList<EdgePart> list, int startIndex){
                 int min = startIndex;
                 int max = startIndex+1;
                 //We expand to the left
@@ -204,9 +318,19 @@ final class EdgePartManager {
                         ep.expandToInclude(list.get(max));
                         max++;
                 }
-                list.add(max, ep); 
-                //We clear the unecessary elements.
-                list.subList(min+1, max).clear();
+                //ep replaces the first merged element, and we clear the other ones.
+                list.set(min+1, ep);
+                list.subList(min+2, max).clear();
         }
         
+        /**
+         * The EdgeParts waiting on an edge, and where its GID is.
+         */
+        private static final class PendingEdge {
+                private ArrayList<EdgePart> parts = new ArrayList<EdgePart>(2);
+                //true if the GID is in epQueue
+                private boolean queued = false;
+                //true if the GID is in deferred
+                private boolean deferred = false;
+        }
 }
@@ -0,0 +1,103 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.basin;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A queue of ints, stored in a circular array that grows when needed, so
+ * that adding an int does not create any object.
+ * @author alexis
+ */
+final class IntDeque {
+
+        private static final int DEFAULT_CAPACITY = 16;
+        private int[] elements = new int[DEFAULT_CAPACITY];
+        //The index of the first element
+        private int head = 0;
+        private int size = 0;
+
+        /**
+         * Add value at the end of the queue.
+         * @param value
+         */
+        public void addLast(int value) {
+                if (size == elements.length) {
+                        int[] grown = new int[2 * elements.length];
+                        int firstPart = elements.length - head;
+                        System.arraycopy(elements, head, grown, 0, firstPart);
+                        System.arraycopy(elements, 0, grown, firstPart, head);
+                        elements = grown;
+                        head = 0;
+                }
+                elements[(head + size) % elements.length] = value;
+                size++;
+        }
+
+        /**
+         * Get the first value of the queue, without removing it.
+         * @return
+         * @throws NoSuchElementException if the queue is empty.
+         */
+        public int getFirst() {
+                if (size == 0) {
+                        throw new NoSuchElementException("The queue is empty.");
+                }
+                return elements[head];
+        }
+
+        /**
+         * Remove the first value of the queue and return it.
+         * @return
+         * @throws NoSuchElementException if the queue is empty.
+         */
+        public int removeFirst() {
+                int value = getFirst();
+                head = (head + 1) % elements.length;
+                size--;
+                return value;
+        }
+
+        public int size() {
+                return size;
+        }
+
+        public boolean isEmpty() {
+                return size == 0;
+        }
+}
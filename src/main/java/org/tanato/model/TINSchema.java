@@ -59,6 +59,17 @@ public final class TINSchema {
         public static final String EDGE_0_GID_FIELD = "edge0_gid";
         public static final String EDGE_1_GID_FIELD = "edge1_gid";
         public static final String EDGE_2_GID_FIELD = "edge2_gid";
+        /**
+         * Field names used by the triangles produced by ST_HydroTIN : the steepest
+         * descent vector, the slope, and whether the steepest descent goes to
+         * each of the three edges (always false for a flat triangle).
+         */
+        public static final String STEEPEST_X_FIELD = "steepest_dx";
+        public static final String STEEPEST_Y_FIELD = "steepest_dy";
+        public static final String SLOPE_FIELD = "slope";
+        public static final String TO_EDGE_0_FIELD = "to_edge0";
+        public static final String TO_EDGE_1_FIELD = "to_edge1";
+        public static final String TO_EDGE_2_FIELD = "to_edge2";
         public static final String GID = "gid";
         public static final String GEOM_FIELD="the_geom";
         static final String TIN_FEATURE = "tin_feature";
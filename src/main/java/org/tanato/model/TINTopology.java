@@ -0,0 +1,683 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import java.util.Arrays;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * A read-only snapshot of the topology of a TIN, as produced by ST_TIN or ST_HydroTIN.
+ * The three tables (points, edges and triangles) are read once, and their content
+ * is stored in primitive arrays indexed by the GID of the features. This way,
+ * navigating in the TIN does not need any index query on the GDMS tables.
+ *
+ * Once built, the snapshot is never modified, so it can be shared between several
+ * threads.
+ *
+ * @author alexis
+ */
+public final class TINTopology {
+
+        /**
+         * The value used in the tables, and returned by this class, when a feature
+         * does not exist (no triangle on the left of a border edge, for instance).
+         */
+        public static final int NO_ELEMENT = -1;
+        // Points
+        private final double[] pointX;
+        private final double[] pointY;
+        private final double[] pointZ;
+        private final int[] pointProperty;
+        private final double[] pointHeight;
+        // Edges
+        private final int[] edgeStart;
+        private final int[] edgeEnd;
+        private final int[] edgeLeft;
+        private final int[] edgeRight;
+        private final int[] edgeProperty;
+        private final double[] edgeHeight;
+        // Triangles. The three edges of the triangle gid are stored at 3*gid, 3*gid+1, 3*gid+2
+        private final int[] triangleEdges;
+        private final int[] triangleProperty;
+        private final double[] triangleHeight;
+        // Slopes persisted by ST_HydroTIN, null if the triangle table does not
+        // contain them. Bit i of triangleFlow is set when the steepest descent
+        // goes to the edge i of the triangle.
+        private final double[] triangleSteepestX;
+        private final double[] triangleSteepestY;
+        private final double[] triangleSlope;
+        private final byte[] triangleFlow;
+        // Vertex stars. The edges around the point gid are stored, sorted
+        // counterclockwise, in starEdges from starStart[gid] to starStart[gid+1].
+        // starTriangles[i] is the triangle between starEdges[i] and the next edge
+        // of the star, or NO_ELEMENT if there is none.
+        private final int[] starStart;
+        private final int[] starEdges;
+        private final int[] starTriangles;
+        private int pointCount = 0;
+        private int edgeCount = 0;
+        private int triangleCount = 0;
+
+        /**
+         * Build the snapshot from the three tables of a TIN.
+         * The property and height fields are optional. If they are not present,
+         * the properties and heights of the features are set to 0. The slope
+         * fields of the triangles are optional too, see hasTriangleSlopes.
+         * @param sdsPoints
+         * @param sdsEdges
+         * @param sdsTriangles
+         * @param pm
+         * @throws DriverException
+         *      If a table can't be read, or if a mandatory field is missing.
+         */
+        public TINTopology(DataSet sdsPoints, DataSet sdsEdges, DataSet sdsTriangles, ProgressMonitor pm) throws DriverException {
+                pm.startTask("Loading the TIN topology", 100);
+                // Points
+                Metadata md = sdsPoints.getMetadata();
+                int gidIndex = getMandatoryFieldIndex(md, TINSchema.GID);
+                int geomIndex = MetadataUtilities.getGeometryFieldIndex(md);
+                int propertyIndex = md.getFieldIndex(TINSchema.PROPERTY_FIELD);
+                int heightIndex = md.getFieldIndex(TINSchema.HEIGHT_FIELD);
+                int size = getMaxGID(sdsPoints, gidIndex) + 1;
+                pointX = new double[size];
+                pointY = new double[size];
+                pointZ = new double[size];
+                pointProperty = new int[size];
+                pointHeight = new double[size];
+                Arrays.fill(pointX, Double.NaN);
+                long rowCount = sdsPoints.getRowCount();
+                for (long i = 0; i < rowCount; i++) {
+                        int gid = sdsPoints.getFieldValue(i, gidIndex).getAsInt();
+                        Coordinate coord = sdsPoints.getGeometry(i, geomIndex).getCoordinate();
+                        pointX[gid] = coord.x;
+                        pointY[gid] = coord.y;
+                        pointZ[gid] = coord.z;
+                        if (propertyIndex != -1) {
+                                pointProperty[gid] = sdsPoints.getFieldValue(i, propertyIndex).getAsInt();
+                        }
+                        if (heightIndex != -1) {
+                                pointHeight[gid] = sdsPoints.getFieldValue(i, heightIndex).getAsDouble();
+                        }
+                        pointCount++;
+                }
+                pm.progressTo(33);
+
+                // Edges
+                md = sdsEdges.getMetadata();
+                gidIndex = getMandatoryFieldIndex(md, TINSchema.GID);
+                int startIndex = getMandatoryFieldIndex(md, TINSchema.STARTPOINT_NODE_FIELD);
+                int endIndex = getMandatoryFieldIndex(md, TINSchema.ENDPOINT_NODE_FIELD);
+                int leftIndex = getMandatoryFieldIndex(md, TINSchema.LEFT_TRIANGLE_FIELD);
+                int rightIndex = getMandatoryFieldIndex(md, TINSchema.RIGHT_TRIANGLE_FIELD);
+                propertyIndex = md.getFieldIndex(TINSchema.PROPERTY_FIELD);
+                heightIndex = md.getFieldIndex(TINSchema.HEIGHT_FIELD);
+                size = getMaxGID(sdsEdges, gidIndex) + 1;
+                edgeStart = new int[size];
+                edgeEnd = new int[size];
+                edgeLeft = new int[size];
+                edgeRight = new int[size];
+                edgeProperty = new int[size];
+                edgeHeight = new double[size];
+                Arrays.fill(edgeStart, NO_ELEMENT);
+                rowCount = sdsEdges.getRowCount();
+                for (long i = 0; i < rowCount; i++) {
+                        int gid = sdsEdges.getFieldValue(i, gidIndex).getAsInt();
+                        edgeStart[gid] = sdsEdges.getFieldValue(i, startIndex).getAsInt();
+                        edgeEnd[gid] = sdsEdges.getFieldValue(i, endIndex).getAsInt();
+                        edgeLeft[gid] = sdsEdges.getFieldValue(i, leftIndex).getAsInt();
+                        edgeRight[gid] = sdsEdges.getFieldValue(i, rightIndex).getAsInt();
+                        if (propertyIndex != -1) {
+                                edgeProperty[gid] = sdsEdges.getFieldValue(i, propertyIndex).getAsInt();
+                        }
+                        if (heightIndex != -1) {
+                                edgeHeight[gid] = sdsEdges.getFieldValue(i, heightIndex).getAsDouble();
+                        }
+                        edgeCount++;
+                }
+                pm.progressTo(66);
+
+                // Triangles
+                md = sdsTriangles.getMetadata();
+                gidIndex = getMandatoryFieldIndex(md, TINSchema.GID);
+                int e0Index = getMandatoryFieldIndex(md, TINSchema.EDGE_0_GID_FIELD);
+                int e1Index = getMandatoryFieldIndex(md, TINSchema.EDGE_1_GID_FIELD);
+                int e2Index = getMandatoryFieldIndex(md, TINSchema.EDGE_2_GID_FIELD);
+                propertyIndex = md.getFieldIndex(TINSchema.PROPERTY_FIELD);
+                heightIndex = md.getFieldIndex(TINSchema.HEIGHT_FIELD);
+                int steepestXIndex = md.getFieldIndex(TINSchema.STEEPEST_X_FIELD);
+                int steepestYIndex = md.getFieldIndex(TINSchema.STEEPEST_Y_FIELD);
+                int slopeIndex = md.getFieldIndex(TINSchema.SLOPE_FIELD);
+                int[] flowIndexes = new int[]{md.getFieldIndex(TINSchema.TO_EDGE_0_FIELD),
+                        md.getFieldIndex(TINSchema.TO_EDGE_1_FIELD),
+                        md.getFieldIndex(TINSchema.TO_EDGE_2_FIELD)};
+                boolean withSlopes = steepestXIndex != -1 && steepestYIndex != -1 && slopeIndex != -1
+                        && flowIndexes[0] != -1 && flowIndexes[1] != -1 && flowIndexes[2] != -1;
+                size = getMaxGID(sdsTriangles, gidIndex) + 1;
+                triangleEdges = new int[3 * size];
+                triangleProperty = new int[size];
+                triangleHeight = new double[size];
+                if (withSlopes) {
+                        triangleSteepestX = new double[size];
+                        triangleSteepestY = new double[size];
+                        triangleSlope = new double[size];
+                        triangleFlow = new byte[size];
+                } else {
+                        triangleSteepestX = null;
+                        triangleSteepestY = null;
+                        triangleSlope = null;
+                        triangleFlow = null;
+                }
+                Arrays.fill(triangleEdges, NO_ELEMENT);
+                rowCount = sdsTriangles.getRowCount();
+                for (long i = 0; i < rowCount; i++) {
+                        int gid = sdsTriangles.getFieldValue(i, gidIndex).getAsInt();
+                        triangleEdges[3 * gid] = sdsTriangles.getFieldValue(i, e0Index).getAsInt();
+                        triangleEdges[3 * gid + 1] = sdsTriangles.getFieldValue(i, e1Index).getAsInt();
+                        triangleEdges[3 * gid + 2] = sdsTriangles.getFieldValue(i, e2Index).getAsInt();
+                        if (propertyIndex != -1) {
+                                triangleProperty[gid] = sdsTriangles.getFieldValue(i, propertyIndex).getAsInt();
+                        }
+                        if (heightIndex != -1) {
+                                triangleHeight[gid] = sdsTriangles.getFieldValue(i, heightIndex).getAsDouble();
+                        }
+                        if (withSlopes) {
+                                triangleSteepestX[gid] = sdsTriangles.getFieldValue(i, steepestXIndex).getAsDouble();
+                                triangleSteepestY[gid] = sdsTriangles.getFieldValue(i, steepestYIndex).getAsDouble();
+                                triangleSlope[gid] = sdsTriangles.getFieldValue(i, slopeIndex).getAsDouble();
+                                for (int rank = 0; rank < 3; rank++) {
+                                        if (sdsTriangles.getFieldValue(i, flowIndexes[rank]).getAsBoolean()) {
+                                                triangleFlow[gid] |= 1 << rank;
+                                        }
+                                }
+                        }
+                        triangleCount++;
+                }
+
+                // Vertex stars
+                starStart = new int[pointX.length + 1];
+                int starSize = 0;
+                for (int gid = 0; gid < edgeStart.length; gid++) {
+                        if (isStarEdge(gid)) {
+                                starStart[edgeStart[gid]]++;
+                                starStart[edgeEnd[gid]]++;
+                                starSize += 2;
+                        }
+                }
+                starEdges = new int[starSize];
+                starTriangles = new int[starSize];
+                buildStars();
+                pm.endTask();
+        }
+
+        /**
+         * Check that the edge can be used in the vertex stars, ie that it exists
+         * and that its two points exist and are different.
+         * @param gid
+         * @return
+         */
+        private boolean isStarEdge(int gid) {
+                return edgeStart[gid] != NO_ELEMENT && edgeStart[gid] != edgeEnd[gid]
+                        && hasPoint(edgeStart[gid]) && hasPoint(edgeEnd[gid]);
+        }
+
+        /**
+         * Fill the vertex stars. starStart must contain the number of edges
+         * of each point when this method is called.
+         */
+        private void buildStars() {
+                // Turn the counts into offsets
+                int offset = 0;
+                for (int gid = 0; gid < pointX.length; gid++) {
+                        int count = starStart[gid];
+                        starStart[gid] = offset;
+                        offset += count;
+                }
+                starStart[pointX.length] = offset;
+                int[] next = Arrays.copyOf(starStart, pointX.length);
+                for (int gid = 0; gid < edgeStart.length; gid++) {
+                        if (isStarEdge(gid)) {
+                                starEdges[next[edgeStart[gid]]++] = gid;
+                                starEdges[next[edgeEnd[gid]]++] = gid;
+                        }
+                }
+
+                double[] angles = new double[0];
+                for (int gid = 0; gid < pointX.length; gid++) {
+                        int first = starStart[gid];
+                        int size = starStart[gid + 1] - first;
+                        if (size == 0) {
+                                continue;
+                        }
+                        // Sort the edges counterclockwise (insertion sort, stars are small)
+                        if (angles.length < size) {
+                                angles = new double[size];
+                        }
+                        for (int i = 0; i < size; i++) {
+                                int other = getOtherPoint(starEdges[first + i], gid);
+                                double angle = Math.atan2(pointY[other] - pointY[gid], pointX[other] - pointX[gid]);
+                                int edge = starEdges[first + i];
+                                int j = i;
+                                while (j > 0 && angles[j - 1] > angle) {
+                                        angles[j] = angles[j - 1];
+                                        starEdges[first + j] = starEdges[first + j - 1];
+                                        j--;
+                                }
+                                angles[j] = angle;
+                                starEdges[first + j] = edge;
+                        }
+                        // Find the triangles between two consecutive edges
+                        for (int i = 0; i < size; i++) {
+                                int edge = starEdges[first + i];
+                                int nextEdge = starEdges[first + (i + 1) % size];
+                                starTriangles[first + i] = NO_ELEMENT;
+                                if (edge == nextEdge) {
+                                        continue;
+                                }
+                                int p1 = getOtherPoint(edge, gid);
+                                int p2 = getOtherPoint(nextEdge, gid);
+                                double cross = (pointX[p1] - pointX[gid]) * (pointY[p2] - pointY[gid])
+                                        - (pointY[p1] - pointY[gid]) * (pointX[p2] - pointX[gid]);
+                                if (cross <= 0) {
+                                        // The angle between the two edges is greater than PI,
+                                        // it can't be a triangle
+                                        continue;
+                                }
+                                int left = edgeLeft[edge];
+                                int right = edgeRight[edge];
+                                if (left != NO_ELEMENT && hasTriangle(left)
+                                        && (edgeLeft[nextEdge] == left || edgeRight[nextEdge] == left)) {
+                                        starTriangles[first + i] = left;
+                                } else if (right != NO_ELEMENT && hasTriangle(right)
+                                        && (edgeLeft[nextEdge] == right || edgeRight[nextEdge] == right)) {
+                                        starTriangles[first + i] = right;
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Get the point of the edge that is not the given one.
+         * @param edge
+         * @param point
+         * @return
+         */
+        private int getOtherPoint(int edge, int point) {
+                return edgeStart[edge] == point ? edgeEnd[edge] : edgeStart[edge];
+        }
+
+        /**
+         * Get the index of a field that must be present in the table.
+         * @param md
+         * @param fieldName
+         * @return
+         * @throws DriverException
+         *      if the field can't be found.
+         */
+        private static int getMandatoryFieldIndex(Metadata md, String fieldName) throws DriverException {
+                int index = md.getFieldIndex(fieldName);
+                if (index == -1) {
+                        throw new DriverException("The TIN table must contain a " + fieldName + " field.");
+                }
+                return index;
+        }
+
+        /**
+         * Get the greatest GID of the table, used to size the arrays.
+         * @param sds
+         * @param gidIndex
+         * @return
+         * @throws DriverException
+         */
+        private static int getMaxGID(DataSet sds, int gidIndex) throws DriverException {
+                int max = -1;
+                long rowCount = sds.getRowCount();
+                for (long i = 0; i < rowCount; i++) {
+                        int gid = sds.getFieldValue(i, gidIndex).getAsInt();
+                        if (gid < 0) {
+                                throw new DriverException("GIDs of TIN features must be positive.");
+                        }
+                        if (gid > max) {
+                                max = gid;
+                        }
+                }
+                return max;
+        }
+
+        // ----------------------------------------------------------------
+        // POINTS
+        // ----------------------------------------------------------------
+        /**
+         * Check that a point with this GID exists in the TIN.
+         * @param gid
+         * @return
+         */
+        public boolean hasPoint(int gid) {
+                return gid >= 0 && gid < pointX.length && !Double.isNaN(pointX[gid]);
+        }
+
+        public double getPointX(int gid) {
+                return pointX[gid];
+        }
+
+        public double getPointY(int gid) {
+                return pointY[gid];
+        }
+
+        public double getPointZ(int gid) {
+                return pointZ[gid];
+        }
+
+        public int getPointProperty(int gid) {
+                return pointProperty[gid];
+        }
+
+        public double getPointHeight(int gid) {
+                return pointHeight[gid];
+        }
+
+        /**
+         * Get the number of points in the TIN.
+         * @return
+         */
+        public int getPointCount() {
+                return pointCount;
+        }
+
+        /**
+         * Get the greatest GID a point can have, plus one.
+         * @return
+         */
+        public int getPointGIDBound() {
+                return pointX.length;
+        }
+
+        // ----------------------------------------------------------------
+        // EDGES
+        // ----------------------------------------------------------------
+        /**
+         * Check that an edge with this GID exists in the TIN.
+         * @param gid
+         * @return
+         */
+        public boolean hasEdge(int gid) {
+                return gid >= 0 && gid < edgeStart.length && edgeStart[gid] != NO_ELEMENT;
+        }
+
+        public int getEdgeStart(int gid) {
+                return edgeStart[gid];
+        }
+
+        public int getEdgeEnd(int gid) {
+                return edgeEnd[gid];
+        }
+
+        /**
+         * Get the GID of the triangle on the left of the edge, or NO_ELEMENT.
+         * @param gid
+         * @return
+         */
+        public int getEdgeLeft(int gid) {
+                return edgeLeft[gid];
+        }
+
+        /**
+         * Get the GID of the triangle on the right of the edge, or NO_ELEMENT.
+         * @param gid
+         * @return
+         */
+        public int getEdgeRight(int gid) {
+                return edgeRight[gid];
+        }
+
+        public int getEdgeProperty(int gid) {
+                return edgeProperty[gid];
+        }
+
+        public double getEdgeHeight(int gid) {
+                return edgeHeight[gid];
+        }
+
+        /**
+         * Get the number of edges in the TIN.
+         * @return
+         */
+        public int getEdgeCount() {
+                return edgeCount;
+        }
+
+        /**
+         * Get the greatest GID an edge can have, plus one.
+         * @return
+         */
+        public int getEdgeGIDBound() {
+                return edgeStart.length;
+        }
+
+        // ----------------------------------------------------------------
+        // TRIANGLES
+        // ----------------------------------------------------------------
+        /**
+         * Check that a triangle with this GID exists in the TIN.
+         * @param gid
+         * @return
+         */
+        public boolean hasTriangle(int gid) {
+                return gid >= 0 && gid < triangleProperty.length && triangleEdges[3 * gid] != NO_ELEMENT;
+        }
+
+        /**
+         * Get the GID of the edge number rank (0, 1 or 2) of the triangle.
+         * @param gid
+         * @param rank
+         * @return
+         */
+        public int getTriangleEdge(int gid, int rank) {
+                return triangleEdges[3 * gid + rank];
+        }
+
+        /**
+         * Get the GID of the point number rank (0, 1 or 2) of the triangle. Points
+         * 0 and 1 are the start and end points of the edge 0, point 2 is the point
+         * of the triangle that does not lie on edge 0.
+         * @param gid
+         * @param rank
+         * @return
+         */
+        public int getTrianglePoint(int gid, int rank) {
+                int e0 = triangleEdges[3 * gid];
+                if (rank == 0) {
+                        return edgeStart[e0];
+                } else if (rank == 1) {
+                        return edgeEnd[e0];
+                } else {
+                        int e1 = triangleEdges[3 * gid + 1];
+                        int candidate = edgeStart[e1];
+                        if (candidate == edgeStart[e0] || candidate == edgeEnd[e0]) {
+                                candidate = edgeEnd[e1];
+                        }
+                        return candidate;
+                }
+        }
+
+        public int getTriangleProperty(int gid) {
+                return triangleProperty[gid];
+        }
+
+        public double getTriangleHeight(int gid) {
+                return triangleHeight[gid];
+        }
+
+        /**
+         * Check if the slopes of the triangles have been read from the table,
+         * ie if it has been produced by ST_HydroTIN.
+         * @return
+         */
+        public boolean hasTriangleSlopes() {
+                return triangleSlope != null;
+        }
+
+        /**
+         * Get the x component of the steepest descent vector of the triangle.
+         * Only available if hasTriangleSlopes.
+         * @param gid
+         * @return
+         */
+        public double getTriangleSteepestX(int gid) {
+                return triangleSteepestX[gid];
+        }
+
+        /**
+         * Get the y component of the steepest descent vector of the triangle.
+         * Only available if hasTriangleSlopes.
+         * @param gid
+         * @return
+         */
+        public double getTriangleSteepestY(int gid) {
+                return triangleSteepestY[gid];
+        }
+
+        /**
+         * Get the slope of the triangle, as computed by jdelaunay.
+         * Only available if hasTriangleSlopes.
+         * @param gid
+         * @return
+         */
+        public double getTriangleSlope(int gid) {
+                return triangleSlope[gid];
+        }
+
+        /**
+         * Check if the steepest descent of the triangle goes to its edge of
+         * the given rank. Only available if hasTriangleSlopes.
+         * @param gid
+         * @param rank 0, 1 or 2
+         * @return
+         */
+        public boolean isTriangleFlowingTo(int gid, int rank) {
+                return (triangleFlow[gid] & (1 << rank)) != 0;
+        }
+
+        /**
+         * Get the number of triangles in the TIN.
+         * @return
+         */
+        public int getTriangleCount() {
+                return triangleCount;
+        }
+
+        /**
+         * Get the greatest GID a triangle can have, plus one.
+         * @return
+         */
+        public int getTriangleGIDBound() {
+                return triangleProperty.length;
+        }
+
+        // ----------------------------------------------------------------
+        // VERTEX STARS
+        // ----------------------------------------------------------------
+        /**
+         * Get the number of edges linked to the point. It is also the number of
+         * positions in the star of the point.
+         * @param pointGID
+         * @return
+         */
+        public int getStarSize(int pointGID) {
+                return starStart[pointGID + 1] - starStart[pointGID];
+        }
+
+        /**
+         * Get the GID of the edge at the position i of the star of the point.
+         * Edges are sorted counterclockwise.
+         * @param pointGID
+         * @param i
+         * @return
+         */
+        public int getStarEdge(int pointGID, int i) {
+                return starEdges[starStart[pointGID] + i];
+        }
+
+        /**
+         * Get the GID of the triangle that lies between the edge i of the star
+         * of the point and the edge i+1 (or the edge 0 for the last one).
+         * Returns NO_ELEMENT if there is no triangle, on the border of the TIN.
+         * @param pointGID
+         * @param i
+         * @return
+         */
+        public int getStarTriangle(int pointGID, int i) {
+                return starTriangles[starStart[pointGID] + i];
+        }
+
+        /**
+         * Get the position of the edge in the star of the point, or -1 if the
+         * edge is not linked to the point.
+         * @param pointGID
+         * @param edgeGID
+         * @return
+         */
+        public int getStarEdgeIndex(int pointGID, int edgeGID) {
+                for (int i = starStart[pointGID]; i < starStart[pointGID + 1]; i++) {
+                        if (starEdges[i] == edgeGID) {
+                                return i - starStart[pointGID];
+                        }
+                }
+                return -1;
+        }
+
+        /**
+         * Get the position of the triangle in the star of the point, or -1 if the
+         * triangle does not contain the point.
+         * @param pointGID
+         * @param triangleGID
+         * @return
+         */
+        public int getStarTriangleIndex(int pointGID, int triangleGID) {
+                for (int i = starStart[pointGID]; i < starStart[pointGID + 1]; i++) {
+                        if (starTriangles[i] == triangleGID) {
+                                return i - starStart[pointGID];
+                        }
+                }
+                return -1;
+        }
+}
@@ -39,19 +39,17 @@ package org.tanato.model;
 
 import org.tanato.utils.TINUtils;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
-import java.io.File;
-import java.io.IOException;
+import java.util.BitSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.gdms.data.SQLDataSourceFactory;
 import org.gdms.data.NoSuchTableException;
 import org.gdms.data.DataSource;
 import org.gdms.data.indexes.IndexException;
-import org.gdms.data.indexes.rtree.DiskRTree;
 import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
 import org.gdms.data.schema.MetadataUtilities;
 import org.gdms.data.types.GeometryTypeConstraint;
 import org.gdms.data.types.Type;
@@ -71,6 +69,12 @@ import org.orbisgis.progress.ProgressMonitor;
 import org.tanato.factory.TINFeatureFactory;
 
 /**
+ * The graph that connects the features of a TIN along the steepest downslope
+ * direction. Its nodes are the barycenters of the triangles, the middles of
+ * the edges and the points of the TIN. The GID of a node is computed from the
+ * GID of the feature it comes from, so that a node is found without any
+ * spatial query : the triangle nodes come first, then the edge nodes, then
+ * the point nodes.
  *
  * @author ebocher, alexis
  */
@@ -80,9 +84,17 @@ public class TopographicGraph extends HydroGraph {
         private final DataSet sdsTriangles;
         private final SQLDataSourceFactory dsf;
         private GeometryFactory gf = new GeometryFactory();
-        private int gidNode = 1;
+        // The nodes that have already been written in the nodes table.
+        private BitSet createdNodes;
+        // Offsets added to the GIDs of the edges and the points to get their nodes.
+        private int edgeNodeOffset;
+        private int pointNodeOffset;
         private int edgeGeomIndex;
         private int triangleGeomIndex;
+        private int edgeGIDIndex;
+        // Fields stored by ST_HydroTIN, null if the triangles don't have them
+        private int[] triangleEdgeIndexes = null;
+        private int[] triangleFlowIndexes = null;
 
         public TopographicGraph(SQLDataSourceFactory dsf, DataSet sdsEdges, DataSet sdsTriangles) throws FunctionException {
                 this.sdsEdges = sdsEdges;
@@ -90,6 +102,22 @@ public class TopographicGraph extends HydroGraph {
                 try{
                         edgeGeomIndex = MetadataUtilities.getGeometryFieldIndex(sdsEdges.getMetadata());
                         triangleGeomIndex = MetadataUtilities.getGeometryFieldIndex(sdsTriangles.getMetadata());
+                        edgeGIDIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.GID);
+                        Metadata md = sdsTriangles.getMetadata();
+                        int[] edgeIndexes = new int[]{md.getFieldIndex(TINSchema.EDGE_0_GID_FIELD),
+                                md.getFieldIndex(TINSchema.EDGE_1_GID_FIELD),
+                                md.getFieldIndex(TINSchema.EDGE_2_GID_FIELD)};
+                        int[] flowIndexes = new int[]{md.getFieldIndex(TINSchema.TO_EDGE_0_FIELD),
+                                md.getFieldIndex(TINSchema.TO_EDGE_1_FIELD),
+                                md.getFieldIndex(TINSchema.TO_EDGE_2_FIELD)};
+                        boolean withFlows = edgeGIDIndex != -1;
+                        for (int rank = 0; rank < 3; rank++) {
+                                withFlows = withFlows && edgeIndexes[rank] != -1 && flowIndexes[rank] != -1;
+                        }
+                        if (withFlows) {
+                                triangleEdgeIndexes = edgeIndexes;
+                                triangleFlowIndexes = flowIndexes;
+                        }
                 } catch (DriverException e){
                         throw new FunctionException("Can't find the indices of geometric fields", e);
                 }
@@ -100,7 +128,7 @@ public class TopographicGraph extends HydroGraph {
          * Create a graph to connect all TIN features according the steepest downslope direction.
          * 
          */
-        public void createGraph(ProgressMonitor pm) throws DriverException, IOException, NoSuchTableException, IndexException {
+        public void createGraph(ProgressMonitor pm) throws DriverException, NoSuchTableException, IndexException {
 
                 checkMetadata(sdsEdges);
 
@@ -113,11 +141,6 @@ public class TopographicGraph extends HydroGraph {
                 //Create the diskbuffer datasource to store node rows.
                 DiskBufferDriver nodesDriver = new DiskBufferDriver(dsf, nodeMedata);
 
-                //Use a temporal rtree disk to perform topology gid order.
-                String diskTreePath = dsf.getTempFile();
-                DiskRTree diskRTree = new DiskRTree();
-                diskRTree.newIndex(new File(diskTreePath));
-
                 DefaultMetadata edgeMetadata = new DefaultMetadata(new Type[]{
                         TypeFactory.createType(
                                 Type.GEOMETRY, 
@@ -134,6 +157,23 @@ public class TopographicGraph extends HydroGraph {
                 int propertyFieldIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.PROPERTY_FIELD);
                 int leftTriangleFieldIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.LEFT_TRIANGLE_FIELD);
                 int rightTriangleFieldIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.RIGHT_TRIANGLE_FIELD);
+                int startPointFieldIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.STARTPOINT_NODE_FIELD);
+                int endPointFieldIndex = sdsEdges.getMetadata().getFieldIndex(TINSchema.ENDPOINT_NODE_FIELD);
+                if (startPointFieldIndex == -1 || endPointFieldIndex == -1) {
+                        throw new IllegalArgumentException("The table of edges must contains the fields "
+                                + TINSchema.STARTPOINT_NODE_FIELD + " and " + TINSchema.ENDPOINT_NODE_FIELD);
+                }
+                //The triangles are read with their GID minus one as row index,
+                //so their GIDs are lower or equal to their number.
+                edgeNodeOffset = (int) sdsTriangles.getRowCount();
+                int maxEdgeGID = (int) sdsEdgesCount;
+                if (edgeGIDIndex != -1) {
+                        for (int i = 0; i < sdsEdgesCount; i++) {
+                                maxEdgeGID = Math.max(maxEdgeGID, sdsEdges.getFieldValue(i, edgeGIDIndex).getAsInt());
+                        }
+                }
+                pointNodeOffset = edgeNodeOffset + maxEdgeGID;
+                createdNodes = new BitSet();
 
                 pm.startTask("Create the topographic graph",100);
                 LineString geomEdge;
@@ -155,6 +195,10 @@ public class TopographicGraph extends HydroGraph {
                                 line.setProperty(property);
                                 int leftTriangleGID = sdsEdges.getFieldValue(i, leftTriangleFieldIndex).getAsInt();
                                 int rightTriangleGID = sdsEdges.getFieldValue(i, rightTriangleFieldIndex).getAsInt();
+                                int edgeGID = edgeGIDIndex == -1 ? i + 1 : sdsEdges.getFieldValue(i, edgeGIDIndex).getAsInt();
+                                //The geometry of the edge goes from its start point to its end point.
+                                int startPointGID = sdsEdges.getFieldValue(i, startPointFieldIndex).getAsInt();
+                                int endPointGID = sdsEdges.getFieldValue(i, endPointFieldIndex).getAsInt();
                                 DTriangle dTriangleLeft = getTriangle(leftTriangleGID);
                                 DTriangle dTriangleRight = getTriangle(rightTriangleGID);
                                 Coordinate startCoord, endCoord;
@@ -162,26 +206,26 @@ public class TopographicGraph extends HydroGraph {
                                 if (line.hasProperty(HydroProperties.TALWEG)) {
                                         startCoord = dTriangleLeft.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, leftTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleLeft, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleLeft, leftTriangleGID, line, edgeGID))});
                                         lineGid++;
                                         startCoord = dTriangleRight.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, rightTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
-                                                        ValueFactory.createValue(startGID), ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleRight, line))});
+                                                        ValueFactory.createValue(startGID), ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleRight, rightTriangleGID, line, edgeGID))});
                                         lineGid++;
 
                                         startCoord = middlePointEdge;
                                         endCoord = line.getEndPoint().getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getEdgeNode(nodesDriver, edgeGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
@@ -192,43 +236,43 @@ public class TopographicGraph extends HydroGraph {
                                         // The left triangle point to the current edge
                                         startCoord = dTriangleRight.getBarycenter().getCoordinate();
                                         endCoord = dTriangleLeft.getBarycenter().getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, rightTriangleGID, startCoord);
+                                        endGID = getTriangleNode(nodesDriver, leftTriangleGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleRight, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleRight, rightTriangleGID, line, edgeGID))});
                                         lineGid++;
                                 } else if (line.hasProperty(HydroProperties.RIGHTSLOPE)) {
                                         //The right triangle point to the current edge
                                         startCoord = dTriangleLeft.getBarycenter().getCoordinate();
                                         endCoord = dTriangleRight.getBarycenter().getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, leftTriangleGID, startCoord);
+                                        endGID = getTriangleNode(nodesDriver, rightTriangleGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleLeft, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleLeft, leftTriangleGID, line, edgeGID))});
                                         lineGid++;
                                 } else if (line.hasProperty(HydroProperties.LEFTCOLINEAR)) {
                                         //The rigth triangle point to the edge, the edge is a talweg, the left triangle point to the shared edge
                                         startCoord = dTriangleRight.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, rightTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleRight, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleRight, rightTriangleGID, line, edgeGID))});
                                         lineGid++;
                                         DPoint endPoint = line.getEndPoint();
                                         startCoord = middlePointEdge;
                                         endCoord = endPoint.getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getEdgeNode(nodesDriver, edgeGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
@@ -242,19 +286,19 @@ public class TopographicGraph extends HydroGraph {
 
                                         startCoord = dTriangleLeft.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, leftTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleLeft, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleLeft, leftTriangleGID, line, edgeGID))});
                                         lineGid++;
                                         DPoint endPoint = line.getEndPoint();
                                         startCoord = middlePointEdge;
                                         endCoord = endPoint.getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getEdgeNode(nodesDriver, edgeGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
@@ -266,19 +310,19 @@ public class TopographicGraph extends HydroGraph {
                                         //The right triangle go to the edge
                                         startCoord = dTriangleRight.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, rightTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
-                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(TINUtils.getProportion(dTriangleRight, line))});
+                                                        ValueFactory.createValue(endGID), ValueFactory.createValue(getProportion(dTriangleRight, rightTriangleGID, line, edgeGID))});
                                         lineGid++;
                                         DPoint endPoint = line.getEndPoint();
                                         startCoord = middlePointEdge;
                                         endCoord = endPoint.getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getEdgeNode(nodesDriver, edgeGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
@@ -290,19 +334,19 @@ public class TopographicGraph extends HydroGraph {
                                         //The left triangle go to the edge
                                         startCoord = dTriangleLeft.getBarycenter().getCoordinate();
                                         endCoord = middlePointEdge;
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getTriangleNode(nodesDriver, leftTriangleGID, startCoord);
+                                        endGID = getEdgeNode(nodesDriver, edgeGID, endCoord);
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
                                                         ValueFactory.createValue(endGID),
-                                                        ValueFactory.createValue(TINUtils.getProportion(dTriangleLeft, line))});
+                                                        ValueFactory.createValue(getProportion(dTriangleLeft, leftTriangleGID, line, edgeGID))});
                                         lineGid++;
                                         DPoint endPoint = line.getEndPoint();
                                         startCoord = middlePointEdge;
                                         endCoord = endPoint.getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getEdgeNode(nodesDriver, edgeGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
 
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
@@ -314,8 +358,8 @@ public class TopographicGraph extends HydroGraph {
                                         //The edge is a tagged as a talweg
                                         startCoord = line.getStartPoint().getCoordinate();
                                         endCoord = line.getEndPoint().getCoordinate();
-                                        startGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, startCoord);
-                                        endGID = getGIDAndCreateNodesTable(diskRTree, nodesDriver, endCoord);
+                                        startGID = getPointNode(nodesDriver, startPointGID, startCoord);
+                                        endGID = getPointNode(nodesDriver, endPointGID, endCoord);
                                         geomEdge = gf.createLineString(new Coordinate[]{startCoord, endCoord});
                                         edgesDriver.addValues(new Value[]{ValueFactory.createValue(geomEdge), ValueFactory.createValue(lineGid),
                                                         ValueFactory.createValue(startGID),
@@ -336,32 +380,64 @@ public class TopographicGraph extends HydroGraph {
 
                 String ds_nodes_name = dsf.getSourceManager().getUniqueName(src_sds_Name + "_graphTopo_nodes");
                 dsf.getSourceManager().register(ds_nodes_name, nodesDriver);
+                createdNodes = null;
+        }
 
-                //Remove the Rtree on disk
-                new File(diskTreePath).delete();
+        /**
+         * Get the node of the barycenter of a triangle, and add it to the nodes
+         * table if needed.
+         * @param nodesDriver
+         * @param triangleGID
+         * @param coordinate
+         * @return
+         * @throws DriverException
+         */
+        private int getTriangleNode(DiskBufferDriver nodesDriver, int triangleGID, Coordinate coordinate) throws DriverException {
+                return getNode(nodesDriver, triangleGID, coordinate);
         }
 
         /**
-         * A method to obtain an unique GID node and populate the node tables.
-         * @param diskRTree
+         * Get the node of the middle of an edge, and add it to the nodes table
+         * if needed.
          * @param nodesDriver
+         * @param edgeGID
          * @param coordinate
          * @return
-         * @throws IOException
          * @throws DriverException
          */
-        public int getGIDAndCreateNodesTable(DiskRTree diskRTree, DiskBufferDriver nodesDriver, Coordinate coordinate) throws IOException, DriverException {
-                int[] gidsStart = diskRTree.getRow(new Envelope(coordinate));
-                int lastGID = gidNode;
-                if (gidsStart.length == 0) {
+        private int getEdgeNode(DiskBufferDriver nodesDriver, int edgeGID, Coordinate coordinate) throws DriverException {
+                return getNode(nodesDriver, edgeNodeOffset + edgeGID, coordinate);
+        }
+
+        /**
+         * Get the node of a point of the TIN, and add it to the nodes table if
+         * needed.
+         * @param nodesDriver
+         * @param pointGID
+         * @param coordinate
+         * @return
+         * @throws DriverException
+         */
+        private int getPointNode(DiskBufferDriver nodesDriver, int pointGID, Coordinate coordinate) throws DriverException {
+                return getNode(nodesDriver, pointNodeOffset + pointGID, coordinate);
+        }
+
+        /**
+         * Add the node to the nodes table the first time it is used.
+         * @param nodesDriver
+         * @param nodeGID
+         * @param coordinate
+         * @return
+         *      nodeGID
+         * @throws DriverException
+         */
+        private int getNode(DiskBufferDriver nodesDriver, int nodeGID, Coordinate coordinate) throws DriverException {
+                if (!createdNodes.get(nodeGID)) {
                         nodesDriver.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(coordinate)),
-                                        ValueFactory.createValue(lastGID)});
-                        diskRTree.insert(new Envelope(coordinate), lastGID);
-                        gidNode++;
-                        return lastGID;
-                } else {
-                        return gidsStart[0];
+                                        ValueFactory.createValue(nodeGID)});
+                        createdNodes.set(nodeGID);
                 }
+                return nodeGID;
         }
 
         /**
@@ -373,6 +449,35 @@ public class TopographicGraph extends HydroGraph {
                 }
         }
 
+        /**
+         * Get the proportion of the triangle that flows to the edge line. The
+         * orientations stored by ST_HydroTIN are used if the triangles have them.
+         * @param dTriangle
+         * @param triangleGID
+         * @param line
+         * @param edgeGID
+         * @return
+         * @throws DriverException
+         * @throws DelaunayError
+         */
+        private float getProportion(DTriangle dTriangle, int triangleGID, DEdge line, int edgeGID) throws DriverException, DelaunayError {
+                if (triangleFlowIndexes == null) {
+                        return TINUtils.getProportion(dTriangle, line);
+                }
+                long row = triangleGID - 1;
+                boolean toEdge = false;
+                int toCount = 0;
+                for (int rank = 0; rank < 3; rank++) {
+                        if (sdsTriangles.getFieldValue(row, triangleFlowIndexes[rank]).getAsBoolean()) {
+                                toCount++;
+                                if (sdsTriangles.getFieldValue(row, triangleEdgeIndexes[rank]).getAsInt() == edgeGID) {
+                                        toEdge = true;
+                                }
+                        }
+                }
+                return TINUtils.getProportion(dTriangle, line, toEdge, toCount);
+        }
+
         /**
          * Create a DTriangle according its gid attribute in the datasource of triangles.
          * @param field
@@ -0,0 +1,294 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import org.jdelaunay.delaunay.tools.Tools;
+
+/**
+ * A uniform grid built over the envelopes of the triangles of a TINTopology.
+ * It is used to find quickly the triangles a point projects in, instead of
+ * testing all the triangles of the TIN one after the other.
+ *
+ * Cells are stored in a compressed form : the triangles of the cell c are
+ * the GIDs stored in cellTriangles between cellStart[c] and cellStart[c+1].
+ * In each cell, triangles are sorted by increasing GID.
+ *
+ * Like the topology it is built on, the grid is never modified once built.
+ *
+ * @author alexis
+ */
+public final class TriangleGridIndex {
+
+        // The mean number of triangles we want in a cell.
+        private static final double TRIANGLES_PER_CELL = 2.0;
+        private final TINTopology topology;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final double cellSize;
+        private final int columns;
+        private final int rows;
+        private final int[] cellStart;
+        private final int[] cellTriangles;
+
+        /**
+         * Build the grid over all the triangles of the topology.
+         * @param topology
+         */
+        public TriangleGridIndex(TINTopology topology) {
+                this.topology = topology;
+                int bound = topology.getTriangleGIDBound();
+                // Extent of the TIN
+                double xMin = Double.POSITIVE_INFINITY;
+                double yMin = Double.POSITIVE_INFINITY;
+                double xMax = Double.NEGATIVE_INFINITY;
+                double yMax = Double.NEGATIVE_INFINITY;
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                for (int k = 0; k < 3; k++) {
+                                        int pt = topology.getTrianglePoint(gid, k);
+                                        xMin = Math.min(xMin, topology.getPointX(pt));
+                                        yMin = Math.min(yMin, topology.getPointY(pt));
+                                        xMax = Math.max(xMax, topology.getPointX(pt));
+                                        yMax = Math.max(yMax, topology.getPointY(pt));
+                                }
+                        }
+                }
+                if (topology.getTriangleCount() == 0) {
+                        minX = 0;
+                        minY = 0;
+                        maxX = 0;
+                        maxY = 0;
+                        cellSize = 1;
+                        columns = 0;
+                        rows = 0;
+                        cellStart = new int[1];
+                        cellTriangles = new int[0];
+                        return;
+                }
+                minX = xMin;
+                minY = yMin;
+                maxX = xMax;
+                maxY = yMax;
+                double width = Math.max(xMax - xMin, Tools.EPSILON);
+                double height = Math.max(yMax - yMin, Tools.EPSILON);
+                double cellCount = Math.max(1.0, topology.getTriangleCount() / TRIANGLES_PER_CELL);
+                // Square cells. The second term avoids a huge number of cells
+                // when the TIN is very thin in one direction.
+                cellSize = Math.max(Math.sqrt(width * height / cellCount), Math.max(width, height) / cellCount);
+                columns = (int) Math.floor(width / cellSize) + 1;
+                rows = (int) Math.floor(height / cellSize) + 1;
+                cellStart = new int[columns * rows + 1];
+                // First pass : count the triangles of each cell
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                int[] range = getCellRange(gid);
+                                for (int r = range[1]; r <= range[3]; r++) {
+                                        for (int c = range[0]; c <= range[2]; c++) {
+                                                cellStart[r * columns + c + 1]++;
+                                        }
+                                }
+                        }
+                }
+                for (int c = 0; c < columns * rows; c++) {
+                        cellStart[c + 1] += cellStart[c];
+                }
+                // Second pass : fill the cells. GIDs are processed in increasing order,
+                // so each cell is sorted.
+                cellTriangles = new int[cellStart[columns * rows]];
+                int[] filled = new int[columns * rows];
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                int[] range = getCellRange(gid);
+                                for (int r = range[1]; r <= range[3]; r++) {
+                                        for (int c = range[0]; c <= range[2]; c++) {
+                                                int cell = r * columns + c;
+                                                cellTriangles[cellStart[cell] + filled[cell]] = gid;
+                                                filled[cell]++;
+                                        }
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Get the range of cells covered by the envelope of a triangle, as
+         * {minColumn, minRow, maxColumn, maxRow}.
+         * @param gid
+         * @return
+         */
+        private int[] getCellRange(int gid) {
+                double xMin = Double.POSITIVE_INFINITY;
+                double yMin = Double.POSITIVE_INFINITY;
+                double xMax = Double.NEGATIVE_INFINITY;
+                double yMax = Double.NEGATIVE_INFINITY;
+                for (int k = 0; k < 3; k++) {
+                        int pt = topology.getTrianglePoint(gid, k);
+                        xMin = Math.min(xMin, topology.getPointX(pt));
+                        yMin = Math.min(yMin, topology.getPointY(pt));
+                        xMax = Math.max(xMax, topology.getPointX(pt));
+                        yMax = Math.max(yMax, topology.getPointY(pt));
+                }
+                return new int[]{getColumn(xMin - Tools.EPSILON), getRow(yMin - Tools.EPSILON),
+                                getColumn(xMax + Tools.EPSILON), getRow(yMax + Tools.EPSILON)};
+        }
+
+        private int getColumn(double x) {
+                int c = (int) Math.floor((x - minX) / cellSize);
+                return Math.max(0, Math.min(columns - 1, c));
+        }
+
+        private int getRow(double y) {
+                int r = (int) Math.floor((y - minY) / cellSize);
+                return Math.max(0, Math.min(rows - 1, r));
+        }
+
+        /**
+         * Get the cell that contains the point (x,y), or -1 if the point is
+         * outside the extent of the TIN.
+         * @param x
+         * @param y
+         * @return
+         */
+        public int getCell(double x, double y) {
+                if (columns == 0) {
+                        return -1;
+                }
+                double c = Math.floor((x - minX) / cellSize);
+                double r = Math.floor((y - minY) / cellSize);
+                if (c < -1 || r < -1 || c > columns || r > rows) {
+                        return -1;
+                }
+                // Points that lie on the extent border still belong to the grid.
+                return getRow(y) * columns + getColumn(x);
+        }
+
+        /**
+         * Find a triangle the point (x,y) lies in, or on the boundary of.
+         * @param x
+         * @param y
+         * @return the GID of the triangle, or TINTopology.NO_ELEMENT if the point is not on the TIN.
+         */
+        public int locate(double x, double y) {
+                int cell = getCell(x, y);
+                if (cell >= 0) {
+                        int size = getCellSize(cell);
+                        for (int i = 0; i < size; i++) {
+                                int gid = getCellTriangle(cell, i);
+                                if (contains(gid, x, y)) {
+                                        return gid;
+                                }
+                        }
+                }
+                return TINTopology.NO_ELEMENT;
+        }
+
+        public double getMinX() {
+                return minX;
+        }
+
+        public double getMinY() {
+                return minY;
+        }
+
+        public double getMaxX() {
+                return maxX;
+        }
+
+        public double getMaxY() {
+                return maxY;
+        }
+
+        /**
+         * Get the number of triangles whose envelope intersects the cell.
+         * @param cell
+         * @return
+         */
+        public int getCellSize(int cell) {
+                return cellStart[cell + 1] - cellStart[cell];
+        }
+
+        /**
+         * Get the GID of the triangle number i in the cell.
+         * @param cell
+         * @param i
+         * @return
+         */
+        public int getCellTriangle(int cell, int i) {
+                return cellTriangles[cellStart[cell] + i];
+        }
+
+        /**
+         * Check if the point (x,y) lies in the triangle, or on its boundary.
+         * Only the x and y values are used.
+         * @param gid
+         * @param x
+         * @param y
+         * @return
+         */
+        public boolean contains(int gid, double x, double y) {
+                int p0 = topology.getTrianglePoint(gid, 0);
+                int p1 = topology.getTrianglePoint(gid, 1);
+                int p2 = topology.getTrianglePoint(gid, 2);
+                double x0 = topology.getPointX(p0);
+                double y0 = topology.getPointY(p0);
+                double x1 = topology.getPointX(p1);
+                double y1 = topology.getPointY(p1);
+                double x2 = topology.getPointX(p2);
+                double y2 = topology.getPointY(p2);
+                // Orientation of the triangle, so that the test works whatever
+                // the order of the points.
+                double orientation = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+                double sign = orientation < 0 ? -1 : 1;
+                return isOnLeft(x0, y0, x1, y1, x, y, sign)
+                        && isOnLeft(x1, y1, x2, y2, x, y, sign)
+                        && isOnLeft(x2, y2, x0, y0, x, y, sign);
+        }
+
+        /**
+         * Check that (x,y) is on the left of the line (xa,ya) -> (xb,yb), or at a
+         * distance lower than Tools.EPSILON from it. The side is switched when
+         * sign is negative.
+         */
+        private static boolean isOnLeft(double xa, double ya, double xb, double yb, double x, double y, double sign) {
+                double cross = sign * ((xb - xa) * (y - ya) - (yb - ya) * (x - xa));
+                double length = Math.sqrt((xb - xa) * (xb - xa) + (yb - ya) * (yb - ya));
+                return cross >= -Tools.EPSILON * length;
+        }
+}
@@ -0,0 +1,439 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.jhydrocell.hydronetwork.HydroProperties;
+
+/**
+ * Partition of a whole TIN in watersheds : each triangle is labelled with the
+ * outlet its water reaches, following the steepest descent.
+ *
+ * Each triangle, edge and point of the TIN has a single receiver, the element
+ * the water goes to when leaving it :
+ *  * a triangle gives its water to the edge its steepest descent goes to, or
+ *    to its lowest point when it goes to two edges. A flat triangle is an outlet.
+ *  * an edge gives its water to the triangle on its right (resp. left) side when
+ *    it is a RIGHTSLOPE (resp. LEFTTSLOPE), as written by
+ *    HydroTINBuilder.morphologicalQualification. The other edges give it to their
+ *    lowest point, except the border edges of the TIN that are outlets. If the
+ *    edges have not been qualified, the same rules are applied using the
+ *    directions of the triangles.
+ *  * a point gives its water to its lowest neighbour, or to the triangle of its
+ *    star the water goes down into, whichever is the steepest. A pit is an outlet.
+ * The receivers are then followed once, each element keeping the outlet found
+ * for it, so the whole partition is computed in a time linear in the size of the
+ * TIN. When the receivers make a cycle, on flat areas, the element where the
+ * cycle is detected is used as the outlet.
+ *
+ * Triangles are labelled as a whole : a triangle whose water goes to two edges
+ * that lead to different outlets is given to the outlet of its lowest point.
+ *
+ * @author alexis
+ */
+public final class WatershedPartition {
+
+        /**
+         * Types of the outlets. They are the same as the types of the start
+         * element of BasinBuilder, so that a point or an edge outlet can be
+         * given to ST_BasinGraph. BasinBuilder does not start from triangles :
+         * the OUTLET_TRIANGLE outlets, found on flat triangles and on cycles,
+         * can't be given to ST_BasinGraph, that rejects them.
+         */
+        public static final int OUTLET_POINT = 0;
+        public static final int OUTLET_EDGE = 1;
+        public static final int OUTLET_TRIANGLE = 2;
+        // The properties set by HydroTINBuilder.morphologicalQualification.
+        private static final int MORPHOLOGICAL_PROPERTIES = HydroProperties.RIDGE | HydroProperties.TALWEG
+                | HydroProperties.RIGHTSLOPE | HydroProperties.LEFTTSLOPE | HydroProperties.RIGHTSIDE
+                | HydroProperties.LEFTSIDE | HydroProperties.RIGHTWELL | HydroProperties.LEFTWELL
+                | HydroProperties.LEFTCOLINEAR | HydroProperties.RIGHTCOLINEAR
+                | HydroProperties.DOUBLECOLINEAR | HydroProperties.FLAT | HydroProperties.BORDER;
+        // Receiver of an element that is an outlet.
+        private static final int SINK = -1;
+        private final TINTopology topology;
+        // Elements are numbered triangles first, then edges, then points.
+        private final int edgeOffset;
+        private final int pointOffset;
+        // The basin of each triangle, or -1 if there is no triangle with this GID.
+        private int[] triangleBasins;
+        private int[] basinOutlets;
+        private int[] basinSizes;
+        private int basinCount = 0;
+
+        /**
+         * Build the partition of the TIN.
+         * @param topology
+         */
+        public WatershedPartition(TINTopology topology) {
+                this.topology = topology;
+                edgeOffset = topology.getTriangleGIDBound();
+                pointOffset = edgeOffset + topology.getEdgeGIDBound();
+                int[] receivers = new int[pointOffset + topology.getPointGIDBound()];
+                computeReceivers(receivers);
+                resolveOutlets(receivers);
+                labelTriangles(receivers);
+        }
+
+        /**
+         * Get the number of basins, ie of outlets reached by at least one triangle.
+         * @return
+         */
+        public int getBasinCount() {
+                return basinCount;
+        }
+
+        /**
+         * Get the basin of the triangle, between 0 and getBasinCount() - 1, or -1
+         * if there is no triangle with this GID.
+         * @param triangleGID
+         * @return
+         */
+        public int getTriangleBasin(int triangleGID) {
+                return triangleBasins[triangleGID];
+        }
+
+        /**
+         * Get the type of the outlet of the basin, OUTLET_POINT, OUTLET_EDGE or
+         * OUTLET_TRIANGLE.
+         * @param basin
+         * @return
+         */
+        public int getOutletType(int basin) {
+                int outlet = basinOutlets[basin];
+                if (outlet < edgeOffset) {
+                        return OUTLET_TRIANGLE;
+                } else if (outlet < pointOffset) {
+                        return OUTLET_EDGE;
+                } else {
+                        return OUTLET_POINT;
+                }
+        }
+
+        /**
+         * Get the GID of the outlet of the basin, in the table given by its type.
+         * @param basin
+         * @return
+         */
+        public int getOutletGID(int basin) {
+                int outlet = basinOutlets[basin];
+                if (outlet < edgeOffset) {
+                        return outlet;
+                } else if (outlet < pointOffset) {
+                        return outlet - edgeOffset;
+                } else {
+                        return outlet - pointOffset;
+                }
+        }
+
+        /**
+         * Get the number of triangles in the basin.
+         * @param basin
+         * @return
+         */
+        public int getBasinSize(int basin) {
+                return basinSizes[basin];
+        }
+
+        // ----------------------------------------------------------------
+        // RECEIVERS
+        // ----------------------------------------------------------------
+        private void computeReceivers(int[] receivers) {
+                for (int gid = 0; gid < edgeOffset; gid++) {
+                        receivers[gid] = topology.hasTriangle(gid) ? getTriangleReceiver(gid) : SINK;
+                }
+                for (int gid = 0; gid < topology.getEdgeGIDBound(); gid++) {
+                        receivers[edgeOffset + gid] = topology.hasEdge(gid) ? getEdgeReceiver(gid) : SINK;
+                }
+                for (int gid = 0; gid < topology.getPointGIDBound(); gid++) {
+                        receivers[pointOffset + gid] = topology.hasPoint(gid) ? getPointReceiver(gid) : SINK;
+                }
+        }
+
+        private int getTriangleReceiver(int gid) {
+                int count = 0;
+                int target = SINK;
+                for (int rank = 0; rank < 3; rank++) {
+                        if (isFlowingTo(gid, rank)) {
+                                count++;
+                                target = edgeOffset + topology.getTriangleEdge(gid, rank);
+                        }
+                }
+                if (count > 1) {
+                        int lowest = topology.getTrianglePoint(gid, 0);
+                        for (int rank = 1; rank < 3; rank++) {
+                                int pt = topology.getTrianglePoint(gid, rank);
+                                if (topology.getPointZ(pt) < topology.getPointZ(lowest)) {
+                                        lowest = pt;
+                                }
+                        }
+                        target = pointOffset + lowest;
+                }
+                return target;
+        }
+
+        private int getEdgeReceiver(int gid) {
+                int left = topology.getEdgeLeft(gid);
+                int right = topology.getEdgeRight(gid);
+                if (!topology.hasTriangle(left) || !topology.hasTriangle(right)) {
+                        return SINK;
+                }
+                int property = topology.getEdgeProperty(gid);
+                if ((property & MORPHOLOGICAL_PROPERTIES) != 0) {
+                        if ((property & HydroProperties.BORDER) != 0) {
+                                return SINK;
+                        } else if ((property & HydroProperties.RIGHTSLOPE) != 0) {
+                                return right;
+                        } else if ((property & HydroProperties.LEFTTSLOPE) != 0) {
+                                return left;
+                        }
+                } else {
+                        boolean leftToEdge = isFlowingTo(left, getTriangleEdgeRank(left, gid));
+                        boolean rightToEdge = isFlowingTo(right, getTriangleEdgeRank(right, gid));
+                        if (leftToEdge && !rightToEdge && !isFlat(right)) {
+                                return right;
+                        } else if (rightToEdge && !leftToEdge && !isFlat(left)) {
+                                return left;
+                        }
+                }
+                int start = topology.getEdgeStart(gid);
+                int end = topology.getEdgeEnd(gid);
+                return pointOffset + (topology.getPointZ(start) < topology.getPointZ(end) ? start : end);
+        }
+
+        private int getPointReceiver(int gid) {
+                double x = topology.getPointX(gid);
+                double y = topology.getPointY(gid);
+                double z = topology.getPointZ(gid);
+                int size = topology.getStarSize(gid);
+                int target = SINK;
+                double steepest = 0;
+                for (int i = 0; i < size; i++) {
+                        int edge = topology.getStarEdge(gid, i);
+                        int other = getOtherPoint(edge, gid);
+                        double dx = topology.getPointX(other) - x;
+                        double dy = topology.getPointY(other) - y;
+                        double length = Math.sqrt(dx * dx + dy * dy);
+                        double slope = length > 0 ? (z - topology.getPointZ(other)) / length : 0;
+                        if (slope > steepest) {
+                                steepest = slope;
+                                target = pointOffset + other;
+                        }
+                        int triangle = topology.getStarTriangle(gid, i);
+                        if (triangle != TINTopology.NO_ELEMENT) {
+                                double[] gradient = getGradient(triangle);
+                                slope = Math.sqrt(gradient[0] * gradient[0] + gradient[1] * gradient[1]);
+                                int next = getOtherPoint(topology.getStarEdge(gid, (i + 1) % size), gid);
+                                if (slope > steepest && isInWedge(-gradient[0], -gradient[1], dx, dy,
+                                        topology.getPointX(next) - x, topology.getPointY(next) - y)) {
+                                        steepest = slope;
+                                        target = triangle;
+                                }
+                        }
+                }
+                return target;
+        }
+
+        // ----------------------------------------------------------------
+        // OUTLETS
+        // ----------------------------------------------------------------
+        /**
+         * Follow the receivers from each element until an outlet, or an element
+         * whose outlet is already known, is found. The receivers are replaced
+         * by the outlets, stored as -(outlet + 2) so that they can't be mistaken
+         * for a receiver or for SINK. Each element is put on a path only once.
+         */
+        private void resolveOutlets(int[] receivers) {
+                BitSet onPath = new BitSet(receivers.length);
+                int[] path = new int[64];
+                for (int start = 0; start < receivers.length; start++) {
+                        int size = 0;
+                        int current = start;
+                        int outlet;
+                        while (true) {
+                                int receiver = receivers[current];
+                                if (receiver < SINK) {
+                                        outlet = -(receiver + 2);
+                                        break;
+                                } else if (receiver == SINK || onPath.get(current)) {
+                                        outlet = current;
+                                        receivers[current] = -(outlet + 2);
+                                        break;
+                                }
+                                onPath.set(current);
+                                if (size == path.length) {
+                                        int[] newPath = new int[2 * size];
+                                        System.arraycopy(path, 0, newPath, 0, size);
+                                        path = newPath;
+                                }
+                                path[size++] = current;
+                                current = receiver;
+                        }
+                        for (int i = 0; i < size; i++) {
+                                receivers[path[i]] = -(outlet + 2);
+                                onPath.clear(path[i]);
+                        }
+                }
+        }
+
+        private void labelTriangles(int[] receivers) {
+                triangleBasins = new int[edgeOffset];
+                Map<Integer, Integer> basins = new HashMap<Integer, Integer>();
+                basinOutlets = new int[16];
+                basinSizes = new int[16];
+                for (int gid = 0; gid < edgeOffset; gid++) {
+                        if (!topology.hasTriangle(gid)) {
+                                triangleBasins[gid] = -1;
+                                continue;
+                        }
+                        int outlet = -(receivers[gid] + 2);
+                        Integer basin = basins.get(outlet);
+                        if (basin == null) {
+                                basin = basinCount;
+                                basins.put(outlet, basin);
+                                if (basinCount == basinOutlets.length) {
+                                        int[] newOutlets = new int[2 * basinCount];
+                                        System.arraycopy(basinOutlets, 0, newOutlets, 0, basinCount);
+                                        basinOutlets = newOutlets;
+                                        int[] newSizes = new int[2 * basinCount];
+                                        System.arraycopy(basinSizes, 0, newSizes, 0, basinCount);
+                                        basinSizes = newSizes;
+                                }
+                                basinOutlets[basinCount] = outlet;
+                                basinCount++;
+                        }
+                        triangleBasins[gid] = basin;
+                        basinSizes[basin]++;
+                }
+        }
+
+        // ----------------------------------------------------------------
+        // UTILITIES
+        // ----------------------------------------------------------------
+        /**
+         * Check if the steepest descent of the triangle goes to its edge of the
+         * given rank. The directions stored by ST_HydroTIN are used if they are
+         * available.
+         */
+        private boolean isFlowingTo(int triangle, int rank) {
+                if (topology.hasTriangleSlopes()) {
+                        return topology.isTriangleFlowingTo(triangle, rank);
+                }
+                double[] gradient = getGradient(triangle);
+                if (gradient[0] == 0 && gradient[1] == 0) {
+                        return false;
+                }
+                int edge = topology.getTriangleEdge(triangle, rank);
+                int start = topology.getEdgeStart(edge);
+                int end = topology.getEdgeEnd(edge);
+                int opposite = topology.getTrianglePoint(triangle, 0);
+                for (int k = 1; opposite == start || opposite == end; k++) {
+                        opposite = topology.getTrianglePoint(triangle, k);
+                }
+                double ex = topology.getPointX(end) - topology.getPointX(start);
+                double ey = topology.getPointY(end) - topology.getPointY(start);
+                double ox = topology.getPointX(opposite) - topology.getPointX(start);
+                double oy = topology.getPointY(opposite) - topology.getPointY(start);
+                // The normal of the edge, turned to the outside of the triangle.
+                double nx = ey;
+                double ny = -ex;
+                if (nx * ox + ny * oy > 0) {
+                        nx = -nx;
+                        ny = -ny;
+                }
+                return -gradient[0] * nx - gradient[1] * ny > 0;
+        }
+
+        private boolean isFlat(int triangle) {
+                for (int rank = 0; rank < 3; rank++) {
+                        if (isFlowingTo(triangle, rank)) {
+                                return false;
+                        }
+                }
+                return true;
+        }
+
+        /**
+         * Get the gradient of the plane of the triangle, as {dz/dx, dz/dy}.
+         */
+        private double[] getGradient(int triangle) {
+                int p0 = topology.getTrianglePoint(triangle, 0);
+                int p1 = topology.getTrianglePoint(triangle, 1);
+                int p2 = topology.getTrianglePoint(triangle, 2);
+                double ux = topology.getPointX(p1) - topology.getPointX(p0);
+                double uy = topology.getPointY(p1) - topology.getPointY(p0);
+                double uz = topology.getPointZ(p1) - topology.getPointZ(p0);
+                double vx = topology.getPointX(p2) - topology.getPointX(p0);
+                double vy = topology.getPointY(p2) - topology.getPointY(p0);
+                double vz = topology.getPointZ(p2) - topology.getPointZ(p0);
+                double nx = uy * vz - uz * vy;
+                double ny = uz * vx - ux * vz;
+                double nz = ux * vy - uy * vx;
+                if (nz == 0) {
+                        return new double[]{0, 0};
+                }
+                return new double[]{-nx / nz, -ny / nz};
+        }
+
+        /**
+         * Check if the direction d lies strictly between the directions a and b,
+         * in the angle they make that is lower than 180 degrees.
+         */
+        private static boolean isInWedge(double dx, double dy, double ax, double ay, double bx, double by) {
+                double ab = ax * by - ay * bx;
+                double ad = ax * dy - ay * dx;
+                double db = dx * by - dy * bx;
+                return ab > 0 ? ad > 0 && db > 0 : ad < 0 && db < 0;
+        }
+
+        private int getTriangleEdgeRank(int triangle, int edge) {
+                for (int rank = 0; rank < 2; rank++) {
+                        if (topology.getTriangleEdge(triangle, rank) == edge) {
+                                return rank;
+                        }
+                }
+                return 2;
+        }
+
+        private int getOtherPoint(int edge, int point) {
+                int start = topology.getEdgeStart(edge);
+                return start == point ? topology.getEdgeEnd(edge) : start;
+        }
+}
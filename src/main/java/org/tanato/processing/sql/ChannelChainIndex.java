@@ -0,0 +1,209 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import java.util.Arrays;
+import org.tanato.model.TINTopology;
+
+/**
+ * The downstream chains of the channel edges (rivers and ditches) of a TIN.
+ *
+ * A droplet that follows a channel edge goes down to the lowest point of the
+ * edge, then to the channel edge chosen around this point. This choice only
+ * depends on the edge, so it is computed once for all the droplets : a
+ * droplet that enters a channel appends the whole chain to its path instead
+ * of processing the edges one by one.
+ *
+ * For each channel edge, we store its lowest point, the next edge of the
+ * chain, the last edge of the chain (the outlet of the channel) and the
+ * number of edges from the edge to its outlet. The chains of a network form
+ * a tree, as the altitude strictly decreases along them.
+ *
+ * @author alexis
+ */
+public final class ChannelChainIndex {
+
+        public static final int NO_ELEMENT = TINTopology.NO_ELEMENT;
+        private final int[] lowPoints;
+        private final int[] nextEdges;
+        private final int[] outlets;
+        private final int[] lengths;
+        private int channelEdgeCount = 0;
+        private long buildTime = 0;
+
+        /**
+         * Create an index without any channel edge.
+         * @param edgeGIDBound the greatest edge GID plus one
+         */
+        ChannelChainIndex(int edgeGIDBound) {
+                lowPoints = new int[edgeGIDBound];
+                nextEdges = new int[edgeGIDBound];
+                outlets = new int[edgeGIDBound];
+                lengths = new int[edgeGIDBound];
+                Arrays.fill(lowPoints, NO_ELEMENT);
+                Arrays.fill(nextEdges, NO_ELEMENT);
+                Arrays.fill(outlets, NO_ELEMENT);
+        }
+
+        /**
+         * Declare a channel edge.
+         * @param edge
+         * @param lowPoint the point the droplet reaches following the edge
+         * @param nextEdge the next channel edge, or NO_ELEMENT if the chain ends
+         * at lowPoint
+         */
+        void setNext(int edge, int lowPoint, int nextEdge) {
+                if (lowPoints[edge] == NO_ELEMENT) {
+                        channelEdgeCount++;
+                }
+                lowPoints[edge] = lowPoint;
+                nextEdges[edge] = nextEdge;
+        }
+
+        /**
+         * Compute the outlet and the length of the chain of all the channel
+         * edges, once they have all been declared.
+         * @param buildTime the time spent to build the index, in nanoseconds
+         */
+        void finish(long buildTime) {
+                int[] stack = new int[Math.max(channelEdgeCount, 1)];
+                for (int edge = 0; edge < lowPoints.length; edge++) {
+                        if ((lowPoints[edge] == NO_ELEMENT) || (outlets[edge] != NO_ELEMENT)) {
+                                continue;
+                        }
+                        // Go down until we find an edge whose chain is known,
+                        // or the end of the chain
+                        int count = 0;
+                        int current = edge;
+                        while (outlets[current] == NO_ELEMENT) {
+                                int next = nextEdges[current];
+                                if ((next != NO_ELEMENT) && (lengths[next] < 0)) {
+                                        // The edge is already in the stack : cut the loop
+                                        nextEdges[current] = NO_ELEMENT;
+                                        next = NO_ELEMENT;
+                                }
+                                if (next == NO_ELEMENT) {
+                                        outlets[current] = current;
+                                        lengths[current] = 1;
+                                } else {
+                                        lengths[current] = -1;
+                                        stack[count++] = current;
+                                        current = next;
+                                }
+                        }
+                        // Then go back up
+                        while (count > 0) {
+                                int upstream = stack[--count];
+                                int next = nextEdges[upstream];
+                                outlets[upstream] = outlets[next];
+                                lengths[upstream] = lengths[next] + 1;
+                        }
+                }
+                this.buildTime = buildTime;
+        }
+
+        /**
+         * Check if the edge is a channel edge.
+         * @param edge
+         * @return
+         */
+        public boolean isChannelEdge(int edge) {
+                return (edge >= 0) && (edge < lowPoints.length) && (lowPoints[edge] != NO_ELEMENT);
+        }
+
+        /**
+         * Get the point a droplet reaches when it follows the channel edge.
+         * @param edge
+         * @return
+         */
+        public int getLowPoint(int edge) {
+                return lowPoints[edge];
+        }
+
+        /**
+         * Get the channel edge that follows the edge, or NO_ELEMENT.
+         * @param edge
+         * @return
+         */
+        public int getNextEdge(int edge) {
+                return nextEdges[edge];
+        }
+
+        /**
+         * Get the last edge of the chain that starts with the edge.
+         * @param edge
+         * @return
+         */
+        public int getOutlet(int edge) {
+                return outlets[edge];
+        }
+
+        /**
+         * Get the number of edges of the chain that starts with the edge, the
+         * edge and its outlet included.
+         * @param edge
+         * @return
+         */
+        public int getChainLength(int edge) {
+                return lengths[edge];
+        }
+
+        /**
+         * Get the number of channel edges.
+         * @return
+         */
+        public int getChannelEdgeCount() {
+                return channelEdgeCount;
+        }
+
+        /**
+         * Get the time spent to build the index, in nanoseconds.
+         * @return
+         */
+        public long getBuildTime() {
+                return buildTime;
+        }
+
+        /**
+         * Get the memory used by the arrays of the index, in bytes.
+         * @return
+         */
+        public long getMemorySize() {
+                return 4L * 4L * lowPoints.length;
+        }
+}
@@ -0,0 +1,225 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+/**
+ * Counters filled by a DropletFollower while it follows a droplet : the
+ * elements it has gone through, why it has stopped and the time it has taken.
+ *
+ * The counters are simple increments, so they are always collected.
+ *
+ * @author alexis
+ */
+public final class DropletDiagnostics {
+
+        /**
+         * The path is being computed, or has not been computed.
+         */
+        public static final int END_UNKNOWN = 0;
+        /**
+         * The start point is not on the TIN.
+         */
+        public static final int END_OUTSIDE_MESH = 1;
+        /**
+         * The droplet has reached the border of the TIN.
+         */
+        public static final int END_MESH_BORDER = 2;
+        /**
+         * The droplet has reached a point, or an edge, that has no lower neighbour.
+         */
+        public static final int END_PIT = 3;
+        /**
+         * The droplet has stayed on the same point too many times.
+         */
+        public static final int END_STAGNATION = 4;
+        /**
+         * The droplet has reached an element with an ending property.
+         */
+        public static final int END_ENDING_PROPERTY = 5;
+        /**
+         * The droplet has gone into the sewers.
+         */
+        public static final int END_SEWER_INPUT = 6;
+        /**
+         * The droplet has come back to an element the same way it has already
+         * reached it : it turns round on a flat area, and stops as in a pit.
+         */
+        public static final int END_FLAT_CYCLE = 7;
+        private static final String[] END_NAMES = {"unknown", "outside_mesh", "mesh_border", "pit",
+                "stagnation", "ending_property", "sewer_input", "flat_cycle"};
+        private int triangleCount;
+        private int edgeCount;
+        private int pointCount;
+        private int stagnationCount;
+        private int reusedPointCount;
+        private int endReason;
+        private double length;
+        private long duration;
+
+        /**
+         * Reset all the counters.
+         */
+        public void clear() {
+                triangleCount = 0;
+                edgeCount = 0;
+                pointCount = 0;
+                stagnationCount = 0;
+                reusedPointCount = 0;
+                endReason = END_UNKNOWN;
+                length = 0;
+                duration = 0;
+        }
+
+        /**
+         * Copy the counters of other in this object.
+         * @param other
+         */
+        public void set(DropletDiagnostics other) {
+                triangleCount = other.triangleCount;
+                edgeCount = other.edgeCount;
+                pointCount = other.pointCount;
+                stagnationCount = other.stagnationCount;
+                reusedPointCount = other.reusedPointCount;
+                endReason = other.endReason;
+                length = other.length;
+                duration = other.duration;
+        }
+
+        /**
+         * Get the number of elements (triangles, edges and points) the droplet
+         * has gone through. The part of the path that comes from the cache is
+         * not counted.
+         * @return
+         */
+        public int getElementCount() {
+                return triangleCount + edgeCount + pointCount;
+        }
+
+        public int getTriangleCount() {
+                return triangleCount;
+        }
+
+        public int getEdgeCount() {
+                return edgeCount;
+        }
+
+        public int getPointCount() {
+                return pointCount;
+        }
+
+        /**
+         * Get the number of times the droplet has stayed on the same vertex.
+         * @return
+         */
+        public int getStagnationCount() {
+                return stagnationCount;
+        }
+
+        /**
+         * Get the number of vertices that have been taken from the path cache.
+         * @return
+         */
+        public int getReusedPointCount() {
+                return reusedPointCount;
+        }
+
+        /**
+         * Get the reason why the droplet has stopped, one of the END_ constants.
+         * @return
+         */
+        public int getEndReason() {
+                return endReason;
+        }
+
+        /**
+         * Get the name of the reason why the droplet has stopped.
+         * @return
+         */
+        public String getEndReasonName() {
+                return END_NAMES[endReason];
+        }
+
+        /**
+         * Get the planar length of the path, as it has been traced : it does not
+         * change when the path is simplified.
+         * @return
+         */
+        public double getLength() {
+                return length;
+        }
+
+        /**
+         * Get the time spent to compute the path, in nanoseconds.
+         * @return
+         */
+        public long getDuration() {
+                return duration;
+        }
+
+        void addTriangle() {
+                triangleCount++;
+        }
+
+        void addEdge() {
+                edgeCount++;
+        }
+
+        void addPoint() {
+                pointCount++;
+        }
+
+        void addStagnation() {
+                stagnationCount++;
+        }
+
+        void addReusedPoints(int count) {
+                reusedPointCount += count;
+        }
+
+        void setEndReason(int endReason) {
+                this.endReason = endReason;
+        }
+
+        void setLength(double length) {
+                this.length = length;
+        }
+
+        void setDuration(long duration) {
+                this.duration = duration;
+        }
+}
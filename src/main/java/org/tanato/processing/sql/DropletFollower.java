@@ -38,21 +38,14 @@
 package org.tanato.processing.sql;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Coordinate;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.gdms.data.DataSource;
 import org.gdms.data.SQLDataSourceFactory;
-import org.gdms.data.NoSuchTableException;
-import org.gdms.data.indexes.DefaultAlphaQuery;
-import org.gdms.data.indexes.IndexException;
 import org.gdms.data.schema.Metadata;
-import org.gdms.data.schema.MetadataUtilities;
 import org.gdms.data.values.Value;
-import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.gdms.sql.function.FunctionException;
@@ -60,12 +53,12 @@ import org.jdelaunay.delaunay.geometries.DEdge;
 import org.jdelaunay.delaunay.geometries.DPoint;
 import org.jdelaunay.delaunay.geometries.DTriangle;
 import org.jdelaunay.delaunay.error.DelaunayError;
-import org.jdelaunay.delaunay.geometries.Element;
 import org.jdelaunay.delaunay.tools.Tools;
 import org.jhydrocell.hydronetwork.HydroProperties;
 import org.orbisgis.progress.ProgressMonitor;
-import org.tanato.factory.TINFeatureFactory;
 import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
+import org.tanato.model.TriangleGridIndex;
 
 /**
  * This class designs a custom query for GDMS. The goal of the query is to process
@@ -79,49 +72,80 @@ import org.tanato.model.TINSchema;
  * Note if the property option is used the datasources must contains two fields : property and heigth.
  * Take a look the Tanato model user documentation.
  *
- *
+ * The droplet moves on the TIN topology, using only GIDs and coordinates : the
+ * elements it goes through are never built as jdelaunay objects. The slopes of
+ * the triangles and edges are computed once, when the follower is created.
  *
  * @author kwyhr,alexis
  */
 public class DropletFollower {
 
         private static final Logger logger = Logger.getLogger(DropletFollower.class.getName());
+        // Kind of element the droplet is in
+        private static final int ON_NOTHING = 0;
+        private static final int ON_TRIANGLE = 1;
+        private static final int ON_EDGE = 2;
+        private static final int ON_POINT = 3;
+        private static final int NO_ELEMENT = TINTopology.NO_ELEMENT;
         // Table informations to navigate
-        private DataSet sdsPoints = null;
-        private DataSet sdsEdges = null;
-        private DataSet sdsTriangles = null;
+        private TINTopology topology = null;
+        private TriangleGridIndex triangleIndex = null;
+        // Slopes computed when data are loaded, indexed by GID.
+        // Triangles slopes and edges slopes are absolute values.
+        private double[] steepestX;
+        private double[] steepestY;
+        private double[] triangleSlope;
+        private double[] edgeSlope;
         // List of reached points
-        private ArrayList<DPoint> theList = null;
+        private DropletPath thePath = new DropletPath();
         // Count each times we stay on the same point and stop when max is reached
         private int currentStagnation = 0;
         private static final int MAX_STAGNATION = 10;
-        private DPoint lastPoint;
+        // the (element, element we come from) states of the current path
+        private VisitedStates visitedStates = new VisitedStates();
+        // Number of elements processed by this follower
+        private long stepCount = 0;
+        // The element we are in
+        private int elementType = ON_NOTHING;
+        private int elementGID = NO_ELEMENT;
         // to follow walls
         private int wallSide = EDGE_NO_WALL;
-        private DTriangle previousTriangle = null;
+        private int previousTriangle = NO_ELEMENT;
         private static final int EDGE_NO_WALL = 0;
         private static final int EDGE_WALL_LEFT = 1;
         private static final int EDGE_WALL_RIGHT = 2;
-        // to follow sewers
-        private boolean isInSewers;
         // using properties
         private int autorizedProperties;
         private int endingProperties;
         private boolean requieredAdditionalFields = false;
-        private SQLDataSourceFactory dsf;
-
-        public DropletFollower(SQLDataSourceFactory dsft, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
-                if (tables.length < 4) {
+        // downstream parts of the paths already processed
+        private DropletPathCache pathCache;
+        private ChannelChainIndex channelChains = null;
+        private WallChainIndex wallChains = null;
+        private SewerNetwork sewers = null;
+        // states met by the current droplet, and the size of the path at that time
+        private ArrayList<DropletPathCache.State> pathStates = new ArrayList<DropletPathCache.State>();
+        private ArrayList<Integer> pathStateIndexes = new ArrayList<Integer>();
+        // Elements around a point, filled by getElementsToProcess
+        private int[] candidateTypes = new int[16];
+        private int[] candidateGIDs = new int[16];
+        private int candidateCount = 0;
+        // Result of the last call to getIntersection
+        private double intersectionX;
+        private double intersectionY;
+        private double intersectionZ;
+
+        public DropletFollower(SQLDataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
+                if (tables.length < 3) {
                         // There MUST be at least 3 tables
-                        throw new FunctionException("needs points, edges , triangles and start points.");
+                        throw new FunctionException("needs points, edges and triangles.");
                 } else if (values.length > 2) {
                         // There MUST be at least 1 value
                         throw new FunctionException("number of parameters exceeded.");
                 } else {
-                        dsf = dsft;
                         autorizedProperties = -1;
                         endingProperties = 0;
-                        theList = null;
+                        pathCache = new DropletPathCache(DropletPathCache.DEFAULT_CAPACITY);
 
                         try {
 
@@ -136,75 +160,316 @@ public class DropletFollower {
                                 }
 
                                 // Set informations from tables and Values
-                                populateData(dsf, pm, tables);
+                                populateData(pm, tables);
+                                buildChannelChains();
+                                buildWallChains();
+                                if (requieredAdditionalFields && canUseProperty(HydroProperties.SEWER)) {
+                                        sewers = new SewerNetwork(topology);
+                                }
 
                         } catch (DriverException ex) {
                                 logger.log(Level.SEVERE, "There has been an error while opening a table, or counting its lines.\n", ex);
+                        } catch (DelaunayError ex) {
+                                logger.log(Level.SEVERE, "Can't compute the slopes of the TIN.\n", ex);
                         }
                 }
         }
 
-        public ArrayList<DPoint> getPath(Geometry geom) throws FunctionException, DriverException, DelaunayError {
+        /**
+         * Create a new DropletFollower that shares the TIN topology and the
+         * properties of model. Only the state of the path being processed is
+         * not shared, so the two followers can be used in different threads.
+         * @param model
+         */
+        public DropletFollower(DropletFollower model) {
+                topology = model.topology;
+                triangleIndex = model.triangleIndex;
+                steepestX = model.steepestX;
+                steepestY = model.steepestY;
+                triangleSlope = model.triangleSlope;
+                edgeSlope = model.edgeSlope;
+                autorizedProperties = model.autorizedProperties;
+                endingProperties = model.endingProperties;
+                requieredAdditionalFields = model.requieredAdditionalFields;
+                pathCache = model.pathCache;
+                channelChains = model.channelChains;
+                wallChains = model.wallChains;
+                sewers = model.sewers;
+        }
+
+        /**
+         * Compute the path of a droplet that starts at geom.
+         * The returned path, and its diagnostics, are reused by the next call
+         * to this method.
+         * @param geom
+         * @return
+         * @throws FunctionException
+         */
+        public DropletPath getPath(Geometry geom) throws FunctionException {
+                return getPath(geom, NO_ELEMENT);
+        }
+
+        /**
+         * Compute the path of a droplet that starts at geom, in a triangle that
+         * has already been located.
+         * @param geom
+         * @param triangle the triangle geom lies in, NO_ELEMENT if it is not known
+         * @return
+         * @throws FunctionException
+         */
+        public DropletPath getPath(Geometry geom, int triangle) throws FunctionException {
+                long start = System.nanoTime();
                 Geometry testPoint = getInitiaPoint(geom);
                 // process path
-                dropletFollows(testPoint);
-                return theList;
+                dropletFollows(testPoint, triangle);
+                thePath.getDiagnostics().setLength(thePath.getLength());
+                thePath.getDiagnostics().setDuration(System.nanoTime() - start);
+                return thePath;
+        }
+
+        /**
+         * Get the cache of the paths, that is shared by this follower and all
+         * the followers created from it.
+         * @return
+         */
+        public DropletPathCache getPathCache() {
+                return pathCache;
+        }
+
+        /**
+         * Set the cache of the paths. If it is null, the paths are not cached.
+         * @param pathCache
+         */
+        public void setPathCache(DropletPathCache pathCache) {
+                this.pathCache = pathCache;
+        }
+
+        /**
+         * Get the chains of the channel edges, or null if the droplets can't
+         * follow rivers nor ditches.
+         * @return
+         */
+        public ChannelChainIndex getChannelChains() {
+                return channelChains;
+        }
+
+        /**
+         * Get the chains of the wall edges, or null if the droplets can't
+         * follow walls.
+         * @return
+         */
+        public WallChainIndex getWallChains() {
+                return wallChains;
+        }
+
+        /**
+         * Get the routes in the sewers, or null if the droplets can't use the
+         * sewers.
+         * @return
+         */
+        public SewerNetwork getSewers() {
+                return sewers;
+        }
+
+        /**
+         * Get the topology of the TIN the droplets follow.
+         * @return
+         */
+        TINTopology getTopology() {
+                return topology;
+        }
+
+        /**
+         * Get the grid index used to locate the start points.
+         * @return
+         */
+        TriangleGridIndex getTriangleIndex() {
+                return triangleIndex;
+        }
+
+        /**
+         * Get the number of elements (triangles, edges and points) the droplets
+         * have gone through since this follower has been created.
+         * @return
+         */
+        public long getStepCount() {
+                return stepCount;
         }
 
         // ----------------------------------------------------------------
         // UTILITIES
         // ----------------------------------------------------------------
         /**
-         * Populate a decorator
-         * @param dsf
+         * Get table informations and put them in appropriate structures
          * @param pm
-         * @param aTable
-         * @return
+         * @param tables
          * @throws DriverException
-         * @throws FunctionException
+         * @throws DelaunayError
          */
-        private DataSet populateDecorator(SQLDataSourceFactory dsf, ProgressMonitor pm, DataSet aSourceGenerator) throws DriverException, FunctionException {
-                // Open it
+        private void populateData(ProgressMonitor pm, DataSet[] tables) throws DriverException, DelaunayError {
+                topology = new TINTopology(tables[0], tables[1], tables[2], pm);
+                triangleIndex = new TriangleGridIndex(topology);
+
+                // Slopes are read from the TIN when ST_HydroTIN has stored them,
+                // otherwise they are computed with jdelaunay, once for all
+                int size = topology.getTriangleGIDBound();
+                steepestX = new double[size];
+                steepestY = new double[size];
+                triangleSlope = new double[size];
+                for (int gid = 0; gid < size; gid++) {
+                        if (topology.hasTriangle(gid) && topology.hasTriangleSlopes()) {
+                                steepestX[gid] = topology.getTriangleSteepestX(gid);
+                                steepestY[gid] = topology.getTriangleSteepestY(gid);
+                                triangleSlope[gid] = Math.abs(topology.getTriangleSlope(gid));
+                        } else if (topology.hasTriangle(gid)) {
+                                DTriangle aTriangle = populateTriangle(gid);
+                                DPoint theSlope = aTriangle.getSteepestVector();
+                                steepestX[gid] = theSlope.getX();
+                                steepestY[gid] = theSlope.getY();
+                                triangleSlope[gid] = Math.abs(aTriangle.getSlope());
+                        }
+                }
+                size = topology.getEdgeGIDBound();
+                edgeSlope = new double[size];
+                for (int gid = 0; gid < size; gid++) {
+                        if (topology.hasEdge(gid)) {
+                                DPoint start = new DPoint();
+                                setPointLocation(start, topology.getEdgeStart(gid));
+                                DPoint end = new DPoint();
+                                setPointLocation(end, topology.getEdgeEnd(gid));
+                                edgeSlope[gid] = Math.abs(new DEdge(start, end).getSlope());
+                        }
+                }
+        }
 
-                // Generate index on GID
-                try {
-                        if (!dsf.getIndexManager().isIndexed(aSourceGenerator, TINSchema.GID)) {
-                                dsf.getIndexManager().buildIndex(aSourceGenerator, TINSchema.GID, pm);
+        /**
+         * Compute the chain of each channel edge, ie the edges a droplet
+         * follows, from this edge, without leaving the rivers and the ditches.
+         * The next edge is chosen around the lowest point, as the droplets do.
+         * A chain ends at a sewer input, where the droplets go into the sewers.
+         */
+        private void buildChannelChains() {
+                if (!requieredAdditionalFields || !canUseProperty(HydroProperties.RIVER | HydroProperties.DITCH)) {
+                        return;
+                }
+                long start = System.nanoTime();
+                int size = topology.getEdgeGIDBound();
+                ChannelChainIndex chains = new ChannelChainIndex(size);
+                for (int gid = 0; gid < size; gid++) {
+                        if (isChainedChannel(gid)) {
+                                int pt = getLowestPoint(gid);
+                                turnAroundthePoint(pt, topology.getPointZ(pt), gid);
+                                int next = NO_ELEMENT;
+                                if ((elementType == ON_EDGE) && isChainedChannel(elementGID) && !isSewerInput(pt)) {
+                                        next = elementGID;
+                                }
+                                chains.setNext(gid, pt, next);
                         }
-                } catch (IndexException ex) {
-                        throw new FunctionException("Unable to create index.", ex);
-                } catch (NoSuchTableException ex) {
-                        throw new FunctionException("Unable to create index.", ex);
                 }
-                return aSourceGenerator;
+                elementType = ON_NOTHING;
+                elementGID = NO_ELEMENT;
+                chains.finish(System.nanoTime() - start);
+                channelChains = chains;
         }
 
         /**
-         * Get table informations and put them in appropriate structures
-         * @param dsf
-         * @param pm
-         * @param tables
-         * @throws FunctionException
-         * @throws DriverException
+         * Check if a droplet on the edge follows it as a channel, and can go on
+         * to the next edge without stopping.
+         * @param anEdge
+         * @return
          */
-        private void populateData(SQLDataSourceFactory dsf, ProgressMonitor pm, DataSet[] tables) throws DriverException, FunctionException {
-                sdsPoints = populateDecorator(dsf, pm, tables[0]);
-                sdsEdges = populateDecorator(dsf, pm, tables[1]);
-                sdsTriangles = populateDecorator(dsf, pm, tables[2]);
+        private boolean isChainedChannel(int anEdge) {
+                if (!topology.hasEdge(anEdge) || hasProperty(ON_EDGE, anEdge, endingProperties)) {
+                        return false;
+                }
+                return ((hasProperty(ON_EDGE, anEdge, HydroProperties.RIVER)) && (canUseProperty(HydroProperties.RIVER)))
+                        || ((hasProperty(ON_EDGE, anEdge, HydroProperties.DITCH)) && (canUseProperty(HydroProperties.DITCH)));
         }
 
         /**
-         * close decorator
-         * @param aDecorator
+         * Compute the chain of each wall edge, on both sides. A droplet that
+         * comes on the edge from a point stays on the side given by wallSide,
+         * as in processDropletOnAnEdge, and turns around the lowest point from
+         * the triangle on this side. A chain ends at a sewer input.
          */
-        private void closeDecorator(DataSource aDecorator) {
-                if (aDecorator != null) {
-                        try {
-                                aDecorator.close();
-                        } catch (DriverException ex) {
-                                logger.log(Level.SEVERE, "There has been an error while closing a table.\n", ex);
+        private void buildWallChains() {
+                if (!requieredAdditionalFields || !canUseProperty(HydroProperties.WALL)) {
+                        return;
+                }
+                long start = System.nanoTime();
+                int size = topology.getEdgeGIDBound();
+                WallChainIndex chains = new WallChainIndex(size);
+                for (int gid = 0; gid < size; gid++) {
+                        if (isChainedWall(gid)) {
+                                int pt = getLowestPoint(gid);
+                                for (int side = WallChainIndex.LEFT; side <= WallChainIndex.RIGHT; side++) {
+                                        previousTriangle = getWallSideTriangle(gid,
+                                                side == WallChainIndex.LEFT ? EDGE_WALL_LEFT : EDGE_WALL_RIGHT);
+                                        turnAroundthePoint(pt, topology.getPointZ(pt), gid);
+                                        int next = NO_ELEMENT;
+                                        if ((elementType == ON_EDGE) && isChainedWall(elementGID) && !isSewerInput(pt)) {
+                                                next = elementGID;
+                                        }
+                                        chains.set(gid, side, pt, previousTriangle, next);
+                                }
                         }
                 }
+                previousTriangle = NO_ELEMENT;
+                elementType = ON_NOTHING;
+                elementGID = NO_ELEMENT;
+                chains.finish(System.nanoTime() - start);
+                wallChains = chains;
+        }
+
+        /**
+         * Check if a droplet that reaches the point goes into the sewers.
+         * @param aPoint
+         * @return
+         */
+        private boolean isSewerInput(int aPoint) {
+                return (hasProperty(ON_POINT, aPoint, HydroProperties.SEWER_INPUT)) && (canUseProperty(HydroProperties.SEWER_INPUT));
+        }
+
+        /**
+         * Check if a droplet on the edge follows it as a wall, and can go on to
+         * the next edge without stopping. Edges that are also rivers or
+         * ditches are not chained, as the channels take precedence.
+         * @param anEdge
+         * @return
+         */
+        private boolean isChainedWall(int anEdge) {
+                if (!topology.hasEdge(anEdge) || hasProperty(ON_EDGE, anEdge, endingProperties)) {
+                        return false;
+                }
+                return hasProperty(ON_EDGE, anEdge, HydroProperties.WALL) && canUseProperty(HydroProperties.WALL)
+                        && !hasProperty(ON_EDGE, anEdge, HydroProperties.RIVER | HydroProperties.DITCH);
+        }
+
+        /**
+         * Get the triangle along which a droplet that comes on the wall edge
+         * from a point goes down.
+         * @param anEdge
+         * @param side wallSide
+         * @return
+         */
+        private int getWallSideTriangle(int anEdge, int side) {
+                int left = topology.getEdgeLeft(anEdge);
+                int right = topology.getEdgeRight(anEdge);
+                boolean startIsHigher = topology.getPointZ(topology.getEdgeStart(anEdge))
+                        > topology.getPointZ(topology.getEdgeEnd(anEdge));
+                if (side == EDGE_WALL_LEFT) {
+                        // Stay left
+                        return startIsHigher ? left : right;
+                } else {
+                        // Stay right
+                        return startIsHigher ? right : left;
+                }
+        }
+
+        private int getLowestPoint(int anEdge) {
+                int start = topology.getEdgeStart(anEdge);
+                int end = topology.getEdgeEnd(anEdge);
+                return topology.getPointZ(start) > topology.getPointZ(end) ? end : start;
         }
 
         /**
@@ -240,120 +505,48 @@ public class DropletFollower {
         // ----------------------------------------------------------------
 
         /**
-         * Get an ilement from its GID
-         * @param sds
-         * @param theGID
-         * @return
-         * @throws DriverException
-         */
-        private long getElementIndex(DataSet sds, int theGID) throws DriverException {
-                if (sds == null) {
-                        // sds not set
-                        return -1;
-                } else {
-                        DefaultAlphaQuery defaultAlphaQuery = 
-                                new DefaultAlphaQuery(TINSchema.GID, ValueFactory.createValue(theGID));
-                        Iterator<Integer> queryResult = sds.queryIndex(dsf,defaultAlphaQuery);
-
-                        if (queryResult == null) {
-                                return -1;
-
-                        } else if (queryResult.hasNext()) {
-                                return queryResult.next();
-                        } else {
-                                return -1;
-                        }
-                }
-        }
-
-        /**
-         * Get index position of a Triangle
-         * @param theGID
-         * @return
-         */
-        private long getTriangleIndex(int theGID) throws DriverException {
-                return getElementIndex(sdsTriangles, theGID);
-        }
-
-        /**
-         * Get index position of an Edge
-         * @param theGID
-         * @return
-         */
-        private long getEdgeIndex(int theGID) throws DriverException {
-                return getElementIndex(sdsEdges, theGID);
-        }
-
-        /**
-         * Get index position of a Point
-         * @param theGID
-         * @return
-         */
-        private long getPointIndex(int theGID) throws DriverException {
-                return getElementIndex(sdsPoints, theGID);
-        }
-
-        /**
-         * create DTriangle structure with GDMS data
+         * create DTriangle structure with the TIN topology
          *
-         * @param aTriangle
-         * @throws DriverException
+         * @param theGID
          * @throws DelaunayError
          */
-        private DTriangle populateTriangleWithGDMS(int theGID) throws DriverException, DelaunayError {
+        private DTriangle populateTriangle(int theGID) throws DelaunayError {
                 DTriangle aTriangle;
 
-                long tIndex = getTriangleIndex(theGID);
-
                 // Create edges
                 DEdge edge0 = new DEdge();
-
-                int eGID0 = sdsTriangles.getInt(tIndex, TINSchema.EDGE_0_GID_FIELD);
-
-                long e0Index = getEdgeIndex(eGID0);
+                int eGID0 = topology.getTriangleEdge(theGID, 0);
                 edge0.setGID(eGID0);
 
                 DEdge edge1 = new DEdge();
-
-                int eGID1 = sdsTriangles.getInt(tIndex, TINSchema.EDGE_1_GID_FIELD);
-
-                long e1Index = getEdgeIndex(eGID1);
+                int eGID1 = topology.getTriangleEdge(theGID, 1);
                 edge1.setGID(eGID1);
 
                 DEdge edge2 = new DEdge();
-
-                int eGID2 = sdsTriangles.getInt(tIndex, TINSchema.EDGE_2_GID_FIELD);
-
-                long e2Index = getEdgeIndex(eGID2);
+                int eGID2 = topology.getTriangleEdge(theGID, 2);
                 edge2.setGID(eGID2);
 
                 // Create Points
                 DPoint point0 = new DPoint();
                 edge0.setStartPoint(point0);
-
-                int pGID0 = sdsEdges.getInt(e0Index, TINSchema.STARTPOINT_NODE_FIELD);
-
-                long p0Index = getPointIndex(pGID0);
+                int pGID0 = topology.getEdgeStart(eGID0);
                 point0.setGID(pGID0);
 
                 DPoint point1 = new DPoint();
                 edge0.setEndPoint(point1);
-
-                int pGID1 = sdsEdges.getInt(e0Index, TINSchema.ENDPOINT_NODE_FIELD);
-
-                long p1Index = getPointIndex(pGID1);
+                int pGID1 = topology.getEdgeEnd(eGID0);
                 point1.setGID(pGID1);
 
                 int pGID2;
                 DPoint point2 = new DPoint();
 
-                if (sdsEdges.getInt(e1Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID0) {
+                if (topology.getEdgeStart(eGID1) == pGID0) {
                         // Edge1 is 0-2
                         edge1.setStartPoint(point0);
                         edge1.setEndPoint(point2);
                         // Edge2 cannot contain 0
 
-                        if (sdsEdges.getInt(e2Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID1) {
+                        if (topology.getEdgeStart(eGID2) == pGID1) {
                                 // Edge2 is 1-2
                                 edge2.setStartPoint(point1);
                                 edge2.setEndPoint(point2);
@@ -362,15 +555,15 @@ public class DropletFollower {
                                 edge2.setStartPoint(point2);
                                 edge2.setEndPoint(point1);
                         }
-                        pGID2 = sdsEdges.getInt(e1Index, TINSchema.ENDPOINT_NODE_FIELD);
+                        pGID2 = topology.getEdgeEnd(eGID1);
 
-                } else if (sdsEdges.getInt(e1Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID1) {
+                } else if (topology.getEdgeStart(eGID1) == pGID1) {
                         // Edge1 is 1-2
                         edge1.setStartPoint(point1);
                         edge1.setEndPoint(point2);
                         // Edge2 cannot contain 1
 
-                        if (sdsEdges.getInt(e2Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID0) {
+                        if (topology.getEdgeStart(eGID2) == pGID0) {
                                 // Edge2 is 0-2
                                 edge2.setStartPoint(point0);
                                 edge2.setEndPoint(point2);
@@ -379,15 +572,15 @@ public class DropletFollower {
                                 edge2.setStartPoint(point2);
                                 edge2.setEndPoint(point0);
                         }
-                        pGID2 = sdsEdges.getInt(e1Index, TINSchema.ENDPOINT_NODE_FIELD);
+                        pGID2 = topology.getEdgeEnd(eGID1);
 
-                } else if (sdsEdges.getInt(e1Index, TINSchema.ENDPOINT_NODE_FIELD) == pGID0) {
+                } else if (topology.getEdgeEnd(eGID1) == pGID0) {
                         // Edge1 is 2-0
                         edge1.setStartPoint(point2);
                         edge1.setEndPoint(point0);
                         // Edge2 cannot contain 0
 
-                        if (sdsEdges.getInt(e2Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID1) {
+                        if (topology.getEdgeStart(eGID2) == pGID1) {
                                 // Edge2 is 1-2
                                 edge2.setStartPoint(point1);
                                 edge2.setEndPoint(point2);
@@ -396,7 +589,7 @@ public class DropletFollower {
                                 edge2.setStartPoint(point2);
                                 edge2.setEndPoint(point1);
                         }
-                        pGID2 = sdsEdges.getInt(e1Index, TINSchema.STARTPOINT_NODE_FIELD);
+                        pGID2 = topology.getEdgeStart(eGID1);
 
                 } else {
                         // Edge1 is 2-1
@@ -404,7 +597,7 @@ public class DropletFollower {
                         edge1.setEndPoint(point1);
                         // Edge2 cannot contain 1
 
-                        if (sdsEdges.getInt(e2Index, TINSchema.STARTPOINT_NODE_FIELD) == pGID0) {
+                        if (topology.getEdgeStart(eGID2) == pGID0) {
                                 // Edge2 is 0-2
                                 edge2.setStartPoint(point0);
                                 edge2.setEndPoint(point2);
@@ -413,254 +606,206 @@ public class DropletFollower {
                                 edge2.setStartPoint(point2);
                                 edge2.setEndPoint(point0);
                         }
-                        pGID2 = sdsEdges.getInt(e1Index, TINSchema.STARTPOINT_NODE_FIELD);
+                        pGID2 = topology.getEdgeStart(eGID1);
                 }
-                long p2Index = getPointIndex(pGID2);
                 point2.setGID(pGID2);
-                int geomIndex = MetadataUtilities.getGeometryFieldIndex(sdsPoints.getMetadata()); 
+
                 // Set points location
-                Coordinate coord;
-                coord = sdsPoints.getGeometry(p0Index, geomIndex).getCoordinate();
-                point0.setX(coord.x);
-                point0.setY(coord.y);
-                point0.setZ(coord.z);
-
-                coord = sdsPoints.getGeometry(p1Index, geomIndex).getCoordinate();
-                point1.setX(coord.x);
-                point1.setY(coord.y);
-                point1.setZ(coord.z);
-
-                coord = sdsPoints.getGeometry(p2Index, geomIndex).getCoordinate();
-                point2.setX(coord.x);
-                point2.setY(coord.y);
-                point2.setZ(coord.z);
+                setPointLocation(point0, pGID0);
+                setPointLocation(point1, pGID1);
+                setPointLocation(point2, pGID2);
 
                 // Create triangle
                 aTriangle = new DTriangle(edge0, edge1, edge2);
 
                 // Set edges triangles connection
-
-                if (sdsEdges.getInt(e0Index, TINSchema.LEFT_TRIANGLE_FIELD) == theGID) {
+                if (topology.getEdgeLeft(eGID0) == theGID) {
                         edge0.setLeft(aTriangle);
                 } else {
                         edge0.setRight(aTriangle);
                 }
-                if (sdsEdges.getInt(e1Index, TINSchema.LEFT_TRIANGLE_FIELD) == theGID) {
+                if (topology.getEdgeLeft(eGID1) == theGID) {
                         edge1.setLeft(aTriangle);
                 } else {
                         edge1.setRight(aTriangle);
                 }
-                if (sdsEdges.getInt(e2Index, TINSchema.LEFT_TRIANGLE_FIELD) == theGID) {
+                if (topology.getEdgeLeft(eGID2) == theGID) {
                         edge2.setLeft(aTriangle);
                 } else {
                         edge2.setRight(aTriangle);
-                } // Set informations
-                if (aTriangle != null) {
-                        aTriangle.setGID(sdsTriangles.getInt(tIndex, TINSchema.GID));
+                }
 
-                        if (requieredAdditionalFields) {
-                                aTriangle.setHeight(sdsTriangles.getDouble(tIndex, TINSchema.HEIGHT_FIELD));
-                                aTriangle.setProperty(sdsTriangles.getInt(tIndex, TINSchema.PROPERTY_FIELD));
-                        }
+                // Set informations
+                aTriangle.setGID(theGID);
+                if (requieredAdditionalFields) {
+                        aTriangle.setHeight(topology.getTriangleHeight(theGID));
+                        aTriangle.setProperty(topology.getTriangleProperty(theGID));
                 }
 
                 return aTriangle;
         }
 
         /**
-         * create DEdge structure with GDMS data
-         *
-         * @param aTriangle
-         * @throws DriverException
+         * Set the coordinates of a point from the TIN topology.
+         * @param aPoint
+         * @param gid
          * @throws DelaunayError
          */
-        private DEdge populateEdgeWithGDMS(int gid) throws DriverException, DelaunayError {
-                DEdge theEdge = null;
-
-                // Get GIDs
-                long eIndex = getEdgeIndex(gid);
-                int leftGID = sdsEdges.getInt(eIndex, TINSchema.LEFT_TRIANGLE_FIELD);
-                int rightGID = sdsEdges.getInt(eIndex, TINSchema.RIGHT_TRIANGLE_FIELD);
-
-                // Build left triangle if it exists
-                DTriangle triangleLeft = null;
-
-                if (leftGID >= 0) {
-                        // Build it
-                        triangleLeft = populateTriangleWithGDMS(leftGID);
-
-                        // Get which edge has the edge GID
-
-                        if (triangleLeft.getEdge(0).getGID() == gid) {
-                                theEdge = triangleLeft.getEdge(0);
-                        } else if (triangleLeft.getEdge(1).getGID() == gid) {
-                                theEdge = triangleLeft.getEdge(1);
-                        } else {
-                                theEdge = triangleLeft.getEdge(2);
-                        }
-                }
-
-                // Build right triangle if it exists
-                DTriangle triangleRight = null;
-
-                if (rightGID >= 0) {
-                        // Build it
-                        triangleRight = populateTriangleWithGDMS(rightGID);
-
-                        // mix data with previous ones
-                        if (theEdge == null) {
-                                // Edge does not exist (edge on boundary
-
-                                // Get which edge has the edge GID
-                                if (triangleRight.getEdge(0).getGID() == gid) {
-                                        theEdge = triangleRight.getEdge(0);
-                                } else if (triangleRight.getEdge(1).getGID() == gid) {
-                                        theEdge = triangleRight.getEdge(1);
-                                } else {
-                                        theEdge = triangleRight.getEdge(2);
-                                }
-                        } else {
-                                // fing which has has the edge GID and change it
-                                if (triangleRight.getEdge(0).getGID() == gid) {
-                                        triangleRight.setEdge(0, theEdge);
-                                } else if (triangleRight.getEdge(1).getGID() == gid) {
-                                        triangleRight.setEdge(1, theEdge);
-                                } else {
-                                        triangleRight.setEdge(2, theEdge);
-                                }
-                                // Change points
-                                for (int i = 0; i
-                                        < 3; i++) {
-                                        DEdge anEdge = triangleRight.getEdge(i);
-
-                                        if (anEdge.getStartPoint().getGID() == theEdge.getStartPoint().getGID()) {
-                                                anEdge.setStartPoint(theEdge.getStartPoint());
-                                        }
-                                        if (anEdge.getStartPoint().getGID() == theEdge.getEndPoint().getGID()) {
-                                                anEdge.setStartPoint(theEdge.getEndPoint());
-                                        }
-                                        if (anEdge.getEndPoint().getGID() == theEdge.getStartPoint().getGID()) {
-                                                anEdge.setEndPoint(theEdge.getStartPoint());
-                                        }
-                                        if (anEdge.getEndPoint().getGID() == theEdge.getEndPoint().getGID()) {
-                                                anEdge.setEndPoint(theEdge.getEndPoint());
-                                        }
-                                }
-                        }
-                }
-
-                // Set edge informations
-                if (theEdge != null) {
-                        theEdge.setLeft(triangleLeft);
-                        theEdge.setRight(triangleRight);
+        private void setPointLocation(DPoint aPoint, int gid) throws DelaunayError {
+                aPoint.setX(topology.getPointX(gid));
+                aPoint.setY(topology.getPointY(gid));
+                aPoint.setZ(topology.getPointZ(gid));
+        }
 
-                        theEdge.setGID(sdsEdges.getInt(eIndex, TINSchema.GID));
+        // ----------------------------------------------------------------
+        // METHODS
+        // ----------------------------------------------------------------
 
-                        if (requieredAdditionalFields) {
-                                theEdge.setHeight(sdsEdges.getDouble(eIndex, TINSchema.HEIGHT_FIELD));
-                                theEdge.setProperty(sdsEdges.getInt(eIndex, TINSchema.PROPERTY_FIELD));
-                        }
+        /**
+         * Get the property of an element of the TIN. It is 0 when the property
+         * options are not used.
+         * @param type ON_TRIANGLE, ON_EDGE or ON_POINT
+         * @param gid
+         * @return
+         */
+        private int getProperty(int type, int gid) {
+                if (!requieredAdditionalFields) {
+                        return 0;
+                } else if (type == ON_TRIANGLE) {
+                        return topology.getTriangleProperty(gid);
+                } else if (type == ON_POINT) {
+                        return topology.getPointProperty(gid);
+                } else {
+                        return topology.getEdgeProperty(gid);
                 }
+        }
 
-                return theEdge;
+        /**
+         * Check if the element has one of the given properties.
+         * @param type ON_TRIANGLE, ON_EDGE or ON_POINT
+         * @param gid
+         * @param property
+         * @return
+         */
+        private boolean hasProperty(int type, int gid, int property) {
+                return (getProperty(type, gid) & property) != 0;
+        }
 
-        } // ----------------------------------------------------------------
-        // METHODS
-        // ----------------------------------------------------------------
+        /**
+         * Check if the two points are the same, in 2D.
+         * @return
+         */
+        private static boolean isSamePoint(double x1, double y1, double x2, double y2) {
+                return (x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2) < Tools.EPSILON2;
+        }
 
         /**
-         * Square distance between two elements
-         * @param aPoint1
-         * @param aPoint2
-         * @return distance
+         * Check if the point (x, y) lies on the edge.
+         * @param edge
+         * @param x
+         * @param y
+         * @return
          */
-        private static double distanceBetween(DPoint aPoint1, DPoint aPoint2) {
-                return (aPoint1.getX() - aPoint2.getX()) * (aPoint1.getX() - aPoint2.getX())
-                        + (aPoint1.getY() - aPoint2.getY()) * (aPoint1.getY() - aPoint2.getY())
-                        + (aPoint1.getZ() - aPoint2.getZ()) * (aPoint1.getZ() - aPoint2.getZ());
+        private boolean isOnEdge(int edge, double x, double y) {
+                int start = topology.getEdgeStart(edge);
+                int end = topology.getEdgeEnd(edge);
+                double x1 = topology.getPointX(start);
+                double y1 = topology.getPointY(start);
+                double x2 = topology.getPointX(end);
+                double y2 = topology.getPointY(end);
+                double cross = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+                if (Math.abs(cross) > Tools.EPSILON) {
+                        return false;
+                }
+                return (Math.min(x1, x2) - Tools.EPSILON <= x) && (x <= Math.max(x1, x2) + Tools.EPSILON)
+                        && (Math.min(y1, y2) - Tools.EPSILON <= y) && (y <= Math.max(y1, y2) + Tools.EPSILON);
         }
 
         /**
          * Find the triangle thzt the point projects in (only x and y values are used).
+         * Candidates are taken from the grid index. If the point lies on several
+         * triangles, we prefer one the droplet can go down.
          *
-         * @param aPoint
-         * @return theTriangleGID : the triangle the point projects in. null if there is none.
+         * @param x
+         * @param y
+         * @return theTriangleGID : the triangle the point projects in. NO_ELEMENT if there is none.
          */
-        private DTriangle getSpottedTriangle(Geometry aPoint, DPoint initialPoint) {
-                long countTriangles = 0;
-                DTriangle found = null;
+        private int getSpottedTriangle(double x, double y) {
+                int found = NO_ELEMENT;
+                int possibleTriangle = NO_ELEMENT;
+                int cell = triangleIndex.getCell(x, y);
 
-                try {
-                        countTriangles = sdsTriangles.getRowCount();
-                        DTriangle possibleTriangle = null;
-                        int geomIndex = MetadataUtilities.getGeometryFieldIndex(sdsTriangles.getMetadata()); 
+                if (cell >= 0) {
+                        int countTriangles = triangleIndex.getCellSize(cell);
+                        int i = 0;
 
                         // Process triangles until we find it
-                        Geometry geom = null;
-
-                        long i = 0;
-
-                        while ((i < countTriangles) && (found == null)) {
-                                // get geometry
-                                geom = sdsTriangles.getGeometry(i, geomIndex);
-
-                                if (geom instanceof MultiPolygon) {
-                                        // we get a MultiPlolygon -> az triangle
-                                        MultiPolygon mp = (MultiPolygon) geom;
-
-                                        if (mp.intersects(aPoint)) {
-                                                // Given point is in the triangle
-                                                int gid = sdsTriangles.getInt(i, TINSchema.GID);
-                                                found = populateTriangleWithGDMS(gid);
-
-                                                double theSlope = getSlope(found, initialPoint);
-
-                                                if (theSlope <= 0) {
-                                                        possibleTriangle = found;
-                                                        found = null;
-                                                        i++;
-                                                }
+                        while ((i < countTriangles) && (found == NO_ELEMENT)) {
+                                int gid = triangleIndex.getCellTriangle(cell, i);
 
+                                if (triangleIndex.contains(gid, x, y)) {
+                                        // Given point is in the triangle
+                                        if (getTriangleSlope(gid, x, y) > 0) {
+                                                found = gid;
                                         } else {
-                                                i++;
+                                                possibleTriangle = gid;
                                         }
-                                } else {
-                                        i++;
                                 }
+                                i++;
                         }
-                        // Test if we founded a flat triangle
-                        if (found == null) {
-                                found = possibleTriangle;
-                        }
-                } catch (DelaunayError ex) {
-                        logger.log(Level.SEVERE, "Can't retrieve the geometry.\n", ex);
-                } catch (DriverException ex) {
-                        logger.log(Level.SEVERE, "Can't retrieve the geometry.\n", ex);
                 }
-
+                // Test if we founded a flat triangle
+                if (found == NO_ELEMENT) {
+                        found = possibleTriangle;
+                }
                 return found;
         }
 
+        /**
+         * Get the z of the point (x, y) on the plane of the triangle.
+         * @param triangle
+         * @param x
+         * @param y
+         * @return
+         */
+        private double interpolateZ(int triangle, double x, double y) {
+                int p0 = topology.getTrianglePoint(triangle, 0);
+                int p1 = topology.getTrianglePoint(triangle, 1);
+                int p2 = topology.getTrianglePoint(triangle, 2);
+                double x0 = topology.getPointX(p0);
+                double y0 = topology.getPointY(p0);
+                double z0 = topology.getPointZ(p0);
+                double ux = topology.getPointX(p1) - x0;
+                double uy = topology.getPointY(p1) - y0;
+                double uz = topology.getPointZ(p1) - z0;
+                double vx = topology.getPointX(p2) - x0;
+                double vy = topology.getPointY(p2) - y0;
+                double vz = topology.getPointZ(p2) - z0;
+                // normal of the triangle
+                double nx = uy * vz - uz * vy;
+                double ny = uz * vx - ux * vz;
+                double nz = ux * vy - uy * vx;
+                if (Math.abs(nz) < Tools.EPSILON2) {
+                        // vertical triangle
+                        return z0;
+                }
+                return z0 - (nx * (x - x0) + ny * (y - y0)) / nz;
+        }
+
         /**
          * get edge slope from the point
          * @param anEdge
-         * @param reference
+         * @param z the altitude of the point
          * @return
          */
-        private static double getSlope(DEdge anEdge, DPoint reference) throws DelaunayError {
-                double slope = 0.0;
-
+        private double getEdgeSlope(int anEdge, double z) {
                 // Slope is the edge one
-                slope = Math.abs(anEdge.getSlope());
+                double slope = edgeSlope[anEdge];
 
                 // if it is the point with the lowest Z, slope is negative. it is positive otherwise
-
-                double minZ = anEdge.getStartPoint().getZ();
-
-                if (minZ > anEdge.getEndPoint().getZ()) {
-                        minZ = anEdge.getEndPoint().getZ();
-                }
-                if (Math.abs(minZ - reference.getZ()) < Tools.EPSILON) {
+                double minZ = Math.min(topology.getPointZ(topology.getEdgeStart(anEdge)),
+                        topology.getPointZ(topology.getEdgeEnd(anEdge)));
+                if (Math.abs(minZ - z) < Tools.EPSILON) {
                         slope = -slope;
                 }
                 return slope;
@@ -669,239 +814,244 @@ public class DropletFollower {
         /**
          * get triangle slope from the point
          * @param aTriangle
-         * @param reference
+         * @param x
+         * @param y
          * @return
          */
-        private static double getSlope(DTriangle aTriangle, DPoint reference) throws DelaunayError {
-                double slope = 0.0;
-
-                // Check if there is an intersection with one edhe
-                DPoint theSlope = aTriangle.getSteepestVector();
-                DEdge intersectedEdge = null;
+        private double getTriangleSlope(int aTriangle, double x, double y) {
+                // Check if there is an intersection with one edge
+                boolean intersected = false;
 
                 for (int i = 0; i < 3; i++) {
-                        DEdge possibleEdge = aTriangle.getEdge(i);
+                        int possibleEdge = topology.getTriangleEdge(aTriangle, i);
 
-                        if (!possibleEdge.isOnEdge(reference)) {
+                        if (!isOnEdge(possibleEdge, x, y)) {
                                 // Process only if point is not on that edge
-                                DPoint intersectedPoint = getIntersection(reference, theSlope, possibleEdge);
-
-                                if (intersectedPoint != null
-                                        && !intersectedPoint.contains(possibleEdge.getStartPoint())
-                                        && !intersectedPoint.contains(possibleEdge.getEndPoint())
-                                        && !intersectedPoint.contains(reference)) {
-                                        intersectedEdge = possibleEdge;
+                                // Only x and y are used here
+                                if (getIntersection(x, y, 0, steepestX[aTriangle], steepestY[aTriangle], possibleEdge)) {
+                                        int start = topology.getEdgeStart(possibleEdge);
+                                        int end = topology.getEdgeEnd(possibleEdge);
+                                        if (!isSamePoint(intersectionX, intersectionY, topology.getPointX(start), topology.getPointY(start))
+                                                && !isSamePoint(intersectionX, intersectionY, topology.getPointX(end), topology.getPointY(end))
+                                                && !isSamePoint(intersectionX, intersectionY, x, y)) {
+                                                intersected = true;
+                                        }
                                 }
                         }
                 }
                 // If there is an intersection, the droplet can follow the triangle and slope is > 0
-                if (intersectedEdge != null) {
-                        slope = Math.abs(aTriangle.getSlope());
+                if (intersected) {
+                        return triangleSlope[aTriangle];
                 } else {
-                        slope = -Math.abs(aTriangle.getSlope());
+                        return -triangleSlope[aTriangle];
                 }
-                return slope;
         }
 
         /**
-         * Add an element in the list if it is not already present
-         * 
-         * @param elementToProcess
-         * @param anElement
+         * return all elements to could be processed by turnAroundthePoint.
+         * They are put in candidateTypes and candidateGIDs.
+         *
+         * The elements are taken in the star of the point, starting with the
+         * given element and turning in both directions around the point. We stop
+         * on the border of the TIN and, if withWallConstraint is true, on walls.
+         *
+         * @param pointGID an extremity of an edge
+         * @param startType
+         * @param startGID
+         * @param withWallConstraint
          */
-        private static boolean isElementInArray(ArrayList<Element> elementToProcess, Element anElement) {
-                int size = elementToProcess.size();
-                int i = 0;
-                boolean found = false;
-
-                // look at all elements in the array
-                while ((i < size) && (!found)) {
-                        Element current = elementToProcess.get(i);
-
-                        if (current.getGID() == anElement.getGID()) {
-                                // the 2 elements have the save GID
-                                if ((current instanceof DTriangle)
-                                        && (anElement instanceof DTriangle)) {
-                                        // both are triangles => they are the same
-                                        found = true;
-                                } else if ((current instanceof DEdge)
-                                        && (anElement instanceof DEdge)) {
-                                        // both are edges => they are the same
-                                        found = true;
-                                } else {
-                                        // next element
-                                        i++;
-                                }
-                        } else {
-                                // next element
-                                i++;
+        private void getElementsToProcess(int pointGID, int startType, int startGID, boolean withWallConstraint) {
+                candidateCount = 0;
+                addCandidate(startType, startGID);
+
+                if (!topology.hasPoint(pointGID)) {
+                        return;
+                }
+
+                // In the star, position 2*i is the edge i and position 2*i+1 is the
+                // triangle between the edges i and i+1.
+                int start;
+                if (startType == ON_TRIANGLE) {
+                        start = 2 * topology.getStarTriangleIndex(pointGID, startGID) + 1;
+                } else {
+                        start = 2 * topology.getStarEdgeIndex(pointGID, startGID);
+                }
+                if (start < 0) {
+                        // the element is not around the point
+                        return;
+                }
+
+                int positions = 2 * topology.getStarSize(pointGID);
+                boolean canCross = canCrossStarPosition(pointGID, start, withWallConstraint);
+                boolean forward = canCross;
+                boolean backward = canCross;
+                int forwardPosition = start;
+                int backwardPosition = start;
+                int visited = 1;
+                while ((forward || backward) && (visited < positions)) {
+                        if (forward) {
+                                forwardPosition = (forwardPosition + 1) % positions;
+                                forward = addStarElement(pointGID, forwardPosition, withWallConstraint);
+                                visited++;
+                        }
+                        if (backward && (visited < positions)) {
+                                backwardPosition = (backwardPosition + positions - 1) % positions;
+                                backward = addStarElement(pointGID, backwardPosition, withWallConstraint);
+                                visited++;
                         }
                 }
+        }
 
-                return found;
+        private void addCandidate(int type, int gid) {
+                if (candidateCount == candidateGIDs.length) {
+                        int[] newTypes = new int[2 * candidateCount];
+                        System.arraycopy(candidateTypes, 0, newTypes, 0, candidateCount);
+                        candidateTypes = newTypes;
+                        int[] newGIDs = new int[2 * candidateCount];
+                        System.arraycopy(candidateGIDs, 0, newGIDs, 0, candidateCount);
+                        candidateGIDs = newGIDs;
+                }
+                candidateTypes[candidateCount] = type;
+                candidateGIDs[candidateCount] = gid;
+                candidateCount++;
         }
 
         /**
-         * return all elements to could be processed by turnAroundthePoint
+         * Add the element at the given position of the star of the point, if it exists.
          *
-         * @param aPoint an extremity of an edge
-         * @param anElement
-         * @return the edge that leads to geatest slope
-         * @throws DelaunayError
+         * @param pointGID
+         * @param position 2*i for the edge i, 2*i+1 for the triangle i
+         * @param withWallConstraint
+         * @return true if we can continue to turn around the point after this element
          */
-        private ArrayList<Element> getElementsToProcess(DPoint aPoint, Element anElement, boolean withWallConstraint) throws DelaunayError, DriverException {
-                ArrayList<Element> elementToProcess = new ArrayList<Element>();
-                elementToProcess.add(anElement);
-
-                int GID = aPoint.getGID();
-                int currentElement = 0;
-
-                while (currentElement < elementToProcess.size()) {
-                        Element elementToTest = elementToProcess.get(currentElement);
-                        currentElement++;
-
-                        if (elementToTest instanceof DTriangle) {
-                                // current element is a triangle
-                                DTriangle aTriangle = (DTriangle) elementToTest;
-
-                                // Check all edges : add edges that contains the point
-
-                                for (int i = 0; i < 3; i++) {
-                                        DEdge possibleEdge = aTriangle.getEdge(i);
-
-                                        if ((possibleEdge.getStartPoint().getGID() == GID)
-                                                || (possibleEdge.getEndPoint().getGID() == GID)) {
-                                                // The edge contains aPoint => it is the one we look for.
-                                                // generate full element
-                                                if (!isElementInArray(elementToProcess, possibleEdge)) {
-                                                        DEdge theEdge = populateEdgeWithGDMS(possibleEdge.getGID());
-                                                        elementToProcess.add(theEdge);
-                                                }
-                                        }
-                                }
-                        } else {
-                                // current element is an edge
-                                DEdge anEdge = (DEdge) elementToTest;
-
-                                if ((!anEdge.hasProperty(HydroProperties.WALL)) || (!withWallConstraint)) {
-                                        // We stop on walls
-                                        // Add left element
-                                        DTriangle left = anEdge.getLeft();
-                                        if (left != null) {
-                                                if (!isElementInArray(elementToProcess, left)) {
-                                                        DTriangle newElement = populateTriangleWithGDMS(left.getGID());
-                                                        elementToProcess.add(newElement);
-
-                                                }
-                                        }
-
-                                        // Add right element
-                                        DTriangle right = anEdge.getRight();
-                                        if (right != null) {
-                                                if (!isElementInArray(elementToProcess, right)) {
-                                                        DTriangle newElement = populateTriangleWithGDMS(right.getGID());
-                                                        elementToProcess.add(newElement);
-                                                }
-                                        }
-                                }
+        private boolean addStarElement(int pointGID, int position, boolean withWallConstraint) {
+                if (position % 2 == 0) {
+                        addCandidate(ON_EDGE, topology.getStarEdge(pointGID, position / 2));
+                } else {
+                        int triangleGID = topology.getStarTriangle(pointGID, position / 2);
+                        if (triangleGID == NO_ELEMENT) {
+                                // Border of the TIN
+                                return false;
                         }
+                        addCandidate(ON_TRIANGLE, triangleGID);
                 }
-                return elementToProcess;
+                return canCrossStarPosition(pointGID, position, withWallConstraint);
         }
 
         /**
-         * give the edge that leads to geatest slope when turning around aPoint
+         * Check if we can go through the element at the given position of the
+         * star of the point. We stop on walls.
          *
-         * @param aPoint an extremity of an edge
-         * @param anElement
-         * @return the edge that leads to geatest slope
-         * @throws DelaunayError
+         * @param pointGID
+         * @param position
+         * @param withWallConstraint
+         * @return
          */
-        private Element turnAroundthePoint(DPoint aPoint, DEdge anElement, DTriangle previousTriangle) throws DelaunayError, DriverException {
+        private boolean canCrossStarPosition(int pointGID, int position, boolean withWallConstraint) {
+                if (position % 2 == 0) {
+                        int edgeGID = topology.getStarEdge(pointGID, position / 2);
+                        return (!withWallConstraint) || (!hasProperty(ON_EDGE, edgeGID, HydroProperties.WALL));
+                } else {
+                        return topology.getStarTriangle(pointGID, position / 2) != NO_ELEMENT;
+                }
+        }
+
+        /**
+         * give the element that leads to geatest slope when turning around the point.
+         * The result is put in elementType and elementGID.
+         *
+         * @param pointGID an extremity of the edge
+         * @param z the altitude of the point
+         * @param anElement the edge we come from
+         */
+        private void turnAroundthePoint(int pointGID, double z, int anElement) {
                 // First get all elements around the point
                 // anElement is an element we can start with
-                Element selectedElement = null;         // the result
-                ArrayList<Element> elementToProcess;
-                Element startElement = anElement;
+                int selectedType = ON_NOTHING;                  // the result
+                int selectedGID = NO_ELEMENT;
+                int startType = ON_EDGE;
+                int startGID = anElement;
+                double x = topology.getPointX(pointGID);
+                double y = topology.getPointY(pointGID);
 
                 boolean withWallConstraint = false;
                 double maxSlope = 0;                    // Current value of geatest slope
 
-                if (anElement.hasProperty(HydroProperties.RIVER)) {
+                if (hasProperty(ON_EDGE, anElement, HydroProperties.RIVER)) {
                         // We are in a river
                         // We stay in the river
-                        elementToProcess = getElementsToProcess(aPoint, anElement, false);
+                        getElementsToProcess(pointGID, ON_EDGE, anElement, false);
 
-                        for (Element elementToTest : elementToProcess) {
-                                if (elementToTest.hasProperty(HydroProperties.RIVER)) {
-                                        if (elementToTest instanceof DTriangle) {
+                        for (int i = 0; i < candidateCount; i++) {
+                                int type = candidateTypes[i];
+                                int gid = candidateGIDs[i];
+                                if (hasProperty(type, gid, HydroProperties.RIVER)) {
+                                        if (type == ON_TRIANGLE) {
                                                 // River goes to river, not in triangke
-                                                DTriangle aTriangle = (DTriangle) elementToTest;
-
-                                                double theSlope = getSlope(aTriangle, aPoint);
+                                                double theSlope = getTriangleSlope(gid, x, y);
 
                                                 if (theSlope > maxSlope) {
                                                         maxSlope = theSlope;
-                                                        selectedElement = elementToTest;
+                                                        selectedType = type;
+                                                        selectedGID = gid;
                                                 }
-                                        } else if (anElement.getGID() != elementToTest.getGID()) {
+                                        } else if (anElement != gid) {
                                                 // Do not go back on the same element
-                                                DEdge anEdge = (DEdge) elementToTest;
-
-                                                double theSlope = getSlope(anEdge, aPoint);
+                                                double theSlope = getEdgeSlope(gid, z);
 
                                                 if (theSlope >= maxSlope) {
                                                         // We prefer edges to triangles when it is possible
                                                         maxSlope = theSlope;
-                                                        selectedElement = elementToTest;
+                                                        selectedType = type;
+                                                        selectedGID = gid;
                                                 }
                                         }
                                 }
                         }
-                } else if (anElement.hasProperty(HydroProperties.DITCH)) {
+                } else if (hasProperty(ON_EDGE, anElement, HydroProperties.DITCH)) {
                         // We are in a ditch
                         // We may go in a river or in a ditch
-                        elementToProcess = getElementsToProcess(aPoint, anElement, false);
+                        getElementsToProcess(pointGID, ON_EDGE, anElement, false);
 
-                        for (Element elementToTest : elementToProcess) {
-                                if ((elementToTest.hasProperty(HydroProperties.RIVER))
-                                        || (elementToTest.hasProperty(HydroProperties.DITCH))) {
-                                        if (elementToTest instanceof DTriangle) {
+                        for (int i = 0; i < candidateCount; i++) {
+                                int type = candidateTypes[i];
+                                int gid = candidateGIDs[i];
+                                if (hasProperty(type, gid, HydroProperties.RIVER | HydroProperties.DITCH)) {
+                                        if (type == ON_TRIANGLE) {
                                                 // River goes to river, not in triangke
-                                                DTriangle aTriangle = (DTriangle) elementToTest;
-
-                                                double theSlope = getSlope(aTriangle, aPoint);
+                                                double theSlope = getTriangleSlope(gid, x, y);
 
                                                 if (theSlope > maxSlope) {
                                                         maxSlope = theSlope;
-                                                        selectedElement = elementToTest;
+                                                        selectedType = type;
+                                                        selectedGID = gid;
                                                 }
-                                        } else if (anElement.getGID() != elementToTest.getGID()) {
-                                                DEdge anEdge = (DEdge) elementToTest;
-
-                                                double theSlope = getSlope(anEdge, aPoint);
+                                        } else if (anElement != gid) {
+                                                double theSlope = getEdgeSlope(gid, z);
 
                                                 if ((theSlope >= maxSlope) && (theSlope > 0)) {
                                                         // We prefer edges to triangles when it is possible
                                                         maxSlope = theSlope;
-                                                        selectedElement = elementToTest;
+                                                        selectedType = type;
+                                                        selectedGID = gid;
                                                 }
                                         }
                                 }
                         }
-                } else if (anElement.hasProperty(HydroProperties.WALL)) {
+                } else if (hasProperty(ON_EDGE, anElement, HydroProperties.WALL)) {
                         // We were folowwing a wall
                         // Change start element
-                        if (previousTriangle != null) {
-                                startElement = previousTriangle;
+                        if (previousTriangle != NO_ELEMENT) {
+                                startType = ON_TRIANGLE;
+                                startGID = previousTriangle;
                         }
                         withWallConstraint = true;
 
                 }
 
-                if (selectedElement == null) {
+                if (selectedType == ON_NOTHING) {
                         // No exit found => get the one we can with the greatest slope
-                        elementToProcess = getElementsToProcess(aPoint, startElement, withWallConstraint);
+                        getElementsToProcess(pointGID, startType, startGID, withWallConstraint);
 
                         int levelChange = 0;
                         maxSlope = 0;
@@ -910,40 +1060,42 @@ public class DropletFollower {
                         // Except that rivers goes to rivers and ditches goes to ditches or rivers
                         // Also, if there is a ditch or a river we prior go to then
 
-                        for (Element elementToTest : elementToProcess) {
-                                if (elementToTest instanceof DTriangle) {
-                                        DTriangle aTriangle = (DTriangle) elementToTest;
-
-                                        double theSlope = getSlope(aTriangle, aPoint);
+                        for (int i = 0; i < candidateCount; i++) {
+                                int type = candidateTypes[i];
+                                int gid = candidateGIDs[i];
+                                if (type == ON_TRIANGLE) {
+                                        double theSlope = getTriangleSlope(gid, x, y);
 
                                         if ((theSlope > maxSlope) && (levelChange == 0)) {
                                                 maxSlope = theSlope;
-                                                selectedElement = elementToTest;
+                                                selectedType = type;
+                                                selectedGID = gid;
                                         }
-                                } else if (anElement.getGID() != elementToTest.getGID()) {
-                                        DEdge anEdge = (DEdge) elementToTest;
-
-                                        double theSlope = getSlope(anEdge, aPoint);
+                                } else if (anElement != gid) {
+                                        double theSlope = getEdgeSlope(gid, z);
 
                                         if (theSlope > 0) {
-                                                if (anEdge.hasProperty(HydroProperties.RIVER)) {
+                                                if (hasProperty(type, gid, HydroProperties.RIVER)) {
                                                         // Go to river when it exists
                                                         if ((levelChange < 2) || (theSlope >= maxSlope)) {
                                                                 maxSlope = theSlope;
-                                                                selectedElement = elementToTest;
+                                                                selectedType = type;
+                                                                selectedGID = gid;
                                                                 levelChange = 2;
                                                         }
-                                                } else if (anEdge.hasProperty(HydroProperties.DITCH)) {
+                                                } else if (hasProperty(type, gid, HydroProperties.DITCH)) {
                                                         // Go to ditch when we are not in a river
                                                         if ((levelChange < 1) || ((levelChange == 1) && (theSlope >= maxSlope))) {
                                                                 maxSlope = theSlope;
-                                                                selectedElement = elementToTest;
+                                                                selectedType = type;
+                                                                selectedGID = gid;
                                                                 levelChange = 1;
                                                         }
                                                 } else if ((theSlope >= maxSlope) && (levelChange == 0)) {
                                                         // We prefer edges to triangles when it is possible
                                                         maxSlope = theSlope;
-                                                        selectedElement = elementToTest;
+                                                        selectedType = type;
+                                                        selectedGID = gid;
                                                 }
                                         }
                                 }
@@ -951,37 +1103,50 @@ public class DropletFollower {
                 }
                 if (maxSlope == 0) {
                         // If no slope => stop procesz
-                        selectedElement = null;
+                        selectedType = ON_NOTHING;
+                        selectedGID = NO_ELEMENT;
                 }
-                return selectedElement;
+                elementType = selectedType;
+                elementGID = selectedGID;
         }
 
         /**
-         * intersects the edge and the half-line that start in p1 directed with v1.
-         * returns null if there is no intersection
+         * intersects the edge and the half-line that start in (x, y) directed with (vx, vy).
+         * The intersection is put in intersectionX, intersectionY and intersectionZ.
          * NB : this method is not applied it the point is on  the edge => it should not happen
          *
-         * @param p1 a point inside a triangle
-         * @param v1 triangle's slope
+         * @param x a point inside a triangle
+         * @param y
+         * @param z
+         * @param vx triangle's slope
+         * @param vy
          * @param anEdge an edge of the triangle
-         * @return intersection
-         * @throws DelaunayError
+         * @return false if there is no intersection
          */
-        private static DPoint getIntersection(DPoint point1, DPoint v1, DEdge anEdge) throws DelaunayError {
-                DPoint intersection = null;
-                DPoint p3 = anEdge.getPointLeft();
-                DPoint p4 = anEdge.getPointRight();
-                DPoint p1 = point1;
+        private boolean getIntersection(double x, double y, double z, double vx, double vy, int anEdge) {
+                // p3 is the left point of the edge, p4 the right one
+                int p3 = topology.getEdgeStart(anEdge);
+                int p4 = topology.getEdgeEnd(anEdge);
+                if ((topology.getPointX(p4) < topology.getPointX(p3))
+                        || ((topology.getPointX(p4) == topology.getPointX(p3)) && (topology.getPointY(p4) < topology.getPointY(p3)))) {
+                        int swap = p3;
+                        p3 = p4;
+                        p4 = swap;
+                }
+                double x3 = topology.getPointX(p3);
+                double y3 = topology.getPointY(p3);
+                double x4 = topology.getPointX(p4);
+                double y4 = topology.getPointY(p4);
 
                 // (v1.x) t1 - (x4 - x3) t2 = (x3 - x1)
                 // (v1.y) t1 - (y4 - y3) t2 = (y3 - y1)
 
-                double deltaXO = v1.getX();
-                double deltaXT = p4.getX() - p3.getX();
-                double c1 = p3.getX() - p1.getX();
-                double deltaYO = v1.getY();
-                double deltaYT = p4.getY() - p3.getY();
-                double c2 = p3.getY() - p1.getY();
+                double deltaXO = vx;
+                double deltaXT = x4 - x3;
+                double c1 = x3 - x;
+                double deltaYO = vy;
+                double deltaYT = y4 - y3;
+                double c2 = y3 - y;
 
                 // d = (x4 - x3) (y2 - y1) - (x2 - x1) * (y4 - y3)
                 double d = deltaXT * deltaYO - deltaYT * deltaXO;
@@ -997,22 +1162,23 @@ public class DropletFollower {
                         if ((-Tools.EPSILON <= t1) && (-Tools.EPSILON <= t2) && (t2 <= 1 + Tools.EPSILON)) {
                                 // it intersects
                                 if (t2 <= Tools.EPSILON) {
-                                        intersection = p3;
+                                        setIntersection(x3, y3, topology.getPointZ(p3));
                                 } else if (t2 >= 1 - Tools.EPSILON) {
-                                        intersection = p4;
+                                        setIntersection(x4, y4, topology.getPointZ(p4));
                                 } else if (t1 <= Tools.EPSILON) {
-                                        intersection = p1;
+                                        setIntersection(x, y, z);
                                 } else {
                                         // We use t2 to compute values
                                         // x = x4 t2 + (1 - t2) x3
                                         // y = y4 t2 + (1 - t2) y3
                                         // z = z4 t2 + (1 - t2) z3
-                                        double x = p4.getX() * t2 + (1 - t2) * p3.getX();
-                                        double y = p4.getY() * t2 + (1 - t2) * p3.getY();
-                                        double z = p4.getZ() * t2 + (1 - t2) * p3.getZ();
-                                        intersection = new DPoint(x, y, z);
+                                        setIntersection(x4 * t2 + (1 - t2) * x3,
+                                                y4 * t2 + (1 - t2) * y3,
+                                                topology.getPointZ(p4) * t2 + (1 - t2) * topology.getPointZ(p3));
                                 }
+                                return true;
                         }
+                        return false;
                 } else {
                         //d==0 : the two edges are colinear
                         double test;
@@ -1024,15 +1190,20 @@ public class DropletFollower {
                         }
                         if (Math.abs(test) > Tools.EPSILON) {
                                 //the two supporting lines are different
-                                intersection = null;
+                                return false;
                         } else {
                                 // we have one supporting line
                                 // So, p1 is between p3 and p4.
-                                intersection = p1;
+                                setIntersection(x, y, z);
+                                return true;
                         }
                 }
+        }
 
-                return intersection;
+        private void setIntersection(double x, double y, double z) {
+                intersectionX = x;
+                intersectionY = y;
+                intersectionZ = z;
         }
 
         /**
@@ -1051,64 +1222,65 @@ public class DropletFollower {
          * add a point to the droplet path
          * Point is memorised only once. currentStagnation is incremented each time we have the same point
          * 
-         * @param aPoint
+         * @param x
+         * @param y
+         * @param z
+         * @param gid the GID of the TIN point, -1 if it is not a point of the TIN
+         * @param onFeature true if the point lies on an edge with a property
          */
-        private void addPointToDropletPath(DPoint aPoint) {
-                if (lastPoint == null) {
+        private void addPointToDropletPath(double x, double y, double z, int gid, boolean onFeature) {
+                int last = thePath.size() - 1;
+                if (last < 0) {
                         // No previous point
-                        theList.add(aPoint);
-                        lastPoint = aPoint;
+                        thePath.add(x, y, z, gid, onFeature);
                         currentStagnation = 1;
-                } else if (!lastPoint.contains(aPoint)) {
+                } else if (!isSamePoint(thePath.getX(last), thePath.getY(last), x, y)) {
                         // The next point is not the previous one
-                        theList.add(aPoint);
-                        lastPoint = aPoint;
+                        thePath.add(x, y, z, gid, onFeature);
                         currentStagnation = 1;
                 } else {
                         currentStagnation++;
+                        thePath.getDiagnostics().addStagnation();
                 }
         }
 
         /**
-         * Select next edge in the sewers
-         * If lastEdge is null, it means we start with a sewer. Otherwise, we are following sewers
-         * NB : we do not take into account the slope.
-         * 
-         * @param aPoint
-         * @param lastEdge
-         * @return
-         */
-        private Element selectNextSewer(DPoint aPoint, DEdge lastEdge) {
-                Element theElement = null;
-
-                if (lastEdge == null) {
-                } else {
-                }
-                return theElement;
-
-        }
-
-        /**
-         * Select next point in the sewers.
-         * None of the two elements can be null
+         * Follow the sewers from the input pointGID to their output, where the
+         * droplet goes back to the surface. If the water of this input does
+         * not go to any output, the droplet stops.
          *
-         * @param anEdge
-         * @param lastPoint
-         * @return
+         * @param pointGID a SEWER_INPUT point
+         * @param lastEdge the edge the droplet comes from
+         * @return the edge the droplet comes from at the next point
          */
-        private Element selectNextSewer(DEdge anEdge, DPoint lastPoint) {
-                Element theElement = null;
-
-                if (anEdge.getStartPoint().getGID() == lastPoint.getGID()) {
-                        theElement = anEdge.getEndPoint();
-                } else {
-                        theElement = anEdge.getStartPoint();
-                } // Take care we do not exit from sewers
-                if ((!theElement.hasProperty(HydroProperties.SEWER_INPUT)) && (theElement.hasProperty(HydroProperties.SEWER_OUTPUT))) {
-                        // The point exists from sewers
-                        isInSewers = false;
+        private int followSewers(int pointGID, int lastEdge) {
+                if ((sewers == null) || !sewers.hasRoute(pointGID)) {
+                        thePath.getDiagnostics().setEndReason(DropletDiagnostics.END_SEWER_INPUT);
+                        elementType = ON_NOTHING;
+                        elementGID = NO_ELEMENT;
+                        return lastEdge;
                 }
-                return theElement;
+                DropletDiagnostics diagnostics = thePath.getDiagnostics();
+                int first = sewers.getRouteStart(pointGID);
+                int end = sewers.getRouteEnd(pointGID);
+                int edge = lastEdge;
+                int pt = pointGID;
+                for (int i = first + 1; i < end; i++) {
+                        if (i > first + 1) {
+                                // the droplet goes through the previous sewer point
+                                stepCount++;
+                                diagnostics.addPoint();
+                        }
+                        stepCount++;
+                        diagnostics.addEdge();
+                        edge = sewers.getRouteEdge(i);
+                        pt = sewers.getRoutePoint(i);
+                        addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, true);
+                }
+                wallSide = EDGE_NO_WALL;
+                elementType = ON_POINT;
+                elementGID = pt;
+                return edge;
         }
 
         /**
@@ -1118,73 +1290,69 @@ public class DropletFollower {
          * we go down the slope to find a point on an edge (even if start/end point)
          * next element is an edge
          *
-         * @param aPoint
          * @param aTriangle
-         * @return
-         * @throws DelaunayError
-         * @throws DriverException
          */
-        private Element processDropletOnTriangle(DPoint aPoint, DTriangle aTriangle) throws DelaunayError, DriverException {
-                Element theElement = null;
+        private void processDropletOnTriangle(int aTriangle) {
+                int last = thePath.size() - 1;
+                double x = thePath.getX(last);
+                double y = thePath.getY(last);
+                double z = thePath.getZ(last);
 
                 // We take triangle's slope
                 // We find the edge that intersects, and the intersection point
-                DPoint intersection = null;
-                DPoint theSlope = aTriangle.getSteepestVector();
-                DEdge intersectedEdge = null;
+                int intersectedEdge = NO_ELEMENT;
+                double bestX = 0;
+                double bestY = 0;
+                double bestZ = 0;
+                double bestDistance = 0;
 
-                for (int i = 0; i
-                        < 3; i++) {
-                        DEdge possibleEdge = aTriangle.getEdge(i);
+                for (int i = 0; i < 3; i++) {
+                        int possibleEdge = topology.getTriangleEdge(aTriangle, i);
 
-                        if (possibleEdge.isOnEdge(aPoint)) {
+                        if (isOnEdge(possibleEdge, x, y)) {
                                 // aPoint is on the edge
                                 // We keep the edge only if there is no other one
-                                if (intersectedEdge == null) {
+                                if (intersectedEdge == NO_ELEMENT) {
                                         // maybe we follow the edge
                                         intersectedEdge = possibleEdge;
-                                        intersection = aPoint;
+                                        bestX = x;
+                                        bestY = y;
+                                        bestZ = z;
+                                        bestDistance = 0;
                                 }
-                        } else {
-                                // Point is not on the edge
-                                DPoint intersectedPoint = getIntersection(aPoint, theSlope, possibleEdge);
-
-                                if (intersectedPoint != null) {
-                                        // we've got an intersection
-                                        if (intersectedEdge == null) {
-                                                // none found yet
-                                                intersectedEdge = possibleEdge;
-                                                intersection = intersectedPoint;
-                                        } else {
-                                                // we take the one with the greater distance
-                                                // in case we would have miss the isOnEdge function
-                                                if (distanceBetween(intersectedPoint, aPoint) > distanceBetween(intersection, aPoint)) {
-                                                        // this point is better
-                                                        intersectedEdge = possibleEdge;
-                                                        intersection = intersectedPoint;
-                                                }
-                                        }
+                        } else if (getIntersection(x, y, z, steepestX[aTriangle], steepestY[aTriangle], possibleEdge)) {
+                                // we've got an intersection
+                                double distance = (intersectionX - x) * (intersectionX - x)
+                                        + (intersectionY - y) * (intersectionY - y)
+                                        + (intersectionZ - z) * (intersectionZ - z);
+                                // If one has already been found, we take the one with the greater distance
+                                // in case we would have miss the isOnEdge function
+                                if ((intersectedEdge == NO_ELEMENT) || (distance > bestDistance)) {
+                                        intersectedEdge = possibleEdge;
+                                        bestX = intersectionX;
+                                        bestY = intersectionY;
+                                        bestZ = intersectionZ;
+                                        bestDistance = distance;
                                 }
                         }
                 }
 
-                if (intersection != null) {
-                        // We memorise the point
-                        intersection.setGID(-1);
-                        addPointToDropletPath(intersection);
+                if (intersectedEdge != NO_ELEMENT) {
+                        // We memorise the point, and whether the edge is a feature
+                        addPointToDropletPath(bestX, bestY, bestZ, NO_ELEMENT,
+                                getProperty(ON_EDGE, intersectedEdge) != 0);
 
                         // set next element data
-                        theElement = populateEdgeWithGDMS(intersectedEdge.getGID());
-
+                        elementType = ON_EDGE;
+                        elementGID = intersectedEdge;
                 } else {
                         // there is a problem
                         // there is no intersection with the triangle
                         // The triangle might be flat
-                        theElement = null;
+                        elementType = ON_NOTHING;
+                        elementGID = NO_ELEMENT;
                 }
                 wallSide = EDGE_NO_WALL;
-
-                return theElement;
         }
 
         /**
@@ -1195,50 +1363,43 @@ public class DropletFollower {
          * If we find a wall and we must follow it, we do it, depending on previous position of the droplet
          * At least, we can travel the edge to go to a triangle or follow the edge to go to lowest point.
          *
-         * @param aPoint
          * @param anEdge
-         * @param useHydroProperties
-         * @return the element we go into
-         * @throws DelaunayError
          */
-        private Element processDropletOnAnEdge(final DPoint aPoint, final DEdge anEdge) throws DelaunayError {
-                Element theElement = null;
+        private void processDropletOnAnEdge(int anEdge) {
+                int last = thePath.size() - 1;
+                double x = thePath.getX(last);
+                double y = thePath.getY(last);
+                double z = thePath.getZ(last);
 
                 // current element is an edge
                 // the next element follows the greatest slope
-                Element nextElement = null;
+                int nextType = ON_NOTHING;
+                int nextGID = NO_ELEMENT;
 
                 // First, get edge slope this value is positive or equal to zero
+                double maxSlope = getEdgeSlope(anEdge, z);
+                int left = topology.getEdgeLeft(anEdge);
+                int right = topology.getEdgeRight(anEdge);
 
-                double maxSlope = getSlope(anEdge, aPoint);
-                DTriangle left = anEdge.getLeft();
-                DTriangle right = anEdge.getRight();
-
-                if (isInSewers) {
-                        // We are in sewers - next element is a point
-                        previousTriangle = null;
-                        wallSide = EDGE_NO_WALL;
-                        maxSlope = 1.0;
-                        nextElement = selectNextSewer(anEdge, aPoint);
-                } else if ((anEdge.hasProperty(HydroProperties.RIVER)) && (canUseProperty(HydroProperties.RIVER))) {
+                if ((hasProperty(ON_EDGE, anEdge, HydroProperties.RIVER)) && (canUseProperty(HydroProperties.RIVER))) {
                         // do not have a look on triangles
-                        previousTriangle = null;
+                        previousTriangle = NO_ELEMENT;
                         wallSide = EDGE_NO_WALL;
-                } else if ((anEdge.hasProperty(HydroProperties.DITCH)) && (canUseProperty(HydroProperties.DITCH))) {
+                } else if ((hasProperty(ON_EDGE, anEdge, HydroProperties.DITCH)) && (canUseProperty(HydroProperties.DITCH))) {
                         // do not have a look on triangles
-                        previousTriangle = null;
+                        previousTriangle = NO_ELEMENT;
                         wallSide = EDGE_NO_WALL;
-                } else if ((anEdge.hasProperty(HydroProperties.WALL)) && (canUseProperty(HydroProperties.WALL))) {
+                } else if ((hasProperty(ON_EDGE, anEdge, HydroProperties.WALL)) && (canUseProperty(HydroProperties.WALL))) {
                         // following the wall
-                        if (previousTriangle != null) {
+                        if (previousTriangle != NO_ELEMENT) {
                                 // We arrived on the edge with a triangle
-                                if (right == null) {
+                                if (right == NO_ELEMENT) {
                                         // Come from left
                                         wallSide = EDGE_WALL_LEFT;
-                                } else if (left == null) {
+                                } else if (left == NO_ELEMENT) {
                                         // Come from right
                                         wallSide = EDGE_WALL_RIGHT;
-                                } else if (previousTriangle.getGID() == left.getGID()) {
+                                } else if (previousTriangle == left) {
                                         // Come from left
                                         wallSide = EDGE_WALL_LEFT;
                                 } else {
@@ -1248,126 +1409,181 @@ public class DropletFollower {
                         } else {
                                 // We come from another edge (last one was a point)
                                 // Define the new value for previousTriangle
-                                if (wallSide == EDGE_WALL_LEFT) {
-                                        // Stay left
-                                        if (anEdge.getStartPoint().getZ() > anEdge.getEndPoint().getZ()) {
-                                                previousTriangle = left;
-                                        } else {
-                                                previousTriangle = right;
-                                        }
-                                } else {
-                                        // Stay right
-                                        if (anEdge.getStartPoint().getZ() > anEdge.getEndPoint().getZ()) {
-                                                previousTriangle = right;
-                                        } else {
-                                                previousTriangle = left;
-                                        }
-                                }
+                                previousTriangle = getWallSideTriangle(anEdge, wallSide);
                         }
                         // previousTriangle Always have a value => we can go to the point
                 } else {
                         // Check the 2 triangle around the edge
-                        if (left != null) {
+                        if (left != NO_ELEMENT) {
                                 // get slope
                                 // slope is positive only if droplet can go doan the triangle
-                                double slope = getSlope(left, aPoint);
+                                double slope = getTriangleSlope(left, x, y);
 
                                 if (slope > maxSlope) {
                                         maxSlope = slope;
-                                        nextElement = left;
+                                        nextType = ON_TRIANGLE;
+                                        nextGID = left;
                                 }
                         }
 
-                        if (right != null) {
+                        if (right != NO_ELEMENT) {
                                 // get slope
                                 // slope is positive only if droplet can go doan the triangle
-                                double slope = getSlope(right, aPoint);
+                                double slope = getTriangleSlope(right, x, y);
 
                                 if (slope > maxSlope) {
                                         maxSlope = slope;
-                                        nextElement = right;
+                                        nextType = ON_TRIANGLE;
+                                        nextGID = right;
                                 }
                         }
-                        previousTriangle = null;
+                        previousTriangle = NO_ELEMENT;
                         wallSide = EDGE_NO_WALL;
                 }
 
                 if (maxSlope > 0) {
-                        if (nextElement == null) {
+                        if (nextType == ON_NOTHING) {
                                 // next step is on the edge
                                 // => follow the edge
-                                DPoint pt;
-
-                                if (anEdge.getStartPoint().getZ() > anEdge.getEndPoint().getZ()) {
-                                        pt = anEdge.getEndPoint();
-                                } else {
-                                        pt = anEdge.getStartPoint();
-                                }
+                                int pt = getLowestPoint(anEdge);
 
                                 // We memorise the lowest point
-                                addPointToDropletPath(pt);
-                                theElement = pt;
+                                addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, false);
+                                elementType = ON_POINT;
+                                elementGID = pt;
                         } else {
                                 // Next element is a triangle
-                                theElement = nextElement;
                                 // We stay on the same point => aPoint does not change
+                                elementType = nextType;
+                                elementGID = nextGID;
                         }
                 } else {
                         // Slope is flat => stop process
-                        theElement = null;
+                        elementType = ON_NOTHING;
+                        elementGID = NO_ELEMENT;
+                }
+        }
+
+        /**
+         * Check if the droplet, that is on the edge, can go down the channel
+         * chain that starts with this edge.
+         * @param anEdge
+         * @return
+         */
+        private boolean canFollowChannelChain(int anEdge) {
+                if ((channelChains == null) || !channelChains.isChannelEdge(anEdge)) {
+                        return false;
+                }
+                return getEdgeSlope(anEdge, thePath.getZ(thePath.size() - 1)) > 0;
+        }
+
+        /**
+         * Append the chain that starts with the channel edge anEdge to the path.
+         * The next element is the lowest point of the outlet of the chain.
+         *
+         * @param anEdge
+         * @return the last edge of the chain
+         */
+        private int followChannelChain(int anEdge) {
+                DropletDiagnostics diagnostics = thePath.getDiagnostics();
+                previousTriangle = NO_ELEMENT;
+                wallSide = EDGE_NO_WALL;
+                int edge = anEdge;
+                int pt = channelChains.getLowPoint(edge);
+                addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, false);
+                int next = channelChains.getNextEdge(edge);
+                while (next != NO_ELEMENT) {
+                        // the droplet goes through pt, then down the next edge
+                        stepCount += 2;
+                        diagnostics.addPoint();
+                        diagnostics.addEdge();
+                        edge = next;
+                        pt = channelChains.getLowPoint(edge);
+                        addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, false);
+                        next = channelChains.getNextEdge(edge);
+                }
+                elementType = ON_POINT;
+                elementGID = pt;
+                return edge;
+        }
+
+        /**
+         * Check if the droplet, that is on the edge, can go down the wall chain
+         * that starts with this edge. It must come from a point, otherwise the
+         * side of the wall is given by the triangle it comes from.
+         * @param anEdge
+         * @return
+         */
+        private boolean canFollowWallChain(int anEdge) {
+                if ((wallChains == null) || (previousTriangle != NO_ELEMENT)
+                        || !wallChains.isWallEdge(anEdge)) {
+                        return false;
                 }
+                return getEdgeSlope(anEdge, thePath.getZ(thePath.size() - 1)) > 0;
+        }
 
-                return theElement;
+        /**
+         * Append the wall chain that starts with anEdge, on the side given by
+         * wallSide, to the path. The next element is the lowest point of the
+         * exit edge, and previousTriangle is the triangle on our side of it.
+         *
+         * @param anEdge
+         * @return the exit edge
+         */
+        private int followWallChain(int anEdge) {
+                DropletDiagnostics diagnostics = thePath.getDiagnostics();
+                int side = wallSide == EDGE_WALL_LEFT ? WallChainIndex.LEFT : WallChainIndex.RIGHT;
+                int edge = anEdge;
+                int pt = wallChains.getLowPoint(edge);
+                addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, false);
+                int next = wallChains.getNextEdge(edge, side);
+                while (next != NO_ELEMENT) {
+                        // the droplet goes through pt, then down the next edge
+                        stepCount += 2;
+                        diagnostics.addPoint();
+                        diagnostics.addEdge();
+                        edge = next;
+                        pt = wallChains.getLowPoint(edge);
+                        addPointToDropletPath(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt), pt, false);
+                        next = wallChains.getNextEdge(edge, side);
+                }
+                previousTriangle = wallChains.getSideTriangle(edge, side);
+                elementType = ON_POINT;
+                elementGID = pt;
+                return edge;
         }
 
         /**
          * process a droplet on a Point.
          *
          * Current element is a point.
-         * If there is a sewer entry at this point, we stop.
+         * If there is a sewer entry at this point, we go through the sewers.
          * Otherwise, we turn around the point, starting at previous element.
          * We go to the greatests slope (triangle / edge)
          *
          * @param aPoint
          * @param lastEdge
-         * @return the element we go into.
-         * @throws DelaunayError
-         * @throws DriverException
+         * @return the edge the droplet comes from at the next point
          */
-        private Element processDropletOnPoint(DPoint aPoint, DEdge lastEdge) throws DelaunayError, DriverException {
-                Element theElement = null;
-
-                if (((aPoint.hasProperty(HydroProperties.SEWER_INPUT)) || (isInSewers))
-                        && (canUseProperty(HydroProperties.SEWER_INPUT))) {
-                        // go into sewers
-                        isInSewers = true;
-                        wallSide = EDGE_NO_WALL;
-
-                        // try to find the point connected that is in sewers
-                        theElement = selectNextSewer(aPoint, lastEdge);
+        private int processDropletOnPoint(int aPoint, int lastEdge) {
+                if (isSewerInput(aPoint)) {
+                        // go into sewers, up to the output
+                        return followSewers(aPoint, lastEdge);
                 } else {
                         // First, we get the element we come from. It might be an edge.
-                        Element selectedElement = turnAroundthePoint(aPoint, lastEdge, previousTriangle);
-
-                        if (selectedElement != null) {
-                                // We go to a next edge
-                                theElement = selectedElement;
-                        } else {
-                                // End of process: no successor
-                                theElement = null;
-                        }
+                        // If there is no successor, it is the end of process
+                        turnAroundthePoint(aPoint, topology.getPointZ(aPoint), lastEdge);
+                        return lastEdge;
                 }
-                return theElement;
         }
 
         /**
          * Droplet follower
          *
-         * @param initialPoint
-         * @param useHydroProperties
-         * @throws DelaunayError
+         * @param initialGeometry
+         * @param knownTriangle the triangle the point lies in, NO_ELEMENT if it is not known
          */
-        private void dropletFollows(Geometry initialGeometry) throws DriverException, DelaunayError {
+        private void dropletFollows(Geometry initialGeometry, int knownTriangle) {
                 // First we have to find the triangle that contains the point
                 // Then
                 // - if we have a triangle, we foloow the slope to the next edge
@@ -1381,75 +1597,180 @@ public class DropletFollower {
                 //      + if it is an edge, we go to the edge
                 //      + if there is none, it is ended
                 //      NB : to turn around the point, we MUST have a connected element to the point (edge / triangle)
-                //		NB2 : if point is a SEWER_INPUT, we stop
+                //		NB2 : if point is a SEWER_INPUT, we go through the sewers to the output
                 //
                 // It may happen that we stay on the same same point. That means we are in a hole => we stop iterations
-                // if we find such a point
+                // if we find such a point. We also stop as soon as we come back to an element from the
+                // same element : the droplet is in a cycle on a flat area, and ends with END_FLAT_CYCLE.
 
-                theList = new ArrayList<DPoint>();
-                lastPoint = null;
+                thePath.clear();
+                pathStates.clear();
+                pathStateIndexes.clear();
+                visitedStates.clear();
+                currentStagnation = 0;
 
                 // Find the point on the surface
-                DPoint initialPoint = TINFeatureFactory.createDPoint(initialGeometry);
-                DTriangle aTriangle = getSpottedTriangle(initialGeometry, initialPoint);
+                Coordinate initialPoint = initialGeometry.getCoordinate();
+                // A known triangle is kept if the droplet can go down it. Otherwise
+                // the point may be on an edge shared with a better triangle.
+                int aTriangle = knownTriangle;
+                if ((aTriangle == NO_ELEMENT) || (getTriangleSlope(aTriangle, initialPoint.x, initialPoint.y) <= 0)) {
+                        aTriangle = getSpottedTriangle(initialPoint.x, initialPoint.y);
+                }
 
-                if (aTriangle == null) {
+                if (aTriangle == NO_ELEMENT) {
                         // Droplet stays on initial point : it is outside mesh
-                        initialPoint.setGID(-1);
-                        addPointToDropletPath(initialPoint);
+                        addPointToDropletPath(initialPoint.x, initialPoint.y, initialPoint.z, NO_ELEMENT, false);
+                        thePath.getDiagnostics().setEndReason(DropletDiagnostics.END_OUTSIDE_MESH);
 
                 } else {
                         // point is on the mesh, in a triangle
-                        DEdge anEdge = null;            // doplet on an edge
-
                         // Project the point on the surface and memorise it
-                        DPoint aPoint = new DPoint(initialPoint.getX(), initialPoint.getY(), aTriangle.interpolateZ(initialPoint));
-                        aPoint.setGID(-1);
-                        addPointToDropletPath(aPoint);
+                        addPointToDropletPath(initialPoint.x, initialPoint.y,
+                                interpolateZ(aTriangle, initialPoint.x, initialPoint.y), NO_ELEMENT, false);
 
                         // The current element we are in
-                        Element theElement = aTriangle;         // current processed element
-                        Element lastElement = null;             // last Element we were in
-                        previousTriangle = null;                // to manage walls we are following
+                        elementType = ON_TRIANGLE;
+                        elementGID = aTriangle;
+                        int lastEdge = NO_ELEMENT;              // last edge we were in
+                        previousTriangle = NO_ELEMENT;          // to manage walls we are following
                         wallSide = EDGE_NO_WALL;                  // To know on which side of the wall we are
-                        isInSewers = false;
-
-                        while ((theElement != null) && (currentStagnation < MAX_STAGNATION)) {
-                                // we've got a Point (aPoint)
-                                // and the element we are in (theElement)
-                                // theElement can be a triangle, an edge or a point
-
-                                if (theElement.hasProperty(endingProperties)) {
+                        DropletDiagnostics diagnostics = thePath.getDiagnostics();
+                        int lastType = elementType;
+                        int lastGID = elementGID;
+
+                        while ((elementType != ON_NOTHING) && (currentStagnation < MAX_STAGNATION)) {
+                                // we've got a Point (the last one of the path)
+                                // and the element we are in
+                                // the element can be a triangle, an edge or a point
+                                stepCount++;
+                                boolean visited = !visitedStates.add(elementType, elementGID, lastType, lastGID);
+                                lastType = elementType;
+                                lastGID = elementGID;
+
+                                if (visited) {
+                                        // We have already been here, coming from the same element :
+                                        // the droplet is turning round in a flat area
+                                        diagnostics.setEndReason(DropletDiagnostics.END_FLAT_CYCLE);
+                                        elementType = ON_NOTHING;
+                                        // Where the cycle is detected depends on the elements met
+                                        // before the cached states, so the end of this path is not cached
+                                        pathStates.clear();
+                                        pathStateIndexes.clear();
+                                } else if ((elementType != ON_POINT) && (hasProperty(elementType, elementGID, endingProperties))) {
                                         // If we reach an ending property, we stop
-                                        theElement = null;
-                                } else if (theElement instanceof DTriangle) {
+                                        diagnostics.setEndReason(DropletDiagnostics.END_ENDING_PROPERTY);
+                                        elementType = ON_NOTHING;
+                                } else if (elementType == ON_TRIANGLE) {
                                         // current element is a triangle
-                                        aTriangle = (DTriangle) theElement;
-                                        lastElement = theElement;
-                                        theElement = processDropletOnTriangle(aPoint, aTriangle);
-                                        aPoint = theList.get(theList.size() - 1);
-                                        previousTriangle = aTriangle;
-                                } else if (theElement instanceof DEdge) {
+                                        diagnostics.addTriangle();
+                                        int theTriangle = elementGID;
+                                        processDropletOnTriangle(theTriangle);
+                                        previousTriangle = theTriangle;
+                                } else if (elementType == ON_EDGE) {
                                         // current element is an edge
                                         // the next element follows the greatest slope
-                                        anEdge = (DEdge) theElement;
-                                        lastElement = theElement;
-                                        theElement = processDropletOnAnEdge(aPoint, anEdge);
-                                        aPoint = theList.get(theList.size() - 1);
+                                        diagnostics.addEdge();
+                                        lastEdge = elementGID;
+                                        if (canFollowChannelChain(lastEdge)) {
+                                                lastEdge = followChannelChain(lastEdge);
+                                        } else if (canFollowWallChain(lastEdge)) {
+                                                lastEdge = followWallChain(lastEdge);
+                                        } else {
+                                                processDropletOnAnEdge(lastEdge);
+                                        }
                                 } else {
                                         // Current element is a point
                                         // the point comes from an edge. It CANNOT come from a triangle
-                                        // We turn around aPoint to select the edge that leads to greatest slope
-                                        aPoint = (DPoint) theElement;
-                                        theElement = processDropletOnPoint(aPoint, (DEdge) lastElement);
-                                        lastElement = aPoint;
-                                        previousTriangle = null;
+                                        // We turn around the point to select the edge that leads to greatest slope
+                                        diagnostics.addPoint();
+                                        int aPoint = elementGID;
+                                        if (reuseCachedPath(aPoint, lastEdge)) {
+                                                // The end of the path is already known
+                                                elementType = ON_NOTHING;
+                                        } else {
+                                                lastEdge = processDropletOnPoint(aPoint, lastEdge);
+                                                previousTriangle = NO_ELEMENT;
+                                        }
                                 }
                         }
+                        if (diagnostics.getEndReason() == DropletDiagnostics.END_UNKNOWN) {
+                                if (currentStagnation >= MAX_STAGNATION) {
+                                        diagnostics.setEndReason(DropletDiagnostics.END_STAGNATION);
+                                } else if (isOnBorder(lastType, lastGID)) {
+                                        diagnostics.setEndReason(DropletDiagnostics.END_MESH_BORDER);
+                                } else {
+                                        diagnostics.setEndReason(DropletDiagnostics.END_PIT);
+                                }
+                        }
+                        savePathInCache();
                 }
 
         }
 
+        /**
+         * Check if an edge or a point is on the border of the TIN, ie if it
+         * has a side without any triangle.
+         * @param type
+         * @param gid
+         * @return
+         */
+        private boolean isOnBorder(int type, int gid) {
+                if (type == ON_EDGE) {
+                        return (topology.getEdgeLeft(gid) == NO_ELEMENT) || (topology.getEdgeRight(gid) == NO_ELEMENT);
+                } else if (type == ON_POINT) {
+                        int size = topology.getStarSize(gid);
+                        for (int i = 0; i < size; i++) {
+                                if (topology.getStarTriangle(gid, i) == NO_ELEMENT) {
+                                        return true;
+                                }
+                        }
+                }
+                return false;
+        }
+
+        /**
+         * Look for the droplet state in the cache. If it is found, the known end
+         * of the path is added to the current path. Otherwise, the state is
+         * memorised so that the end of the current path can be cached.
+         *
+         * Only the states where the droplet has just reached aPoint are used :
+         * in that case the following path does not depend on the previous ones.
+         *
+         * @param aPoint the point the droplet has reached
+         * @param lastEdge the edge the droplet comes from
+         * @return true if the end of the path has been found in the cache
+         */
+        private boolean reuseCachedPath(int aPoint, int lastEdge) {
+                if ((pathCache == null) || (currentStagnation != 1)) {
+                        return false;
+                }
+                DropletPathCache.State state = new DropletPathCache.State(aPoint, lastEdge,
+                        previousTriangle, wallSide);
+                if (pathCache.appendTo(state, thePath)) {
+                        return true;
+                }
+                pathStates.add(state);
+                pathStateIndexes.add(thePath.size());
+                return false;
+        }
+
+        /**
+         * Put the end of the current path in the cache, for all the states that
+         * have been met. There are none when the droplet has come back to a
+         * state already visited.
+         */
+        private void savePathInCache() {
+                if (!pathStates.isEmpty()) {
+                        DropletPath path = thePath.copy();
+                        for (int i = 0; i < pathStates.size(); i++) {
+                                pathCache.put(pathStates.get(i), path, pathStateIndexes.get(i));
+                        }
+                        pathStates.clear();
+                        pathStateIndexes.clear();
+                }
+        }
+
         /**
          * A method to check if the datasource contains two fields :  property and height. The field is used to tag the TIN feature
          * @param tables
@@ -1457,8 +1778,8 @@ public class DropletFollower {
          */
         private void checkMetadata(DataSet[] tables) throws DriverException {
 
-                for (int i = 0; i
-                        < tables.length - 1; i++) {
+                // The start points, if any, are not checked
+                for (int i = 0; i < 3; i++) {
                         DataSet ds = tables[i];
                         Metadata md = ds.getMetadata();
 
@@ -0,0 +1,354 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * The vertices of a droplet path, stored in primitive arrays that grow when
+ * needed. A DropletFollower fills the same instance for all its droplets, so
+ * following a path does not create any object per vertex.
+ *
+ * For each vertex, we store its coordinates and the GID of the TIN point it lies
+ * on, or -1 if it is not a point of the TIN, and whether it lies on an edge
+ * that carries a property. The path also carries the diagnostics of the
+ * droplet that has built it.
+ *
+ * @author alexis
+ */
+public final class DropletPath {
+
+        private static final int DEFAULT_CAPACITY = 64;
+        private double[] coordinates;
+        private int[] gids;
+        private boolean[] features;
+        private int size = 0;
+        // Work arrays of setSimplified, allocated on first use.
+        private boolean[] kept;
+        private int[] stack;
+        private final DropletDiagnostics diagnostics = new DropletDiagnostics();
+
+        /**
+         * Build an empty path.
+         */
+        public DropletPath() {
+                this(DEFAULT_CAPACITY);
+        }
+
+        private DropletPath(int capacity) {
+                coordinates = new double[3 * capacity];
+                gids = new int[capacity];
+                features = new boolean[capacity];
+        }
+
+        /**
+         * Remove all the vertices and reset the diagnostics. The arrays are kept.
+         */
+        public void clear() {
+                size = 0;
+                diagnostics.clear();
+        }
+
+        /**
+         * Remove all the vertices, and replace the arrays that can hold more than
+         * capacity vertices by smaller ones, so that a path that is kept for
+         * later does not hold the memory of the longest path it has been given.
+         * @param capacity
+         */
+        public void trim(int capacity) {
+                clear();
+                if (gids.length > capacity) {
+                        coordinates = new double[3 * capacity];
+                        gids = new int[capacity];
+                        features = new boolean[capacity];
+                }
+                if (kept != null && kept.length > capacity) {
+                        kept = null;
+                        stack = null;
+                }
+        }
+
+        /**
+         * Get the number of vertices in the path.
+         * @return
+         */
+        public int size() {
+                return size;
+        }
+
+        /**
+         * Add a vertex at the end of the path.
+         * @param x
+         * @param y
+         * @param z
+         * @param gid the GID of the TIN point, or -1
+         */
+        public void add(double x, double y, double z, int gid) {
+                add(x, y, z, gid, false);
+        }
+
+        /**
+         * Add a vertex at the end of the path.
+         * @param x
+         * @param y
+         * @param z
+         * @param gid the GID of the TIN point, or -1
+         * @param onFeature true if the vertex lies on an edge with a property
+         */
+        public void add(double x, double y, double z, int gid, boolean onFeature) {
+                ensureCapacity(size + 1);
+                coordinates[3 * size] = x;
+                coordinates[3 * size + 1] = y;
+                coordinates[3 * size + 2] = z;
+                gids[size] = gid;
+                features[size] = onFeature;
+                size++;
+        }
+
+        /**
+         * Add the vertices of other, starting at the index start, at the end of
+         * this path.
+         * @param other
+         * @param start
+         */
+        public void append(DropletPath other, int start) {
+                int count = other.size - start;
+                if (count > 0) {
+                        ensureCapacity(size + count);
+                        System.arraycopy(other.coordinates, 3 * start, coordinates, 3 * size, 3 * count);
+                        System.arraycopy(other.gids, start, gids, size, count);
+                        System.arraycopy(other.features, start, features, size, count);
+                        size += count;
+                }
+        }
+
+        /**
+         * Replace the vertices and the diagnostics of this path by the ones of
+         * other. The arrays of this path are reused when they are large enough.
+         * @param other
+         */
+        public void set(DropletPath other) {
+                size = 0;
+                append(other, 0);
+                diagnostics.set(other.diagnostics);
+        }
+
+        /**
+         * Replace this path by a simplified copy of other. A vertex of other is
+         * removed when it lies at less than tolerance, in the plane, from the
+         * simplified line, using a Douglas-Peucker simplification.
+         *
+         * Only the vertices where the droplet crosses a triangle can be removed.
+         * The first and last vertices, the points of the TIN, the vertices where
+         * the droplet starts to follow an edge and the vertices that lie on an
+         * edge with a property are always kept, so the simplified path still
+         * shows where the droplet changes of element and meets a feature.
+         * @param other
+         * @param tolerance a distance, greater or equal to 0
+         */
+        public void setSimplified(DropletPath other, double tolerance) {
+                int n = other.size;
+                if (n < 3) {
+                        set(other);
+                        return;
+                }
+                if (kept == null || kept.length < n) {
+                        kept = new boolean[Math.max(n, DEFAULT_CAPACITY)];
+                        stack = new int[2 * kept.length];
+                }
+                kept[0] = true;
+                kept[n - 1] = true;
+                for (int i = 1; i < n - 1; i++) {
+                        kept[i] = other.gids[i] >= 0 || other.gids[i + 1] >= 0 || other.features[i];
+                }
+                int anchor = 0;
+                for (int i = 1; i < n; i++) {
+                        if (kept[i]) {
+                                if (i - anchor > 1) {
+                                        simplify(other, anchor, i, tolerance);
+                                }
+                                anchor = i;
+                        }
+                }
+                size = 0;
+                ensureCapacity(n);
+                for (int i = 0; i < n; i++) {
+                        if (kept[i]) {
+                                System.arraycopy(other.coordinates, 3 * i, coordinates, 3 * size, 3);
+                                gids[size] = other.gids[i];
+                                features[size] = other.features[i];
+                                size++;
+                        }
+                }
+                diagnostics.set(other.diagnostics);
+        }
+
+        /**
+         * Mark in kept the vertices of other, strictly between first and last,
+         * that are needed to stay within tolerance of the original line.
+         */
+        private void simplify(DropletPath other, int first, int last, double tolerance) {
+                double[] c = other.coordinates;
+                int top = 0;
+                stack[top++] = first;
+                stack[top++] = last;
+                while (top > 0) {
+                        int end = stack[--top];
+                        int start = stack[--top];
+                        double x0 = c[3 * start];
+                        double y0 = c[3 * start + 1];
+                        double dx = c[3 * end] - x0;
+                        double dy = c[3 * end + 1] - y0;
+                        double len2 = dx * dx + dy * dy;
+                        double max = -1;
+                        int farthest = -1;
+                        for (int i = start + 1; i < end; i++) {
+                                kept[i] = false;
+                                double px = c[3 * i] - x0;
+                                double py = c[3 * i + 1] - y0;
+                                double t = len2 > 0 ? (px * dx + py * dy) / len2 : 0;
+                                if (t < 0) {
+                                        t = 0;
+                                } else if (t > 1) {
+                                        t = 1;
+                                }
+                                double ex = px - t * dx;
+                                double ey = py - t * dy;
+                                double d2 = ex * ex + ey * ey;
+                                if (d2 > max) {
+                                        max = d2;
+                                        farthest = i;
+                                }
+                        }
+                        if (farthest >= 0 && max > tolerance * tolerance) {
+                                kept[farthest] = true;
+                                stack[top++] = start;
+                                stack[top++] = farthest;
+                                stack[top++] = farthest;
+                                stack[top++] = end;
+                        }
+                }
+        }
+
+        /**
+         * Get a copy of this path, with arrays that fit its size.
+         * @return
+         */
+        public DropletPath copy() {
+                DropletPath result = new DropletPath(Math.max(size, 1));
+                result.append(this, 0);
+                result.diagnostics.set(diagnostics);
+                return result;
+        }
+
+        public double getX(int i) {
+                return coordinates[3 * i];
+        }
+
+        public double getY(int i) {
+                return coordinates[3 * i + 1];
+        }
+
+        public double getZ(int i) {
+                return coordinates[3 * i + 2];
+        }
+
+        /**
+         * Get the GID of the TIN point the vertex lies on, or -1.
+         * @param i
+         * @return
+         */
+        public int getGID(int i) {
+                return gids[i];
+        }
+
+        /**
+         * Check if the vertex lies on an edge that carries a property.
+         * @param i
+         * @return
+         */
+        public boolean isOnFeature(int i) {
+                return features[i];
+        }
+
+        /**
+         * Get the planar length of the path.
+         * @return
+         */
+        public double getLength() {
+                double length = 0;
+                for (int i = 1; i < size; i++) {
+                        double dx = coordinates[3 * i] - coordinates[3 * i - 3];
+                        double dy = coordinates[3 * i + 1] - coordinates[3 * i - 2];
+                        length += Math.sqrt(dx * dx + dy * dy);
+                }
+                return length;
+        }
+
+        /**
+         * Get the diagnostics of the droplet that has built this path.
+         * @return
+         */
+        public DropletDiagnostics getDiagnostics() {
+                return diagnostics;
+        }
+
+        /**
+         * Create a JTS coordinate for the vertex i.
+         * @param i
+         * @return
+         */
+        public Coordinate getCoordinate(int i) {
+                return new Coordinate(coordinates[3 * i], coordinates[3 * i + 1], coordinates[3 * i + 2]);
+        }
+
+        private void ensureCapacity(int capacity) {
+                if (capacity > gids.length) {
+                        int newCapacity = Math.max(capacity, 2 * gids.length);
+                        double[] newCoordinates = new double[3 * newCapacity];
+                        System.arraycopy(coordinates, 0, newCoordinates, 0, 3 * size);
+                        coordinates = newCoordinates;
+                        int[] newGids = new int[newCapacity];
+                        System.arraycopy(gids, 0, newGids, 0, size);
+                        gids = newGids;
+                        boolean[] newFeatures = new boolean[newCapacity];
+                        System.arraycopy(features, 0, newFeatures, 0, size);
+                        features = newFeatures;
+                }
+        }
+}
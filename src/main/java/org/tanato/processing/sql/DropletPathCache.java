@@ -0,0 +1,212 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the downstream part of the droplet paths that have already been
+ * computed.
+ *
+ * A droplet that reaches a point of the TIN coming from an edge follows a
+ * route that only depends on this point, on this edge and on the state of the
+ * follower (the wall it follows). When such a state has already been met by a
+ * previous droplet, the end of its path can be reused.
+ *
+ * The cache is bounded : the states that have not been used for the longest
+ * time are removed first. It can be shared by several followers.
+ *
+ * @author alexis
+ */
+public final class DropletPathCache {
+
+        public static final int DEFAULT_CAPACITY = 100000;
+        private final LinkedHashMap<State, Suffix> suffixes;
+        private long lookups = 0;
+        private long hits = 0;
+        private long reusedPoints = 0;
+
+        /**
+         * Create a cache that can store at most capacity states.
+         * @param capacity
+         */
+        public DropletPathCache(final int capacity) {
+                if (capacity < 1) {
+                        throw new IllegalArgumentException("The capacity of the cache must be at least 1");
+                }
+                suffixes = new LinkedHashMap<State, Suffix>(16, 0.75f, true) {
+
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<State, Suffix> eldest) {
+                                return size() > capacity;
+                        }
+                };
+        }
+
+        /**
+         * Add the points that follow the given state at the end of target. The
+         * reason why the cached droplet has stopped is given to target.
+         * @param state
+         * @param target
+         * @return false if the state is unknown, target is not modified then.
+         */
+        public synchronized boolean appendTo(State state, DropletPath target) {
+                lookups++;
+                Suffix suffix = suffixes.get(state);
+                if (suffix == null) {
+                        return false;
+                }
+                hits++;
+                int count = suffix.path.size() - suffix.start;
+                reusedPoints += count;
+                target.append(suffix.path, suffix.start);
+                // The droplet ends the same way as the one that has been cached
+                target.getDiagnostics().addReusedPoints(count);
+                target.getDiagnostics().setEndReason(suffix.path.getDiagnostics().getEndReason());
+                return true;
+        }
+
+        /**
+         * Memorise that the points of path that follow the index start are the
+         * ones that follow state. The path is shared by all the states it has
+         * met, it must not be modified once given to the cache.
+         * @param state
+         * @param path
+         * @param start
+         */
+        public synchronized void put(State state, DropletPath path, int start) {
+                suffixes.put(state, new Suffix(path, start));
+        }
+
+        /**
+         * Get the number of states that are currently stored.
+         * @return
+         */
+        public synchronized int size() {
+                return suffixes.size();
+        }
+
+        /**
+         * Get the number of times the cache has been asked for a state.
+         * @return
+         */
+        public synchronized long getLookups() {
+                return lookups;
+        }
+
+        /**
+         * Get the number of times a state has been found in the cache.
+         * @return
+         */
+        public synchronized long getHits() {
+                return hits;
+        }
+
+        /**
+         * Get the number of path points that have been given by the cache
+         * instead of being computed.
+         * @return
+         */
+        public synchronized long getReusedPoints() {
+                return reusedPoints;
+        }
+
+        /**
+         * The state of a droplet that reaches a point of the TIN.
+         */
+        public static final class State {
+
+                private final int pointGID;
+                private final int edgeGID;
+                private final int triangleGID;
+                private final int wallSide;
+
+                /**
+                 * Build a new state.
+                 * @param pointGID the point the droplet has reached
+                 * @param edgeGID the edge the droplet comes from
+                 * @param triangleGID the triangle along the wall we follow, -1 if none
+                 * @param wallSide the side of the wall we follow
+                 */
+                public State(int pointGID, int edgeGID, int triangleGID, int wallSide) {
+                        this.pointGID = pointGID;
+                        this.edgeGID = edgeGID;
+                        this.triangleGID = triangleGID;
+                        this.wallSide = wallSide;
+                }
+
+                @Override
+                public boolean equals(Object obj) {
+                        if (!(obj instanceof State)) {
+                                return false;
+                        }
+                        State other = (State) obj;
+                        return pointGID == other.pointGID
+                                && edgeGID == other.edgeGID
+                                && triangleGID == other.triangleGID
+                                && wallSide == other.wallSide;
+                }
+
+                @Override
+                public int hashCode() {
+                        int hash = 7;
+                        hash = 31 * hash + pointGID;
+                        hash = 31 * hash + edgeGID;
+                        hash = 31 * hash + triangleGID;
+                        hash = 31 * hash + wallSide;
+                        return hash;
+                }
+        }
+
+        /**
+         * The end of a path, from the index start.
+         */
+        private static final class Suffix {
+
+                private final DropletPath path;
+                private final int start;
+
+                private Suffix(DropletPath path, int start) {
+                        this.path = path;
+                        this.start = start;
+                }
+        }
+}
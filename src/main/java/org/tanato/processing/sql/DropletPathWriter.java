@@ -0,0 +1,208 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.gdms.driver.DriverException;
+
+/**
+ * Saves the droplet paths in a dedicated thread, so that the paths are
+ * written while the next ones are computed.
+ *
+ * The paths are given in slots taken from a pool of fixed size : when all the
+ * slots are waiting to be written, the tracers wait for the writer. This way,
+ * the memory used does not depend on the number of start points. Slots are
+ * written in the order they are given to write.
+ *
+ * A slot holds a copy of a whole path, so the memory is not bounded for each
+ * path : it is bounded by the number of slots times the longest path waiting
+ * to be written. Once written, a slot gives back the arrays that are larger
+ * than MAX_IDLE_VERTICES, so a few long paths do not keep their memory in the
+ * pool.
+ *
+ * @author alexis
+ */
+final class DropletPathWriter {
+
+        // The number of vertices a slot can keep the room for once written
+        private static final int MAX_IDLE_VERTICES = 1024;
+        private final ST_DropletAbstract function;
+        private final BlockingQueue<Slot> free;
+        private final BlockingQueue<Slot> pending;
+        // Given to the writer thread to stop it
+        private final Slot end = new Slot();
+        private final Thread thread;
+        private volatile DriverException driverError = null;
+        private volatile RuntimeException runtimeError = null;
+
+        /**
+         * Start the writer thread.
+         * @param function the function whose saveDropletData method saves the paths
+         * @param capacity the number of slots
+         */
+        DropletPathWriter(ST_DropletAbstract function, int capacity) {
+                this.function = function;
+                free = new ArrayBlockingQueue<Slot>(capacity);
+                pending = new ArrayBlockingQueue<Slot>(capacity + 1);
+                for (int i = 0; i < capacity; i++) {
+                        free.add(new Slot());
+                }
+                thread = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                                writeSlots();
+                        }
+                }, "droplet-writer");
+                thread.setDaemon(true);
+                thread.start();
+        }
+
+        /**
+         * Get an empty slot, waiting for one if they are all used.
+         * @return
+         * @throws InterruptedException
+         */
+        Slot take() throws InterruptedException {
+                return free.take();
+        }
+
+        /**
+         * Give a filled slot to the writer thread.
+         * @param slot
+         * @throws InterruptedException
+         * @throws DriverException
+         *      if the writer thread has failed to save a previous path.
+         */
+        void write(Slot slot) throws InterruptedException, DriverException {
+                checkErrors();
+                pending.put(slot);
+        }
+
+        /**
+         * Wait until all the slots have been written, and stop the writer thread.
+         * @throws InterruptedException
+         * @throws DriverException
+         *      if the writer thread has failed to save a path.
+         */
+        void finish() throws InterruptedException, DriverException {
+                pending.put(end);
+                thread.join();
+                checkErrors();
+        }
+
+        /**
+         * Stop the writer thread without waiting for the pending slots.
+         */
+        void close() {
+                thread.interrupt();
+        }
+
+        private void checkErrors() throws DriverException {
+                if (driverError != null) {
+                        throw driverError;
+                } else if (runtimeError != null) {
+                        throw runtimeError;
+                }
+        }
+
+        private void writeSlots() {
+                try {
+                        Slot slot = pending.take();
+                        while (slot != end) {
+                                // After an error, slots are only given back so
+                                // that the tracers are not blocked.
+                                if (driverError == null && runtimeError == null) {
+                                        try {
+                                                function.saveDropletData(slot.index, slot.geom, slot.path);
+                                        } catch (DriverException ex) {
+                                                driverError = ex;
+                                        } catch (RuntimeException ex) {
+                                                runtimeError = ex;
+                                        }
+                                }
+                                slot.geom = null;
+                                slot.path.trim(MAX_IDLE_VERTICES);
+                                free.put(slot);
+                                slot = pending.take();
+                        }
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                }
+        }
+
+        /**
+         * A path waiting to be written, with its start point and its index.
+         */
+        static final class Slot {
+
+                private int index;
+                private Geometry geom;
+                private final DropletPath path = new DropletPath();
+
+                /**
+                 * Copy a path in this slot. The arrays of the slot are reused.
+                 * @param index
+                 * @param geom
+                 * @param result
+                 */
+                void set(int index, Geometry geom, DropletPath result) {
+                        set(index, geom, result, -1);
+                }
+
+                /**
+                 * Copy a path in this slot, simplified with the given tolerance.
+                 * A negative tolerance keeps all the vertices.
+                 * @param index
+                 * @param geom
+                 * @param result
+                 * @param tolerance
+                 */
+                void set(int index, Geometry geom, DropletPath result, double tolerance) {
+                        this.index = index;
+                        this.geom = geom;
+                        if (tolerance < 0) {
+                                path.set(result);
+                        } else {
+                                path.setSimplified(result, tolerance);
+                        }
+                }
+        }
+}
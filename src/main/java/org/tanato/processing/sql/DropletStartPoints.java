@@ -0,0 +1,231 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.geometryUtils.GeometryTypeUtil;
+import org.gdms.sql.function.FunctionException;
+import org.tanato.model.TINTopology;
+import org.tanato.model.TriangleGridIndex;
+
+/**
+ * The start points of a batch of droplets. They can be read from a table, or
+ * generated on the fly over the TIN, so that no table of start points has to
+ * be written and read again.
+ *
+ * Start points are read by blocks. Each point comes with the index that is
+ * saved with its path.
+ *
+ * @author alexis
+ */
+abstract class DropletStartPoints {
+
+        private static final GeometryFactory GF = new GeometryFactory();
+
+        /**
+         * Get the number of start points.
+         * @return
+         */
+        abstract long size();
+
+        /**
+         * Read the start points from first to first + count - 1. block[k] is set
+         * to the start point first + k, or to null if it must be skipped,
+         * indexes[k] to the index saved with its path, and triangles[k] to the
+         * triangle the point lies in if it is already known, NO_ELEMENT otherwise.
+         * @param first
+         * @param count
+         * @param block
+         * @param indexes
+         * @param triangles
+         * @throws DriverException
+         */
+        abstract void read(long first, int count, Geometry[] block, int[] indexes, int[] triangles) throws DriverException;
+
+        /**
+         * The points of a table. The index of a point is its row number, the
+         * geometries that are not points are skipped.
+         * @param sds
+         * @return
+         * @throws DriverException
+         */
+        static DropletStartPoints fromTable(final DataSet sds) throws DriverException {
+                final int geomIndex = MetadataUtilities.getGeometryFieldIndex(sds.getMetadata());
+                final long rowCount = sds.getRowCount();
+                return new DropletStartPoints() {
+
+                        @Override
+                        long size() {
+                                return rowCount;
+                        }
+
+                        @Override
+                        void read(long first, int count, Geometry[] block, int[] indexes, int[] triangles) throws DriverException {
+                                for (int k = 0; k < count; k++) {
+                                        Geometry geom = sds.getGeometry(first + k, geomIndex);
+                                        block[k] = GeometryTypeUtil.isPoint(geom) ? geom : null;
+                                        indexes[k] = (int) (first + k);
+                                        triangles[k] = TINTopology.NO_ELEMENT;
+                                }
+                        }
+                };
+        }
+
+        /**
+         * The nodes of a regular grid over the extent of the TIN. The rows are
+         * travelled back and forth, so that two consecutive points are always
+         * neighbours. The index of a point is its rank, the points that are not
+         * on the TIN are skipped.
+         * @param index
+         * @param spacing the distance between two neighbour points, must be positive
+         * @return
+         * @throws FunctionException
+         *      if the grid has too many points.
+         */
+        static DropletStartPoints onGrid(final TriangleGridIndex index, final double spacing) throws FunctionException {
+                final double minX = index.getMinX();
+                final double minY = index.getMinY();
+                final long columns = (long) Math.floor((index.getMaxX() - minX) / spacing) + 1;
+                long rows = (long) Math.floor((index.getMaxY() - minY) / spacing) + 1;
+                final long size = columns * rows;
+                if (size > Integer.MAX_VALUE) {
+                        throw new FunctionException("The spacing of the start points is too small.");
+                }
+                return new DropletStartPoints() {
+
+                        @Override
+                        long size() {
+                                return size;
+                        }
+
+                        @Override
+                        void read(long first, int count, Geometry[] block, int[] indexes, int[] triangles) {
+                                for (int k = 0; k < count; k++) {
+                                        long rank = first + k;
+                                        long row = rank / columns;
+                                        long column = rank % columns;
+                                        if (row % 2 == 1) {
+                                                column = columns - 1 - column;
+                                        }
+                                        double x = minX + column * spacing;
+                                        double y = minY + row * spacing;
+                                        int triangle = index.locate(x, y);
+                                        if (triangle == TINTopology.NO_ELEMENT) {
+                                                block[k] = null;
+                                        } else {
+                                                block[k] = GF.createPoint(new Coordinate(x, y));
+                                        }
+                                        indexes[k] = (int) rank;
+                                        triangles[k] = triangle;
+                                }
+                        }
+                };
+        }
+
+        /**
+         * The barycenters of the triangles of the TIN. They are sorted by cell of
+         * the grid index, so that consecutive points are close to each other.
+         * The index of a point is the GID of its triangle.
+         * @param topology
+         * @param index
+         * @return
+         */
+        static DropletStartPoints onBarycenters(final TINTopology topology, TriangleGridIndex index) {
+                // Counting sort of the triangles on the cell of their barycenter
+                int bound = topology.getTriangleGIDBound();
+                int[] cells = new int[bound];
+                int cellCount = 0;
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                cells[gid] = index.getCell(getBarycenterX(topology, gid), getBarycenterY(topology, gid));
+                                cellCount = Math.max(cellCount, cells[gid] + 1);
+                        }
+                }
+                int[] offsets = new int[cellCount + 1];
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid) && cells[gid] >= 0) {
+                                offsets[cells[gid] + 1]++;
+                        }
+                }
+                for (int c = 0; c < cellCount; c++) {
+                        offsets[c + 1] += offsets[c];
+                }
+                final int[] order = new int[offsets[cellCount]];
+                for (int gid = 0; gid < bound; gid++) {
+                        if (topology.hasTriangle(gid) && cells[gid] >= 0) {
+                                order[offsets[cells[gid]]] = gid;
+                                offsets[cells[gid]]++;
+                        }
+                }
+                return new DropletStartPoints() {
+
+                        @Override
+                        long size() {
+                                return order.length;
+                        }
+
+                        @Override
+                        void read(long first, int count, Geometry[] block, int[] indexes, int[] triangles) {
+                                for (int k = 0; k < count; k++) {
+                                        int gid = order[(int) first + k];
+                                        block[k] = GF.createPoint(new Coordinate(getBarycenterX(topology, gid),
+                                                getBarycenterY(topology, gid)));
+                                        indexes[k] = gid;
+                                        triangles[k] = gid;
+                                }
+                        }
+                };
+        }
+
+        private static double getBarycenterX(TINTopology topology, int gid) {
+                return (topology.getPointX(topology.getTrianglePoint(gid, 0))
+                        + topology.getPointX(topology.getTrianglePoint(gid, 1))
+                        + topology.getPointX(topology.getTrianglePoint(gid, 2))) / 3;
+        }
+
+        private static double getBarycenterY(TINTopology topology, int gid) {
+                return (topology.getPointY(topology.getTrianglePoint(gid, 0))
+                        + topology.getPointY(topology.getTrianglePoint(gid, 1))
+                        + topology.getPointY(topology.getTrianglePoint(gid, 2))) / 3;
+        }
+}
@@ -35,16 +35,29 @@
  * or contact directly:
  * info_at_ orbisgis.org
  */
-
 package org.tanato.processing.sql;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.gdms.data.SQLDataSourceFactory;
 import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
 import org.gdms.sql.function.FunctionException;
-import org.gdms.data.NoSuchTableException;
-import org.gdms.data.indexes.IndexException;
 import org.gdms.data.schema.DefaultMetadata;
 import org.gdms.data.schema.Metadata;
 import org.gdms.data.types.Type;
@@ -59,22 +72,58 @@ import org.gdms.sql.function.table.AbstractTableFunction;
 import org.gdms.sql.function.table.TableArgument;
 import org.gdms.sql.function.table.TableDefinition;
 import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.NullProgressMonitor;
 import org.orbisgis.progress.ProgressMonitor;
 import org.tanato.basin.BasinBuilder;
+import org.tanato.basin.BasinPartWriter;
 import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
 
 /**
+ * Compute the basin graph of an element of a TIN.
+ *
+ * The element is given by its GID and its type (0 for a point, 1 for an edge).
+ * Many basins can be computed at once by giving, instead, a fourth table of
+ * outlets with a gid and a type field. The TIN is then loaded once, and the
+ * basins are computed concurrently by several threads if a number of threads
+ * is given. Each outlet gives a row with its basin, its GID and its type.
+ *
+ * In the nested mode, enabled with a boolean after the number of threads, the
+ * basin of an outlet stops at the other outlets it reaches, that are upstream
+ * of it. The basins are then merged from upstream to downstream, so each area
+ * is processed once even when the outlets are culverts along the same ditch.
+ * An edge outlet is only reached when the whole edge is in the basin.
+ * Each row then also gives the outlet the basin flows to, ie the GID and type
+ * of its parent in the nesting tree, or -1 for the last outlets.
+ *
+ * In the parts mode, enabled with a last boolean, the basins are not merged :
+ * each polygon and each line of a basin is written in its own row, in a table
+ * buffered on the disk, as soon as it is found. Each row gives the outlet, the
+ * kind of part, and the triangle and the edge the part comes from, or -1.
  *
  * @author alexis
  */
 public class ST_BasinGraph extends AbstractTableFunction  {
 
+        /**
+         * The name of the field that contains the type of the outlets.
+         */
+        public static final String TYPE_FIELD = "type";
+        /**
+         * The fields of the parent outlet, in the nested mode.
+         */
+        public static final String PARENT_GID_FIELD = "parent_gid";
+        public static final String PARENT_TYPE_FIELD = "parent_type";
+        /**
+         * The fields of the parts mode, and the values of the part field.
+         */
+        public static final String PART_FIELD = "part";
+        public static final String TRIANGLE_GID_FIELD = "triangle_gid";
+        public static final String EDGE_GID_FIELD = "edge_gid";
+        public static final String POLYGON_PART = "polygon";
+        public static final String LINE_PART = "line";
 
 	private static final Logger logger = Logger.getLogger(ST_BasinGraph.class.getName());
-	// Table informations to navigate
-	private DataSet sdsPoints = null;
-	private DataSet sdsEdges = null;
-	private DataSet sdsTriangles = null;
 	
 	@Override
 	public final DataSet evaluate(SQLDataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
@@ -83,32 +132,45 @@ public class ST_BasinGraph extends AbstractTableFunction  {
 		    throw new FunctionException("needs points, edges and triangles.");
 		} else {
 			try {
-				// First is points
-				sdsPoints =  tables[0];
-				if (!dsf.getIndexManager().isIndexed(sdsPoints, TINSchema.GID)) {
-					dsf.getIndexManager().buildIndex(sdsPoints, TINSchema.GID, pm);
+				// The TIN is loaded once, and only read by the builders.
+				TINTopology topology = new TINTopology(tables[0], tables[1], tables[2],
+					pm == null ? new NullProgressMonitor() : pm);
+				if (tables.length == 3) {
+					BasinBuilder bb = new BasinBuilder(topology, values[0].getAsInt(), values[1].getAsInt());
+					if (values.length > 2 && values[2].getAsBoolean()) {
+						DiskBufferDriver parts = new DiskBufferDriver(dsf, getPartsMetadata());
+						bb.setPartWriter(new PartWriter(parts, values[0].getAsInt(), values[1].getAsInt()));
+						try {
+							bb.computeBasin();
+						} catch (DriverException ex) {
+							parts.stop();
+							throw ex;
+						}
+						parts.writingFinished();
+						parts.start();
+						return parts;
+					}
+					bb.computeBasin();
+					logger.log(Level.INFO, "EdgeParts : {0} requeued, {1} dropped",
+						new Object[]{bb.getRequeueCount(), bb.getDroppedCount()});
+					Metadata md = new DefaultMetadata(
+						new Type[]{TypeFactory.createType(Type.GEOMETRY),},
+						new String[]{TINSchema.GEOM_FIELD});
+					MemoryDataSetDriver od = new MemoryDataSetDriver(md);
+					od.addValues(ValueFactory.createValue(bb.getBasin()));
+					return od;
 				}
-				sdsEdges = tables[1];
-				if (!dsf.getIndexManager().isIndexed(sdsEdges, TINSchema.GID)) {
-					dsf.getIndexManager().buildIndex(sdsEdges, TINSchema.GID, pm);
+				int threadCount = values.length > 0 ? values[0].getAsInt() : 1;
+				if (threadCount < 1) {
+					throw new FunctionException("The number of threads must be at least 1.");
 				}
-				sdsTriangles =tables[2];
-				if (!dsf.getIndexManager().isIndexed(sdsTriangles, TINSchema.GID)) {
-					dsf.getIndexManager().buildIndex(sdsTriangles, TINSchema.GID, pm);
+				boolean nested = values.length > 1 && values[1].getAsBoolean();
+				boolean parts = values.length > 2 && values[2].getAsBoolean();
+				if (nested && parts) {
+					throw new FunctionException("The nested mode can't be used with the parts output.");
 				}
-				BasinBuilder bb = new BasinBuilder(dsf, sdsPoints, sdsEdges, sdsTriangles,
-						values[0].getAsInt(), values[1].getAsInt());
-				bb.computeBasin();
-                                Metadata md = new DefaultMetadata(
-                                        new Type[]{TypeFactory.createType(Type.GEOMETRY),},
-                                        new String[]{TINSchema.GEOM_FIELD});
-                                MemoryDataSetDriver od = new MemoryDataSetDriver(md);
-                                od.addValues(ValueFactory.createValue(bb.getBasin()));
-                                return od;
-			} catch (NoSuchTableException ex) {
-				Logger.getLogger(ST_DropletPath.class.getName()).log(Level.SEVERE, null, ex);
-			} catch (IndexException ex) {
-				Logger.getLogger(ST_DropletPath.class.getName()).log(Level.SEVERE, null, ex);
+				return computeBasins(parts ? new DiskBufferDriver(dsf, getPartsMetadata()) : null,
+					topology, tables[3], threadCount, nested);
 			} catch (DriverException ex) {
 				logger.log(Level.SEVERE, "There has been an error while opening a table, or counting its lines.\n", ex);
 			}
@@ -116,6 +178,338 @@ public class ST_BasinGraph extends AbstractTableFunction  {
 		return null;
 	}
 
+	/**
+	 * Compute the basin of each outlet of the table outlets. Outlets are given
+	 * to the threads one by one, as basins do not have the same size. An
+	 * outlet that is not a point or an edge of the TIN is rejected. An
+	 * outlet whose basin can't be computed gets an empty geometry, except in
+	 * the parts mode, where the error stops the computation.
+	 * In the nested mode, the builders stop at the other outlets, and the
+	 * basins are merged once they have all been computed. If parts is not
+	 * null, the parts of the basins are written in it instead.
+	 * @param parts
+	 * @param topology
+	 * @param outlets
+	 * @param threadCount
+	 * @param nested
+	 * @return
+	 * @throws DriverException
+	 * @throws FunctionException
+	 */
+	private DataSet computeBasins(final DiskBufferDriver parts, final TINTopology topology, DataSet outlets,
+		int threadCount, final boolean nested) throws DriverException, FunctionException {
+		Metadata outMd = outlets.getMetadata();
+		int gidIndex = outMd.getFieldIndex(TINSchema.GID);
+		int typeIndex = outMd.getFieldIndex(TYPE_FIELD);
+		if (gidIndex < 0 || typeIndex < 0) {
+			throw new FunctionException("The outlets table needs a " + TINSchema.GID
+				+ " and a " + TYPE_FIELD + " field.");
+		}
+		final int count = (int) outlets.getRowCount();
+		final int[] gids = new int[count];
+		final int[] types = new int[count];
+		for (int i = 0; i < count; i++) {
+			gids[i] = outlets.getFieldValue(i, gidIndex).getAsInt();
+			types[i] = outlets.getFieldValue(i, typeIndex).getAsInt();
+			if (types[i] == BasinBuilder.TIN_POINT ? !topology.hasPoint(gids[i])
+				: types[i] != BasinBuilder.TIN_EDGE || !topology.hasEdge(gids[i])) {
+				throw new FunctionException("The outlet of the row " + i + " (" + TINSchema.GID + " "
+					+ gids[i] + ", " + TYPE_FIELD + " " + types[i]
+					+ ") is not a point (type 0) or an edge (type 1) of the TIN.");
+			}
+		}
+		final Geometry[] basins = new Geometry[count];
+		// The outlets reached by the basin of each outlet, in the nested mode.
+		final int[][] children = new int[count][];
+		final Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+		for (int i = count - 1; i >= 0; i--) {
+			indexes.put(getOutletKey(gids[i], types[i]), i);
+		}
+		// The outlets where the builders stop, shared by all of them.
+		final BitSet upstreamPoints = new BitSet();
+		final BitSet upstreamEdges = new BitSet();
+		if (nested) {
+			for (int i = 0; i < count; i++) {
+				if (types[i] == BasinBuilder.TIN_POINT) {
+					upstreamPoints.set(gids[i]);
+				} else if (types[i] == BasinBuilder.TIN_EDGE) {
+					upstreamEdges.set(gids[i]);
+				}
+			}
+		}
+		final AtomicInteger next = new AtomicInteger(0);
+		final AtomicLong requeued = new AtomicLong(0);
+		final AtomicLong dropped = new AtomicLong(0);
+		Callable<Void> task = new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				GeometryFactory gf = new GeometryFactory();
+				int k = next.getAndIncrement();
+				while (k < count) {
+					// Each builder has its own state, only the TIN is shared.
+					BasinBuilder bb = new BasinBuilder(topology, gids[k], types[k]);
+					if (nested) {
+						bb.setUpstreamOutlets(upstreamPoints, upstreamEdges);
+					}
+					if (parts != null) {
+						bb.setPartWriter(new PartWriter(parts, gids[k], types[k]));
+					}
+					children[k] = new int[0];
+					try {
+						bb.computeBasin();
+						basins[k] = bb.getBasin();
+						if (nested) {
+							children[k] = getReachedOutlets(bb, indexes);
+						}
+					} catch (DriverException ex) {
+						if (parts != null) {
+							// The parts table would miss rows.
+							throw ex;
+						}
+						logger.log(Level.WARNING, "Cannot compute the basin of the outlet " + gids[k], ex);
+						basins[k] = gf.createGeometryCollection(new Geometry[0]);
+					}
+					requeued.addAndGet(bb.getRequeueCount());
+					dropped.addAndGet(bb.getDroppedCount());
+					k = next.getAndIncrement();
+				}
+				return null;
+			}
+		};
+		try {
+			runTask(task, threadCount);
+		} catch (FunctionException ex) {
+			if (parts != null) {
+				parts.stop();
+			}
+			throw ex;
+		} catch (RuntimeException ex) {
+			if (parts != null) {
+				parts.stop();
+			}
+			throw ex;
+		}
+		logger.log(Level.INFO, "EdgeParts : {0} requeued, {1} dropped, for {2} outlets",
+			new Object[]{requeued.get(), dropped.get(), count});
+		if (parts != null) {
+			parts.writingFinished();
+			parts.start();
+			return parts;
+		} else if (nested) {
+			return mergeNestedBasins(basins, children, gids, types);
+		}
+		Metadata md = new DefaultMetadata(
+			new Type[]{TypeFactory.createType(Type.GEOMETRY),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT)},
+			new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TYPE_FIELD});
+		MemoryDataSetDriver od = new MemoryDataSetDriver(md);
+		for (int i = 0; i < count; i++) {
+			od.addValues(ValueFactory.createValue(basins[i]),
+				ValueFactory.createValue(gids[i]),
+				ValueFactory.createValue(types[i]));
+		}
+		return od;
+	}
+
+	/**
+	 * Run the task in the current thread, or in threadCount threads.
+	 * @param task
+	 * @param threadCount
+	 * @throws FunctionException
+	 */
+	private void runTask(Callable<Void> task, int threadCount) throws FunctionException {
+		if (threadCount == 1) {
+			try {
+				task.call();
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new FunctionException("Cannot compute the basins.", ex);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+			try {
+				List<Future<Void>> tasks = new ArrayList<Future<Void>>(threadCount);
+				for (int t = 0; t < threadCount; t++) {
+					tasks.add(executor.submit(task));
+				}
+				for (Future<Void> f : tasks) {
+					f.get();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new FunctionException("Basin processing has been interrupted.", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new FunctionException("Cannot compute the basins.", cause);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Merge the basin of each outlet with the basins of the outlets it has
+	 * reached. The outlets are processed in depth-first post-order, so that
+	 * upstream basins are complete when they are merged. If an outlet has been
+	 * reached from several ones, the first of the table is its parent.
+	 * @param basins
+	 * @param children
+	 * @param gids
+	 * @param types
+	 * @return
+	 * @throws DriverException
+	 */
+	private DataSet mergeNestedBasins(Geometry[] basins, int[][] children, int[] gids, int[] types)
+		throws DriverException {
+		int count = basins.length;
+		int[] parents = new int[count];
+		Arrays.fill(parents, -1);
+		for (int k = 0; k < count; k++) {
+			for (int c : children[k]) {
+				if (parents[c] == -1) {
+					parents[c] = k;
+				}
+			}
+		}
+		Geometry[] merged = new Geometry[count];
+		// 0 : not visited, 1 : on the stack, 2 : merged. Outlets that reach
+		// each other, on flat areas, are not merged twice.
+		byte[] states = new byte[count];
+		int[] stack = new int[count];
+		int[] positions = new int[count];
+		for (int root = 0; root < count; root++) {
+			if (states[root] != 0) {
+				continue;
+			}
+			int top = 0;
+			stack[top++] = root;
+			states[root] = 1;
+			while (top > 0) {
+				int k = stack[top - 1];
+				if (positions[k] < children[k].length) {
+					int c = children[k][positions[k]++];
+					if (states[c] == 0) {
+						states[c] = 1;
+						stack[top++] = c;
+					}
+				} else {
+					top--;
+					List<Geometry> parts = new ArrayList<Geometry>(children[k].length + 1);
+					parts.add(basins[k]);
+					for (int c : children[k]) {
+						if (states[c] == 2) {
+							parts.add(merged[c]);
+						}
+					}
+					merged[k] = parts.size() == 1 ? basins[k] : BasinBuilder.mergeBasins(parts);
+					states[k] = 2;
+				}
+			}
+		}
+		Metadata md = new DefaultMetadata(
+			new Type[]{TypeFactory.createType(Type.GEOMETRY),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT)},
+			new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TYPE_FIELD,
+				PARENT_GID_FIELD, PARENT_TYPE_FIELD});
+		MemoryDataSetDriver od = new MemoryDataSetDriver(md);
+		for (int i = 0; i < count; i++) {
+			int parent = parents[i];
+			od.addValues(ValueFactory.createValue(merged[i]),
+				ValueFactory.createValue(gids[i]),
+				ValueFactory.createValue(types[i]),
+				ValueFactory.createValue(parent == -1 ? -1 : gids[parent]),
+				ValueFactory.createValue(parent == -1 ? -1 : types[parent]));
+		}
+		return od;
+	}
+
+	/**
+	 * Get the indexes, in the outlets table, of the outlets reached by the builder.
+	 * @param bb
+	 * @param indexes
+	 * @return
+	 */
+	private static int[] getReachedOutlets(BasinBuilder bb, Map<Long, Integer> indexes) {
+		List<Integer> points = bb.getReachedOutlets(BasinBuilder.TIN_POINT);
+		List<Integer> edges = bb.getReachedOutlets(BasinBuilder.TIN_EDGE);
+		int[] ret = new int[points.size() + edges.size()];
+		int i = 0;
+		for (int gid : points) {
+			ret[i++] = indexes.get(getOutletKey(gid, BasinBuilder.TIN_POINT));
+		}
+		for (int gid : edges) {
+			ret[i++] = indexes.get(getOutletKey(gid, BasinBuilder.TIN_EDGE));
+		}
+		return ret;
+	}
+
+	private static long getOutletKey(int gid, int type) {
+		return ((long) type << 32) | (gid & 0xffffffffL);
+	}
+
+	/**
+	 * Get the metadata of the table written in the parts mode.
+	 * @return
+	 */
+	private static Metadata getPartsMetadata() {
+		return new DefaultMetadata(
+			new Type[]{TypeFactory.createType(Type.GEOMETRY),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.STRING),
+				TypeFactory.createType(Type.INT),
+				TypeFactory.createType(Type.INT)},
+			new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TYPE_FIELD, PART_FIELD,
+				TRIANGLE_GID_FIELD, EDGE_GID_FIELD});
+	}
+
+	/**
+	 * Writes the parts of the basin of an outlet in the parts table. The table
+	 * is shared by the builders, the rows are added one at a time.
+	 */
+	private static final class PartWriter implements BasinPartWriter {
+
+		private final DiskBufferDriver parts;
+		private final Value gid;
+		private final Value type;
+
+		PartWriter(DiskBufferDriver parts, int gid, int type) {
+			this.parts = parts;
+			this.gid = ValueFactory.createValue(gid);
+			this.type = ValueFactory.createValue(type);
+		}
+
+		@Override
+		public void writePolygon(Geometry polygon, int triangleGID) throws DriverException {
+			write(polygon, POLYGON_PART, triangleGID, TINTopology.NO_ELEMENT);
+		}
+
+		@Override
+		public void writeLine(Geometry line, int triangleGID, int edgeGID) throws DriverException {
+			write(line, LINE_PART, triangleGID, edgeGID);
+		}
+
+		private void write(Geometry geom, String part, int triangleGID, int edgeGID) throws DriverException {
+			synchronized (parts) {
+				parts.addValues(ValueFactory.createValue(geom), gid, type,
+					ValueFactory.createValue(part),
+					ValueFactory.createValue(triangleGID),
+					ValueFactory.createValue(edgeGID));
+			}
+		}
+	}
+
 	@Override
 	public final String getName() {
 		return "ST_BasinGraph";
@@ -123,12 +517,12 @@ public class ST_BasinGraph extends AbstractTableFunction  {
 
 	@Override
 	public final String getDescription() {
-		return "Compute the basin graph of an element of a TIN DEM";
+		return "Compute the basin graph of an element of a TIN DEM, or of each outlet of a table";
 	}
 
 	@Override
 	public final String getSqlOrder() {
-		return "CALL ST_BasinGraph(555,0, points, edges, triangles);";
+		return "CALL ST_BasinGraph(555,0[, parts], points, edges, triangles); or CALL ST_BasinGraph([threads[, nested[, parts]],] points, edges, triangles, outlets);";
 	}
 
 	public final Metadata getMetadata(Metadata[] tables) throws DriverException {
@@ -148,7 +542,45 @@ public class ST_BasinGraph extends AbstractTableFunction  {
                         ScalarArgument.INT,
                         new TableArgument(TableDefinition.GEOMETRY),
                         new TableArgument(TableDefinition.GEOMETRY),
-                        new TableArgument(TableDefinition.GEOMETRY))};
+                        new TableArgument(TableDefinition.GEOMETRY)),
+                        new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        ScalarArgument.INT, 
+                        ScalarArgument.INT,
+                        ScalarArgument.BOOLEAN,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY)),
+                        new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.ANY)),
+                        new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        ScalarArgument.INT,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.ANY)),
+                        new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        ScalarArgument.INT,
+                        ScalarArgument.BOOLEAN,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.ANY)),
+                        new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        ScalarArgument.INT,
+                        ScalarArgument.BOOLEAN,
+                        ScalarArgument.BOOLEAN,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.ANY))};
         }
         
 }
@@ -39,13 +39,21 @@ package org.tanato.processing.sql;
 
 import com.vividsolutions.jts.geom.Geometry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.data.SQLDataSourceFactory;
 import org.gdms.data.schema.DefaultMetadata;
 import org.gdms.data.schema.Metadata;
-import org.gdms.data.schema.MetadataUtilities;
 import org.gdms.data.types.GeometryDimensionConstraint;
 import org.gdms.data.types.Type;
 import org.gdms.data.types.TypeFactory;
@@ -53,15 +61,12 @@ import org.gdms.data.values.Value;
 import org.gdms.driver.DataSet;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
-import org.gdms.geometryUtils.GeometryTypeUtil;
 import org.gdms.sql.function.FunctionSignature;
 import org.gdms.sql.function.ScalarArgument;
 import org.gdms.sql.function.table.AbstractTableFunction;
 import org.gdms.sql.function.table.TableArgument;
 import org.gdms.sql.function.table.TableDefinition;
 import org.gdms.sql.function.table.TableFunctionSignature;
-import org.jdelaunay.delaunay.geometries.DPoint;
-import org.jdelaunay.delaunay.error.DelaunayError;
 import org.orbisgis.progress.ProgressMonitor;
 import org.tanato.model.TINSchema;
 
@@ -69,42 +74,160 @@ import org.tanato.model.TINSchema;
  * This class designs a custom query for GDMS. The goal of the query is to process
  * a droplet path on an existing triangularization.
  *
+ * The start points are given by a fourth table. Without it, the last value is
+ * the spacing of a grid of start points generated over the TIN, or 0 to start
+ * a droplet from the barycenter of each triangle.
+ *
+ * After the number of threads, an optional tolerance simplifies the paths :
+ * the vertices where the droplet crosses a triangle are removed when they lie
+ * at less than this distance from the simplified path. Points of the TIN, edge
+ * entries and crossings of edges with a property are kept.
  *
  * @author kwyhr, alexis
  */
 public abstract class ST_DropletAbstract extends AbstractTableFunction {
 
         DiskBufferDriver writer = null;
+        // Number of start points read at once, for each thread.
+        private static final int BLOCK_SIZE_PER_THREAD = 64;
 
         @Override
         public DataSet evaluate(SQLDataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
+                ExecutorService executor = null;
+                DropletPathWriter pathWriter = null;
                 try {
                         pm.startTask("Processing runoff path", 100);
 
+                        // Without a table of start points, the last value is the
+                        // spacing of the start points to generate.
+                        boolean generated = tables.length == 3;
+                        double spacing = 0;
+                        if (generated) {
+                                if (values.length == 0) {
+                                        throw new FunctionException("The spacing of the start points is missing.");
+                                }
+                                spacing = values[values.length - 1].getAsDouble();
+                                if (spacing < 0) {
+                                        throw new FunctionException("The spacing of the start points must be positive.");
+                                }
+                                values = Arrays.copyOf(values, values.length - 1);
+                        }
+
+                        // The third value, if any, is the number of threads and
+                        // the fourth one the simplification tolerance.
+                        // The others are given to the droplet follower.
+                        int threadCount = 1;
+                        double tolerance = -1;
+                        Value[] followerValues = values;
+                        if (values.length >= 3) {
+                                threadCount = values[2].getAsInt();
+                                if (threadCount < 1) {
+                                        throw new FunctionException("The number of threads must be at least 1.");
+                                }
+                                followerValues = new Value[]{values[0], values[1]};
+                        }
+                        if (values.length >= 4) {
+                                tolerance = values[3].getAsDouble();
+                                if (tolerance < 0) {
+                                        throw new FunctionException("The simplification tolerance must be positive.");
+                                }
+                        }
+
                         // Generate Droplet element
-                        DropletFollower dropletFollower = new DropletFollower(dsf, tables, values, pm);
+                        DropletFollower dropletFollower = new DropletFollower(dsf, tables, followerValues, pm);
+
+                        // Each thread gets its own follower, they all share the TIN.
+                        DropletFollower[] followers = new DropletFollower[threadCount];
+                        followers[0] = dropletFollower;
+                        for (int t = 1; t < threadCount; t++) {
+                                followers[t] = new DropletFollower(dropletFollower);
+                        }
+                        if (threadCount > 1) {
+                                executor = Executors.newFixedThreadPool(threadCount);
+                        }
 
                         // Create writer
                         writer = new DiskBufferDriver(dsf, getMetadata(null));
 
                         // Get points to process
-                        DataSet sds = tables[3];
-                        int geomIndex = MetadataUtilities.getGeometryFieldIndex(sds.getMetadata());
-                        long rowCount = sds.getRowCount();
-                        for (int i = 0; i < rowCount; i++) {
+                        DropletStartPoints startPoints;
+                        if (!generated) {
+                                startPoints = DropletStartPoints.fromTable(tables[3]);
+                        } else if (spacing > 0) {
+                                startPoints = DropletStartPoints.onGrid(dropletFollower.getTriangleIndex(), spacing);
+                        } else {
+                                startPoints = DropletStartPoints.onBarycenters(dropletFollower.getTopology(),
+                                        dropletFollower.getTriangleIndex());
+                        }
+                        long rowCount = startPoints.size();
+                        int blockSize = threadCount * BLOCK_SIZE_PER_THREAD;
+                        Geometry[] block = new Geometry[blockSize];
+                        int[] indexes = new int[blockSize];
+                        int[] triangles = new int[blockSize];
+                        AtomicReferenceArray<DropletPathWriter.Slot> results = new AtomicReferenceArray<DropletPathWriter.Slot>(blockSize);
+                        // Paths are written by another thread. A block can be
+                        // computed while the previous one is written.
+                        pathWriter = new DropletPathWriter(this, 2 * blockSize);
+                        for (long first = 0; first < rowCount; first += blockSize) {
                                 if (pm.isCancelled()) {
                                         break;
                                 }
                                 // Alter progression bar
-                                pm.progressTo((int) (100 * i / rowCount));
+                                pm.progressTo((int) (100 * first / rowCount));
 
-                                Geometry geom = sds.getGeometry(i, geomIndex);
-                                if (GeometryTypeUtil.isPoint(geom)) {
-                                        // We have the right geometry - Generate path and save it
-                                        ArrayList<DPoint> result = dropletFollower.getPath(geom);
-                                        saveDropletData(i, geom, result);
+                                // Start points are read here, paths are computed
+                                // by the followers and written in the order of the
+                                // start points.
+                                int count = (int) Math.min(blockSize, rowCount - first);
+                                startPoints.read(first, count, block, indexes, triangles);
+                                if (executor == null) {
+                                        // The path is written as soon as it is computed
+                                        for (int k = 0; k < count; k++) {
+                                                if (block[k] != null) {
+                                                        // We have the right geometry - Generate path and save it
+                                                        DropletPathWriter.Slot slot = pathWriter.take();
+                                                        slot.set(indexes[k], block[k], dropletFollower.getPath(block[k], triangles[k]), tolerance);
+                                                        pathWriter.write(slot);
+                                                }
+                                        }
+                                } else {
+                                        processBlock(executor, followers, block, indexes, triangles, count, tolerance, results, pathWriter);
+                                        for (int k = 0; k < count; k++) {
+                                                if (block[k] != null) {
+                                                        // We have the right geometry - save its path
+                                                        pathWriter.write(results.get(k));
+                                                }
+                                                results.set(k, null);
+                                        }
                                 }
                         }
+                        pathWriter.finish();
+
+                        DropletPathCache cache = dropletFollower.getPathCache();
+                        Logger.getLogger(ST_DropletAbstract.class.getName()).log(Level.INFO,
+                                "Droplet path cache : {0} hits for {1} lookups, {2} points reused",
+                                new Object[]{cache.getHits(), cache.getLookups(), cache.getReusedPoints()});
+                        ChannelChainIndex chains = dropletFollower.getChannelChains();
+                        if (chains != null) {
+                                Logger.getLogger(ST_DropletAbstract.class.getName()).log(Level.INFO,
+                                        "Channel chains : {0} edges, built in {1} ms, {2} bytes",
+                                        new Object[]{chains.getChannelEdgeCount(), chains.getBuildTime() / 1000000,
+                                                chains.getMemorySize()});
+                        }
+                        WallChainIndex walls = dropletFollower.getWallChains();
+                        if (walls != null) {
+                                Logger.getLogger(ST_DropletAbstract.class.getName()).log(Level.INFO,
+                                        "Wall chains : {0} edges, built in {1} ms, {2} bytes",
+                                        new Object[]{walls.getWallEdgeCount(), walls.getBuildTime() / 1000000,
+                                                walls.getMemorySize()});
+                        }
+                        SewerNetwork sewers = dropletFollower.getSewers();
+                        if (sewers != null) {
+                                Logger.getLogger(ST_DropletAbstract.class.getName()).log(Level.INFO,
+                                        "Sewer network : {0} routes for {1} inputs, built in {2} ms, {3} bytes",
+                                        new Object[]{sewers.getRouteCount(), sewers.getInputCount(),
+                                                sewers.getBuildTime() / 1000000, sewers.getMemorySize()});
+                        }
 
                         dropletFollower.closeData();
                         writer.writingFinished();
@@ -112,14 +235,88 @@ public abstract class ST_DropletAbstract extends AbstractTableFunction {
                         pm.endTask();
 
                         return writer;
-                } catch (DelaunayError ex) {
-                        Logger.getLogger(ST_DropletLine.class.getName()).log(Level.SEVERE, null, ex);
                 } catch (DriverException ex) {
                         Logger.getLogger(ST_DropletLine.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new FunctionException("Droplet processing has been interrupted.", ex);
+                } finally {
+                        if (executor != null) {
+                                executor.shutdownNow();
+                        }
+                        if (pathWriter != null) {
+                                pathWriter.close();
+                        }
                 }
                 return null;
         }
 
+        /**
+         * Compute the paths of the count first points of block, each follower
+         * being used in its own task. Points that are null are skipped. The
+         * paths are copied in slots of pathWriter.
+         * @param executor
+         * @param followers
+         * @param block
+         * @param indexes
+         * @param triangles
+         * @param count
+         * @param tolerance the simplification tolerance, negative to keep all the vertices
+         * @param results
+         * @param pathWriter
+         * @throws FunctionException
+         * @throws DriverException
+         */
+        private void processBlock(ExecutorService executor, DropletFollower[] followers, final Geometry[] block,
+                final int[] indexes, final int[] triangles, final int count, final double tolerance,
+                final AtomicReferenceArray<DropletPathWriter.Slot> results,
+                final DropletPathWriter pathWriter)
+                throws FunctionException, DriverException {
+                // Points are given to the threads one by one, as paths do not
+                // have the same length.
+                final AtomicInteger next = new AtomicInteger(0);
+                List<Future<Void>> tasks = new ArrayList<Future<Void>>(followers.length);
+                for (final DropletFollower follower : followers) {
+                        tasks.add(executor.submit(new Callable<Void>() {
+
+                                @Override
+                                public Void call() throws Exception {
+                                        int k = next.getAndIncrement();
+                                        while (k < count) {
+                                                if (block[k] != null) {
+                                                        // The follower reuses its path, we keep a copy
+                                                        DropletPathWriter.Slot slot = pathWriter.take();
+                                                        slot.set(indexes[k], block[k], follower.getPath(block[k], triangles[k]), tolerance);
+                                                        results.set(k, slot);
+                                                }
+                                                k = next.getAndIncrement();
+                                        }
+                                        return null;
+                                }
+                        }));
+                }
+                try {
+                        for (Future<Void> task : tasks) {
+                                task.get();
+                        }
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new FunctionException("Droplet processing has been interrupted.", ex);
+                } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof FunctionException) {
+                                throw (FunctionException) cause;
+                        } else if (cause instanceof DriverException) {
+                                throw (DriverException) cause;
+                        } else if (cause instanceof RuntimeException) {
+                                throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                                throw (Error) cause;
+                        }
+                        throw new FunctionException("Cannot process droplet path.", cause);
+                }
+        }
+
         @Override
         public void workFinished() throws DriverException {
                 if (writer != null) {
@@ -157,6 +354,42 @@ public abstract class ST_DropletAbstract extends AbstractTableFunction {
                                 TableArgument.GEOMETRY,
                                 TableArgument.GEOMETRY,
                                 TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.INT,
+                                ScalarArgument.INT,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.INT,
+                                ScalarArgument.INT, ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                // The start points are generated
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.INT,
+                                ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.INT,
+                                ScalarArgument.INT, ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY),
+                                new TableFunctionSignature(TableDefinition.SPATIAL, ScalarArgument.INT, ScalarArgument.INT,
+                                ScalarArgument.INT, ScalarArgument.DOUBLE, ScalarArgument.DOUBLE,
+                                TableArgument.GEOMETRY,
+                                TableArgument.GEOMETRY,
                                 TableArgument.GEOMETRY)};
         }
 
@@ -167,5 +400,5 @@ public abstract class ST_DropletAbstract extends AbstractTableFunction {
          * @param geom
          * @param result 
          */
-        protected abstract void saveDropletData(int index, Geometry geom, ArrayList<DPoint> result) throws DriverException;
+        protected abstract void saveDropletData(int index, Geometry geom, DropletPath result) throws DriverException;
 }
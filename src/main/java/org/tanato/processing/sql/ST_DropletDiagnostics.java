@@ -0,0 +1,124 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.GeometryDimensionConstraint;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DriverException;
+import org.tanato.model.TINSchema;
+
+/**
+ * This class designs a custom query for GDMS. It takes the same arguments as
+ * ST_DropletLine and ST_DropletPath, and gives, for each start point, what the
+ * droplet has gone through, why it has stopped and the time it has taken.
+ *
+ * @author alexis
+ */
+public class ST_DropletDiagnostics extends ST_DropletAbstract {
+
+        public static final String ELEMENTS_FIELD = "elements";
+        public static final String TRIANGLES_FIELD = "triangles";
+        public static final String EDGES_FIELD = "edges";
+        public static final String POINTS_FIELD = "points";
+        public static final String STAGNATION_FIELD = "stagnation";
+        public static final String REUSED_FIELD = "reused";
+        public static final String END_REASON_FIELD = "end_reason";
+        public static final String LENGTH_FIELD = "length";
+        public static final String DURATION_FIELD = "duration_ns";
+
+        @Override
+        public final String getName() {
+                return "ST_DropletDiagnostics";
+        }
+
+        @Override
+        public final String getDescription() {
+                return "get, for each droplet, the number of elements crossed, the reason why it stops and the time spent.";
+        }
+
+        @Override
+        public final String getSqlOrder() {
+                return "SELECT * FROM ST_DropletDiagnostics([autorizedProperties [, endingproperties [, threads [, tolerance]]],] {spacing | 0}, out_point, out_edges, out_triangles) or ST_DropletDiagnostics([autorizedProperties [, endingproperties [, threads [, tolerance]]],] out_point, out_edges, out_triangles, startPoints)";
+        }
+
+        @Override
+        public Metadata getMetadata(Metadata[] tables) throws DriverException {
+                Metadata md = new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(
+                                        Type.GEOMETRY,
+                                        new GeometryDimensionConstraint(GeometryDimensionConstraint.DIMENSION_POINT)),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.STRING),
+                                TypeFactory.createType(Type.DOUBLE),
+                                TypeFactory.createType(Type.LONG)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, ELEMENTS_FIELD, TRIANGLES_FIELD,
+                                EDGES_FIELD, POINTS_FIELD, STAGNATION_FIELD, REUSED_FIELD, END_REASON_FIELD,
+                                LENGTH_FIELD, DURATION_FIELD});
+                return md;
+        }
+
+        @Override
+        protected void saveDropletData(int index, Geometry geom, DropletPath result) throws DriverException {
+                if (result != null) {
+                        DropletDiagnostics diagnostics = result.getDiagnostics();
+                        writer.addValues(new Value[]{ValueFactory.createValue(geom),
+                                        ValueFactory.createValue(index),
+                                        ValueFactory.createValue(diagnostics.getElementCount()),
+                                        ValueFactory.createValue(diagnostics.getTriangleCount()),
+                                        ValueFactory.createValue(diagnostics.getEdgeCount()),
+                                        ValueFactory.createValue(diagnostics.getPointCount()),
+                                        ValueFactory.createValue(diagnostics.getStagnationCount()),
+                                        ValueFactory.createValue(diagnostics.getReusedPointCount()),
+                                        ValueFactory.createValue(diagnostics.getEndReasonName()),
+                                        ValueFactory.createValue(diagnostics.getLength()),
+                                        ValueFactory.createValue(diagnostics.getDuration())});
+                }
+        }
+}
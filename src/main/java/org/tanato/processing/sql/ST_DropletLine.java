@@ -43,7 +43,6 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
-import java.util.ArrayList;
 import org.gdms.data.schema.DefaultMetadata;
 import org.gdms.data.schema.Metadata;
 import org.gdms.data.types.GeometryDimensionConstraint;
@@ -53,7 +52,6 @@ import org.gdms.data.types.TypeFactory;
 import org.gdms.data.values.Value;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DriverException;
-import org.jdelaunay.delaunay.geometries.DPoint;
 import org.tanato.model.TINSchema;
 
 /**
@@ -77,7 +75,7 @@ public class ST_DropletLine extends ST_DropletAbstract {
 
         @Override
         public final String getSqlOrder() {
-                return "SELECT * FROM ST_DropletLine([autorizedProperties [, endingproperties],] out_point, out_edges, out_triangles, startPoints)";
+                return "SELECT * FROM ST_DropletLine([autorizedProperties [, endingproperties [, threads [, tolerance]]],] {spacing | 0}, out_point, out_edges, out_triangles) or ST_DropletLine([autorizedProperties [, endingproperties [, threads [, tolerance]]],] out_point, out_edges, out_triangles, startPoints)";
         }
 
 		@Override
@@ -94,17 +92,15 @@ public class ST_DropletLine extends ST_DropletAbstract {
         }
         
         @Override
-        protected void saveDropletData(int index, Geometry geom, ArrayList<DPoint> result) throws DriverException {
+        protected void saveDropletData(int index, Geometry geom, DropletPath result) throws DriverException {
                 if (result != null) {
                         int resultSize = result.size();
                         if (resultSize > 1) {
                                 // Process points to build a line
                                 GeometryFactory gf = new GeometryFactory();
                                 Coordinate[] coords = new Coordinate[resultSize];
-                                int k = 0;
-                                for (DPoint aPoint : result) {
-                                        coords[k] = aPoint.getCoordinate();
-                                        k++;
+                                for (int k = 0; k < resultSize; k++) {
+                                        coords[k] = result.getCoordinate(k);
                                 }
 
                                 // save line
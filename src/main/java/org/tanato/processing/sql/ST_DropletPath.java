@@ -38,11 +38,9 @@
 package org.tanato.processing.sql;
 
 import com.vividsolutions.jts.geom.Geometry;
-import java.util.ArrayList;
 import org.gdms.data.values.Value;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DriverException;
-import org.jdelaunay.delaunay.geometries.DPoint;
 
 /**
  * This class designs a custom query for GDMS. The goal of the query is to process
@@ -65,18 +63,16 @@ public class ST_DropletPath extends ST_DropletAbstract {
 
         @Override
         public final String getSqlOrder() {
-                return "SELECT ST_DropletPath([autorizedProperties [, endingproperties]]) FROM out_point, out_edges, out_triangles, startPoints";
+                return "SELECT ST_DropletPath([autorizedProperties [, endingproperties [, threads [, tolerance]]]]) FROM out_point, out_edges, out_triangles, startPoints or SELECT ST_DropletPath([autorizedProperties [, endingproperties [, threads [, tolerance]]],] {spacing | 0}) FROM out_point, out_edges, out_triangles";
         }
 
         @Override
-        protected void saveDropletData(int index, Geometry geom, ArrayList<DPoint> result) throws DriverException {
+        protected void saveDropletData(int index, Geometry geom, DropletPath result) throws DriverException {
                 if (result != null) {
                         // Process all coordinates and save each point
-                        int k = 0;
-                        for (DPoint aPoint : result) {
-                                writer.addValues(new Value[]{ValueFactory.createValue(geom.getFactory().createPoint(aPoint.getCoordinate())), ValueFactory.createValue(index),
+                        for (int k = 0; k < result.size(); k++) {
+                                writer.addValues(new Value[]{ValueFactory.createValue(geom.getFactory().createPoint(result.getCoordinate(k))), ValueFactory.createValue(index),
                                                 ValueFactory.createValue(k)});
-                                k++;
                         }
                 }
         }
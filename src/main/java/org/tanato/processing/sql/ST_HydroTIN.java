@@ -425,7 +425,7 @@ public class ST_HydroTIN extends AbstractExecutorFunction {
         }
 
         private void registerTriangles(final String name, final SQLDataSourceFactory dsf,
-                final ConstrainedMesh mesh) throws IOException, DriverException {
+                final ConstrainedMesh mesh) throws IOException, DriverException, DelaunayError {
                 final String acName = dsf.getSourceManager().getUniqueName(name);
                 File out = new File(acName + ".gdms");
                 GdmsWriter writer = new GdmsWriter(out);
@@ -440,10 +440,18 @@ public class ST_HydroTIN extends AbstractExecutorFunction {
                                 TypeFactory.createType(Type.INT),
                                 TypeFactory.createType(Type.INT),
                                 TypeFactory.createType(Type.INT),
-                                TypeFactory.createType(Type.INT)},
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.DOUBLE),
+                                TypeFactory.createType(Type.DOUBLE),
+                                TypeFactory.createType(Type.DOUBLE),
+                                TypeFactory.createType(Type.BOOLEAN),
+                                TypeFactory.createType(Type.BOOLEAN),
+                                TypeFactory.createType(Type.BOOLEAN)},
                         new String[]{"the_geom", TINSchema.GID,
                                 TINSchema.HEIGHT_FIELD, TINSchema.PROPERTY_FIELD, TINSchema.GID_SOURCE_FIELD,
-                                TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD, TINSchema.EDGE_2_GID_FIELD});
+                                TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD, TINSchema.EDGE_2_GID_FIELD,
+                                TINSchema.STEEPEST_X_FIELD, TINSchema.STEEPEST_Y_FIELD, TINSchema.SLOPE_FIELD,
+                                TINSchema.TO_EDGE_0_FIELD, TINSchema.TO_EDGE_1_FIELD, TINSchema.TO_EDGE_2_FIELD});
 
 
                 int triangleCount = mesh.getTriangleList().size();
@@ -462,6 +470,10 @@ public class ST_HydroTIN extends AbstractExecutorFunction {
                         Polygon poly = new Polygon(lr, null, gf);
                         MultiPolygon mp = new MultiPolygon(new Polygon[]{poly}, gf);
 
+                        // The slopes are computed here once, so that the functions
+                        // that use the TIN don't have to compute them again.
+                        DPoint steepest = dt.getSteepestVector();
+                        boolean flat = dt.isFlatSlope();
                         writer.addValues(new Value[]{ValueFactory.createValue(mp),
                                         ValueFactory.createValue(dt.getGID()),
                                         ValueFactory.createValue(dt.getHeight()),
@@ -469,7 +481,13 @@ public class ST_HydroTIN extends AbstractExecutorFunction {
                                         ValueFactory.createValue(dt.getExternalGID()),
                                         ValueFactory.createValue(dt.getEdge(0).getGID()),
                                         ValueFactory.createValue(dt.getEdge(1).getGID()),
-                                        ValueFactory.createValue(dt.getEdge(2).getGID())});
+                                        ValueFactory.createValue(dt.getEdge(2).getGID()),
+                                        ValueFactory.createValue(steepest.getX()),
+                                        ValueFactory.createValue(steepest.getY()),
+                                        ValueFactory.createValue(dt.getSlope()),
+                                        ValueFactory.createValue(!flat && dt.isTopoOrientedToEdge(dt.getEdge(0))),
+                                        ValueFactory.createValue(!flat && dt.isTopoOrientedToEdge(dt.getEdge(1))),
+                                        ValueFactory.createValue(!flat && dt.isTopoOrientedToEdge(dt.getEdge(2)))});
                 }
                 // write the row indexes
                 writer.writeRowIndexes();
@@ -69,6 +69,10 @@ public class ST_TINSlopeDirection extends AbstractScalarFunction {
         public final Value evaluate(SQLDataSourceFactory dsf, Value... values) throws FunctionException {
                 try {
                         Geometry geom = values[0].getAsGeometry();
+                        if (values.length == 3 && !values[1].isNull() && !values[2].isNull()) {
+                                // The steepest vector has been stored by ST_HydroTIN
+                                return getSlopeDirection(geom, values[1].getAsDouble(), values[2].getAsDouble());
+                        }
                         DTriangle dTriangle = TINFeatureFactory.createDTriangle(geom);
                         DPoint pointIntersection = dTriangle.getSteepestIntersectionPoint(dTriangle.getBarycenter());
                         if (pointIntersection != null) {
@@ -84,6 +88,42 @@ public class ST_TINSlopeDirection extends AbstractScalarFunction {
 
         }
 
+        /**
+         * Build the line that goes from the barycenter of the triangle to its
+         * border, following the vector (dx, dy).
+         * @param geom
+         * @param dx
+         * @param dy
+         * @return
+         */
+        private Value getSlopeDirection(Geometry geom, double dx, double dy) {
+                Coordinate[] coords = geom.getCoordinates();
+                if (coords.length < 3) {
+                        return ValueFactory.createNullValue();
+                }
+                Coordinate barycenter = new Coordinate(
+                        (coords[0].x + coords[1].x + coords[2].x) / 3,
+                        (coords[0].y + coords[1].y + coords[2].y) / 3,
+                        (coords[0].z + coords[1].z + coords[2].z) / 3);
+                for (int i = 0; i < 3; i++) {
+                        Coordinate p1 = coords[i];
+                        Coordinate p2 = coords[(i + 1) % 3];
+                        double ex = p2.x - p1.x;
+                        double ey = p2.y - p1.y;
+                        double det = ex * dy - ey * dx;
+                        if (det != 0) {
+                                // barycenter + t * (dx, dy) = p1 + u * (ex, ey)
+                                double t = (ex * (p1.y - barycenter.y) - ey * (p1.x - barycenter.x)) / det;
+                                double u = (dx * (p1.y - barycenter.y) - dy * (p1.x - barycenter.x)) / det;
+                                if (t > 0 && u >= 0 && u <= 1) {
+                                        Coordinate end = new Coordinate(p1.x + u * ex, p1.y + u * ey, p1.z + u * (p2.z - p1.z));
+                                        return ValueFactory.createValue(gf.createLineString(new Coordinate[]{barycenter, end}));
+                                }
+                        }
+                }
+                return ValueFactory.createNullValue();
+        }
+
         @Override
         public final String getName() {
                 return "ST_TINSlopeDirection";
@@ -102,7 +142,7 @@ public class ST_TINSlopeDirection extends AbstractScalarFunction {
 
         @Override
         public final String getSqlOrder() {
-                return "SELECT ST_TINSlopeDirection(the_geom) FROM table";
+                return "SELECT ST_TINSlopeDirection(the_geom [, steepest_dx, steepest_dy]) FROM table";
         }
 
         @Override
@@ -113,6 +153,12 @@ public class ST_TINSlopeDirection extends AbstractScalarFunction {
                                 Type.GEOMETRY, 
                                 new GeometryDimensionConstraint(GeometryDimensionConstraint.DIMENSION_LINE)
                         ),
-                        ScalarArgument.GEOMETRY)};
+                        ScalarArgument.GEOMETRY),
+                 new BasicFunctionSignature(
+                        TypeFactory.createType(
+                                Type.GEOMETRY,
+                                new GeometryDimensionConstraint(GeometryDimensionConstraint.DIMENSION_LINE)
+                        ),
+                        ScalarArgument.GEOMETRY, ScalarArgument.DOUBLE, ScalarArgument.DOUBLE)};
         }
 }
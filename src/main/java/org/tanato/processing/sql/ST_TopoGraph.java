@@ -37,7 +37,6 @@
  */
 package org.tanato.processing.sql;
 
-import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.gdms.data.SQLDataSourceFactory;
@@ -92,8 +91,6 @@ public class ST_TopoGraph extends AbstractExecutorFunction {
                         topographicGraph.createGraph(pm);
                 } catch (DriverException ex) {
                         Logger.getLogger(ST_TopoGraph.class.getName()).log(Level.SEVERE, null, ex);
-                } catch (IOException ex) {
-                        Logger.getLogger(ST_TopoGraph.class.getName()).log(Level.SEVERE, null, ex);
                 } catch (NoSuchTableException ex) {
                         Logger.getLogger(ST_TopoGraph.class.getName()).log(Level.SEVERE, null, ex);
                 } catch (IndexException ex) {
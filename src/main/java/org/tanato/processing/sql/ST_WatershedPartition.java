@@ -0,0 +1,248 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.gdms.data.SQLDataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.FunctionSignature;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.orbisgis.progress.ProgressMonitor;
+import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
+import org.tanato.model.WatershedPartition;
+
+/**
+ * Compute the watersheds of a whole TIN at once, see WatershedPartition.
+ *
+ * By default, the function gives, for each triangle, its basin and the outlet
+ * of this basin. If true is given as first argument, it gives instead one row
+ * per basin, with the union of its triangles. The outlets are given with the
+ * GID and type used by ST_BasinGraph. The outlets of type 2 are triangles, on
+ * flat areas, and can't be given to ST_BasinGraph : they must be filtered out
+ * first, for instance with outlet_type &lt; 2.
+ *
+ * @author alexis
+ */
+public class ST_WatershedPartition extends AbstractTableFunction {
+
+        public static final String BASIN_FIELD = "basin";
+        public static final String OUTLET_GID_FIELD = "outlet_gid";
+        public static final String OUTLET_TYPE_FIELD = "outlet_type";
+        public static final String TRIANGLES_FIELD = "triangles";
+        private static final Logger logger = Logger.getLogger(ST_WatershedPartition.class.getName());
+
+        @Override
+        public final DataSet evaluate(SQLDataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
+                if (tables.length < 3) {
+                        throw new FunctionException("needs points, edges and triangles.");
+                }
+                ProgressMonitor monitor = pm == null ? new NullProgressMonitor() : pm;
+                try {
+                        TINTopology topology = new TINTopology(tables[0], tables[1], tables[2], monitor);
+                        long start = System.nanoTime();
+                        WatershedPartition partition = new WatershedPartition(topology);
+                        logger.log(Level.INFO, "{0} basins found for {1} triangles in {2} ms",
+                                new Object[]{partition.getBasinCount(), topology.getTriangleCount(),
+                                        (System.nanoTime() - start) / 1000000});
+                        boolean dissolve = values.length > 0 && values[0].getAsBoolean();
+                        if (dissolve) {
+                                return getBasins(dsf, topology, partition, monitor);
+                        } else {
+                                return getTriangles(dsf, topology, partition);
+                        }
+                } catch (DriverException ex) {
+                        throw new FunctionException("Cannot compute the watersheds.", ex);
+                }
+        }
+
+        /**
+         * Get the basin of each triangle, and its outlet.
+         */
+        private DataSet getTriangles(SQLDataSourceFactory dsf, TINTopology topology, WatershedPartition partition)
+                throws DriverException {
+                Metadata md = new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, BASIN_FIELD, OUTLET_GID_FIELD, OUTLET_TYPE_FIELD});
+                DiskBufferDriver od = new DiskBufferDriver(dsf, md);
+                try {
+                        for (int gid = 0; gid < topology.getTriangleGIDBound(); gid++) {
+                                int basin = partition.getTriangleBasin(gid);
+                                if (basin >= 0) {
+                                        od.addValues(ValueFactory.createValue(gid),
+                                                ValueFactory.createValue(basin),
+                                                ValueFactory.createValue(partition.getOutletGID(basin)),
+                                                ValueFactory.createValue(partition.getOutletType(basin)));
+                                }
+                        }
+                } catch (DriverException ex) {
+                        od.stop();
+                        throw ex;
+                }
+                od.writingFinished();
+                od.start();
+                return od;
+        }
+
+        /**
+         * Get the union of the triangles of each basin. The triangles are sorted
+         * by basin with a counting sort, so that each basin can be dissolved on
+         * its own.
+         */
+        private DataSet getBasins(SQLDataSourceFactory dsf, TINTopology topology, WatershedPartition partition,
+                ProgressMonitor pm)
+                throws DriverException {
+                int basinCount = partition.getBasinCount();
+                int[] offsets = new int[basinCount + 1];
+                for (int b = 0; b < basinCount; b++) {
+                        offsets[b + 1] = offsets[b] + partition.getBasinSize(b);
+                }
+                int[] sorted = new int[offsets[basinCount]];
+                int[] next = new int[basinCount];
+                System.arraycopy(offsets, 0, next, 0, basinCount);
+                for (int gid = 0; gid < topology.getTriangleGIDBound(); gid++) {
+                        int basin = partition.getTriangleBasin(gid);
+                        if (basin >= 0) {
+                                sorted[next[basin]++] = gid;
+                        }
+                }
+                Metadata md = new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GEOM_FIELD, BASIN_FIELD, OUTLET_GID_FIELD,
+                                OUTLET_TYPE_FIELD, TRIANGLES_FIELD});
+                DiskBufferDriver od = new DiskBufferDriver(dsf, md);
+                GeometryFactory gf = new GeometryFactory();
+                pm.startTask("Dissolving the basins", basinCount);
+                try {
+                        for (int b = 0; b < basinCount; b++) {
+                                List<Geometry> triangles = new ArrayList<Geometry>(offsets[b + 1] - offsets[b]);
+                                for (int i = offsets[b]; i < offsets[b + 1]; i++) {
+                                        triangles.add(createTriangle(topology, sorted[i], gf));
+                                }
+                                od.addValues(ValueFactory.createValue(UnaryUnionOp.union(triangles, gf)),
+                                        ValueFactory.createValue(b),
+                                        ValueFactory.createValue(partition.getOutletGID(b)),
+                                        ValueFactory.createValue(partition.getOutletType(b)),
+                                        ValueFactory.createValue(partition.getBasinSize(b)));
+                                pm.progressTo(b + 1);
+                        }
+                } catch (DriverException ex) {
+                        od.stop();
+                        throw ex;
+                }
+                pm.endTask();
+                od.writingFinished();
+                od.start();
+                return od;
+        }
+
+        private Geometry createTriangle(TINTopology topology, int gid, GeometryFactory gf) {
+                Coordinate[] coords = new Coordinate[4];
+                for (int rank = 0; rank < 3; rank++) {
+                        int pt = topology.getTrianglePoint(gid, rank);
+                        coords[rank] = new Coordinate(topology.getPointX(pt), topology.getPointY(pt), topology.getPointZ(pt));
+                }
+                coords[3] = coords[0];
+                return gf.createPolygon(gf.createLinearRing(coords), new LinearRing[0]);
+        }
+
+        @Override
+        public final String getName() {
+                return "ST_WatershedPartition";
+        }
+
+        @Override
+        public final String getDescription() {
+                return "Compute the basin of every triangle of a TIN, or the dissolved basins if true is given.";
+        }
+
+        @Override
+        public final String getSqlOrder() {
+                return "SELECT * FROM ST_WatershedPartition([dissolve,] out_point, out_edges, out_triangles);";
+        }
+
+        @Override
+        public final Metadata getMetadata(Metadata[] tables) throws DriverException {
+                return null;
+        }
+
+        @Override
+        public FunctionSignature[] getFunctionSignatures() {
+                return new FunctionSignature[]{
+                        new TableFunctionSignature(
+                        TableDefinition.ANY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY)),
+                        new TableFunctionSignature(
+                        TableDefinition.ANY,
+                        ScalarArgument.BOOLEAN,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        new TableArgument(TableDefinition.GEOMETRY))};
+        }
+}
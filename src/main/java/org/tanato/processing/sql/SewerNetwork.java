@@ -0,0 +1,410 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import org.jhydrocell.hydronetwork.HydroProperties;
+import org.tanato.model.TINTopology;
+
+/**
+ * The routes of the water in the sewers of a TIN.
+ *
+ * The sewer network is made of the edges of the TIN that have the SEWER
+ * property. The water that enters the network at a SEWER_INPUT point goes out
+ * at the nearest SEWER_OUTPUT point that is lower than the input, the distance
+ * being the length of the sewer edges, so a droplet that goes out of the
+ * sewers can't come back to the same input. An input that can't reach any
+ * lower output has no route.
+ *
+ * The routes are computed once, when the network is built : a single search
+ * from all the outputs gives the nearest output of each input, and the inputs
+ * whose nearest output is not lower get a search of their own. For each input,
+ * we store its output and the ordered list of the sewer points and edges
+ * between them, so a droplet gets its route in constant time.
+ *
+ * @author alexis
+ */
+public final class SewerNetwork {
+
+        public static final int NO_ELEMENT = TINTopology.NO_ELEMENT;
+        // Orders the {distance, point} entries of the search queues
+        private static final Comparator<double[]> DISTANCE_ORDER = new Comparator<double[]>() {
+
+                @Override
+                public int compare(double[] o1, double[] o2) {
+                        return Double.compare(o1[0], o2[0]);
+                }
+        };
+        private final int[] routeStarts;
+        private final int[] routeEnds;
+        private final int[] routePoints;
+        private final int[] routeEdges;
+        private int inputCount = 0;
+        private int routeCount = 0;
+        private final long buildTime;
+
+        /**
+         * Build the network from the properties of the points and edges of
+         * the TIN.
+         * @param topology
+         */
+        public SewerNetwork(TINTopology topology) {
+                long start = System.nanoTime();
+                int pointBound = topology.getPointGIDBound();
+
+                // The sewer edges around each point
+                int[] adjacencyStart = new int[pointBound + 1];
+                for (int gid = 0; gid < topology.getEdgeGIDBound(); gid++) {
+                        if (isSewerEdge(topology, gid)) {
+                                adjacencyStart[topology.getEdgeStart(gid) + 1]++;
+                                adjacencyStart[topology.getEdgeEnd(gid) + 1]++;
+                        }
+                }
+                for (int gid = 0; gid < pointBound; gid++) {
+                        adjacencyStart[gid + 1] += adjacencyStart[gid];
+                }
+                int[] adjacency = new int[adjacencyStart[pointBound]];
+                int[] position = Arrays.copyOf(adjacencyStart, pointBound);
+                for (int gid = 0; gid < topology.getEdgeGIDBound(); gid++) {
+                        if (isSewerEdge(topology, gid)) {
+                                adjacency[position[topology.getEdgeStart(gid)]++] = gid;
+                                adjacency[position[topology.getEdgeEnd(gid)]++] = gid;
+                        }
+                }
+
+                // Shortest paths to the outputs
+                double[] distances = new double[pointBound];
+                int[] nextEdges = new int[pointBound];
+                int[] outputs = new int[pointBound];
+                Arrays.fill(distances, Double.POSITIVE_INFINITY);
+                Arrays.fill(nextEdges, NO_ELEMENT);
+                Arrays.fill(outputs, NO_ELEMENT);
+                PriorityQueue<double[]> queue = new PriorityQueue<double[]>(16, DISTANCE_ORDER);
+                for (int gid = 0; gid < pointBound; gid++) {
+                        if (hasPointProperty(topology, gid, HydroProperties.SEWER_OUTPUT)
+                                && (adjacencyStart[gid + 1] > adjacencyStart[gid])) {
+                                distances[gid] = 0;
+                                outputs[gid] = gid;
+                                queue.add(new double[]{0, gid});
+                        }
+                }
+                while (!queue.isEmpty()) {
+                        double[] head = queue.poll();
+                        int point = (int) head[1];
+                        if (head[0] > distances[point]) {
+                                continue;
+                        }
+                        for (int i = adjacencyStart[point]; i < adjacencyStart[point + 1]; i++) {
+                                int edge = adjacency[i];
+                                int other = topology.getEdgeStart(edge) == point ? topology.getEdgeEnd(edge) : topology.getEdgeStart(edge);
+                                double dx = topology.getPointX(other) - topology.getPointX(point);
+                                double dy = topology.getPointY(other) - topology.getPointY(point);
+                                double distance = head[0] + Math.sqrt(dx * dx + dy * dy);
+                                if (distance < distances[other]) {
+                                        distances[other] = distance;
+                                        nextEdges[other] = edge;
+                                        outputs[other] = outputs[point];
+                                        queue.add(new double[]{distance, other});
+                                }
+                        }
+                }
+
+                // The routes of the inputs, stored one after the other
+                routeStarts = new int[pointBound];
+                routeEnds = new int[pointBound];
+                Arrays.fill(routeStarts, NO_ELEMENT);
+                int[] points = new int[16];
+                int[] edges = new int[16];
+                int size = 0;
+                LowerOutputSearch search = null;
+                for (int gid = 0; gid < pointBound; gid++) {
+                        if (!hasPointProperty(topology, gid, HydroProperties.SEWER_INPUT)) {
+                                continue;
+                        }
+                        inputCount++;
+                        int output = outputs[gid];
+                        if (output == NO_ELEMENT) {
+                                continue;
+                        }
+                        int length;
+                        boolean nearest = (output != gid) && (topology.getPointZ(output) < topology.getPointZ(gid));
+                        if (nearest) {
+                                length = 1;
+                                for (int point = gid; point != output; point = getOtherPoint(topology, nextEdges[point], point)) {
+                                        length++;
+                                }
+                        } else {
+                                // The nearest output is not lower, we look for the nearest lower one.
+                                if (search == null) {
+                                        search = new LowerOutputSearch(topology, adjacencyStart, adjacency);
+                                }
+                                output = search.search(gid);
+                                if (output == NO_ELEMENT) {
+                                        continue;
+                                }
+                                length = 1;
+                                for (int point = output; point != gid; point = getOtherPoint(topology, search.getPreviousEdge(point), point)) {
+                                        length++;
+                                }
+                        }
+                        if (size + length > points.length) {
+                                int capacity = Math.max(2 * points.length, size + length);
+                                points = Arrays.copyOf(points, capacity);
+                                edges = Arrays.copyOf(edges, capacity);
+                        }
+                        routeStarts[gid] = size;
+                        routeEnds[gid] = size + length;
+                        if (nearest) {
+                                int point = gid;
+                                int edge = NO_ELEMENT;
+                                for (int i = size; i < size + length; i++) {
+                                        points[i] = point;
+                                        edges[i] = edge;
+                                        edge = nextEdges[point];
+                                        if (edge != NO_ELEMENT) {
+                                                point = getOtherPoint(topology, edge, point);
+                                        }
+                                }
+                        } else {
+                                // The search goes from the input, we walk its route backwards
+                                int point = output;
+                                for (int i = size + length - 1; i >= size; i--) {
+                                        int edge = search.getPreviousEdge(point);
+                                        points[i] = point;
+                                        edges[i] = edge;
+                                        if (edge != NO_ELEMENT) {
+                                                point = getOtherPoint(topology, edge, point);
+                                        }
+                                }
+                        }
+                        size += length;
+                        routeCount++;
+                }
+                routePoints = Arrays.copyOf(points, size);
+                routeEdges = Arrays.copyOf(edges, size);
+                buildTime = System.nanoTime() - start;
+        }
+
+        /**
+         * A shortest path search from a single input that stops at the first
+         * output lower than the input. The arrays are kept between two
+         * searches, only the points reached by the last search are reset.
+         */
+        private static final class LowerOutputSearch {
+
+                private final TINTopology topology;
+                private final int[] adjacencyStart;
+                private final int[] adjacency;
+                private final double[] distances;
+                private final int[] previousEdges;
+                private final int[] reached;
+                private int reachedCount = 0;
+
+                LowerOutputSearch(TINTopology topology, int[] adjacencyStart, int[] adjacency) {
+                        this.topology = topology;
+                        this.adjacencyStart = adjacencyStart;
+                        this.adjacency = adjacency;
+                        int pointBound = adjacencyStart.length - 1;
+                        distances = new double[pointBound];
+                        previousEdges = new int[pointBound];
+                        reached = new int[pointBound];
+                        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+                        Arrays.fill(previousEdges, NO_ELEMENT);
+                }
+
+                /**
+                 * Get the nearest output lower than the input, or NO_ELEMENT
+                 * if the input can't reach any.
+                 * @param input
+                 * @return
+                 */
+                int search(int input) {
+                        for (int i = 0; i < reachedCount; i++) {
+                                distances[reached[i]] = Double.POSITIVE_INFINITY;
+                                previousEdges[reached[i]] = NO_ELEMENT;
+                        }
+                        reachedCount = 0;
+                        double z = topology.getPointZ(input);
+                        PriorityQueue<double[]> queue = new PriorityQueue<double[]>(16, DISTANCE_ORDER);
+                        distances[input] = 0;
+                        reached[reachedCount++] = input;
+                        queue.add(new double[]{0, input});
+                        while (!queue.isEmpty()) {
+                                double[] head = queue.poll();
+                                int point = (int) head[1];
+                                if (head[0] > distances[point]) {
+                                        continue;
+                                }
+                                if ((point != input) && hasPointProperty(topology, point, HydroProperties.SEWER_OUTPUT)
+                                        && (topology.getPointZ(point) < z)) {
+                                        return point;
+                                }
+                                for (int i = adjacencyStart[point]; i < adjacencyStart[point + 1]; i++) {
+                                        int edge = adjacency[i];
+                                        int other = getOtherPoint(topology, edge, point);
+                                        double dx = topology.getPointX(other) - topology.getPointX(point);
+                                        double dy = topology.getPointY(other) - topology.getPointY(point);
+                                        double distance = head[0] + Math.sqrt(dx * dx + dy * dy);
+                                        if (distance < distances[other]) {
+                                                if (distances[other] == Double.POSITIVE_INFINITY) {
+                                                        reached[reachedCount++] = other;
+                                                }
+                                                distances[other] = distance;
+                                                previousEdges[other] = edge;
+                                                queue.add(new double[]{distance, other});
+                                        }
+                                }
+                        }
+                        return NO_ELEMENT;
+                }
+
+                /**
+                 * Get the edge that leads to the point in the last search, or
+                 * NO_ELEMENT for the input.
+                 * @param point
+                 * @return
+                 */
+                int getPreviousEdge(int point) {
+                        return previousEdges[point];
+                }
+        }
+
+        private static boolean isSewerEdge(TINTopology topology, int gid) {
+                return topology.hasEdge(gid) && HydroProperties.check(topology.getEdgeProperty(gid), HydroProperties.SEWER);
+        }
+
+        private static boolean hasPointProperty(TINTopology topology, int gid, int property) {
+                return topology.hasPoint(gid) && HydroProperties.check(topology.getPointProperty(gid), property);
+        }
+
+        private static int getOtherPoint(TINTopology topology, int edge, int point) {
+                return topology.getEdgeStart(edge) == point ? topology.getEdgeEnd(edge) : topology.getEdgeStart(edge);
+        }
+
+        /**
+         * Check if the water that enters the sewers at the point goes out at
+         * an output.
+         * @param point
+         * @return
+         */
+        public boolean hasRoute(int point) {
+                return (point >= 0) && (point < routeStarts.length) && (routeStarts[point] != NO_ELEMENT);
+        }
+
+        /**
+         * Get the output the water that enters the sewers at the input goes to.
+         * @param input
+         * @return
+         */
+        public int getOutput(int input) {
+                return routePoints[routeEnds[input] - 1];
+        }
+
+        /**
+         * Get the index of the first vertex of the route of the input, ie the
+         * input itself.
+         * @param input
+         * @return
+         */
+        public int getRouteStart(int input) {
+                return routeStarts[input];
+        }
+
+        /**
+         * Get the index that follows the last vertex of the route of the input.
+         * The last vertex is the output.
+         * @param input
+         * @return
+         */
+        public int getRouteEnd(int input) {
+                return routeEnds[input];
+        }
+
+        /**
+         * Get the point of the route vertex i.
+         * @param i
+         * @return
+         */
+        public int getRoutePoint(int i) {
+                return routePoints[i];
+        }
+
+        /**
+         * Get the sewer edge that leads to the route vertex i, or NO_ELEMENT for
+         * the input.
+         * @param i
+         * @return
+         */
+        public int getRouteEdge(int i) {
+                return routeEdges[i];
+        }
+
+        /**
+         * Get the number of sewer inputs.
+         * @return
+         */
+        public int getInputCount() {
+                return inputCount;
+        }
+
+        /**
+         * Get the number of inputs that have a route to an output.
+         * @return
+         */
+        public int getRouteCount() {
+                return routeCount;
+        }
+
+        /**
+         * Get the time spent to build the network, in nanoseconds.
+         * @return
+         */
+        public long getBuildTime() {
+                return buildTime;
+        }
+
+        /**
+         * Get the memory used by the arrays of the network, in bytes.
+         * @return
+         */
+        public long getMemorySize() {
+                return 4L * (routeStarts.length + routeEnds.length + routePoints.length + routeEdges.length);
+        }
+}
@@ -15,7 +15,9 @@ public class TanatoFunctionRegister {
          * Register all gdms-topology functions.
          */
         public static void register() {
+                FunctionManager.addFunction(ST_BasinGraph.class);
                 FunctionManager.addFunction(ST_CreateHydroProperties.class);
+                FunctionManager.addFunction(ST_DropletDiagnostics.class);
                 FunctionManager.addFunction(ST_DropletLine.class);
                 FunctionManager.addFunction(ST_DropletPath.class);
                 FunctionManager.addFunction(ST_GetHydroProperty.class);
@@ -26,6 +28,7 @@ public class TanatoFunctionRegister {
                 FunctionManager.addFunction(ST_TINSlopeDirection.class);
                 FunctionManager.addFunction(ST_TopoGraph.class);
                 FunctionManager.addFunction(ST_TriangleSlope.class);
+                FunctionManager.addFunction(ST_WatershedPartition.class);
 
         }
 }
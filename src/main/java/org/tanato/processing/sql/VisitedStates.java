@@ -0,0 +1,130 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+/**
+ * The states a droplet has already been in, to detect the cycles of its path.
+ *
+ * A state is an element of the TIN and the element the droplet comes from,
+ * each of them given by its type and its GID. The states are packed in longs
+ * and stored in an open addressing table, so adding a state does not create
+ * any object. The GIDs must be lower than 2^29.
+ *
+ * The table is reused from one path to the next : clear only resets the
+ * slots that have been used.
+ *
+ * @author alexis
+ */
+final class VisitedStates {
+
+        private static final int DEFAULT_CAPACITY = 256;
+        // 0 is never a key, as the type of the element is at least 1
+        private static final long EMPTY = 0;
+        private long[] keys = new long[DEFAULT_CAPACITY];
+        private int[] usedSlots = new int[DEFAULT_CAPACITY / 2];
+        private int size = 0;
+
+        /**
+         * Remove all the states.
+         */
+        void clear() {
+                for (int i = 0; i < size; i++) {
+                        keys[usedSlots[i]] = EMPTY;
+                }
+                size = 0;
+        }
+
+        /**
+         * Get the number of states.
+         * @return
+         */
+        int size() {
+                return size;
+        }
+
+        /**
+         * Add a state.
+         * @param type the type of the element, at least 1
+         * @param gid
+         * @param entryType the type of the element the droplet comes from
+         * @param entryGID the element the droplet comes from, or -1
+         * @return false if the state has already been added
+         */
+        boolean add(int type, int gid, int entryType, int entryGID) {
+                long key = ((long) (4 * gid + type) << 32) | ((4L * (entryGID + 1) + entryType) & 0xFFFFFFFFL);
+                int mask = keys.length - 1;
+                int slot = hash(key) & mask;
+                while (keys[slot] != EMPTY) {
+                        if (keys[slot] == key) {
+                                return false;
+                        }
+                        slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                usedSlots[size++] = slot;
+                if (size == usedSlots.length) {
+                        grow();
+                }
+                return true;
+        }
+
+        private static int hash(long key) {
+                long h = key * 0x9E3779B97F4A7C15L;
+                return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * Double the capacity, so that the table is never more than half full.
+         */
+        private void grow() {
+                long[] oldKeys = keys;
+                keys = new long[2 * oldKeys.length];
+                int[] oldSlots = usedSlots;
+                usedSlots = new int[keys.length / 2];
+                int mask = keys.length - 1;
+                for (int i = 0; i < size; i++) {
+                        long key = oldKeys[oldSlots[i]];
+                        int slot = hash(key) & mask;
+                        while (keys[slot] != EMPTY) {
+                                slot = (slot + 1) & mask;
+                        }
+                        keys[slot] = key;
+                        usedSlots[i] = slot;
+                }
+        }
+}
@@ -0,0 +1,181 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+/**
+ * The chains of wall edges (hedges, walls...) a droplet follows.
+ *
+ * A droplet that comes on a wall edge from a point stays on the same side of
+ * the wall : it goes down to the lowest point of the edge, then turns around
+ * this point, from the triangle on its side, without crossing any wall. The
+ * element it reaches only depends on the edge and on the side, so the chains
+ * are computed once for all the droplets.
+ *
+ * For each side of each wall edge, we store the triangle on this side, the
+ * next wall edge and the exit edge, ie the last wall edge before the droplet
+ * leaves the wall. The chains themselves are stored in a ChannelChainIndex,
+ * whose nodes are the sides of the edges.
+ *
+ * @author alexis
+ */
+public final class WallChainIndex {
+
+        public static final int NO_ELEMENT = ChannelChainIndex.NO_ELEMENT;
+        public static final int LEFT = 0;
+        public static final int RIGHT = 1;
+        private final ChannelChainIndex chains;
+        private final int[] sideTriangles;
+
+        /**
+         * Create an index without any wall edge.
+         * @param edgeGIDBound the greatest edge GID plus one
+         */
+        WallChainIndex(int edgeGIDBound) {
+                chains = new ChannelChainIndex(2 * edgeGIDBound);
+                sideTriangles = new int[2 * edgeGIDBound];
+        }
+
+        /**
+         * Declare a side of a wall edge.
+         * @param edge
+         * @param side LEFT or RIGHT
+         * @param lowPoint the point the droplet reaches following the edge
+         * @param sideTriangle the triangle on this side of the edge, or NO_ELEMENT
+         * @param nextEdge the next wall edge, or NO_ELEMENT if the droplet leaves
+         * the wall at lowPoint
+         */
+        void set(int edge, int side, int lowPoint, int sideTriangle, int nextEdge) {
+                int node = 2 * edge + side;
+                sideTriangles[node] = sideTriangle;
+                chains.setNext(node, lowPoint, nextEdge == NO_ELEMENT ? NO_ELEMENT : 2 * nextEdge + side);
+        }
+
+        /**
+         * Compute the exit edges, once all the wall edges have been declared.
+         * @param buildTime the time spent to build the index, in nanoseconds
+         */
+        void finish(long buildTime) {
+                chains.finish(buildTime);
+        }
+
+        /**
+         * Check if the edge is a wall edge.
+         * @param edge
+         * @return
+         */
+        public boolean isWallEdge(int edge) {
+                return (edge >= 0) && chains.isChannelEdge(2 * edge);
+        }
+
+        /**
+         * Get the point a droplet reaches when it follows the wall edge.
+         * @param edge
+         * @return
+         */
+        public int getLowPoint(int edge) {
+                return chains.getLowPoint(2 * edge);
+        }
+
+        /**
+         * Get the triangle that is on the given side of the edge, for a droplet
+         * that goes down the edge.
+         * @param edge
+         * @param side
+         * @return
+         */
+        public int getSideTriangle(int edge, int side) {
+                return sideTriangles[2 * edge + side];
+        }
+
+        /**
+         * Get the wall edge that follows the edge on the given side, or NO_ELEMENT.
+         * @param edge
+         * @param side
+         * @return
+         */
+        public int getNextEdge(int edge, int side) {
+                int next = chains.getNextEdge(2 * edge + side);
+                return next == NO_ELEMENT ? NO_ELEMENT : next / 2;
+        }
+
+        /**
+         * Get the last wall edge of the chain that starts with the edge, on the
+         * given side. The droplet leaves the wall at its lowest point.
+         * @param edge
+         * @param side
+         * @return
+         */
+        public int getExitEdge(int edge, int side) {
+                return chains.getOutlet(2 * edge + side) / 2;
+        }
+
+        /**
+         * Get the number of edges of the chain that starts with the edge, on
+         * the given side, the edge and the exit edge included.
+         * @param edge
+         * @param side
+         * @return
+         */
+        public int getChainLength(int edge, int side) {
+                return chains.getChainLength(2 * edge + side);
+        }
+
+        /**
+         * Get the number of wall edges.
+         * @return
+         */
+        public int getWallEdgeCount() {
+                return chains.getChannelEdgeCount() / 2;
+        }
+
+        /**
+         * Get the time spent to build the index, in nanoseconds.
+         * @return
+         */
+        public long getBuildTime() {
+                return chains.getBuildTime();
+        }
+
+        /**
+         * Get the memory used by the arrays of the index, in bytes.
+         * @return
+         */
+        public long getMemorySize() {
+                return chains.getMemorySize() + 4L * sideTriangles.length;
+        }
+}
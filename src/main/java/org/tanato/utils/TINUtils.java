@@ -108,6 +108,27 @@ public class TINUtils {
                 return (float) contribution;
         }
 
+        /**
+         * Same as getProportion(DTriangle, DEdge), when the edges the steepest
+         * descent of dTriangle goes to are already known, as stored by ST_HydroTIN.
+         * The triangle is only used when the water is shared between two edges.
+         * @param dTriangle
+         * @param dEdge
+         * @param toEdge true if the steepest descent goes to dEdge
+         * @param toCount the number of edges the steepest descent goes to
+         * @return
+         * @throws DelaunayError
+         *      if dEdge is not an edge of dTriangle.
+         */
+        public static float getProportion(DTriangle dTriangle, DEdge dEdge, boolean toEdge, int toCount) throws DelaunayError {
+                if (!toEdge) {
+                        return 0;
+                } else if (toCount == 1) {
+                        return 1;
+                }
+                return getProportion(dTriangle, dEdge);
+        }
+
         /**
          * This method is used to compute the ridge line on a triangle
          * @param dTriangle
@@ -0,0 +1,177 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.tanato.model.TINSchema;
+
+/**
+ * Build the points, edges and triangles tables of a small TIN for the tests.
+ * The GID of a point is its index in the given coordinates. The edges are
+ * created from the triangles, with their left and right triangles, unless
+ * they have been added before with addEdge to choose their GID and their
+ * orientation.
+ * @author alexis
+ */
+public final class SyntheticTIN {
+
+        private final double[][] coordinates;
+        private final int[] pointProperties;
+        // gid, start, end, left, right, property of each edge
+        private final Map<Long, int[]> edgeMap = new HashMap<Long, int[]>();
+        private final List<int[]> edgeList = new ArrayList<int[]>();
+        private final List<int[]> triangleEdges = new ArrayList<int[]>();
+
+        /**
+         * @param coordinates the x, y and z of each point
+         */
+        public SyntheticTIN(double[][] coordinates) {
+                this.coordinates = coordinates;
+                pointProperties = new int[coordinates.length];
+        }
+
+        public void setPointProperty(int gid, int property) {
+                pointProperties[gid] = property;
+        }
+
+        /**
+         * Add the edge from start to end, with the next GID.
+         * @param start
+         * @param end
+         * @param property
+         * @return the GID of the edge
+         */
+        public int addEdge(int start, int end, int property) {
+                int[] edge = new int[]{edgeList.size(), start, end, -1, -1, property};
+                edgeMap.put(getKey(start, end), edge);
+                edgeList.add(edge);
+                return edge[0];
+        }
+
+        /**
+         * Add a triangle, with the next GID. Its edges are created if they do
+         * not exist yet, and the triangle is set on their left or right side.
+         * @param a
+         * @param b
+         * @param c
+         * @return the GID of the triangle
+         */
+        public int addTriangle(int a, int b, int c) {
+                int t = triangleEdges.size();
+                int[] tri = new int[]{a, b, c};
+                int[] edges = new int[3];
+                for (int k = 0; k < 3; k++) {
+                        int start = tri[k];
+                        int end = tri[(k + 1) % 3];
+                        int[] edge = edgeMap.get(getKey(start, end));
+                        if (edge == null) {
+                                edge = edgeList.get(addEdge(start, end, 0));
+                        }
+                        double[] s = coordinates[edge[1]];
+                        double[] e = coordinates[edge[2]];
+                        double[] o = coordinates[tri[(k + 2) % 3]];
+                        double cross = (e[0] - s[0]) * (o[1] - s[1]) - (e[1] - s[1]) * (o[0] - s[0]);
+                        edge[cross > 0 ? 3 : 4] = t;
+                        edges[k] = edge[0];
+                }
+                triangleEdges.add(edges);
+                return t;
+        }
+
+        private long getKey(int start, int end) {
+                return (long) Math.min(start, end) * coordinates.length + Math.max(start, end);
+        }
+
+        /**
+         * Get the points, edges and triangles tables.
+         * @return
+         */
+        public DataSet[] getTables() {
+                GeometryFactory gf = new GeometryFactory();
+                MemoryDataSetDriver points = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.DOUBLE)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TINSchema.PROPERTY_FIELD,
+                                TINSchema.HEIGHT_FIELD}));
+                for (int gid = 0; gid < coordinates.length; gid++) {
+                        double[] c = coordinates[gid];
+                        points.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(new Coordinate(c[0], c[1], c[2]))),
+                                        ValueFactory.createValue(gid), ValueFactory.createValue(pointProperties[gid]),
+                                        ValueFactory.createValue(0.0)});
+                }
+                MemoryDataSetDriver edges = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.DOUBLE)},
+                        new String[]{TINSchema.GID, TINSchema.STARTPOINT_NODE_FIELD, TINSchema.ENDPOINT_NODE_FIELD,
+                                TINSchema.LEFT_TRIANGLE_FIELD, TINSchema.RIGHT_TRIANGLE_FIELD, TINSchema.PROPERTY_FIELD,
+                                TINSchema.HEIGHT_FIELD}));
+                for (int[] edge : edgeList) {
+                        edges.addValues(new Value[]{ValueFactory.createValue(edge[0]), ValueFactory.createValue(edge[1]),
+                                        ValueFactory.createValue(edge[2]), ValueFactory.createValue(edge[3]),
+                                        ValueFactory.createValue(edge[4]), ValueFactory.createValue(edge[5]),
+                                        ValueFactory.createValue(0.0)});
+                }
+                MemoryDataSetDriver triangles = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.DOUBLE)},
+                        new String[]{TINSchema.GID, TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD,
+                                TINSchema.EDGE_2_GID_FIELD, TINSchema.PROPERTY_FIELD, TINSchema.HEIGHT_FIELD}));
+                for (int t = 0; t < triangleEdges.size(); t++) {
+                        int[] e = triangleEdges.get(t);
+                        triangles.addValues(new Value[]{ValueFactory.createValue(t), ValueFactory.createValue(e[0]),
+                                        ValueFactory.createValue(e[1]), ValueFactory.createValue(e[2]),
+                                        ValueFactory.createValue(0), ValueFactory.createValue(0.0)});
+                }
+                return new DataSet[]{points, edges, triangles};
+        }
+}
@@ -0,0 +1,109 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.basin;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import junit.framework.TestCase;
+
+/**
+ * Tests on the BasinCoverage class.
+ * @author alexis
+ */
+public class BasinCoverageTest extends TestCase {
+
+        private GeometryFactory gf = new GeometryFactory();
+
+        /**
+         * A point can be visited only once.
+         */
+        public void testVisitPoint() {
+                BasinCoverage bc = new BasinCoverage();
+                assertFalse(bc.isPointVisited(5));
+                assertTrue(bc.visitPoint(5));
+                assertTrue(bc.isPointVisited(5));
+                assertFalse(bc.visitPoint(5));
+                assertFalse(bc.isPointVisited(4));
+        }
+
+        /**
+         * Intervals of an edge are merged when they overlap or touch.
+         */
+        public void testEdgeIntervals() {
+                BasinCoverage bc = new BasinCoverage();
+                assertFalse(bc.coversEdge(3, 0.2, 0.3));
+                bc.addEdgeInterval(3, 0.6, 0.8);
+                bc.addEdgeInterval(3, 0.1, 0.3);
+                assertTrue(bc.coversEdge(3, 0.1, 0.3));
+                assertTrue(bc.coversEdge(3, 0.65, 0.7));
+                assertFalse(bc.coversEdge(3, 0.2, 0.7));
+                assertFalse(bc.coversEdge(4, 0.65, 0.7));
+                bc.addEdgeInterval(3, 0.3, 0.6);
+                assertTrue(bc.coversEdge(3, 0.1, 0.8));
+                assertFalse(bc.coversEdge(3, 0, 0.8));
+                bc.addEdgeInterval(3, 0, 1);
+                assertTrue(bc.coversEdge(3, 0, 1));
+        }
+
+        /**
+         * A triangle is fully covered when a piece has its area. Before, only
+         * its pieces cover geometries.
+         */
+        public void testTriangleCoverage() {
+                BasinCoverage bc = new BasinCoverage();
+                Polygon half = createPolygon(new Coordinate(0, 0), new Coordinate(2, 0), new Coordinate(0, 2));
+                Polygon small = createPolygon(new Coordinate(0.1, 0.1), new Coordinate(0.5, 0.1), new Coordinate(0.1, 0.5));
+                Polygon other = createPolygon(new Coordinate(3, 3), new Coordinate(3.5, 3), new Coordinate(3, 3.5));
+                assertFalse(bc.covers(1, small));
+                assertFalse(bc.covers(-1, small));
+                bc.addPiece(1, half, 8);
+                assertFalse(bc.isTriangleCovered(1));
+                assertTrue(bc.covers(1, small));
+                assertFalse(bc.covers(1, other));
+                assertFalse(bc.covers(2, small));
+                bc.addPiece(1, createPolygon(new Coordinate(0, 0), new Coordinate(4, 0), new Coordinate(0, 4)), 8);
+                assertTrue(bc.isTriangleCovered(1));
+                assertTrue(bc.covers(1, other));
+        }
+
+        private Polygon createPolygon(Coordinate c0, Coordinate c1, Coordinate c2) {
+                return gf.createPolygon(gf.createLinearRing(new Coordinate[]{c0, c1, c2, c0}), new LinearRing[]{});
+        }
+}
@@ -158,27 +158,35 @@ public class EdgePartManagerTest extends TestCase {
                 epm.addEdgePart(e2);
                 epm.addEdgePart(e3);
                 assertTrue(epm.getQueueSize()==2);
+                //ed is lower than edZ, it must be given first.
+                assertEquals(2.0, epm.getNextElevation(), 0.0);
                 List<EdgePart> out = epm.getEdgeParts();
                 assertTrue(out.size()==1);
-                assertTrue(out.get(0).equals(new EdgePart(edZ, 0.38, 0.40,1,2)));
+                assertTrue(out.get(0).equals(new EdgePart(ed, 0.35, 0.50,1,2)));
+                assertEquals(3.2, epm.getNextElevation(), 1e-9);
                 out = epm.getEdgeParts();
                 assertTrue(out.size()==1);
-                assertTrue(out.get(0).equals(new EdgePart(ed, 0.35, 0.50,1,2)));
+                assertTrue(out.get(0).equals(new EdgePart(edZ, 0.38, 0.40,1,2)));
+                assertTrue(epm.isEmpty());
+                assertEquals(Double.POSITIVE_INFINITY, epm.getNextElevation());
         }
         
         public void testGetTooSmallEdgePart() throws DelaunayError {
                 EdgePartManager epm = new EdgePartManager();
+                assertEquals(EdgePart.DEFAULT_MAX_ITER, epm.getMaxIterNumber());
                 DEdge ed = new DEdge(1,0,0,0,0,0);
                 ed.setGID(8);
                 EdgePart e2 = new EdgePart(ed, 0.45, 0.45+Tools.EPSILON2,1,2);
                 epm.addEdgePart(e2);
                 assertFalse(epm.isEmpty());
                 assertTrue(epm.getEdgeParts().isEmpty());
-                EdgePart.setMaxIterNumber(3);
+                epm.setMaxIterNumber(3);
                 epm.getEdgeParts();
                 epm.getEdgeParts();
                 epm.getEdgeParts();
                 assertTrue(epm.isEmpty());
                 assertTrue(epm.getEdgeParts().isEmpty());
+                assertEquals(3, epm.getRequeueCount());
+                assertEquals(1, epm.getDroppedCount());
         }
 }
@@ -235,14 +235,11 @@ public class EdgePartTest extends TestCase {
                 assertTrue(e1.getIterNumber() == 1);
                 e1.resetIterNumber();
                 assertTrue(e1.getIterNumber() == 0);
-                EdgePart.setMaxIterNumber(90);
-                assertTrue(EdgePart.getMaxIterNumber() == 90);
-                EdgePart.setMaxIterNumber(2);
                 e1.increaseIterNumber();
+                assertFalse(e1.isMaxIterReached(2));
                 e1.increaseIterNumber();
-                e1.increaseIterNumber();
-                e1.increaseIterNumber();
-                assertTrue(e1.isMaxIterReached());
+                assertTrue(e1.isMaxIterReached(2));
+                assertFalse(e1.isMaxIterReached(90));
         }
 
         public void testIsProcessable() throws Exception {
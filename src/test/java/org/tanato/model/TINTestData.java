@@ -0,0 +1,90 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import java.io.File;
+import org.gdms.data.DataSource;
+import org.gdms.data.SQLDataSourceFactory;
+import org.orbisgis.progress.NullProgressMonitor;
+
+/**
+ * Load the reference TINs of small_courbes_chezine for the tests of the model.
+ * @author alexis
+ */
+final class TINTestData {
+
+        static final String DIRECTORY = "src/test/resources/data/tin/small_courbes_chezine/";
+
+        private TINTestData() {
+        }
+
+        /**
+         * Open the points, edges and triangles tables of the TIN whose files
+         * start with prefix, like without_flat.
+         * @param dsf
+         * @param prefix
+         * @return
+         * @throws Exception
+         */
+        static DataSource[] openTables(SQLDataSourceFactory dsf, String prefix) throws Exception {
+                DataSource[] tables = new DataSource[]{
+                        dsf.getDataSource(new File(DIRECTORY + prefix + "_points.shp")),
+                        dsf.getDataSource(new File(DIRECTORY + prefix + "_edges.shp")),
+                        dsf.getDataSource(new File(DIRECTORY + prefix + "_triangles.shp"))};
+                for (DataSource table : tables) {
+                        table.open();
+                }
+                return tables;
+        }
+
+        /**
+         * Load the topology of the TIN whose files start with prefix.
+         * @param dsf
+         * @param prefix
+         * @return
+         * @throws Exception
+         */
+        static TINTopology loadTopology(SQLDataSourceFactory dsf, String prefix) throws Exception {
+                DataSource[] tables = openTables(dsf, prefix);
+                TINTopology topology = new TINTopology(tables[0], tables[1], tables[2], new NullProgressMonitor());
+                for (DataSource table : tables) {
+                        table.close();
+                }
+                return topology;
+        }
+}
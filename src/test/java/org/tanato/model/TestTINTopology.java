@@ -0,0 +1,184 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import junit.framework.TestCase;
+import org.gdms.data.DataSource;
+import org.gdms.data.SQLDataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.orbisgis.progress.NullProgressMonitor;
+
+/**
+ * Tests on the TINTopology snapshot of a TIN.
+ * @author alexis
+ */
+public class TestTINTopology extends TestCase {
+
+        private SQLDataSourceFactory dsf = new SQLDataSourceFactory("target", "target");
+        private TINTopology loadTopology() throws Exception {
+                return TINTestData.loadTopology(dsf, "without_flat");
+        }
+
+        /**
+         * The topology must contain one element for each row of the tables.
+         * @throws Exception
+         */
+        public void testElementCounts() throws Exception {
+                DataSource[] tables = TINTestData.openTables(dsf, "without_flat");
+                TINTopology topology = new TINTopology(tables[0], tables[1], tables[2], new NullProgressMonitor());
+                assertTrue(topology.getPointCount() == tables[0].getRowCount());
+                assertTrue(topology.getEdgeCount() == tables[1].getRowCount());
+                assertTrue(topology.getTriangleCount() == tables[2].getRowCount());
+                for (DataSource table : tables) {
+                        table.close();
+                }
+        }
+
+        /**
+         * Each edge of a triangle must reference the triangle on one of its sides,
+         * and the three points of a triangle must be distinct.
+         * @throws Exception
+         */
+        public void testTopologyConsistency() throws Exception {
+                TINTopology topology = loadTopology();
+                for (int gid = 0; gid < topology.getTriangleGIDBound(); gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                for (int k = 0; k < 3; k++) {
+                                        int edge = topology.getTriangleEdge(gid, k);
+                                        assertTrue(topology.hasEdge(edge));
+                                        assertTrue(topology.getEdgeLeft(edge) == gid || topology.getEdgeRight(edge) == gid);
+                                }
+                                int p0 = topology.getTrianglePoint(gid, 0);
+                                int p1 = topology.getTrianglePoint(gid, 1);
+                                int p2 = topology.getTrianglePoint(gid, 2);
+                                assertTrue(p0 != p1 && p1 != p2 && p0 != p2);
+                                assertTrue(topology.hasPoint(p0) && topology.hasPoint(p1) && topology.hasPoint(p2));
+                        }
+                }
+        }
+
+        /**
+         * Each point has all its edges in its star, and each triangle appears once
+         * in the star of each of its three points, between two of its edges.
+         * @throws Exception
+         */
+        public void testVertexStars() throws Exception {
+                TINTopology topology = loadTopology();
+                int[] degrees = new int[topology.getPointGIDBound()];
+                for (int gid = 0; gid < topology.getEdgeGIDBound(); gid++) {
+                        if (topology.hasEdge(gid)) {
+                                degrees[topology.getEdgeStart(gid)]++;
+                                degrees[topology.getEdgeEnd(gid)]++;
+                        }
+                }
+                int starTriangles = 0;
+                for (int gid = 0; gid < topology.getPointGIDBound(); gid++) {
+                        int size = topology.getStarSize(gid);
+                        assertTrue(size == degrees[gid]);
+                        for (int i = 0; i < size; i++) {
+                                int edge = topology.getStarEdge(gid, i);
+                                assertTrue(topology.getEdgeStart(edge) == gid || topology.getEdgeEnd(edge) == gid);
+                                assertTrue(topology.getStarEdgeIndex(gid, edge) == i);
+                                int triangle = topology.getStarTriangle(gid, i);
+                                if (triangle != TINTopology.NO_ELEMENT) {
+                                        starTriangles++;
+                                        int next = topology.getStarEdge(gid, (i + 1) % size);
+                                        assertTrue(topology.getEdgeLeft(edge) == triangle || topology.getEdgeRight(edge) == triangle);
+                                        assertTrue(topology.getEdgeLeft(next) == triangle || topology.getEdgeRight(next) == triangle);
+                                        assertTrue(topology.getStarTriangleIndex(gid, triangle) == i);
+                                }
+                        }
+                }
+                assertTrue(starTriangles == 3 * topology.getTriangleCount());
+        }
+
+        /**
+         * The slopes are only available when the triangles contain them.
+         * @throws Exception
+         */
+        public void testTriangleSlopes() throws Exception {
+                assertFalse(loadTopology().hasTriangleSlopes());
+
+                GeometryFactory gf = new GeometryFactory();
+                MemoryDataSetDriver dsPoints = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID}));
+                dsPoints.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(new Coordinate(0, 0, 0))), ValueFactory.createValue(1)});
+                dsPoints.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(new Coordinate(10, 0, 0))), ValueFactory.createValue(2)});
+                dsPoints.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(new Coordinate(5, 5, 10))), ValueFactory.createValue(3)});
+                MemoryDataSetDriver dsEdges = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.STARTPOINT_NODE_FIELD, TINSchema.ENDPOINT_NODE_FIELD,
+                                TINSchema.LEFT_TRIANGLE_FIELD, TINSchema.RIGHT_TRIANGLE_FIELD}));
+                dsEdges.addValues(new Value[]{ValueFactory.createValue(1), ValueFactory.createValue(1), ValueFactory.createValue(2),
+                                ValueFactory.createValue(1), ValueFactory.createValue(-1)});
+                dsEdges.addValues(new Value[]{ValueFactory.createValue(2), ValueFactory.createValue(2), ValueFactory.createValue(3),
+                                ValueFactory.createValue(1), ValueFactory.createValue(-1)});
+                dsEdges.addValues(new Value[]{ValueFactory.createValue(3), ValueFactory.createValue(3), ValueFactory.createValue(1),
+                                ValueFactory.createValue(1), ValueFactory.createValue(-1)});
+                MemoryDataSetDriver dsTriangles = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.DOUBLE), TypeFactory.createType(Type.DOUBLE),
+                                TypeFactory.createType(Type.DOUBLE), TypeFactory.createType(Type.BOOLEAN),
+                                TypeFactory.createType(Type.BOOLEAN), TypeFactory.createType(Type.BOOLEAN)},
+                        new String[]{TINSchema.GID, TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD, TINSchema.EDGE_2_GID_FIELD,
+                                TINSchema.STEEPEST_X_FIELD, TINSchema.STEEPEST_Y_FIELD, TINSchema.SLOPE_FIELD,
+                                TINSchema.TO_EDGE_0_FIELD, TINSchema.TO_EDGE_1_FIELD, TINSchema.TO_EDGE_2_FIELD}));
+                dsTriangles.addValues(new Value[]{ValueFactory.createValue(1), ValueFactory.createValue(1), ValueFactory.createValue(2),
+                                ValueFactory.createValue(3), ValueFactory.createValue(0.0), ValueFactory.createValue(-1.0),
+                                ValueFactory.createValue(2.0), ValueFactory.createValue(true), ValueFactory.createValue(false),
+                                ValueFactory.createValue(false)});
+
+                TINTopology topology = new TINTopology(dsPoints, dsEdges, dsTriangles, new NullProgressMonitor());
+                assertTrue(topology.hasTriangleSlopes());
+                assertEquals(0.0, topology.getTriangleSteepestX(1));
+                assertEquals(-1.0, topology.getTriangleSteepestY(1));
+                assertEquals(2.0, topology.getTriangleSlope(1));
+                assertTrue(topology.isTriangleFlowingTo(1, 0));
+                assertFalse(topology.isTriangleFlowingTo(1, 1));
+                assertFalse(topology.isTriangleFlowingTo(1, 2));
+        }
+}
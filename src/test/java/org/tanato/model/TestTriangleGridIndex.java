@@ -0,0 +1,97 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import junit.framework.TestCase;
+import org.gdms.data.SQLDataSourceFactory;
+
+/**
+ * Tests on the grid index built on the TINTopology snapshot.
+ * @author alexis
+ */
+public class TestTriangleGridIndex extends TestCase {
+
+        private SQLDataSourceFactory dsf = new SQLDataSourceFactory("target", "target");
+        private TINTopology loadTopology() throws Exception {
+                return TINTestData.loadTopology(dsf, "without_flat");
+        }
+
+        /**
+         * The barycenter of each triangle must be found in the cell of the grid
+         * it lies in.
+         * @throws Exception
+         */
+        public void testLocateBarycenters() throws Exception {
+                TINTopology topology = loadTopology();
+                TriangleGridIndex index = new TriangleGridIndex(topology);
+                for (int gid = 0; gid < topology.getTriangleGIDBound(); gid++) {
+                        if (topology.hasTriangle(gid)) {
+                                double x = 0;
+                                double y = 0;
+                                for (int k = 0; k < 3; k++) {
+                                        x += topology.getPointX(topology.getTrianglePoint(gid, k)) / 3;
+                                        y += topology.getPointY(topology.getTrianglePoint(gid, k)) / 3;
+                                }
+                                int cell = index.getCell(x, y);
+                                assertTrue(cell >= 0);
+                                boolean found = false;
+                                for (int i = 0; i < index.getCellSize(cell); i++) {
+                                        if (index.getCellTriangle(cell, i) == gid) {
+                                                found = true;
+                                                assertTrue(index.contains(gid, x, y));
+                                        }
+                                }
+                                assertTrue(found);
+                                assertTrue(index.locate(x, y) == gid);
+                        }
+                }
+        }
+
+        /**
+         * A point far from the TIN is not in the grid.
+         * @throws Exception
+         */
+        public void testLocateOutside() throws Exception {
+                TINTopology topology = loadTopology();
+                TriangleGridIndex index = new TriangleGridIndex(topology);
+                assertTrue(index.getCell(-1.0e9, -1.0e9) == -1);
+                assertTrue(index.locate(-1.0e9, -1.0e9) == TINTopology.NO_ELEMENT);
+                assertTrue(index.getMinX() <= index.getMaxX());
+                assertTrue(index.getMinY() <= index.getMaxY());
+        }
+}
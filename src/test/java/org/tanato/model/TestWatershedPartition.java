@@ -0,0 +1,180 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.gdms.data.SQLDataSourceFactory;
+import org.gdms.driver.DataSet;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.SyntheticTIN;
+
+/**
+ * Tests on the partition of a whole TIN in watersheds.
+ * @author alexis
+ */
+public class TestWatershedPartition extends TestCase {
+
+        private SQLDataSourceFactory dsf = new SQLDataSourceFactory("target", "target");
+
+        private TINTopology loadTopology(String prefix) throws Exception {
+                return TINTestData.loadTopology(dsf, prefix);
+        }
+
+        /**
+         * Each triangle belongs to exactly one basin, and each basin has its own
+         * outlet, that exists in the TIN.
+         * @param topology
+         */
+        private void checkPartition(TINTopology topology) {
+                WatershedPartition partition = new WatershedPartition(topology);
+                int basinCount = partition.getBasinCount();
+                assertTrue(basinCount > 0);
+                int[] sizes = new int[basinCount];
+                for (int gid = 0; gid < topology.getTriangleGIDBound(); gid++) {
+                        int basin = partition.getTriangleBasin(gid);
+                        if (topology.hasTriangle(gid)) {
+                                assertTrue(basin >= 0 && basin < basinCount);
+                                sizes[basin]++;
+                        } else {
+                                assertTrue(basin == -1);
+                        }
+                }
+                int total = 0;
+                Set<String> outlets = new HashSet<String>();
+                for (int b = 0; b < basinCount; b++) {
+                        assertTrue(sizes[b] == partition.getBasinSize(b));
+                        total += sizes[b];
+                        int gid = partition.getOutletGID(b);
+                        switch (partition.getOutletType(b)) {
+                                case WatershedPartition.OUTLET_POINT:
+                                        assertTrue(topology.hasPoint(gid));
+                                        break;
+                                case WatershedPartition.OUTLET_EDGE:
+                                        assertTrue(topology.hasEdge(gid));
+                                        break;
+                                default:
+                                        //A triangle that is an outlet keeps its own water.
+                                        assertTrue(partition.getTriangleBasin(gid) == b);
+                        }
+                        assertTrue(outlets.add(partition.getOutletType(b) + ":" + gid));
+                }
+                assertTrue(total == topology.getTriangleCount());
+        }
+
+        public void testPartitionWithoutFlat() throws Exception {
+                checkPartition(loadTopology("without_flat"));
+        }
+
+        /**
+         * Flat areas make cycles in the receivers, they must not prevent the
+         * partition from being computed.
+         * @throws Exception
+         */
+        public void testPartitionWithFlat() throws Exception {
+                checkPartition(loadTopology("with_flat"));
+        }
+
+        /**
+         * Build the topology of a TIN whose points are on a grid of 10 m, with
+         * the given elevations. The edges and their left and right triangles
+         * are computed from the triangles.
+         * @param z the elevation of each point, by row
+         * @param triangles the points of each triangle, given by (column, row)
+         * @return
+         */
+        private TINTopology createTopology(double[][] z, List<int[][]> triangles) throws Exception {
+                int columns = z[0].length;
+                double[][] coordinates = new double[z.length * columns][];
+                for (int row = 0; row < z.length; row++) {
+                        for (int column = 0; column < columns; column++) {
+                                coordinates[row * columns + column] = new double[]{10 * column, 10 * row, z[row][column]};
+                        }
+                }
+                SyntheticTIN tin = new SyntheticTIN(coordinates);
+                for (int[][] tri : triangles) {
+                        tin.addTriangle(tri[0][1] * columns + tri[0][0], tri[1][1] * columns + tri[1][0],
+                                tri[2][1] * columns + tri[2][0]);
+                }
+                DataSet[] tables = tin.getTables();
+                return new TINTopology(tables[0], tables[1], tables[2], new NullProgressMonitor());
+        }
+
+        /**
+         * Two pits, at (1, 1) and (3, 1), in a TIN of 5 x 3 points where all
+         * the other points are at 10 m. Each triangle has one of the pits as a
+         * vertex, at the end of the diagonal of its cell, and its water goes
+         * down to this pit. The pits are the outlets of two basins of 8
+         * triangles, whose limit is the column 2.
+         * @throws Exception
+         */
+        public void testPartitionOfTwoPits() throws Exception {
+                double[][] z = new double[][]{
+                        {10, 10, 10, 10, 10},
+                        {10, 0, 10, 2, 10},
+                        {10, 10, 10, 10, 10}};
+                List<int[][]> triangles = new ArrayList<int[][]>();
+                List<Integer> pits = new ArrayList<Integer>();
+                for (int column = 0; column < 4; column++) {
+                        for (int row = 0; row < 2; row++) {
+                                int pit = column < 2 ? 1 : 3;
+                                int other = 2 * column + 1 - pit;
+                                int[] p = new int[]{pit, 1};
+                                int[] q = new int[]{other, 2 * row};
+                                triangles.add(new int[][]{p, q, new int[]{pit, 2 * row}});
+                                triangles.add(new int[][]{p, q, new int[]{other, 1}});
+                                pits.add(5 + pit);
+                                pits.add(5 + pit);
+                        }
+                }
+                TINTopology topology = createTopology(z, triangles);
+                checkPartition(topology);
+                WatershedPartition partition = new WatershedPartition(topology);
+                assertEquals(2, partition.getBasinCount());
+                for (int gid = 0; gid < triangles.size(); gid++) {
+                        int basin = partition.getTriangleBasin(gid);
+                        assertEquals(WatershedPartition.OUTLET_POINT, partition.getOutletType(basin));
+                        assertEquals(pits.get(gid).intValue(), partition.getOutletGID(basin));
+                        assertEquals(8, partition.getBasinSize(basin));
+                }
+                assertTrue(partition.getTriangleBasin(0) != partition.getTriangleBasin(triangles.size() - 1));
+        }
+}
@@ -0,0 +1,89 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class ChannelChainIndexTest extends TestCase {
+
+        /**
+         * Two tributaries join a river : 0 -> 1 -> 2 and 3 -> 1. The edge 4
+         * is alone, and the edge 5 is not a channel.
+         */
+        public void testOutlets() {
+                ChannelChainIndex chains = new ChannelChainIndex(6);
+                chains.setNext(3, 30, 1);
+                chains.setNext(0, 10, 1);
+                chains.setNext(1, 20, 2);
+                chains.setNext(2, 40, ChannelChainIndex.NO_ELEMENT);
+                chains.setNext(4, 50, ChannelChainIndex.NO_ELEMENT);
+                chains.finish(0);
+                assertEquals(5, chains.getChannelEdgeCount());
+                assertEquals(2, chains.getOutlet(0));
+                assertEquals(2, chains.getOutlet(3));
+                assertEquals(2, chains.getOutlet(2));
+                assertEquals(4, chains.getOutlet(4));
+                assertEquals(3, chains.getChainLength(0));
+                assertEquals(3, chains.getChainLength(3));
+                assertEquals(2, chains.getChainLength(1));
+                assertEquals(1, chains.getChainLength(4));
+                assertEquals(1, chains.getNextEdge(3));
+                assertEquals(20, chains.getLowPoint(1));
+                assertTrue(chains.isChannelEdge(4));
+                assertFalse(chains.isChannelEdge(5));
+                assertFalse(chains.isChannelEdge(-1));
+        }
+
+        /**
+         * A loop is cut so that the chains still have an outlet.
+         */
+        public void testLoop() {
+                ChannelChainIndex chains = new ChannelChainIndex(3);
+                chains.setNext(0, 10, 1);
+                chains.setNext(1, 11, 2);
+                chains.setNext(2, 12, 0);
+                chains.finish(0);
+                assertEquals(2, chains.getOutlet(0));
+                assertEquals(3, chains.getChainLength(0));
+                assertEquals(ChannelChainIndex.NO_ELEMENT, chains.getNextEdge(2));
+        }
+}
@@ -0,0 +1,115 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import junit.framework.TestCase;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.jhydrocell.hydronetwork.HydroProperties;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.SyntheticTIN;
+
+/**
+ *
+ * @author alexis
+ */
+public class DropletFollowerTest extends TestCase {
+
+        private GeometryFactory gf = new GeometryFactory();
+
+        /**
+         * A valley that goes down along the x axis, with a ditch in its
+         * bottom. The points of the ditch are 0 to 3, at x = 0, 10, 20, 30, the
+         * points 4 to 7 are on the north side and 8 to 11 on the south side.
+         * The edges of the ditch are 0 to 2, the other ones are numbered in the
+         * order they appear in the triangles. The left and right triangles of
+         * the edges are computed.
+         * @param inputPoint the point of the ditch that is a sewer input
+         * @return the points, edges and triangles tables
+         */
+        private DataSet[] getDitchTIN(int inputPoint) {
+                double[][] coordinates = new double[12][];
+                for (int i = 0; i < 4; i++) {
+                        coordinates[i] = new double[]{10 * i, 0, 10 - i};
+                        coordinates[4 + i] = new double[]{10 * i, 10, 15 - i};
+                        coordinates[8 + i] = new double[]{10 * i, -10, 15 - i};
+                }
+                SyntheticTIN tin = new SyntheticTIN(coordinates);
+                tin.setPointProperty(inputPoint, HydroProperties.SEWER_INPUT);
+                for (int i = 0; i < 3; i++) {
+                        tin.addEdge(i, i + 1, HydroProperties.DITCH);
+                }
+                for (int i = 0; i < 3; i++) {
+                        tin.addTriangle(i, i + 1, 5 + i);
+                        tin.addTriangle(i, 5 + i, 4 + i);
+                        tin.addTriangle(i, 8 + i, 9 + i);
+                        tin.addTriangle(i, 9 + i, i + 1);
+                }
+                return tin.getTables();
+        }
+
+        /**
+         * The point 1, in the middle of the ditch, is a sewer input : the chain
+         * of the first edge of the ditch ends there, and a droplet that falls
+         * in the ditch goes into the sewers at this point instead of going
+         * down to the end of the ditch.
+         * @throws Exception
+         */
+        public void testSewerInputInChannelChain() throws Exception {
+                DropletFollower follower = new DropletFollower(null, getDitchTIN(1),
+                        new Value[]{ValueFactory.createValue(HydroProperties.DITCH | HydroProperties.SEWER_INPUT)},
+                        new NullProgressMonitor());
+                ChannelChainIndex chains = follower.getChannelChains();
+                assertNotNull(chains);
+                assertEquals(3, chains.getChannelEdgeCount());
+                assertEquals(1, chains.getLowPoint(0));
+                assertEquals(ChannelChainIndex.NO_ELEMENT, chains.getNextEdge(0));
+                assertEquals(0, chains.getOutlet(0));
+                assertEquals(2, chains.getNextEdge(1));
+                assertEquals(2, chains.getOutlet(1));
+
+                DropletPath path = follower.getPath(gf.createPoint(new Coordinate(2, 1)));
+                int last = path.size() - 1;
+                assertEquals(10.0, path.getX(last), 1e-9);
+                assertEquals(0.0, path.getY(last), 1e-9);
+                assertEquals(DropletDiagnostics.END_SEWER_INPUT, path.getDiagnostics().getEndReason());
+        }
+}
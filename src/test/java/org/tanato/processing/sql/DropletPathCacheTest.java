@@ -0,0 +1,132 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class DropletPathCacheTest extends TestCase {
+
+        /**
+         * The end of a path can be retrieved from each of its states.
+         */
+        public void testGetSuffix() {
+                DropletPathCache cache = new DropletPathCache(10);
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 3, -1);
+                path.add(1, 0, 2, 4);
+                path.add(2, 0, 1, 5);
+                cache.put(new DropletPathCache.State(4, 7, -1, 0), path, 1);
+                cache.put(new DropletPathCache.State(5, 8, -1, 0), path, 3);
+                DropletPath target = new DropletPath();
+                target.add(5, 5, 5, -1);
+                assertTrue(cache.appendTo(new DropletPathCache.State(4, 7, -1, 0), target));
+                assertEquals(3, target.size());
+                assertEquals(1.0, target.getX(1));
+                assertEquals(4, target.getGID(1));
+                assertEquals(1.0, target.getZ(2));
+                assertTrue(cache.appendTo(new DropletPathCache.State(5, 8, -1, 0), target));
+                assertEquals(3, target.size());
+                assertEquals(2, cache.getHits());
+                assertEquals(2, cache.getReusedPoints());
+        }
+
+        /**
+         * The whole state is used to find a path.
+         */
+        public void testStateDifferences() {
+                DropletPathCache cache = new DropletPathCache(10);
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 3, -1);
+                path.add(1, 0, 2, 4);
+                cache.put(new DropletPathCache.State(4, 7, 2, 1), path, 0);
+                DropletPath target = new DropletPath();
+                assertFalse(cache.appendTo(new DropletPathCache.State(4, 7, 2, 2), target));
+                assertFalse(cache.appendTo(new DropletPathCache.State(4, 7, -1, 1), target));
+                assertFalse(cache.appendTo(new DropletPathCache.State(4, 6, 2, 1), target));
+                assertFalse(cache.appendTo(new DropletPathCache.State(3, 7, 2, 1), target));
+                assertEquals(0, target.size());
+                assertTrue(cache.appendTo(new DropletPathCache.State(4, 7, 2, 1), target));
+                assertEquals(5, cache.getLookups());
+                assertEquals(1, cache.getHits());
+        }
+
+        /**
+         * A path that ends with a cached one gets its end reason.
+         */
+        public void testDiagnostics() {
+                DropletPathCache cache = new DropletPathCache(10);
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 3, -1);
+                path.add(3, 4, 2, 4);
+                path.add(6, 8, 1, 5);
+                path.getDiagnostics().setEndReason(DropletDiagnostics.END_MESH_BORDER);
+                cache.put(new DropletPathCache.State(4, 7, -1, 0), path.copy(), 1);
+                assertEquals(10.0, path.getLength(), 1e-12);
+                DropletPath target = new DropletPath();
+                target.add(0, 4, 5, -1);
+                assertTrue(cache.appendTo(new DropletPathCache.State(4, 7, -1, 0), target));
+                assertEquals(DropletDiagnostics.END_MESH_BORDER, target.getDiagnostics().getEndReason());
+                assertEquals(2, target.getDiagnostics().getReusedPointCount());
+                assertEquals(8.0, target.getLength(), 1e-12);
+                target.clear();
+                assertEquals(DropletDiagnostics.END_UNKNOWN, target.getDiagnostics().getEndReason());
+                assertEquals(0, target.getDiagnostics().getReusedPointCount());
+        }
+
+        /**
+         * The states that have not been used for the longest time are removed.
+         */
+        public void testEviction() {
+                DropletPathCache cache = new DropletPathCache(2);
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 3, -1);
+                DropletPath target = new DropletPath();
+                cache.put(new DropletPathCache.State(1, 1, -1, 0), path, 0);
+                cache.put(new DropletPathCache.State(2, 2, -1, 0), path, 0);
+                assertTrue(cache.appendTo(new DropletPathCache.State(1, 1, -1, 0), target));
+                cache.put(new DropletPathCache.State(3, 3, -1, 0), path, 0);
+                assertEquals(2, cache.size());
+                assertFalse(cache.appendTo(new DropletPathCache.State(2, 2, -1, 0), target));
+                assertTrue(cache.appendTo(new DropletPathCache.State(1, 1, -1, 0), target));
+                assertTrue(cache.appendTo(new DropletPathCache.State(3, 3, -1, 0), target));
+        }
+}
@@ -0,0 +1,132 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class DropletPathTest extends TestCase {
+
+        /**
+         * Vertices crossing triangles are removed when they are nearly aligned.
+         */
+        public void testSimplifyAlignedVertices() {
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 10, -1);
+                path.add(1, 0.01, 9, -1);
+                path.add(2, -0.01, 8, -1);
+                path.add(3, 0, 7, -1);
+                path.add(4, 2, 6, -1);
+                path.add(5, 0, 5, -1);
+                path.getDiagnostics().setLength(path.getLength());
+                DropletPath result = new DropletPath();
+                result.setSimplified(path, 0.1);
+                assertEquals(4, result.size());
+                // The diagnostics keep the length of the traced path
+                assertTrue(result.getLength() < path.getLength());
+                assertEquals(path.getLength(), result.getDiagnostics().getLength());
+                assertEquals(0.0, result.getX(0));
+                assertEquals(3.0, result.getX(1));
+                assertEquals(4.0, result.getX(2));
+                assertEquals(5.0, result.getX(3));
+                assertEquals(7.0, result.getZ(1));
+
+                // Exactly aligned vertices are removed with a 0 tolerance
+                result.setSimplified(path, 0);
+                assertEquals(path.size(), result.size());
+                path.clear();
+                path.add(0, 0, 3, -1);
+                path.add(1, 1, 2, -1);
+                path.add(2, 2, 1, -1);
+                result.setSimplified(path, 0);
+                assertEquals(2, result.size());
+        }
+
+        /**
+         * Points of the TIN, edge entries and features are always kept.
+         */
+        public void testSimplifyKeepsTopology() {
+                DropletPath path = new DropletPath();
+                path.add(0, 0, 10, -1);
+                path.add(1, 0, 9, -1, true);
+                path.add(2, 0, 8, -1);
+                // The droplet enters an edge and follows it to a point
+                path.add(3, 0, 7, -1);
+                path.add(4, 0, 6, 12);
+                path.add(5, 0, 5, -1);
+                path.add(6, 0, 4, -1);
+                path.getDiagnostics().setEndReason(DropletDiagnostics.END_PIT);
+                DropletPath result = new DropletPath();
+                result.setSimplified(path, 1);
+                assertEquals(5, result.size());
+                assertEquals(1.0, result.getX(1));
+                assertTrue(result.isOnFeature(1));
+                assertEquals(3.0, result.getX(2));
+                assertEquals(12, result.getGID(3));
+                assertEquals(6.0, result.getX(4));
+                assertEquals(DropletDiagnostics.END_PIT, result.getDiagnostics().getEndReason());
+        }
+
+        /**
+         * A trimmed path is empty, and can be filled again.
+         */
+        public void testTrim() {
+                DropletPath path = new DropletPath();
+                for (int i = 0; i < 2000; i++) {
+                        path.add(i, 0, -i, -1);
+                }
+                DropletPath result = new DropletPath();
+                result.setSimplified(path, 1);
+                path.getDiagnostics().setEndReason(DropletDiagnostics.END_PIT);
+                path.trim(16);
+                result.trim(16);
+                assertEquals(0, path.size());
+                assertEquals(DropletDiagnostics.END_UNKNOWN, path.getDiagnostics().getEndReason());
+                for (int i = 0; i < 20; i++) {
+                        path.add(i, 1, i, i);
+                }
+                assertEquals(20, path.size());
+                assertEquals(19.0, path.getX(19));
+                assertEquals(19, path.getGID(19));
+                result.setSimplified(path, 1);
+                assertEquals(20, result.size());
+        }
+}
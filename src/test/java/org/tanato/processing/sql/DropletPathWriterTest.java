@@ -0,0 +1,91 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class DropletPathWriterTest extends TestCase {
+
+        /**
+         * Records the paths it is asked to save.
+         */
+        private static class RecordingFunction extends ST_DropletLine {
+
+                private List<Integer> indexes = new ArrayList<Integer>();
+                private List<Integer> sizes = new ArrayList<Integer>();
+
+                @Override
+                protected void saveDropletData(int index, Geometry geom, DropletPath result) {
+                        indexes.add(index);
+                        sizes.add(result.size());
+                }
+        }
+
+        /**
+         * More paths than slots are written, in the order they are given, and
+         * the slots are reused.
+         * @throws Exception
+         */
+        public void testWriteInOrder() throws Exception {
+                RecordingFunction function = new RecordingFunction();
+                DropletPathWriter pathWriter = new DropletPathWriter(function, 4);
+                DropletPath path = new DropletPath();
+                for (int i = 0; i < 1000; i++) {
+                        path.clear();
+                        for (int k = 0; k <= i % 7; k++) {
+                                path.add(k, k, k, -1);
+                        }
+                        DropletPathWriter.Slot slot = pathWriter.take();
+                        slot.set(i, null, path);
+                        pathWriter.write(slot);
+                }
+                pathWriter.finish();
+                assertEquals(1000, function.indexes.size());
+                for (int i = 0; i < 1000; i++) {
+                        assertEquals(i, function.indexes.get(i).intValue());
+                        assertEquals(i % 7 + 1, function.sizes.get(i).intValue());
+                }
+        }
+}
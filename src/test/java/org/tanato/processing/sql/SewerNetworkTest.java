@@ -0,0 +1,173 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import junit.framework.TestCase;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.jhydrocell.hydronetwork.HydroProperties;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
+
+/**
+ *
+ * @author alexis
+ */
+public class SewerNetworkTest extends TestCase {
+
+        private GeometryFactory gf = new GeometryFactory();
+
+        private void addPoint(MemoryDataSetDriver points, int gid, double x, double y, double z, int property) {
+                points.addValues(new Value[]{ValueFactory.createValue(gf.createPoint(new Coordinate(x, y, z))),
+                                ValueFactory.createValue(gid), ValueFactory.createValue(property)});
+        }
+
+        private void addEdge(MemoryDataSetDriver edges, int gid, int start, int end, int property) {
+                edges.addValues(new Value[]{ValueFactory.createValue(gid), ValueFactory.createValue(start),
+                                ValueFactory.createValue(end), ValueFactory.createValue(-1), ValueFactory.createValue(-1),
+                                ValueFactory.createValue(property)});
+        }
+
+        /**
+         * Two outputs, 2 and 5, drain the network 0 - 1 - 2 - 3 - 4 - 5. The
+         * input 0 goes to 2, that is the nearest. The input 3 is nearer to 2,
+         * but 2 is higher, so it does not go anywhere. The input 6 is not in
+         * the network.
+         * @throws Exception
+         */
+        public void testRoutes() throws Exception {
+                MemoryDataSetDriver points = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TINSchema.PROPERTY_FIELD}));
+                addPoint(points, 0, 0, 0, 10, HydroProperties.SEWER_INPUT | HydroProperties.SEWER);
+                addPoint(points, 1, 1, 0, 8, HydroProperties.SEWER);
+                addPoint(points, 2, 2, 0, 5, HydroProperties.SEWER_OUTPUT | HydroProperties.SEWER);
+                addPoint(points, 3, 3, 0, 4, HydroProperties.SEWER_INPUT | HydroProperties.SEWER);
+                addPoint(points, 4, 10, 0, 3, HydroProperties.SEWER);
+                addPoint(points, 5, 20, 0, 6, HydroProperties.SEWER_OUTPUT | HydroProperties.SEWER);
+                addPoint(points, 6, 0, 5, 9, HydroProperties.SEWER_INPUT);
+                MemoryDataSetDriver edges = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.STARTPOINT_NODE_FIELD, TINSchema.ENDPOINT_NODE_FIELD,
+                                TINSchema.LEFT_TRIANGLE_FIELD, TINSchema.RIGHT_TRIANGLE_FIELD, TINSchema.PROPERTY_FIELD}));
+                addEdge(edges, 0, 0, 1, HydroProperties.SEWER);
+                addEdge(edges, 1, 2, 1, HydroProperties.SEWER);
+                addEdge(edges, 2, 2, 3, HydroProperties.SEWER);
+                addEdge(edges, 3, 3, 4, HydroProperties.SEWER);
+                addEdge(edges, 4, 4, 5, HydroProperties.SEWER);
+                addEdge(edges, 5, 0, 6, HydroProperties.WALL);
+                MemoryDataSetDriver triangles = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD,
+                                TINSchema.EDGE_2_GID_FIELD}));
+                TINTopology topology = new TINTopology(points, edges, triangles, new NullProgressMonitor());
+
+                SewerNetwork sewers = new SewerNetwork(topology);
+                assertEquals(3, sewers.getInputCount());
+                assertEquals(1, sewers.getRouteCount());
+                assertTrue(sewers.hasRoute(0));
+                assertFalse(sewers.hasRoute(3));
+                assertFalse(sewers.hasRoute(6));
+                assertFalse(sewers.hasRoute(1));
+                assertEquals(2, sewers.getOutput(0));
+                int start = sewers.getRouteStart(0);
+                assertEquals(3, sewers.getRouteEnd(0) - start);
+                assertEquals(0, sewers.getRoutePoint(start));
+                assertEquals(SewerNetwork.NO_ELEMENT, sewers.getRouteEdge(start));
+                assertEquals(1, sewers.getRoutePoint(start + 1));
+                assertEquals(0, sewers.getRouteEdge(start + 1));
+                assertEquals(2, sewers.getRoutePoint(start + 2));
+                assertEquals(1, sewers.getRouteEdge(start + 2));
+        }
+
+        /**
+         * The output 1 is the nearest of the input 0, but it is higher. The
+         * water goes to the lower output 3, through 2.
+         * @throws Exception
+         */
+        public void testNearestLowerOutput() throws Exception {
+                MemoryDataSetDriver points = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.GEOMETRY), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GEOM_FIELD, TINSchema.GID, TINSchema.PROPERTY_FIELD}));
+                addPoint(points, 0, 0, 0, 10, HydroProperties.SEWER_INPUT | HydroProperties.SEWER);
+                addPoint(points, 1, 1, 0, 12, HydroProperties.SEWER_OUTPUT | HydroProperties.SEWER);
+                addPoint(points, 2, -2, 0, 8, HydroProperties.SEWER);
+                addPoint(points, 3, -5, 0, 2, HydroProperties.SEWER_OUTPUT | HydroProperties.SEWER);
+                MemoryDataSetDriver edges = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.STARTPOINT_NODE_FIELD, TINSchema.ENDPOINT_NODE_FIELD,
+                                TINSchema.LEFT_TRIANGLE_FIELD, TINSchema.RIGHT_TRIANGLE_FIELD, TINSchema.PROPERTY_FIELD}));
+                addEdge(edges, 0, 0, 1, HydroProperties.SEWER);
+                addEdge(edges, 1, 2, 0, HydroProperties.SEWER);
+                addEdge(edges, 2, 3, 2, HydroProperties.SEWER);
+                MemoryDataSetDriver triangles = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, TINSchema.EDGE_0_GID_FIELD, TINSchema.EDGE_1_GID_FIELD,
+                                TINSchema.EDGE_2_GID_FIELD}));
+                TINTopology topology = new TINTopology(points, edges, triangles, new NullProgressMonitor());
+
+                SewerNetwork sewers = new SewerNetwork(topology);
+                assertEquals(1, sewers.getInputCount());
+                assertEquals(1, sewers.getRouteCount());
+                assertTrue(sewers.hasRoute(0));
+                assertEquals(3, sewers.getOutput(0));
+                int start = sewers.getRouteStart(0);
+                assertEquals(3, sewers.getRouteEnd(0) - start);
+                assertEquals(0, sewers.getRoutePoint(start));
+                assertEquals(SewerNetwork.NO_ELEMENT, sewers.getRouteEdge(start));
+                assertEquals(2, sewers.getRoutePoint(start + 1));
+                assertEquals(1, sewers.getRouteEdge(start + 1));
+                assertEquals(3, sewers.getRoutePoint(start + 2));
+                assertEquals(2, sewers.getRouteEdge(start + 2));
+        }
+}
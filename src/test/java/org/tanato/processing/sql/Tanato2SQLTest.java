@@ -501,6 +501,124 @@ public class Tanato2SQLTest extends TestCase {
                 dsTriangles.close();
         }
 
+        public void testST_DropletDiagnostics() throws Exception {
+                DataSource dsPoints = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_points.shp"));
+                DataSource dsEdges = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_edges.shp"));
+                DataSource dsTriangles = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_triangles.shp"));
+                dsPoints.open();
+                dsEdges.open();
+                dsTriangles.open();
+
+                DefaultMetadata metadata = new DefaultMetadata();
+                metadata.addField("the_geom", TypeFactory.createType(Type.GEOMETRY));
+                MemoryDataSetDriver driver = new MemoryDataSetDriver(metadata);
+                WKTReader wKTReader = new WKTReader();
+                // triangle 5  -> edge 34 -> triangle 6 -> edge 30 -> edge 38 -> points 9
+                driver.addValues(new Value[]{ValueFactory.createValue(wKTReader.read("POINT (178.11619336849773 180.89460753843517)"))});
+                // far away from the TIN
+                driver.addValues(new Value[]{ValueFactory.createValue(wKTReader.read("POINT (-10000 -10000)"))});
+
+                DataSet sds = new ST_DropletDiagnostics().evaluate(dsf, new DataSet[]{dsPoints, dsEdges, dsTriangles, driver},
+                        new Value[]{}, new NullProgressMonitor());
+
+                assertEquals(2, sds.getRowCount());
+                Metadata md = sds.getMetadata();
+                int elements = sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.ELEMENTS_FIELD)).getAsInt();
+                int triangles = sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.TRIANGLES_FIELD)).getAsInt();
+                int edges = sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.EDGES_FIELD)).getAsInt();
+                int points = sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.POINTS_FIELD)).getAsInt();
+                assertTrue(triangles >= 2);
+                assertTrue(edges >= 3);
+                assertEquals(elements, triangles + edges + points);
+                assertTrue(sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.LENGTH_FIELD)).getAsDouble() > 0);
+                assertTrue(sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.DURATION_FIELD)).getAsLong() > 0);
+                assertFalse("unknown".equals(sds.getFieldValue(0, md.getFieldIndex(ST_DropletDiagnostics.END_REASON_FIELD)).getAsString()));
+
+                assertEquals(0, sds.getFieldValue(1, md.getFieldIndex(ST_DropletDiagnostics.ELEMENTS_FIELD)).getAsInt());
+                assertEquals("outside_mesh", sds.getFieldValue(1, md.getFieldIndex(ST_DropletDiagnostics.END_REASON_FIELD)).getAsString());
+                dsPoints.close();
+                dsEdges.close();
+                dsTriangles.close();
+        }
+
+        public void testST_DropletLineThreads() throws Exception {
+                DataSource dsPoints = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_points.shp"));
+                DataSource dsEdges = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_edges.shp"));
+                DataSource dsTriangles = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_triangles.shp"));
+                dsPoints.open();
+                dsEdges.open();
+                dsTriangles.open();
+
+                //A droplet starts from the center of each triangle
+                DefaultMetadata metadata = new DefaultMetadata();
+                metadata.addField("the_geom", TypeFactory.createType(Type.GEOMETRY));
+                MemoryDataSetDriver driver = new MemoryDataSetDriver(metadata);
+                int geomIndex = dsTriangles.getFieldIndexByName(TINSchema.GEOM_FIELD);
+                for (long i = 0; i < dsTriangles.getRowCount(); i++) {
+                        Geometry triangle = dsTriangles.getGeometry(i, geomIndex);
+                        driver.addValues(new Value[]{ValueFactory.createValue(triangle.getCentroid())});
+                }
+
+                DataSet[] tables = new DataSet[]{dsPoints, dsEdges, dsTriangles, driver};
+                DataSet single = new ST_DropletLine().evaluate(dsf, tables,
+                        new Value[]{ValueFactory.createValue(-1), ValueFactory.createValue(0)}, new NullProgressMonitor());
+                DataSet multi = new ST_DropletLine().evaluate(dsf, tables,
+                        new Value[]{ValueFactory.createValue(-1), ValueFactory.createValue(0), ValueFactory.createValue(4)},
+                        new NullProgressMonitor());
+
+                //Lines must be the same, in the same order
+                assertEquals(single.getRowCount(), multi.getRowCount());
+                int gidIndex = single.getMetadata().getFieldIndex(TINSchema.GID);
+                int lineIndex = MetadataUtilities.getGeometryFieldIndex(single.getMetadata());
+                for (long i = 0; i < single.getRowCount(); i++) {
+                        assertEquals(single.getFieldValue(i, gidIndex).getAsInt(), multi.getFieldValue(i, gidIndex).getAsInt());
+                        assertTrue(single.getGeometry(i, lineIndex).equalsExact(multi.getGeometry(i, lineIndex)));
+                }
+                dsPoints.close();
+                dsEdges.close();
+                dsTriangles.close();
+        }
+
+        public void testST_DropletLineGeneratedStartPoints() throws Exception {
+                DataSource dsPoints = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_points.shp"));
+                DataSource dsEdges = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_edges.shp"));
+                DataSource dsTriangles = dsf.getDataSource(new File("src/test/resources/data/tin/small_courbes_chezine/without_flat_triangles.shp"));
+                dsPoints.open();
+                dsEdges.open();
+                dsTriangles.open();
+
+                //A droplet starts from the center of each triangle
+                DefaultMetadata metadata = new DefaultMetadata();
+                metadata.addField("the_geom", TypeFactory.createType(Type.GEOMETRY));
+                MemoryDataSetDriver driver = new MemoryDataSetDriver(metadata);
+                int geomIndex = dsTriangles.getFieldIndexByName(TINSchema.GEOM_FIELD);
+                for (long i = 0; i < dsTriangles.getRowCount(); i++) {
+                        Geometry triangle = dsTriangles.getGeometry(i, geomIndex);
+                        driver.addValues(new Value[]{ValueFactory.createValue(triangle.getCentroid())});
+                }
+                DataSet fromTable = new ST_DropletLine().evaluate(dsf, new DataSet[]{dsPoints, dsEdges, dsTriangles, driver},
+                        new Value[]{}, new NullProgressMonitor());
+
+                //The same start points, generated by the function
+                DataSet[] tables = new DataSet[]{dsPoints, dsEdges, dsTriangles};
+                DataSet barycenters = new ST_DropletLine().evaluate(dsf, tables,
+                        new Value[]{ValueFactory.createValue(0.0)}, new NullProgressMonitor());
+                assertEquals(fromTable.getRowCount(), barycenters.getRowCount());
+
+                //A start point every 5 meters, the paths are saved in the order of the grid
+                DataSet grid = new ST_DropletLine().evaluate(dsf, tables,
+                        new Value[]{ValueFactory.createValue(-1), ValueFactory.createValue(0), ValueFactory.createValue(2),
+                                ValueFactory.createValue(5.0)}, new NullProgressMonitor());
+                assertTrue(grid.getRowCount() > 0);
+                int gidIndex = grid.getMetadata().getFieldIndex(TINSchema.GID);
+                for (long i = 1; i < grid.getRowCount(); i++) {
+                        assertTrue(grid.getFieldValue(i - 1, gidIndex).getAsInt() < grid.getFieldValue(i, gidIndex).getAsInt());
+                }
+                dsPoints.close();
+                dsEdges.close();
+                dsTriangles.close();
+        }
+
         /**
          * A method to check if the coordinate intersect a requiered geometry defined by its GID
          * @param coordinate
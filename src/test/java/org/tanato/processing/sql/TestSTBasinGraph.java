@@ -42,14 +42,28 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import junit.framework.TestCase;
 import org.gdms.data.SQLDataSourceFactory;
 import org.gdms.data.DataSource;
 import org.gdms.data.values.Value;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.sql.function.FunctionException;
 import org.jdelaunay.delaunay.tools.Tools;
+import org.jhydrocell.hydronetwork.HydroProperties;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.basin.BasinBuilder;
+import org.tanato.model.TINSchema;
+import org.tanato.model.TINTopology;
 
 /**
  * Tests on the ST_BasinGraph class.
@@ -100,5 +114,252 @@ public class TestSTBasinGraph extends TestCase {
                 edges.close();
                 triangles.close();
         }
-        
+
+        /**
+         * With the edges and the points processed by elevation, no EdgePart
+         * of the basin of the point 9 may be dropped after too many requeues.
+         * @throws Exception 
+         */
+        public void testBasinGraphNoDroppedEdgePart() throws Exception{
+                DataSource points = dsf.getDataSource(new File(pointsWithoutFlat));
+                DataSource edges = dsf.getDataSource(new File(edgesWithoutFlat));
+                DataSource triangles = dsf.getDataSource(new File(trianglesWithoutFlat));
+                points.open();
+                edges.open();
+                triangles.open();
+                TINTopology topology = new TINTopology(points, edges, triangles, new NullProgressMonitor());
+                BasinBuilder bb = new BasinBuilder(topology, 9, BasinBuilder.TIN_POINT);
+                bb.computeBasin();
+                assertEquals(0, bb.getDroppedCount());
+                assertFalse(bb.getBasin().isEmpty());
+                points.close();
+                edges.close();
+                triangles.close();
+        }
+
+        /**
+         * Basins computed from a table of outlets, by several threads, must be
+         * the ones computed one by one, in the order of the outlets.
+         * @throws Exception 
+         */
+        public void testBasinGraphOutlets() throws Exception{
+                ST_BasinGraph fun = new ST_BasinGraph();
+                DataSource points = dsf.getDataSource(new File(pointsWithoutFlat));
+                DataSource edges = dsf.getDataSource(new File(edgesWithoutFlat));
+                DataSource triangles = dsf.getDataSource(new File(trianglesWithoutFlat));
+                points.open();
+                edges.open();
+                triangles.open();
+                MemoryDataSetDriver outlets = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, ST_BasinGraph.TYPE_FIELD}));
+                outlets.addValues(ValueFactory.createValue(9), ValueFactory.createValue(0));
+                outlets.addValues(ValueFactory.createValue(4), ValueFactory.createValue(0));
+                outlets.addValues(ValueFactory.createValue(9), ValueFactory.createValue(0));
+                DataSet od = fun.evaluate(dsf,
+                        new DataSet[]{points, edges, triangles, outlets},
+                        new Value[]{ValueFactory.createValue(2)}, 
+                        null);
+                assertEquals(3, od.getRowCount());
+                for(int i = 0; i < 3; i++){
+                        int gid = outlets.getFieldValue(i, 0).getAsInt();
+                        DataSet single = fun.evaluate(dsf,
+                                new DataSource[]{points, edges, triangles},
+                                new Value[]{ValueFactory.createValue(gid), ValueFactory.createValue(0)}, 
+                                null);
+                        assertEquals(gid, od.getFieldValue(i, 1).getAsInt());
+                        assertEquals(0, od.getFieldValue(i, 2).getAsInt());
+                        assertTrue(single.getFieldValue(0, 0).getAsGeometry().equalsExact(
+                                od.getFieldValue(i, 0).getAsGeometry()));
+                }
+                points.close();
+                edges.close();
+                triangles.close();
+        }
+
+        /**
+         * An outlet of an unknown type, like a triangle, must be rejected
+         * before any basin is computed.
+         * @throws Exception 
+         */
+        public void testBasinGraphUnknownOutletType() throws Exception{
+                ST_BasinGraph fun = new ST_BasinGraph();
+                DataSource points = dsf.getDataSource(new File(pointsWithoutFlat));
+                DataSource edges = dsf.getDataSource(new File(edgesWithoutFlat));
+                DataSource triangles = dsf.getDataSource(new File(trianglesWithoutFlat));
+                points.open();
+                edges.open();
+                triangles.open();
+                MemoryDataSetDriver outlets = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, ST_BasinGraph.TYPE_FIELD}));
+                outlets.addValues(ValueFactory.createValue(9), ValueFactory.createValue(0));
+                outlets.addValues(ValueFactory.createValue(1), ValueFactory.createValue(2));
+                try {
+                        fun.evaluate(dsf,
+                                new DataSet[]{points, edges, triangles, outlets},
+                                new Value[]{ValueFactory.createValue(2)}, 
+                                null);
+                        fail();
+                } catch (FunctionException ex) {
+                        assertTrue(ex.getMessage().contains("row 1"));
+                }
+                points.close();
+                edges.close();
+                triangles.close();
+        }
+
+        /**
+         * Nested basins, merged from the basins of the upstream outlets, must
+         * have the area of the basins computed one by one. The outlets are the
+         * point 9, the lowest point and the lowest talweg edge inside its
+         * basin : both must be nested in the basin of 9, directly or through
+         * the other one, and the basin of a parent outlet must be greater
+         * than the ones of its children.
+         * @throws Exception 
+         */
+        public void testBasinGraphNestedOutlets() throws Exception{
+                ST_BasinGraph fun = new ST_BasinGraph();
+                DataSource points = dsf.getDataSource(new File(pointsWithoutFlat));
+                DataSource edges = dsf.getDataSource(new File(edgesWithoutFlat));
+                DataSource triangles = dsf.getDataSource(new File(trianglesWithoutFlat));
+                points.open();
+                edges.open();
+                triangles.open();
+                DataSet root = fun.evaluate(dsf,
+                        new DataSource[]{points, edges, triangles},
+                        new Value[]{ValueFactory.createValue(9), ValueFactory.createValue(0)}, 
+                        null);
+                Geometry rootBasin = root.getFieldValue(0, 0).getAsGeometry().getGeometryN(0);
+                int pointGID = getLowestInside(points, rootBasin, 9, -1);
+                int edgeGID = getLowestInside(edges, rootBasin, -1, HydroProperties.TALWEG);
+                assertTrue(pointGID != -1);
+                assertTrue(edgeGID != -1);
+                MemoryDataSetDriver outlets = new MemoryDataSetDriver(new DefaultMetadata(
+                        new Type[]{TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)},
+                        new String[]{TINSchema.GID, ST_BasinGraph.TYPE_FIELD}));
+                outlets.addValues(ValueFactory.createValue(9), ValueFactory.createValue(0));
+                outlets.addValues(ValueFactory.createValue(pointGID), ValueFactory.createValue(0));
+                outlets.addValues(ValueFactory.createValue(edgeGID), ValueFactory.createValue(1));
+                DataSet od = fun.evaluate(dsf,
+                        new DataSet[]{points, edges, triangles, outlets},
+                        new Value[]{ValueFactory.createValue(2), ValueFactory.createValue(true)}, 
+                        null);
+                assertEquals(3, od.getRowCount());
+                int[] parents = new int[3];
+                for(int i = 0; i < 3; i++){
+                        int gid = outlets.getFieldValue(i, 0).getAsInt();
+                        int type = outlets.getFieldValue(i, 1).getAsInt();
+                        DataSet single = fun.evaluate(dsf,
+                                new DataSource[]{points, edges, triangles},
+                                new Value[]{ValueFactory.createValue(gid), ValueFactory.createValue(type)}, 
+                                null);
+                        assertEquals(gid, od.getFieldValue(i, 1).getAsInt());
+                        assertEquals(type, od.getFieldValue(i, 2).getAsInt());
+                        double area = single.getFieldValue(0, 0).getAsGeometry().getArea();
+                        assertEquals(area, od.getFieldValue(i, 0).getAsGeometry().getArea(), area * 1e-6);
+                        parents[i] = -1;
+                        for(int p = 0; p < 3; p++){
+                                if(outlets.getFieldValue(p, 0).getAsInt() == od.getFieldValue(i, 3).getAsInt()
+                                        && outlets.getFieldValue(p, 1).getAsInt() == od.getFieldValue(i, 4).getAsInt()){
+                                        parents[i] = p;
+                                }
+                        }
+                }
+                assertEquals(-1, parents[0]);
+                assertEquals(-1, od.getFieldValue(0, 3).getAsInt());
+                for(int i = 1; i < 3; i++){
+                        //The point and the edge are in the basin of 9.
+                        assertTrue(parents[i] != -1 && parents[i] != i);
+                        int top = parents[i] == 0 ? 0 : parents[parents[i]];
+                        assertEquals(0, top);
+                        assertTrue(od.getFieldValue(parents[i], 0).getAsGeometry().getArea()
+                                >= od.getFieldValue(i, 0).getAsGeometry().getArea());
+                }
+                points.close();
+                edges.close();
+                triangles.close();
+        }
+
+        /**
+         * Get the GID of the lowest feature of the table that is inside the
+         * basin.
+         * @param ds
+         * @param basin
+         * @param ignored
+         *      a GID that is not returned
+         * @param property
+         *      a property the feature must have, or -1
+         * @return
+         *      the GID of the feature, or -1.
+         * @throws Exception 
+         */
+        private int getLowestInside(DataSet ds, Geometry basin, int ignored, int property) throws Exception{
+                int geomIndex = MetadataUtilities.getGeometryFieldIndex(ds.getMetadata());
+                int gidIndex = ds.getMetadata().getFieldIndex(TINSchema.GID);
+                int propertyIndex = ds.getMetadata().getFieldIndex(TINSchema.PROPERTY_FIELD);
+                int found = -1;
+                double lowest = Double.POSITIVE_INFINITY;
+                for(long i = 0; i < ds.getRowCount(); i++){
+                        int gid = ds.getFieldValue(i, gidIndex).getAsInt();
+                        Geometry geom = ds.getGeometry(i, geomIndex);
+                        if(gid == ignored || !basin.contains(geom)
+                                || (property != -1 && !HydroProperties.check(ds.getFieldValue(i, propertyIndex).getAsInt(), property))){
+                                continue;
+                        }
+                        double z = Double.POSITIVE_INFINITY;
+                        for(Coordinate c : geom.getCoordinates()){
+                                z = Math.min(z, c.z);
+                        }
+                        if(z < lowest){
+                                lowest = z;
+                                found = gid;
+                        }
+                }
+                return found;
+        }
+
+        /**
+         * In the parts mode, the polygons of a basin, written one by one with
+         * the triangle they lie in, must cover the basin computed as a whole.
+         * @throws Exception 
+         */
+        public void testBasinGraphParts() throws Exception{
+                ST_BasinGraph fun = new ST_BasinGraph();
+                DataSource points = dsf.getDataSource(new File(pointsWithoutFlat));
+                DataSource edges = dsf.getDataSource(new File(edgesWithoutFlat));
+                DataSource triangles = dsf.getDataSource(new File(trianglesWithoutFlat));
+                points.open();
+                edges.open();
+                triangles.open();
+                DataSet whole = fun.evaluate(dsf,
+                        new DataSource[]{points, edges, triangles},
+                        new Value[]{ValueFactory.createValue(9), ValueFactory.createValue(0)}, 
+                        null);
+                DataSet parts = fun.evaluate(dsf,
+                        new DataSource[]{points, edges, triangles},
+                        new Value[]{ValueFactory.createValue(9), ValueFactory.createValue(0),
+                                ValueFactory.createValue(true)}, 
+                        null);
+                assertTrue(parts.getRowCount() > 0);
+                List<Geometry> polygons = new ArrayList<Geometry>();
+                for(long i = 0; i < parts.getRowCount(); i++){
+                        assertEquals(9, parts.getFieldValue(i, 1).getAsInt());
+                        assertEquals(0, parts.getFieldValue(i, 2).getAsInt());
+                        String part = parts.getFieldValue(i, 3).getAsString();
+                        if(part.equals(ST_BasinGraph.POLYGON_PART)){
+                                assertTrue(parts.getFieldValue(i, 4).getAsInt() >= 0);
+                                polygons.add(parts.getFieldValue(i, 0).getAsGeometry());
+                        } else {
+                                assertEquals(ST_BasinGraph.LINE_PART, part);
+                                assertTrue(parts.getFieldValue(i, 4).getAsInt() >= 0
+                                        || parts.getFieldValue(i, 5).getAsInt() >= 0);
+                        }
+                }
+                double area = whole.getFieldValue(0, 0).getAsGeometry().getArea();
+                assertEquals(area, UnaryUnionOp.union(polygons).getArea(), area * 1e-6);
+                points.close();
+                edges.close();
+                triangles.close();
+        }
 }
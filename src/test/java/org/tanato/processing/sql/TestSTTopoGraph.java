@@ -0,0 +1,99 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.gdms.data.DataSource;
+import org.gdms.data.SQLDataSourceFactory;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.tanato.model.TINSchema;
+
+/**
+ * Tests on the ST_TopoGraph class.
+ * @author alexis
+ */
+public class TestSTTopoGraph extends TestCase {
+
+        private SQLDataSourceFactory dsf = new SQLDataSourceFactory("target", "target");
+        private String trianglesWithoutFlat = "src/test/resources/data/tin/small_courbes_chezine/without_flat_triangles.shp";
+        private String edgesWithoutFlat = "src/test/resources/data/tin/small_courbes_chezine/without_flat_edges.shp";
+
+        /**
+         * The nodes of the graph must have unique GIDs, and the start and end
+         * nodes of each edge of the graph must be in the nodes table.
+         * @throws Exception
+         */
+        public void testNodesOfTheEdges() throws Exception {
+                dsf.getSourceManager().register("chezine_edges", new File(edgesWithoutFlat));
+                dsf.getSourceManager().register("chezine_triangles", new File(trianglesWithoutFlat));
+                DataSource edges = dsf.getDataSource("chezine_edges");
+                DataSource triangles = dsf.getDataSource("chezine_triangles");
+                edges.open();
+                triangles.open();
+                ST_TopoGraph fun = new ST_TopoGraph();
+                fun.evaluate(dsf, new DataSet[]{edges, triangles}, new Value[]{}, new NullProgressMonitor());
+                edges.close();
+                triangles.close();
+                DataSource nodes = dsf.getDataSource("chezine_graphTopo_nodes");
+                DataSource graphEdges = dsf.getDataSource("chezine_graphTopo_edges");
+                nodes.open();
+                graphEdges.open();
+                int gidIndex = nodes.getFieldIndexByName(TINSchema.GID);
+                Set<Integer> gids = new HashSet<Integer>();
+                for (int i = 0; i < nodes.getRowCount(); i++) {
+                        int gid = nodes.getFieldValue(i, gidIndex).getAsInt();
+                        assertTrue("The node " + gid + " is duplicated", gids.add(gid));
+                }
+                assertTrue(graphEdges.getRowCount() > 0);
+                int startIndex = graphEdges.getFieldIndexByName(TINSchema.STARTPOINT_NODE_FIELD);
+                int endIndex = graphEdges.getFieldIndexByName(TINSchema.ENDPOINT_NODE_FIELD);
+                for (int i = 0; i < graphEdges.getRowCount(); i++) {
+                        int start = graphEdges.getFieldValue(i, startIndex).getAsInt();
+                        int end = graphEdges.getFieldValue(i, endIndex).getAsInt();
+                        assertTrue("The start node " + start + " is missing", gids.contains(start));
+                        assertTrue("The end node " + end + " is missing", gids.contains(end));
+                }
+                nodes.close();
+                graphEdges.close();
+        }
+}
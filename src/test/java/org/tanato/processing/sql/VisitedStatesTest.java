@@ -0,0 +1,81 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class VisitedStatesTest extends TestCase {
+
+        public void testAdd() {
+                VisitedStates states = new VisitedStates();
+                assertTrue(states.add(1, 5, 1, 5));
+                assertTrue(states.add(2, 7, 1, 5));
+                assertTrue(states.add(3, 4, 2, 7));
+                assertTrue(states.add(2, 7, 3, 4));
+                assertTrue(states.add(2, 7, 1, -1));
+                assertFalse(states.add(2, 7, 1, 5));
+                assertFalse(states.add(3, 4, 2, 7));
+                // Same GIDs, other types
+                assertTrue(states.add(1, 4, 2, 7));
+                assertTrue(states.add(3, 4, 1, 7));
+                assertEquals(7, states.size());
+        }
+
+        /**
+         * The table grows, and is empty after clear.
+         */
+        public void testGrowAndClear() {
+                VisitedStates states = new VisitedStates();
+                for (int gid = 0; gid < 10000; gid++) {
+                        assertTrue(states.add(2, gid, 1, gid / 2));
+                }
+                for (int gid = 0; gid < 10000; gid++) {
+                        assertFalse(states.add(2, gid, 1, gid / 2));
+                }
+                assertEquals(10000, states.size());
+                states.clear();
+                assertEquals(0, states.size());
+                for (int gid = 0; gid < 10000; gid++) {
+                        assertTrue(states.add(2, gid, 1, gid / 2));
+                }
+        }
+}
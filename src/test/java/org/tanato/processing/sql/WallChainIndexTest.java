@@ -0,0 +1,74 @@
+/* 
+ * TANATO  is a library dedicated to the modelling of water pathways based on 
+ * triangulate irregular network. TANATO takes into account anthropogenic and 
+ * natural artifacts to evaluate their impacts on the watershed response. 
+ * It ables to compute watershed, main slope directions and water flow pathways.
+ * 
+ * This library has been originally created  by Erwan Bocher during his thesis 
+ * “Impacts des activités humaines sur le parcours des écoulements de surface dans 
+ * un bassin versant bocager : essai de modélisation spatiale. Application au 
+ * Bassin versant du Jaudy-Guindy-Bizien (France)”. It has been funded by the 
+ * Bassin versant du Jaudy-Guindy-Bizien and Syndicat d’Eau du Trégor.
+ * 
+ * The new version is developed at French IRSTV institut as part of the 
+ * AvuPur project, funded by the French Agence Nationale de la Recherche 
+ * (ANR) under contract ANR-07-VULN-01.
+ * 
+ * TANATO is distributed under GPL 3 license. It is produced by the "Atelier SIG" team of
+ * the IRSTV Institute <http://www.irstv.cnrs.fr/> CNRS FR 2488.
+ * Copyright (C) 2010 Erwan BOCHER, Alexis GUEGANNO, Jean-Yves MARTIN
+ * Copyright (C) 2011 Erwan BOCHER, , Alexis GUEGANNO, Jean-Yves MARTIN
+ * 
+ * TANATO is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * TANATO is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * TANATO. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For more information, please consult: <http://trac.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.tanato.processing.sql;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author alexis
+ */
+public class WallChainIndexTest extends TestCase {
+
+        /**
+         * On the left side, the droplet follows the wall 0 -> 1 -> 2. On the
+         * right side, it leaves the wall after the edge 1.
+         */
+        public void testSides() {
+                WallChainIndex walls = new WallChainIndex(4);
+                walls.set(0, WallChainIndex.LEFT, 10, 100, 1);
+                walls.set(0, WallChainIndex.RIGHT, 10, 101, 1);
+                walls.set(1, WallChainIndex.LEFT, 11, 102, 2);
+                walls.set(1, WallChainIndex.RIGHT, 11, 103, WallChainIndex.NO_ELEMENT);
+                walls.set(2, WallChainIndex.LEFT, 12, 104, WallChainIndex.NO_ELEMENT);
+                walls.set(2, WallChainIndex.RIGHT, 12, WallChainIndex.NO_ELEMENT, WallChainIndex.NO_ELEMENT);
+                walls.finish(0);
+                assertEquals(3, walls.getWallEdgeCount());
+                assertTrue(walls.isWallEdge(2));
+                assertFalse(walls.isWallEdge(3));
+                assertEquals(11, walls.getLowPoint(1));
+                assertEquals(1, walls.getNextEdge(0, WallChainIndex.RIGHT));
+                assertEquals(WallChainIndex.NO_ELEMENT, walls.getNextEdge(1, WallChainIndex.RIGHT));
+                assertEquals(2, walls.getExitEdge(0, WallChainIndex.LEFT));
+                assertEquals(1, walls.getExitEdge(0, WallChainIndex.RIGHT));
+                assertEquals(3, walls.getChainLength(0, WallChainIndex.LEFT));
+                assertEquals(2, walls.getChainLength(0, WallChainIndex.RIGHT));
+                assertEquals(103, walls.getSideTriangle(1, WallChainIndex.RIGHT));
+                assertEquals(WallChainIndex.NO_ELEMENT, walls.getSideTriangle(2, WallChainIndex.RIGHT));
+        }
+}
@@ -67,6 +67,21 @@ public class TestTINUtils extends TestCase {
 
         }
 
+        public void testDTriangleProportionFromFlows() throws Exception {
+
+                //The steepest vector only goes to the edge
+                DEdge edge = new DEdge(new DPoint(0, 0, 0), new DPoint(10, 0, 0));
+                DTriangle dTriangle = new DTriangle(new DPoint(0, 0, 0), new DPoint(10, 0, 0), new DPoint(5, 5, 10));
+                assertTrue(TINUtils.getProportion(dTriangle, edge, true, 1) == 1);
+                assertTrue(TINUtils.getProportion(dTriangle, edge, false, 1) == 0);
+
+                //The steepest vector goes to two edges, the triangle is used
+                edge = new DEdge(new DPoint(10, 20, 20), new DPoint(5, 0, 0));
+                dTriangle = new DTriangle(new DPoint(0, 5, 10), new DPoint(10, 20, 20), new DPoint(5, 0, 0));
+                assertEquals(TINUtils.getProportion(dTriangle, edge, true, 2), TINUtils.getProportion(dTriangle, edge), 0.0001);
+
+        }
+
         public void testDTriangleRidgeLine() throws Exception {
 
                 //The steepest vector point to the edge and interects it